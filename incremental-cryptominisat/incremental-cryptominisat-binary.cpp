@@ -38,9 +38,10 @@ int main(int argc, const char* argv[]) {
         std::cout << " * Add variables: 1 <number of new variables>" << std::endl;
         std::cout << " * Solve:         2 <time limit in seconds>" << std::endl;
         std::cout << " * Terminate:     3" << std::endl;
+        std::cout << " * Solve under assumptions: 4 <time limit in seconds> <assumptions terminated by 0>" << std::endl;
         std::cout << "As well as output: " << std::endl;
         std::cout << " * SAT:     0 <assignment terminated by 0>" << std::endl;
-        std::cout << " * UNSAT:   1" << std::endl;
+        std::cout << " * UNSAT:   1 (under assumptions, the solver can still be used)" << std::endl;
         std::cout << " * UNKNOWN: 2" << std::endl;
         return 1;
     }
@@ -53,10 +54,21 @@ int main(int argc, const char* argv[]) {
     
     while (true) {
         int code = read();
-        if (code == 2) { // solve
+        if (code == 2 || code == 4) { // solve, possibly under assumptions
             int time_limit = read();
+            std::vector<Lit> assumptions;
+            if (code == 4) {
+                while (true) {
+                    int literal = read();
+                    if (literal == 0) {
+                        break;
+                    }
+                    assumptions.push_back(Lit(abs(literal) - 1, literal < 0));
+                }
+            }
+            interrupted = false;
             alarm(time_limit);
-            lbool res = solver.solve();
+            lbool res = solver.solve(&assumptions);
             alarm(0);
             if (interrupted) {
                 write(2); // unknown
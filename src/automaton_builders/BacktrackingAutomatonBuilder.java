@@ -18,10 +18,18 @@ import structures.mealy.MealyNode;
 import structures.mealy.MealyTransition;
 import structures.mealy.ScenarioTree;
 import verification.ltl.grammar.LtlNode;
+import verification.verifier.LivenessPrefilter;
 import verification.verifier.Verifier;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -33,13 +41,27 @@ public class BacktrackingAutomatonBuilder {
         protected final long finishTime;
         protected final MealyAutomaton automaton;
         protected final int[] coloring;
-        protected final Verifier verifier;
+        // in the parallel search, set by the task which explores the state
+        protected Verifier verifier;
+        // skips LTL checks of the automaton while its live part is unchanged, null if there is no verifier
+        private LivenessPrefilter livenessPrefilter;
         protected CompletenessType completenessType;
 
         /*
          * auxiliary list for search space reduction
          */
         protected final int[] incomingTransitionNumbers;
+
+        // null if nogoods are not learnt
+        private NogoodDatabase nogoods;
+        // for each node of the scenario tree, the transition to it (null for the root and without a tree)
+        protected MealyTransition[] treeParents;
+
+        // null in the sequential search
+        private ParallelSearch search;
+        // the number of destination choices made before the state was forked
+        private int depth;
+        private final List<ForkJoinTask<Void>> forkedTasks = new ArrayList<>();
         
         public TraverseState(int colorSize, List<String> events, List<String> actions, long finishTime,
                 int[] coloring, Verifier verifier, CompletenessType completenessType) {
@@ -48,20 +70,117 @@ public class BacktrackingAutomatonBuilder {
             this.actions = actions;
             this.finishTime = finishTime;
             this.coloring = coloring;
-            this.verifier = verifier;
             this.completenessType = completenessType;
             automaton = new MealyAutomaton(colorSize);
             incomingTransitionNumbers = new int[colorSize];
+            setVerifier(verifier);
+        }
+
+        protected void setVerifier(Verifier verifier) {
+            this.verifier = verifier;
+            livenessPrefilter = verifier == null ? null : new LivenessPrefilter(verifier, automaton);
+        }
+
+        /*
+         * Copy of the partial automaton and the search state, without a verifier.
+         */
+        protected TraverseState(TraverseState other) {
+            colorSize = other.colorSize;
+            events = other.events;
+            actions = other.actions;
+            finishTime = other.finishTime;
+            coloring = other.coloring == null ? null : other.coloring.clone();
+            completenessType = other.completenessType;
+            automaton = new MealyAutomaton(colorSize);
+            for (MealyNode state : other.automaton.states()) {
+                for (MealyTransition t : state.transitions()) {
+                    automaton.state(state.number()).addTransition(t.event(), t.expr(), t.actions(),
+                            automaton.state(t.dst().number()));
+                }
+            }
+            incomingTransitionNumbers = other.incomingTransitionNumbers.clone();
+            nogoods = other.nogoods;
+            treeParents = other.treeParents;
+            search = other.search;
+            depth = other.depth + 1;
         }
+
+        protected abstract TraverseState copy();
         
-        protected void checkTimeLimit() throws TimeLimitExceededException {
+        protected void checkTimeLimit() throws AutomatonFoundException, TimeLimitExceededException {
             if (System.currentTimeMillis() > finishTime) {
                 throw new TimeLimitExceededException();
             }
+            if (search != null) {
+                search.checkStopped();
+            }
+        }
+
+        /*
+         * Continues the search after a destination choice: recursively, or, in the top levels of the parallel
+         * search, in a forked task with a copy of the state.
+         */
+        protected void descend() throws AutomatonFoundException, TimeLimitExceededException {
+            if (search != null && depth < search.splitDepth) {
+                forkedTasks.add(search.fork(copy()));
+            } else {
+                backtracking();
+            }
         }
         
         protected boolean verify() {
-            return verifier.verify(automaton);
+            if (livenessPrefilter.verify()) {
+                return true;
+            }
+            if (nogoods != null) {
+                livenessPrefilter.counterexampleTransitions().ifPresent(nogoods::addLtlConflict);
+            }
+            return false;
+        }
+
+        /*
+         * Whether the automaton contains a known nogood with the just added transitions.
+         */
+        protected boolean pruned(MealyNode stateFrom, Collection<MealyTransition> added) {
+            return nogoods != null && nogoods.violated(automaton, stateFrom, added);
+        }
+
+        /*
+         * The transition of the automaton which corresponds to a colored transition of the scenario tree.
+         */
+        protected MealyTransition automatonTransition(MealyTransition treeTransition) {
+            return automaton.state(coloring[treeTransition.src().number()])
+                    .transition(treeTransition.event(), treeTransition.expr());
+        }
+
+        /*
+         * Called when the scenario path to treeNode leads to a state where the automaton transition conflicting
+         * has other actions than required by the scenario.
+         */
+        protected void recordScenarioConflict(MealyNode treeNode, MealyTransition conflicting) {
+            if (nogoods == null) {
+                return;
+            }
+            final List<MealyTransition> path = new ArrayList<>();
+            for (MealyTransition t = treeParents[treeNode.number()]; t != null; t = treeParents[t.src().number()]) {
+                final MealyTransition autoT = automatonTransition(t);
+                if (autoT == null) {
+                    throw new AssertionError();
+                }
+                path.add(autoT);
+            }
+            Collections.reverse(path);
+            nogoods.addScenarioConflict(path, conflicting);
+        }
+
+        protected void addTransition(MealyNode stateFrom, MealyTransition t) {
+            automaton.addTransition(stateFrom, t);
+            livenessPrefilter.transitionAdded(t);
+        }
+
+        protected void removeTransition(MealyNode stateFrom, MealyTransition t) {
+            stateFrom.removeTransition(t);
+            livenessPrefilter.transitionRemoved(t);
         }
         
         public abstract void backtracking() throws AutomatonFoundException, TimeLimitExceededException;
@@ -75,6 +194,17 @@ public class BacktrackingAutomatonBuilder {
             super(colorSize, events, actions, finishTime, new int[tree.nodeCount()],
                     verifier, completenessType);
             frontier = new ArrayList<>(tree.root().transitions());
+            treeParents = treeParents(tree);
+        }
+
+        private OrdinaryTraverseState(OrdinaryTraverseState other) {
+            super(other);
+            frontier = other.frontier;
+        }
+
+        @Override
+        protected TraverseState copy() {
+            return new OrdinaryTraverseState(this);
         }
         
         /*
@@ -96,6 +226,7 @@ public class BacktrackingAutomatonBuilder {
                     currentFrontier.addAll(t.dst().transitions());
                     coloring[t.dst().number()] = autoT.dst().number();
                 } else {
+                    recordScenarioConflict(t.src(), autoT);
                     return false;
                 }
             }
@@ -122,21 +253,21 @@ public class BacktrackingAutomatonBuilder {
                 
                 MealyTransition autoT = new MealyTransition(stateFrom,
                         automaton.state(dst), event, expression, stringActions);
-                automaton.addTransition(stateFrom, autoT);
+                addTransition(stateFrom, autoT);
                 incomingTransitionNumbers[dst]++;
                 final List<MealyTransition> frontierBackup = frontier;
                 
-                if (findNewFrontier() && verify()) {
+                if (!pruned(stateFrom, Collections.singletonList(autoT)) && findNewFrontier() && verify()) {
                     if (frontier.isEmpty()) {
                         new AutomatonCompleter(verifier, automaton, events,
                                 actions, finishTime, completenessType).ensureCompleteness();
                     } else {
-                        backtracking();
+                        descend();
                     }
                 }
                 
                 frontier = frontierBackup;
-                stateFrom.removeTransition(autoT);
+                removeTransition(stateFrom, autoT);
                 incomingTransitionNumbers[dst]--;
             }
         }
@@ -150,6 +281,23 @@ public class BacktrackingAutomatonBuilder {
             super(colorSize, events, actions, finishTime, new int[tree.nodeCount()],
                     verifier, completenessType);
             frontier = new ArrayList<>(groupByDst(tree.root().transitions()));
+            treeParents = treeParents(tree);
+        }
+
+        @Override
+        protected MealyTransition automatonTransition(MealyTransition treeTransition) {
+            return automaton.state(coloring[treeTransition.src().number()])
+                    .transition(treeTransition.event(), tautology());
+        }
+
+        private TraverseStateWithMultiEdges(TraverseStateWithMultiEdges other) {
+            super(other);
+            frontier = other.frontier;
+        }
+
+        @Override
+        protected TraverseState copy() {
+            return new TraverseStateWithMultiEdges(this);
         }
         
         /*
@@ -170,6 +318,7 @@ public class BacktrackingAutomatonBuilder {
                     final MealyTransition autoT = automaton.state(stateFrom)
                             .transition(t.event(), tautology());
                     if (autoT != null && !autoT.actions().equals(t.actions())) {
+                        recordScenarioConflict(t.src(), autoT);
                         return false;
                     }
                     wasNull |= autoT == null;
@@ -216,23 +365,26 @@ public class BacktrackingAutomatonBuilder {
                     if (automaton.state(stateFrom.number()).hasTransition(t.event(), tautology())) {
                         throw new AssertionError();
                     }
-                    automaton.addTransition(stateFrom, autoT);
+                    addTransition(stateFrom, autoT);
                 }
                 incomingTransitionNumbers[dst]++;
                 
                 final List<List<MealyTransition>> frontierBackup = frontier;
                 
-                if (findNewFrontier() && verify()) {
+                if (!pruned(stateFrom, addedTransitions) && findNewFrontier() && verify()) {
                     if (frontier.isEmpty()) {
                         new AutomatonCompleter(verifier, automaton, events,
                                 actions, finishTime, completenessType).ensureCompleteness();
                     } else {
-                        backtracking();
+                        descend();
                     }
                 }
                 
                 frontier = frontierBackup;
-                addedTransitions.forEach(stateFrom::removeTransition);
+                // in the reverse order, so that the liveness pre-filter recognizes undone additions
+                for (int i = addedTransitions.size() - 1; i >= 0; i--) {
+                    removeTransition(stateFrom, addedTransitions.get(i));
+                }
                 incomingTransitionNumbers[dst]--;
             }
         }
@@ -250,6 +402,18 @@ public class BacktrackingAutomatonBuilder {
             this.eventNames = eventNames;
             this.eventExtensions = eventExtensions(events, eventNames, variables);
         }
+
+        private TraverseStateWithCoverageAndWeakCompleteness(TraverseStateWithCoverageAndWeakCompleteness other) {
+            super(other);
+            frontier = other.frontier;
+            eventNames = other.eventNames;
+            eventExtensions = other.eventExtensions;
+        }
+
+        @Override
+        protected TraverseState copy() {
+            return new TraverseStateWithCoverageAndWeakCompleteness(this);
+        }
         
         /*
          * Returns whether the automaton is consistent with scenarios.
@@ -326,7 +490,7 @@ public class BacktrackingAutomatonBuilder {
                             throw new AutomatonFoundException(automaton);
                         } // else do nothing
                     } else {
-                        backtracking();
+                        descend();
                     }
                 }
                 
@@ -398,6 +562,27 @@ public class BacktrackingAutomatonBuilder {
             this.scenarios = scenarios;
         }
 
+        private TraverseStateWithErrors(TraverseStateWithErrors other) {
+            super(other);
+            // frontier elements refer to the coloring of their state
+            for (FrontierElement elem : other.frontier) {
+                frontier.add(new FrontierElement(elem.scenarioIndex, elem.scenarioPosition));
+            }
+            eventNames = other.eventNames;
+            eventExtensions = other.eventExtensions;
+            errorNumber = other.errorNumber;
+            coloring = new int[other.coloring.length][];
+            for (int i = 0; i < coloring.length; i++) {
+                coloring[i] = other.coloring[i].clone();
+            }
+            scenarios = other.scenarios;
+        }
+
+        @Override
+        protected TraverseState copy() {
+            return new TraverseStateWithErrors(this);
+        }
+
         /*
          * Returns whether the automaton is consistent with scenarios (assuming there is a number of possible errors).
          */
@@ -537,7 +722,7 @@ public class BacktrackingAutomatonBuilder {
                             throw new AutomatonFoundException(automaton);
                         } // else do nothing
                     } else {
-                        backtracking();
+                        descend();
                     }
                 }
                 
@@ -548,6 +733,134 @@ public class BacktrackingAutomatonBuilder {
         }
     }
     
+    /*
+     * Parallel version of the search: the states after the first splitDepth destination choices are explored
+     * by separate fork-join tasks, each with its own copy of the partial automaton and its own verifier.
+     * Idle threads steal tasks from the busy ones. Once some task finds an automaton, the other tasks stop
+     * at their next time limit check. The found automaton may differ from the one of the sequential search.
+     */
+    private static class ParallelSearch {
+        // at least this number of tasks per thread if the search tree is full
+        private static final int TASKS_PER_THREAD = 16;
+
+        private final int threads;
+        private final int splitDepth;
+        private final AtomicReference<MealyAutomaton> found = new AtomicReference<>();
+        private volatile boolean timeLimitExceeded;
+        private final AtomicInteger tasks = new AtomicInteger();
+
+        // verifiers are not thread-safe, so each running task takes its own one
+        private final boolean useVerifier;
+        private final Supplier<Verifier> verifierSupplier;
+        private final Queue<Verifier> verifiers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger verifierCount = new AtomicInteger();
+        private final AtomicInteger checks = new AtomicInteger();
+        private final AtomicInteger reusedVerdicts = new AtomicInteger();
+
+        ParallelSearch(int threads, int colorSize, Verifier verifier, Supplier<Verifier> verifierSupplier) {
+            this.threads = threads;
+            int depth = 0;
+            for (long leaves = 1; colorSize > 1 && leaves < (long) TASKS_PER_THREAD * threads; leaves *= colorSize) {
+                depth++;
+            }
+            splitDepth = depth;
+            useVerifier = verifier != null;
+            this.verifierSupplier = verifierSupplier;
+            if (useVerifier) {
+                verifiers.add(verifier);
+                verifierCount.incrementAndGet();
+            }
+        }
+
+        void checkStopped() throws AutomatonFoundException, TimeLimitExceededException {
+            final MealyAutomaton automaton = found.get();
+            if (automaton != null) {
+                throw new AutomatonFoundException(automaton);
+            } else if (timeLimitExceeded) {
+                throw new TimeLimitExceededException();
+            }
+        }
+
+        ForkJoinTask<Void> fork(TraverseState state) {
+            tasks.incrementAndGet();
+            return new Task(state).fork();
+        }
+
+        private Verifier takeVerifier() {
+            if (!useVerifier) {
+                return null;
+            }
+            final Verifier verifier = verifiers.poll();
+            if (verifier != null) {
+                return verifier;
+            }
+            verifierCount.incrementAndGet();
+            synchronized (this) {
+                return verifierSupplier.get();
+            }
+        }
+
+        private class Task extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final TraverseState state;
+
+            Task(TraverseState state) {
+                this.state = state;
+            }
+
+            @Override
+            protected void compute() {
+                state.setVerifier(takeVerifier());
+                try {
+                    state.backtracking();
+                } catch (AutomatonFoundException e) {
+                    found.compareAndSet(null, e.automaton);
+                } catch (TimeLimitExceededException e) {
+                    timeLimitExceeded = true;
+                } finally {
+                    if (state.verifier != null) {
+                        verifiers.add(state.verifier);
+                        checks.addAndGet(state.livenessPrefilter.checks());
+                        reusedVerdicts.addAndGet(state.livenessPrefilter.reusedVerdicts());
+                        state.setVerifier(null);
+                    }
+                }
+                // the verifier is released before joining, since the thread may run other tasks meanwhile
+                state.forkedTasks.forEach(ForkJoinTask::join);
+            }
+        }
+
+        void run(Logger logger, TraverseState root) throws AutomatonFoundException, TimeLimitExceededException {
+            root.search = this;
+            root.depth = 0;
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                tasks.incrementAndGet();
+                pool.invoke(new Task(root));
+            } finally {
+                pool.shutdownNow();
+            }
+            logger.info("PARALLEL BACKTRACKING: " + threads + " THREADS, SPLIT DEPTH " + splitDepth + ", "
+                    + tasks.get() + " TASKS, " + verifierCount.get() + " VERIFIERS");
+            if (useVerifier) {
+                logVerificationStatistics(logger, checks.get(), reusedVerdicts.get());
+            }
+            checkStopped();
+        }
+    }
+    
+    private static void logNogoodStatistics(Logger logger, TraverseState state) {
+        if (state.nogoods != null) {
+            logger.info("BACKTRACKING NOGOODS: " + state.nogoods);
+        }
+    }
+    
+    private static void logVerificationStatistics(Logger logger, int checks, int reusedVerdicts) {
+        logger.info("BACKTRACKING LIVENESS PRE-FILTER: " + checks + " FULL LTL CHECKS, " + reusedVerdicts
+                + " CHECKS SKIPPED FOR UNCHANGED LIVE PARTS");
+    }
+    
     private static Map<String, List<String>> eventExtensions(List<String> events, List<String> eventNames, int variables) {
         final Map<String, List<String>> eventExtensions = new HashMap<>();
         for (String eventName : eventNames) {
@@ -582,6 +895,19 @@ public class BacktrackingAutomatonBuilder {
         return true;
     }
     
+    private static MealyTransition[] treeParents(ScenarioTree tree) {
+        final MealyTransition[] parents = new MealyTransition[tree.nodeCount()];
+        final Deque<MealyNode> stack = new ArrayDeque<>();
+        stack.push(tree.root());
+        while (!stack.isEmpty()) {
+            for (MealyTransition t : stack.pop().transitions()) {
+                parents[t.dst().number()] = t;
+                stack.push(t.dst());
+            }
+        }
+        return parents;
+    }
+    
     /*
      * For multi-edges obtained in the case of variables.
      */
@@ -598,34 +924,61 @@ public class BacktrackingAutomatonBuilder {
         return transitionGroups.values();
     }
     
+    /*
+     * With threads > 1, the search is parallel (see ParallelSearch), and verifierSupplier creates
+     * verifiers equivalent to the given one for additional threads.
+     * With nogoodLearning, conflicts with scenarios and LTL counterexamples are recorded as nogoods
+     * (see NogoodDatabase), and branches with known nogoods are pruned without checks.
+     */
     public static Optional<MealyAutomaton> build(Logger logger, ScenarioTree tree, int size,
                                                  List<LtlNode> formulae, List<String> events, List<String> actions, Verifier verifier,
                                                  long finishTime, CompletenessType completenessType, int variables,
                                                  boolean ensureCoverageAndWeakCompleteness, List<String> eventNames,
-                                                 int errorNumber, List<StringScenario> scenarios) throws IOException {
+                                                 int errorNumber, List<StringScenario> scenarios,
+                                                 int threads, Supplier<Verifier> verifierSupplier,
+                                                 boolean nogoodLearning) throws IOException {
+        final TraverseState state;
+        if (errorNumber >= 0) {
+            // for Vladimir's comparison
+            state = new TraverseStateWithErrors(scenarios, size, finishTime, events, eventNames,
+                    variables, errorNumber);
+        } else if (ensureCoverageAndWeakCompleteness) {
+            // for Vladimir's comparison
+            state = new TraverseStateWithCoverageAndWeakCompleteness(tree, size, finishTime,
+                    events, eventNames, variables);
+        } else if (variables == 0) {
+            state = new OrdinaryTraverseState(tree, verifier, size, finishTime, events, actions,
+                    completenessType);
+        } else {
+            // for Daniil's instances
+            state = new TraverseStateWithMultiEdges(tree, verifier, size, finishTime, events, actions,
+                    completenessType);
+        }
+        if (nogoodLearning && state.verifier != null) {
+            state.nogoods = new NogoodDatabase();
+        }
         try {
-            if (errorNumber >= 0) {
-                // for Vladimir's comparison
-                new TraverseStateWithErrors(scenarios, size, finishTime, events, eventNames,
-                        variables, errorNumber).backtracking();
-            } else if (ensureCoverageAndWeakCompleteness) {
-                // for Vladimir's comparison
-                new TraverseStateWithCoverageAndWeakCompleteness(tree, size, finishTime,
-                        events, eventNames, variables).backtracking();
-            } else if (variables == 0) {
-                new OrdinaryTraverseState(tree, verifier, size, finishTime, events, actions,
-                        completenessType).backtracking();
+            if (threads > 1) {
+                new ParallelSearch(threads, size, state.verifier, verifierSupplier).run(logger, state);
             } else {
-                // for Daniil's instances
-                new TraverseStateWithMultiEdges(tree, verifier, size, finishTime, events, actions,
-                        completenessType).backtracking();
+                try {
+                    state.backtracking();
+                } finally {
+                    if (state.livenessPrefilter != null) {
+                        logVerificationStatistics(logger, state.livenessPrefilter.checks(),
+                                state.livenessPrefilter.reusedVerdicts());
+                    }
+                }
             }
         } catch (AutomatonFoundException e) {
+            logNogoodStatistics(logger, state);
             return Optional.of(e.automaton);
         } catch (TimeLimitExceededException e) {
+            logNogoodStatistics(logger, state);
             logger.info("TOTAL TIME LIMIT EXCEEDED, ANSWER IS UNKNOWN.");
             return Optional.empty();
         }
+        logNogoodStatistics(logger, state);
         logger.info(new SolverResult(SolverResults.UNSAT).toString());
         return Optional.empty();
     }
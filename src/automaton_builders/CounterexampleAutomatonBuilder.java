@@ -10,6 +10,7 @@ import bnf_formulae.BinaryOperations;
 import bnf_formulae.BooleanFormula;
 import bnf_formulae.BooleanFormula.SolveAsSatResult;
 import bnf_formulae.FormulaList;
+import bnf_formulae.SynthesisContext;
 import bool.MyBooleanExpression;
 import exception.AutomatonFoundException;
 import exception.TimeLimitExceededException;
@@ -104,7 +105,7 @@ public class CounterexampleAutomatonBuilder extends ScenarioAndLtlAutomatonBuild
                 diffConstraints.stream().forEach(negationList::add);
                 final String negationFormula = negationList.assemble().simplify().toLimbooleString();
                 final List<String> negativeDimacsConstraints = BooleanFormula.extendDimacs(negationFormula,
-                        logger, "_tmp.incremental.dimacs", expandableFormula.info());
+                        logger, SynthesisContext.current().tmpFilename("incremental.dimacs"), expandableFormula.info());
                 expandableFormula.addConstraints(negativeDimacsConstraints);
             }
             previousConstraints.addAll(negationConstraints);
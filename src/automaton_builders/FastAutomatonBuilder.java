@@ -8,13 +8,16 @@ import algorithms.AutomatonCompleter.CompletenessType;
 import bnf_formulae.BinaryOperations;
 import bnf_formulae.BooleanVariable;
 import bnf_formulae.FormulaList;
+import bnf_formulae.SynthesisContext;
+import bnf_formulae.VariableFamily;
 import bool.MyBooleanExpression;
 import formula_builders.MealyFormulaBuilder;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import sat_solving.Assignment;
-import sat_solving.SatSolver;
+import sat_solving.ClauseBuffer;
 import sat_solving.SolverInterface;
+import sat_solving.SolverOptions;
 import sat_solving.SolverResult;
 import sat_solving.SolverResult.SolverResults;
 import scenario.StringActions;
@@ -38,41 +41,75 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
             Logger logger, List<Assignment> ass, ScenarioTree tree, int colorSize,
             boolean complete, CompletenessType completenessType,
             List<String> actionList, List<String> eventList) {
+        return constructAutomatonFromAssignment(logger, ass, tree, colorSize, colorSize, complete,
+                completenessType, actionList, eventList);
+    }
+
+    /*
+     * The same for a formula built for formulaColorSize colors, of which only the first colorSize are enabled.
+     */
+    public static Pair<MealyAutomaton, List<BooleanVariable>> constructAutomatonFromAssignment(
+            Logger logger, List<Assignment> ass, ScenarioTree tree, int colorSize, int formulaColorSize,
+            boolean complete, CompletenessType completenessType,
+            List<String> actionList, List<String> eventList) {
         final List<BooleanVariable> filteredYVars = new ArrayList<>();
         final int[] nodeColors = new int[tree.nodeCount()];
+        // for a compact tree, a node may have several colors
+        final List<List<Integer>> dagNodeColors = new ArrayList<>();
+        if (tree.isDag()) {
+            for (int i = 0; i < tree.nodeCount(); i++) {
+                dagNodeColors.add(new ArrayList<>());
+            }
+        }
+        final SynthesisContext context = SynthesisContext.current();
+        final VariableFamily x = context.family("x", formulaColorSize);
+        final VariableFamily y = context.family("y", formulaColorSize, eventList.size());
+        final VariableFamily z = context.family("z", actionList.size(), eventList.size());
+        // z[from][event][action]
+        final boolean[][][] zValues = new boolean[colorSize][eventList.size()][actionList.size()];
+        final List<Assignment> trueYAssignments = new ArrayList<>();
         
-        ass.stream()
-                .filter(a -> a.value && a.var.name.startsWith("x_"))
-                .forEach(a -> {
-                    String[] tokens = a.var.name.split("_");
-                    assert tokens.length == 3;
-                    final int node = Integer.parseInt(tokens[1]);
-                    final int color = Integer.parseInt(tokens[2]);
-                    nodeColors[node] = color;
-                });
+        for (Assignment a : ass) {
+            if (!a.value) {
+                continue;
+            }
+            if (x.contains(a.var)) {
+                nodeColors[x.index(a.var, 0)] = x.index(a.var, 1);
+                if (tree.isDag()) {
+                    dagNodeColors.get(x.index(a.var, 0)).add(x.index(a.var, 1));
+                }
+            } else if (y.contains(a.var)) {
+                if (y.index(a.var, 0) < colorSize) {
+                    trueYAssignments.add(a);
+                }
+            } else if (z.contains(a.var) && z.index(a.var, 0) < colorSize) {
+                zValues[z.index(a.var, 0)][z.index(a.var, 2)][z.index(a.var, 1)] = true;
+            }
+        }
         // add transitions from scenarios
         final MealyAutomaton ans = new MealyAutomaton(colorSize);
-        for (int i = 0; i < tree.nodeCount(); i++) {
-            final int color = nodeColors[i];
-            final MealyNode state = ans.state(color);
-            for (MealyTransition t : tree.nodes().get(i).transitions()) {
-                if (!state.hasTransition(t.event(), t.expr())) {
-                    int childColor = nodeColors[t.dst().number()];
-                    state.addTransition(t.event(), t.expr(),
-                        t.actions(), ans.state(childColor));
+        if (tree.isDag()) {
+            addDagScenarioTransitions(ans, tree, dagNodeColors, trueYAssignments, y, eventList);
+        } else {
+            for (int i = 0; i < tree.nodeCount(); i++) {
+                final int color = nodeColors[i];
+                final MealyNode state = ans.state(color);
+                for (MealyTransition t : tree.nodes().get(i).transitions()) {
+                    if (!state.hasTransition(t.event(), t.expr())) {
+                        int childColor = nodeColors[t.dst().number()];
+                        state.addTransition(t.event(), t.expr(),
+                            t.actions(), ans.state(childColor));
+                    }
                 }
             }
         }
 
         if (complete) {
             // add other transitions
-            for (Assignment a : ass.stream().filter(a_ -> a_.value && a_.var.name.startsWith("y_"))
-                    .collect(Collectors.toList())) {
-                String[] tokens = a.var.name.split("_");
-                assert tokens.length == 4;
-                final int from = Integer.parseInt(tokens[1]);
-                final int to = Integer.parseInt(tokens[2]);
-                final int eventIndex = Integer.parseInt(tokens[3]);
+            for (Assignment a : trueYAssignments) {
+                final int from = y.index(a.var, 0);
+                final int to = y.index(a.var, 1);
+                final int eventIndex = y.index(a.var, 2);
                 final String event = eventList.get(eventIndex);
     
                 MealyNode state = ans.state(from);
@@ -83,10 +120,9 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                 
                 // include transitions not from scenarios
                 final List<String> properUniqueActions = new ArrayList<>();
-                for (Assignment az : ass) {
-                    if (az.value && az.var.name.startsWith("z_" + from + "_")
-                            && az.var.name.endsWith("_" + eventIndex)) {
-                        properUniqueActions.add(actionList.get(Integer.parseInt(az.var.name.split("_")[2])));
+                for (int ai = 0; ai < actionList.size(); ai++) {
+                    if (zValues[from][eventIndex][ai]) {
+                        properUniqueActions.add(actionList.get(ai));
                     }
                 }
                 Collections.sort(properUniqueActions);
@@ -124,6 +160,30 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
         return Pair.of(ans, filteredYVars);
     }
     
+    /*
+     * For a compact tree, the colors of a node are the states in which it is visited,
+     * and the targets of its transitions are given by y (see MealyFormulaBuilder.dagTransitionConstraints()).
+     */
+    private static void addDagScenarioTransitions(MealyAutomaton ans, ScenarioTree tree,
+            List<List<Integer>> nodeColors, List<Assignment> trueYAssignments, VariableFamily y,
+            List<String> eventList) {
+        final int[][] targets = new int[ans.stateCount()][eventList.size()];
+        for (Assignment a : trueYAssignments) {
+            targets[y.index(a.var, 0)][y.index(a.var, 2)] = y.index(a.var, 1);
+        }
+        for (int i = 0; i < tree.nodeCount(); i++) {
+            for (int color : nodeColors.get(i)) {
+                final MealyNode state = ans.state(color);
+                for (MealyTransition t : tree.nodes().get(i).transitions()) {
+                    if (!state.hasTransition(t.event(), t.expr())) {
+                        final int childColor = targets[color][eventList.indexOf(t.event())];
+                        state.addTransition(t.event(), t.expr(), t.actions(), ans.state(childColor));
+                    }
+                }
+            }
+        }
+    }
+    
     protected static Optional<MealyAutomaton> reportResult(Logger logger, int iterations, Optional<MealyAutomaton> a) {
         logger.info("ITERATIONS: " + (iterations + 1));
         return a;
@@ -138,6 +198,8 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
             return null;
         }
         final List<String> additionalFormulae = new ArrayList<>();
+        final VariableFamily y = SynthesisContext.current().family("y", states, events.size());
+        final VariableFamily z = SynthesisContext.current().family("z", actions.size(), events.size());
         final String eventRegexStart = "(event|wasEvent)\\((ep\\.)?";
         final String actionRegexStart = "(action|wasAction)\\((co\\.)?";
         for (String formula : strFormulae) {
@@ -161,7 +223,7 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                     String constraint = formula;
                     final FormulaList options = new FormulaList(BinaryOperations.OR);
                     for (int j = 0; j < states; j++) {
-                        options.add(BooleanVariable.byName("y", i, j, ei).get());
+                        options.add(y.get(i, j, ei));
                     }
                     final String eRepl = options.assemble().toLimbooleString();
                     constraint = constraint.replaceAll(eventRegexStart + event + "\\)", eRepl);
@@ -172,7 +234,7 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                     }
                     for (int ai = 0; ai < actions.size(); ai++) {
                         final String action = actions.get(ai);
-                        final String acRepl = BooleanVariable.byName("z", i, ai, ei).get().toLimbooleString();
+                        final String acRepl = z.get(i, ai, ei).toLimbooleString();
                         constraint = constraint.replaceAll(actionRegexStart + action + "\\)", acRepl);
                     }
                     additionalFormulae.add(constraint);
@@ -193,8 +255,33 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                                                  List<String> strFormulae, List<String> events,
                                                  List<String> actions, Verifier verifier, long finishTime,
                                                  boolean complete, boolean bfsConstraints, boolean useGlobalTree,
-                                                 SatSolver solver) throws IOException {
+                                                 SolverOptions solver, int counterexampleBatch) throws IOException {
+        return build(logger, positiveTree, negativeTree, size, size, strFormulae, events, actions, verifier,
+                finishTime, complete, bfsConstraints, useGlobalTree, solver, counterexampleBatch)
+                .map(Pair::getRight);
+    }
+
+    /*
+     * Minimum size search in a single solver session: the formula is built for maxSize states,
+     * and smaller sizes are selected by assumptions (see FastFormulaBuilder.sizeAssumptions).
+     * If the formula is UNSAT for the current size, the size is increased, and the negative scenario tree
+     * and the solver state (including learnt clauses) are kept.
+     * counterexampleBatch is the maximum number of counterexamples added for each violated formula
+     * in a single iteration.
+     * Returns (minimum size, automaton) or Optional.empty().
+     */
+    public static Optional<Pair<Integer, MealyAutomaton>> build(Logger logger, ScenarioTree positiveTree,
+                                                 NegativeScenarioTree negativeTree, int minSize, int maxSize,
+                                                 List<String> strFormulae, List<String> events,
+                                                 List<String> actions, Verifier verifier, long finishTime,
+                                                 boolean complete, boolean bfsConstraints, boolean useGlobalTree,
+                                                 SolverOptions solver, int counterexampleBatch) throws IOException {
+        if (counterexampleBatch < 1) {
+            throw new IllegalArgumentException("The counterexample batch must be positive");
+        }
         deleteTrash();
+        final boolean variableSize = minSize < maxSize;
+        int size = minSize;
         
         final boolean[] ltlIsG = new boolean[strFormulae.size()];
         for (int i = 0; i < strFormulae.size(); i++) {
@@ -206,69 +293,90 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
         final NegativeScenarioTree globalTree = new NegativeScenarioTree();
         
         SolverInterface inf = null;
+        // the same builder for all iterations: only the new parts of the negative trees are encoded
+        final MealyFormulaBuilder builder = new MealyFormulaBuilder(maxSize, positiveTree,
+                negativeTree, globalTree, events, actions, complete, bfsConstraints, variableSize);
+        builder.createVars();
         
-        for (int iteration = 0; System.currentTimeMillis() < finishTime; iteration++) {
-            final MealyFormulaBuilder builder = new MealyFormulaBuilder(size, positiveTree,
-                    negativeTree, globalTree, events, actions, complete, bfsConstraints);
-            builder.createVars();
+        for (int iteration = 0; System.currentTimeMillis() < finishTime
+                && !Thread.currentThread().isInterrupted(); iteration++) {
             final int secondsLeft = timeLeftForSolver(finishTime);
             if (iteration == 0) {
-                final List<int[]> constraints = builder.positiveConstraints();
-                final String transSpec = transitionSpecification(strFormulae, size, events, actions);
+                final ClauseBuffer constraints = builder.positiveConstraints();
+                final String transSpec = transitionSpecification(strFormulae, maxSize, events, actions);
                 inf = solver.createInterface(constraints, transSpec, logger);
             }
             
             // SAT-solve
-            final SolverResult ass = inf.solve(builder.negativeConstraints(), secondsLeft);
+            final ClauseBuffer negativeConstraints = builder.negativeConstraints();
+            logger.info("NEW NEGATIVE CONSTRAINTS: " + negativeConstraints.size() + " CLAUSES");
+            final SolverResult ass = inf.solve(negativeConstraints, builder.sizeAssumptions(size), secondsLeft);
             logger.info(ass.type().toString());
-            if (ass.type() != SolverResults.SAT) {
-                return reportResult(logger, iteration, Optional.empty());
+            if (ass.type() == SolverResults.UNSAT && size < maxSize) {
+                size++;
+                logger.info("SIZE " + (size - 1) + " NOT FOUND, TRYING SIZE " + size);
+                continue;
+            } else if (ass.type() != SolverResults.SAT) {
+                inf.halt();
+                return reportSizedResult(logger, iteration, size, Optional.empty());
             }
 
             final MealyAutomaton automaton = constructAutomatonFromAssignment(logger, ass.list(),
-                    positiveTree, size, true,
+                    positiveTree, size, maxSize, true,
                     complete ? CompletenessType.NORMAL : CompletenessType.NO_DEAD_ENDS,
                     actions, events).getLeft();
 
             // verify
-            final List<Counterexample> counterexamples =
-                    verifier.verifyWithCounterexamplesWithNoDeadEndRemoval(automaton);
+            final List<List<Counterexample>> counterexamples =
+                    verifier.verifyWithCounterexampleBatchesWithNoDeadEndRemoval(automaton, counterexampleBatch);
+            logger.info("INCREMENTAL VERIFICATION: " + verifier.incrementalStatistics());
             
-            if (counterexamples.stream().allMatch(Counterexample::isEmpty)) {
+            if (counterexamples.stream().allMatch(List::isEmpty)) {
                 inf.halt();
-                return reportResult(logger, iteration, Optional.of(automaton));
+                return reportSizedResult(logger, iteration, size, Optional.of(automaton));
             } else if (useGlobalTree) {
-                final List<Counterexample> globalCounterexamples =
-                        globalVerifier.verifyWithCounterexamplesWithNoDeadEndRemoval(automaton);
+                final List<List<Counterexample>> globalCounterexamples = globalVerifier
+                        .verifyWithCounterexampleBatchesWithNoDeadEndRemoval(automaton, counterexampleBatch);
+                logger.info("INCREMENTAL GLOBAL VERIFICATION: " + globalVerifier.incrementalStatistics());
                 final Set<Counterexample> normalCEs = new LinkedHashSet<>();
                 final Set<Counterexample> globalCEs = new LinkedHashSet<>();
                 int globalIndex = 0;
                 for (int i = 0; i < counterexamples.size(); i++) {
-                    final Counterexample normalCE = counterexamples.get(i);
+                    final List<Counterexample> normalBatch = counterexamples.get(i);
                     if (ltlIsG[i]) {
-                        final Counterexample globalCE = globalCounterexamples.get(globalIndex++);
-                        if (!globalCE.isEmpty() && globalCE.loopLength == 0) {
-                            globalCEs.add(globalCE);
-                        } else if (!normalCE.isEmpty()) {
-                            normalCEs.add(normalCE);
+                        final List<Counterexample> globalBatch = globalCounterexamples.get(globalIndex++).stream()
+                                .filter(ce -> ce.loopLength == 0)
+                                .collect(Collectors.toList());
+                        if (!globalBatch.isEmpty()) {
+                            globalCEs.addAll(globalBatch);
+                        } else {
+                            normalCEs.addAll(normalBatch);
                         }
-                    } else if (!normalCE.isEmpty()) {
-                        normalCEs.add(normalCE);
+                    } else {
+                        normalCEs.addAll(normalBatch);
                     }
                 }
                 normalCEs.stream().forEach(ce -> addCounterexample(logger, ce, negativeTree));
                 globalCEs.stream().forEach(ce -> addCounterexample(logger, ce, globalTree));
             } else {
                 counterexamples.stream()
-                        .filter(ce -> !ce.isEmpty()).distinct()
+                        .flatMap(List::stream).distinct()
                         .forEach(ce -> addCounterexample(logger, ce, negativeTree));
             }
         }
-        inf.halt();
-        logger.info("TOTAL TIME LIMIT EXCEEDED, ANSWER IS UNKNOWN");
+        if (inf != null) {
+            inf.halt();
+        }
+        logger.info(Thread.currentThread().isInterrupted()
+                ? "INTERRUPTED, ANSWER IS UNKNOWN" : "TOTAL TIME LIMIT EXCEEDED, ANSWER IS UNKNOWN");
         return Optional.empty();
     }
 
+    private static Optional<Pair<Integer, MealyAutomaton>> reportSizedResult(Logger logger, int iterations,
+            int size, Optional<MealyAutomaton> a) {
+        return reportResult(logger, iterations, a).map(automaton -> Pair.of(size, automaton));
+    }
+
     protected static void addCounterexample(Logger logger, Counterexample counterexample,
                                             NegativeScenarioTree negativeForest) {
         final List<MyBooleanExpression> expr =
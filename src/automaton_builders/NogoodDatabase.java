@@ -0,0 +1,143 @@
+package automaton_builders;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import structures.mealy.MealyAutomaton;
+import structures.mealy.MealyNode;
+import structures.mealy.MealyTransition;
+
+/*
+ * Nogoods of the backtracking search: sets of transitions which cannot be all present in a found automaton,
+ * since they violate a scenario or an LTL formula. A nogood element requires a transition with the given source,
+ * event, guard and actions and, unless it is ANY_DST, with the given target.
+ * Nogoods are indexed by the keys (source, event, guard) of their elements, so that after a transition is added,
+ * only the nogoods with this transition are checked. Nogoods may be shared by concurrent searches.
+ */
+public class NogoodDatabase {
+    public static final int ANY_DST = -1;
+    private static final int MAX_NOGOODS = 100_000;
+
+    private static class Element {
+        final int src;
+        final String event;
+        final String expr;
+        final int dst;
+        final String actions;
+
+        Element(MealyTransition t, boolean anyDst) {
+            src = t.src().number();
+            event = t.event();
+            expr = t.expr().toString();
+            dst = anyDst ? ANY_DST : t.dst().number();
+            actions = t.actions().toString();
+        }
+
+        String key() {
+            return key(src, event, expr);
+        }
+
+        static String key(int src, String event, String expr) {
+            return src + " " + event + "[" + expr + "]";
+        }
+
+        boolean presentIn(MealyAutomaton automaton) {
+            for (MealyTransition t : automaton.state(src).transitions()) {
+                if (t.event().equals(event) && t.expr().toString().equals(expr)) {
+                    return (dst == ANY_DST || t.dst().number() == dst) && t.actions().toString().equals(actions);
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return key() + " -> " + (dst == ANY_DST ? "*" : dst) + " / " + actions;
+        }
+    }
+
+    private final Map<String, Queue<List<Element>>> index = new ConcurrentHashMap<>();
+    private final Set<String> known = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger scenarioNogoods = new AtomicInteger();
+    private final AtomicInteger ltlNogoods = new AtomicInteger();
+    private final AtomicLong prunedNodes = new AtomicLong();
+
+    /*
+     * transitions must be the transitions of the automaton (the target of the last one is ignored if lastAnyDst).
+     */
+    private void add(List<MealyTransition> transitions, boolean lastAnyDst, AtomicInteger counter) {
+        if (known.size() >= MAX_NOGOODS) {
+            return;
+        }
+        final List<Element> nogood = new ArrayList<>();
+        for (int i = 0; i < transitions.size(); i++) {
+            nogood.add(new Element(transitions.get(i), lastAnyDst && i == transitions.size() - 1));
+        }
+        final List<String> strings = new ArrayList<>();
+        nogood.forEach(e -> strings.add(e.toString()));
+        strings.sort(null);
+        if (!known.add(String.join("; ", strings))) {
+            return;
+        }
+        counter.incrementAndGet();
+        for (Element e : nogood) {
+            index.computeIfAbsent(e.key(), k -> new ConcurrentLinkedQueue<>()).add(nogood);
+        }
+    }
+
+    /*
+     * A scenario cannot be executed by an automaton with the transitions of the path to the state
+     * from which the last transition (of any target) has wrong actions.
+     */
+    public void addScenarioConflict(List<MealyTransition> path, MealyTransition conflicting) {
+        final List<MealyTransition> transitions = new ArrayList<>(path);
+        transitions.add(conflicting);
+        add(transitions, true, scenarioNogoods);
+    }
+
+    /*
+     * Transitions along an LTL counterexample.
+     */
+    public void addLtlConflict(List<MealyTransition> transitions) {
+        add(transitions, false, ltlNogoods);
+    }
+
+    /*
+     * Whether the automaton contains some nogood with one of the given just added transitions.
+     */
+    public boolean violated(MealyAutomaton automaton, MealyNode src, Collection<MealyTransition> added) {
+        for (MealyTransition t : added) {
+            final Queue<List<Element>> nogoods = index.get(Element.key(src.number(), t.event(),
+                    t.expr().toString()));
+            if (nogoods == null) {
+                continue;
+            }
+            for (List<Element> nogood : nogoods) {
+                if (nogood.stream().allMatch(e -> e.presentIn(automaton))) {
+                    prunedNodes.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d NOGOODS (%d FROM SCENARIOS, %d FROM LTL), %d NODES PRUNED",
+                scenarioNogoods.get() + ltlNogoods.get(), scenarioNogoods.get(), ltlNogoods.get(),
+                prunedNodes.get());
+    }
+}
@@ -0,0 +1,156 @@
+package automaton_builders;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import bnf_formulae.SynthesisContext;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/*
+ * Minimum size search: builders for several automaton sizes are run concurrently,
+ * each in its own isolated SynthesisContext. Once some size is found, builders for larger sizes are
+ * cancelled, and the search waits only for smaller sizes.
+ * A builder is cancelled by interrupting its thread and cancelling its context, which destroys
+ * the external solver processes the builder may be blocked on.
+ */
+public class ParallelSizeSearch {
+    // how long the search waits for cancelled builders to remove their temporary files
+    private static final int CANCELLATION_WAIT_MS = 1000;
+
+    public interface SizeTask<A> {
+        /*
+         * Called in a worker thread, in the isolated context of the size.
+         * Should prepare everything that cannot be shared between concurrent builders
+         * (negative scenario trees, verifiers) before running the builder.
+         */
+        Optional<A> build(int size, SynthesisContext context) throws IOException, ParseException;
+    }
+
+    /*
+     * Returns (minimum size, automaton) or Optional.empty() if no size in [minSize, maxSize] was found.
+     * If some size was not decided (e.g. due to the time limit), the result may be not minimal.
+     */
+    public static <A> Optional<Pair<Integer, A>> search(Logger logger, int minSize, int maxSize, int threads,
+            SizeTask<A> task) throws IOException, ParseException {
+        // daemon threads, since a cancelled builder may still be finishing when the search returns
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            final Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        final CompletionService<Pair<Integer, Optional<A>>> service = new ExecutorCompletionService<>(executor);
+        final TreeMap<Integer, Future<Pair<Integer, Optional<A>>>> running = new TreeMap<>();
+        // contexts of the running builders
+        final Map<Integer, SynthesisContext> contexts = new ConcurrentHashMap<>();
+        try {
+            for (int size = minSize; size <= maxSize; size++) {
+                final int finalSize = size;
+                running.put(size, service.submit(() -> {
+                    try (SynthesisContext context = SynthesisContext.isolated()) {
+                        final SynthesisContext.Scope scope = context.enter();
+                        contexts.put(finalSize, context);
+                        try {
+                            if (Thread.currentThread().isInterrupted()) {
+                                // cancelled before the context was registered
+                                context.cancel();
+                            }
+                            return Pair.of(finalSize, task.build(finalSize, context));
+                        } finally {
+                            contexts.remove(finalSize);
+                            scope.close();
+                        }
+                    }
+                }));
+            }
+            int bestSize = Integer.MAX_VALUE;
+            A best = null;
+            // wait until all sizes smaller than the best one are finished
+            while (!running.isEmpty() && running.firstKey() < bestSize) {
+                final Pair<Integer, Optional<A>> result;
+                try {
+                    result = service.take().get();
+                } catch (CancellationException e) {
+                    // a larger size, already removed
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    } else if (e.getCause() instanceof ParseException) {
+                        throw (ParseException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                final int size = result.getLeft();
+                running.remove(size);
+                if (size > bestSize) {
+                    // finished before it was cancelled
+                    continue;
+                }
+                if (result.getRight().isPresent()) {
+                    logger.info("SIZE " + size + " FOUND, CANCELLING LARGER SIZES");
+                    bestSize = size;
+                    best = result.getRight().get();
+                    running.tailMap(size).keySet().forEach(s -> cancel(s, running, contexts));
+                    running.tailMap(size).clear();
+                } else {
+                    logger.info("SIZE " + size + " NOT FOUND");
+                }
+            }
+            return best == null ? Optional.empty() : Optional.of(Pair.of(bestSize, best));
+        } finally {
+            running.keySet().forEach(s -> cancel(s, running, contexts));
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(CANCELLATION_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static <R> void cancel(int size, Map<Integer, Future<R>> running,
+            Map<Integer, SynthesisContext> contexts) {
+        // the future is cancelled first, so that errors caused by destroyed processes are not reported
+        running.get(size).cancel(true);
+        final SynthesisContext context = contexts.get(size);
+        if (context != null) {
+            context.cancel();
+        }
+    }
+
+    /*
+     * Parses a size range in the format "from..to".
+     */
+    public static Pair<Integer, Integer> parseRange(String range) {
+        final String[] tokens = range.split("\\.\\.");
+        if (tokens.length != 2) {
+            throw new IllegalArgumentException("Invalid size range " + range + ", expected from..to");
+        }
+        final int from = Integer.parseInt(tokens[0].trim());
+        final int to = Integer.parseInt(tokens[1].trim());
+        if (from < 1 || to < from) {
+            throw new IllegalArgumentException("Invalid size range " + range);
+        }
+        return Pair.of(from, to);
+    }
+}
@@ -4,14 +4,16 @@ package automaton_builders;
  * (c) Igor Buzhinsky
  */
 
-import bnf_formulae.BooleanVariable;
+import bnf_formulae.SynthesisContext;
+import bnf_formulae.VariableFamily;
 import bool.MyBooleanExpression;
 import formula_builders.PlantFormulaBuilder;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import sat_solving.Assignment;
-import sat_solving.SatSolver;
+import sat_solving.ClauseBuffer;
 import sat_solving.SolverInterface;
+import sat_solving.SolverOptions;
 import sat_solving.SolverResult;
 import sat_solving.SolverResult.SolverResults;
 import scenario.StringActions;
@@ -19,7 +21,6 @@ import scenario.StringScenario;
 import structures.moore.*;
 import verification.verifier.Counterexample;
 import verification.verifier.NondetMooreVerifierPair;
-import verification.verifier.SimpleVerifier;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -35,31 +36,36 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
         return a;
     }
         
+    /*
+     * The formula is built for formulaColorSize colors, of which only the first colorSize are enabled.
+     */
     private static NondetMooreAutomaton constructAutomatonFromAssignment(List<Assignment> ass,
-            PositivePlantScenarioForest forest, int colorSize, List<String> actionList, List<String> eventList,
-            boolean complete) {
+            PositivePlantScenarioForest forest, int colorSize, int formulaColorSize, List<String> actionList,
+            List<String> eventList, boolean complete) {
         final List<Boolean> isStart = Arrays.asList(ArrayUtils.toObject(new boolean[colorSize]));
         final List<List<String>> actions = new ArrayList<>();
         for (int i = 0; i < colorSize; i++) {
             actions.add(new ArrayList<>());
         }
         
+        final SynthesisContext context = SynthesisContext.current();
+        final VariableFamily x = context.family("x", formulaColorSize);
+        final VariableFamily y = context.family("y", formulaColorSize, eventList.size());
+        final VariableFamily z = context.family("z", actionList.size());
+        final Set<Integer> roots = forest.roots().stream().map(MooreNode::number).collect(Collectors.toSet());
+        
         final Map<Integer, Integer> coloring = new HashMap<>();
         ass.stream().filter(a -> a.value).forEach(a -> {
-            final String tokens[] = a.var.name.split("_");
-            if (tokens[0].equals("x")) {
-                for (MooreNode root : forest.roots()) {
-                    if (tokens[1].equals(String.valueOf(root.number()))) {
-                        final int state = Integer.parseInt(tokens[2]);
-                        isStart.set(state, true);
-                    }
+            if (x.contains(a.var)) {
+                final int node = x.index(a.var, 0);
+                final int color = x.index(a.var, 1);
+                if (roots.contains(node)) {
+                    isStart.set(color, true);
                 }
-                final int node = Integer.parseInt(tokens[1]);
-                final int color = Integer.parseInt(tokens[2]);
                 coloring.put(node, color);
-            } else if (tokens[0].equals("z")) {
-                final int state = Integer.parseInt(tokens[1]);
-                final String action = actionList.get(Integer.parseInt(tokens[2]));
+            } else if (z.contains(a.var) && z.index(a.var, 0) < colorSize) {
+                final int state = z.index(a.var, 0);
+                final String action = actionList.get(z.index(a.var, 1));
                 actions.get(state).add(action);
             }
         });
@@ -68,14 +74,11 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                 actions.stream().map(l -> new StringActions(String.join(",", l)))
                 .collect(Collectors.toList()), isStart);
 
-        ass.stream().filter(a -> a.value).forEach(a -> {
-            final String tokens[] = a.var.name.split("_");
-            if (tokens[0].equals("y")) {
-                final int from = Integer.parseInt(tokens[1]);
-                final int to = Integer.parseInt(tokens[2]);
-                final String event = eventList.get(Integer.parseInt(tokens[3]));
-                automaton.state(from).addTransition(event, automaton.state(to));
-            }
+        ass.stream().filter(a -> a.value && y.contains(a.var) && y.index(a.var, 0) < colorSize).forEach(a -> {
+            final int from = y.index(a.var, 0);
+            final int to = y.index(a.var, 1);
+            final String event = eventList.get(y.index(a.var, 2));
+            automaton.state(from).addTransition(event, automaton.state(to));
         });
 
         // identify used transitions
@@ -123,11 +126,12 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
      * If there is a propositional formula F over action(...), then the meaning of this formula would be:
      *   In all states of the automaton, F holds.
      */
-    private static String actionSpecification(String actionspecFilePath, int states,
+    public static String actionSpecification(String actionspecFilePath, int states,
             List<String> actions) throws FileNotFoundException {
         if (actionspecFilePath == null) {
             return null;
         }
+        final VariableFamily z = SynthesisContext.current().family("z", actions.size());
         final List<String> additionalFormulae = new ArrayList<>();
         try (final Scanner sc = new Scanner(new File(actionspecFilePath))) {
             while (sc.hasNextLine()) {
@@ -141,7 +145,7 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                     for (int ai = 0; ai < actions.size(); ai++) {
                         final String action = actions.get(ai);
                         constraint = constraint.replaceAll("action\\(" + action + "\\)",
-                                BooleanVariable.byName("z", i, ai).get().toLimbooleString());
+                                z.get(i, ai).toLimbooleString());
                     }
                     additionalFormulae.add(constraint);
                 }
@@ -154,42 +158,66 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                                                        NegativePlantScenarioForest negativeForest, int size,
                                                        String actionspecFilePath, List<String> events,
                                                        List<String> actions, NondetMooreVerifierPair verifier,
-                                                       long finishTime, SatSolver solver, boolean deterministic,
+                                                       long finishTime, SolverOptions solver, boolean deterministic,
                                                        boolean bfsConstraints, boolean complete) throws IOException {
+        return build(logger, positiveForest, negativeForest, size, size, actionspecFilePath, events, actions,
+                verifier, finishTime, solver, deterministic, bfsConstraints, complete).map(Pair::getRight);
+    }
+
+    /*
+     * Minimum size search in a single solver session, as in FastAutomatonBuilder.
+     * Returns (minimum size, automaton) or Optional.empty().
+     */
+    public static Optional<Pair<Integer, NondetMooreAutomaton>> build(Logger logger,
+            PositivePlantScenarioForest positiveForest, NegativePlantScenarioForest negativeForest,
+            int minSize, int maxSize, String actionspecFilePath, List<String> events, List<String> actions,
+            NondetMooreVerifierPair verifier, long finishTime, SolverOptions solver, boolean deterministic,
+            boolean bfsConstraints, boolean complete) throws IOException {
         deleteTrash();
-        SimpleVerifier.setLoopWeight(size);
+        final boolean variableSize = minSize < maxSize;
+        int size = minSize;
+        verifier.setLoopWeight(size);
         
         final NegativePlantScenarioForest globalNegativeForest = new NegativePlantScenarioForest();
         
         SolverInterface inf = null;
         
-        for (int iteration = 0; System.currentTimeMillis() < finishTime; iteration++) {
-            final PlantFormulaBuilder builder = new PlantFormulaBuilder(size, positiveForest, negativeForest,
-                    globalNegativeForest, events, actions, deterministic, bfsConstraints, complete);
+        for (int iteration = 0; System.currentTimeMillis() < finishTime
+                && !Thread.currentThread().isInterrupted(); iteration++) {
+            final PlantFormulaBuilder builder = new PlantFormulaBuilder(maxSize, positiveForest, negativeForest,
+                    globalNegativeForest, events, actions, deterministic, bfsConstraints, complete, variableSize);
             builder.createVars();
             final int secondsLeft = timeLeftForSolver(finishTime);
             if (iteration == 0) {
                 // create
                 logger.info("Generating initial constraints...");
-                final List<int[]> positiveConstraints = builder.positiveConstraints();
+                final ClauseBuffer positiveConstraints = builder.positiveConstraints();
                 logger.info("Generated initial constraints.");
-                final String actionSpec = actionSpecification(actionspecFilePath, size, actions);
+                final String actionSpec = actionSpecification(actionspecFilePath, maxSize, actions);
                 inf = solver.createInterface(positiveConstraints, actionSpec, logger);
             }
             
             // SAT-solve
-            final SolverResult ass = inf.solve(builder.negativeConstraints(), secondsLeft);
+            final SolverResult ass = inf.solve(builder.negativeConstraints(), builder.sizeAssumptions(size),
+                    secondsLeft);
             logger.info(ass.type().toString());
-            if (ass.type() != SolverResults.SAT) {
-                return reportResult(logger, iteration, Optional.empty());
+            if (ass.type() == SolverResults.UNSAT && size < maxSize) {
+                size++;
+                logger.info("SIZE " + (size - 1) + " NOT FOUND, TRYING SIZE " + size);
+                verifier.setLoopWeight(size);
+                continue;
+            } else if (ass.type() != SolverResults.SAT) {
+                inf.halt();
+                return reportSizedResult(logger, iteration, size, Optional.empty());
             }
 
             final NondetMooreAutomaton automaton = constructAutomatonFromAssignment(ass.list(),
-                    positiveForest, size, actions, events, complete);
+                    positiveForest, size, maxSize, actions, events, complete);
 
             // verify
             final Pair<List<Counterexample>, List<Counterexample>> counterexamples =
                     verifier.verifyNondetMoore(automaton);
+            logger.info("INCREMENTAL VERIFICATION: " + verifier.incrementalStatistics());
             
             //System.out.println(automaton);
             
@@ -197,17 +225,18 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
             mixedCE.addAll(counterexamples.getRight());
             if (mixedCE.stream().allMatch(Counterexample::isEmpty)) {
                 inf.halt();
-                return reportResult(logger, iteration, Optional.of(automaton));
+                return reportSizedResult(logger, iteration, size, Optional.of(automaton));
             } else {
+                final int currentSize = size;
                 // find minimum CEs of both types
                 final List<Counterexample> normalCEs = counterexamples.getLeft().stream()
                         .filter(ce -> !ce.isEmpty())
-                        .map(ce -> collapseLoop(ce, size))
+                        .map(ce -> collapseLoop(ce, currentSize))
                         .distinct()
                         .collect(Collectors.toList());
                 final List<Counterexample> globalCEs = counterexamples.getRight().stream()
                         .filter(ce -> !ce.isEmpty())
-                        .map(ce -> collapseLoop(ce, size))
+                        .map(ce -> collapseLoop(ce, currentSize))
                         .distinct()
                         .collect(Collectors.toList());
                 int normalMinIndex = -1;
@@ -246,11 +275,19 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                 }
             }
         }
-        inf.halt();
-        logger.info("TOTAL TIME LIMIT EXCEEDED, ANSWER IS UNKNOWN");
+        if (inf != null) {
+            inf.halt();
+        }
+        logger.info(Thread.currentThread().isInterrupted()
+                ? "INTERRUPTED, ANSWER IS UNKNOWN" : "TOTAL TIME LIMIT EXCEEDED, ANSWER IS UNKNOWN");
         return Optional.empty();
     }
     
+    private static Optional<Pair<Integer, NondetMooreAutomaton>> reportSizedResult(Logger logger, int iterations,
+            int size, Optional<NondetMooreAutomaton> a) {
+        return reportResult(logger, iterations, a).map(automaton -> Pair.of(size, automaton));
+    }
+
     private static Counterexample collapseLoop(Counterexample ce, int size) {
         final List<String> events = new ArrayList<>();
         final List<List<String>> actions = new ArrayList<>();
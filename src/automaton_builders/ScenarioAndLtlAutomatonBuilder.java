@@ -6,6 +6,7 @@ package automaton_builders;
 
 import algorithms.AutomatonCompleter.CompletenessType;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.SynthesisContext;
 import bool.MyBooleanExpression;
 import org.apache.commons.lang3.tuple.Pair;
 import sat_solving.Assignment;
@@ -16,7 +17,6 @@ import structures.mealy.MealyTransition;
 import structures.mealy.ScenarioTree;
 import verification.ltl.grammar.LtlUtils;
 
-import java.io.File;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -28,9 +28,7 @@ import java.util.stream.Collectors;
 public abstract class ScenarioAndLtlAutomatonBuilder {
     protected static void deleteTrash() {
         // delete files from the previous run
-        Arrays.stream(new File(".").listFiles())
-            .filter(f -> f.getName().startsWith("_tmp."))
-            .forEach(File::delete);
+        SynthesisContext.current().deleteTrash();
     }
     
     /*
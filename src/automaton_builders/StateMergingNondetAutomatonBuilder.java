@@ -11,6 +11,7 @@ import structures.mealy.APTA;
 import structures.moore.NondetMooreAutomaton;
 import verification.verifier.Counterexample;
 import verification.verifier.Verifier;
+import verification.verifier.VerifierOptions;
 
 import java.io.FileNotFoundException;
 import java.text.ParseException;
@@ -20,7 +21,8 @@ import java.util.stream.Collectors;
 
 public class StateMergingNondetAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
     public static Optional<NondetMooreAutomaton> build(Logger logger, List<String> events, List<String> actions,
-            List<String> arguments, List<String> strFormulae) throws FileNotFoundException, ParseException {
+            List<String> arguments, List<String> strFormulae, VerifierOptions verifierOptions)
+            throws FileNotFoundException, ParseException {
         final List<String> eventsWithDummy = new ArrayList<>(events);
         eventsWithDummy.add("");
         final List<String> actionCombinations = new ArrayList<>();
@@ -74,7 +76,7 @@ public class StateMergingNondetAutomatonBuilder extends ScenarioAndLtlAutomatonB
             formulaeUpdated.add(newF);
         }*/
 
-        final Verifier v = new Verifier(logger, strFormulae, events, actions);
+        final Verifier v = new Verifier(logger, strFormulae, events, actions, verifierOptions);
         return build2(logger, v, newSc, actions);
     }
 
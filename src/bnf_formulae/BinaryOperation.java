@@ -6,6 +6,7 @@ package bnf_formulae;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -67,6 +68,10 @@ public class BinaryOperation extends BooleanFormula {
         return new BinaryOperation(left, right, BinaryOperations.EQ);
     }
     
+    public List<BooleanFormula> children() {
+        return Collections.unmodifiableList(children);
+    }
+    
     @Override
     public String toLimbooleString() {
         assert !children.isEmpty();
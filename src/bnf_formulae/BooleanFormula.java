@@ -5,10 +5,14 @@ package bnf_formulae;
  */
 
 import sat_solving.Assignment;
+import sat_solving.CdclSolver;
+import sat_solving.ClauseBuffer;
 import sat_solving.SatSolver;
 import sat_solving.SolverResult;
+import sat_solving.SolverResult.SolverResults;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -23,8 +27,6 @@ public abstract class BooleanFormula {
         return limbooleIndex.map(index -> new Assignment(BooleanVariable.getVarByNumber(index), isTrue));
     }
     
-    public static final String DIMACS_FILENAME = "_tmp.dimacs";
-    
     public static class SolveAsSatResult {
         private final List<Assignment> list;
         public final long time;
@@ -63,29 +65,51 @@ public abstract class BooleanFormula {
     
     public static void appendConstraintsToDimacs(Logger logger,
             List<String> newClauses, DimacsConversionInfo info) throws IOException {
+        final File file = new File(SynthesisContext.current().dimacsFilename());
+        updateDimacsHeader(file, newClauses.size(), info);
+        
+        // append new clauses
+        try (final PrintWriter pw = new PrintWriter(new FileOutputStream(file, true))) {
+            newClauses.forEach(pw::println);
+        }
+
+        logger.info("ALTERED DIMACS FILE");
+    }
+    
+    public static void appendConstraintsToDimacs(Logger logger,
+            ClauseBuffer newClauses, DimacsConversionInfo info) throws IOException {
+        final File file = new File(SynthesisContext.current().dimacsFilename());
+        updateDimacsHeader(file, newClauses.size(), info);
+        
+        // append new clauses
+        try (final PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file, true)))) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < newClauses.size(); i++) {
+                sb.setLength(0);
+                newClauses.appendDimacsClause(sb, i);
+                pw.println(sb);
+            }
+        }
+
+        logger.info("ALTERED DIMACS FILE");
+    }
+    
+    private static void updateDimacsHeader(File file, int newClauses, DimacsConversionInfo info)
+            throws IOException {
         int oldClauseNum;
-        final File file = new File(DIMACS_FILENAME);
         try (final BufferedReader input = new BufferedReader(new FileReader(file))) {
             final String[] tokens = input.readLine().split(" +");
             assert tokens.length == 4;
             oldClauseNum = Integer.parseInt(tokens[3]);
         }
-        final int newClauseNum = oldClauseNum + newClauses.size();
+        final int newClauseNum = oldClauseNum + newClauses;
         final int newVarNum = info.varNumber();
 
-        // modify the header
         final String header = fixedSizedDimacsHeader(newVarNum, newClauseNum);
         final byte[] headerBytes = header.getBytes();
         try (final RandomAccessFile f = new RandomAccessFile(file, "rw")) {
             f.write(headerBytes, 0, headerBytes.length);
         }
-        
-        // append new clauses
-        try (final PrintWriter pw = new PrintWriter(new FileOutputStream(file, true))) {
-            newClauses.forEach(pw::println);
-        }
-
-        logger.info("ALTERED DIMACS FILE");
     }
     
     // modifies the info and returns new constraints
@@ -146,23 +170,57 @@ public abstract class BooleanFormula {
         return result;
     }
     
-    private static int SOLVER_SEED = 0;
+    private static SolveAsSatResult solveDimacsEmbedded(Logger logger, int timeoutSeconds,
+            DimacsConversionInfo info, String dimacsFilename) throws IOException {
+        long time = System.currentTimeMillis();
+        final CdclSolver solver = new CdclSolver();
+        try (BufferedReader input = new BufferedReader(new FileReader(dimacsFilename))) {
+            input.lines().filter(line -> !line.startsWith("p") && !line.startsWith("c")).forEach(line ->
+                solver.addClause(Arrays.stream(line.trim().split(" +")).mapToInt(Integer::parseInt)
+                        .filter(x -> x != 0).toArray())
+            );
+        }
+        solver.ensureVars(info.varNumber());
+        logger.info("EMBEDDED SOLVER ON " + dimacsFilename);
+        final List<Assignment> list = new ArrayList<>();
+        if (solver.solve(new int[0], time + Math.max(1, timeoutSeconds) * 1000L) == SolverResults.SAT) {
+            for (int i = 1; i <= info.varNumber(); i++) {
+                final boolean value = solver.value(i);
+                info.toLimbooleNumber(i).ifPresent(index ->
+                    list.add(new Assignment(BooleanVariable.getVarByNumber(index), value)));
+            }
+        }
+        time = System.currentTimeMillis() - time;
+        return new SolveAsSatResult(list, time, info);
+    }
     
     public static SolveAsSatResult solveDimacs(Logger logger, int timeoutSeconds, SatSolver solver,
             DimacsConversionInfo info) throws IOException {
+        return solveDimacs(logger, timeoutSeconds, solver, info, SynthesisContext.current().dimacsFilename());
+    }
+    
+    public static SolveAsSatResult solveDimacs(Logger logger, int timeoutSeconds, SatSolver solver,
+            DimacsConversionInfo info, String dimacsFilename) throws IOException {
+        if (solver == SatSolver.EMBEDDED) {
+            return solveDimacsEmbedded(logger, timeoutSeconds, info, dimacsFilename);
+        }
+        if (solver == SatSolver.PORTFOLIO) {
+            throw new AssertionError("The solver portfolio is only supported through PortfolioInterface");
+        }
         long time = System.currentTimeMillis();
         final Map<String, Assignment> list = new LinkedHashMap<>();
+        final SynthesisContext context = SynthesisContext.current();
+        final int seed = context.nextSolverSeed();
         String solverParams = "";
         if (solver == SatSolver.LINGELING) {
-            solverParams = " --seed=" + SOLVER_SEED;
+            solverParams = " --seed=" + seed;
         } else if (solver == SatSolver.CRYPTOMINISAT) {
-            solverParams = " --random=" + SOLVER_SEED;
+            solverParams = " --random=" + seed;
         }
         timeoutSeconds = Math.max(1, timeoutSeconds);
-        SOLVER_SEED++;
-        final String solverStr = solver.command + timeoutSeconds + " " + solverParams + " " + DIMACS_FILENAME;
+        final String solverStr = solver.command + timeoutSeconds + " " + solverParams + " " + dimacsFilename;
         logger.info(solverStr);
-        final Process p = Runtime.getRuntime().exec(solverStr);
+        final Process p = context.exec(solverStr);
 
         try (BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
             input.lines().filter(s -> s.startsWith("v")).forEach(certificateLine ->
@@ -179,41 +237,102 @@ public abstract class BooleanFormula {
     public static SolveAsSatResult solveAsSat(String formula, Logger logger,
             int timeoutSeconds, SatSolver solver) throws IOException {
         logger.info("Final SAT formula length: " + formula.length());
-        final DimacsConversionInfo info = BooleanFormula.toDimacs(formula, logger, DIMACS_FILENAME);
+        return solveAsSat(LimbooleParser.parse(formula), logger, timeoutSeconds, solver);
+    }
+    
+    public static SolveAsSatResult solveAsSat(BooleanFormula formula, Logger logger,
+            int timeoutSeconds, SatSolver solver) throws IOException {
+        final DimacsConversionInfo info = formula.toDimacs(logger, SynthesisContext.current().dimacsFilename());
         info.close();
         logger.info("CREATED DIMACS FILE");
         return solveDimacs(logger, timeoutSeconds, solver, info);
     }
     
-    public static DimacsConversionInfo actionSpecToDimacs(Logger logger, String dimacsFilename,
-            String actionSpec) throws IOException {
+    /*
+     * Action specifications are limboole strings produced from LTL (see ltl2limboole).
+     * Without a specification, the formula is a tautology.
+     */
+    private static BooleanFormula actionSpecToFormula(String actionSpec) {
         final BooleanVariable v = BooleanVariable.getVarByNumber(1);
-        final String limbooleString = actionSpec == null
-                ? v.or(v.not()).toLimbooleString()
-                : actionSpec;
-        return toDimacs(limbooleString, logger, dimacsFilename);
+        return actionSpec == null ? v.or(v.not()) : LimbooleParser.parse(actionSpec);
+    }
+    
+    private static String actionSpecToLimboole(String actionSpec) {
+        return actionSpec == null ? actionSpecToFormula(null).toLimbooleString() : actionSpec;
+    }
+    
+    /*
+     * If useLimboole is set, the CNF is produced by the external limboole, otherwise by TseitinEncoder.
+     */
+    public static DimacsConversionInfo actionSpecToDimacs(Logger logger, String dimacsFilename,
+            String actionSpec, boolean useLimboole) throws IOException {
+        return useLimboole
+                ? toDimacsWithLimboole(actionSpecToLimboole(actionSpec), logger, dimacsFilename)
+                : toDimacsNatively(actionSpecToFormula(actionSpec), logger, dimacsFilename);
+    }
+    
+    /*
+     * Same as actionSpecToDimacs, but the clauses are only kept in memory (see DimacsConversionInfo.clauses()).
+     */
+    public static DimacsConversionInfo actionSpecToCnf(Logger logger, String actionSpec) throws IOException {
+        return toDimacsNatively(actionSpecToFormula(actionSpec), logger, null);
     }
 
-    public static void transformConstraints(List<int[]> cnfConstraints, DimacsConversionInfo info) {
-        for (int i = 0; i < cnfConstraints.size(); i++) {
-            final int[] terms = cnfConstraints.get(i);
-            for (int j = 0; j < terms.length; j++) {
-                final int term = terms[j];
-                final int var = Math.abs(term);
+    private static int transformLiteral(int term, DimacsConversionInfo info) {
+        final int var = Math.abs(term);
+        Integer transformedNum = info.limbooleNumberToDimacs.get(var);
+        if (transformedNum == null) {
+            info.varNumber++;
+            info.limbooleNumberToDimacs.put(var, info.varNumber);
+            info.dimacsNumberToLimboole.put(info.varNumber, var);
+            transformedNum = info.varNumber;
+        }
+        return (term < 0 ? -1 : 1) * transformedNum;
+    }
 
-                Integer transformedNum = info.limbooleNumberToDimacs.get(var);
-                if (transformedNum == null) {
-                    info.varNumber++;
-                    info.limbooleNumberToDimacs.put(var, info.varNumber);
-                    info.dimacsNumberToLimboole.put(info.varNumber, var);
-                    transformedNum = info.varNumber;
-                }
-                terms[j] = (term < 0 ? -1 : 1) * transformedNum;
+    public static void transformConstraints(ClauseBuffer cnfConstraints, DimacsConversionInfo info) {
+        cnfConstraints.replaceLiterals(term -> transformLiteral(term, info));
+    }
+
+    /*
+     * Returns the assumptions in DIMACS numbers. Unknown variables get new numbers, as in transformConstraints.
+     */
+    public static int[] transformAssumptions(int[] assumptions, DimacsConversionInfo info) {
+        final int[] result = new int[assumptions.length];
+        for (int i = 0; i < assumptions.length; i++) {
+            result[i] = transformLiteral(assumptions[i], info);
+        }
+        return result;
+    }
+
+    /*
+     * Non-incremental solvers do not support assumptions, so they are added as unit clauses
+     * to a copy of the DIMACS file. Returns the name of the copy.
+     */
+    public static String dimacsWithAssumptions(int[] dimacsAssumptions, DimacsConversionInfo info)
+            throws IOException {
+        final SynthesisContext context = SynthesisContext.current();
+        final File original = new File(context.dimacsFilename());
+        final String filename = context.tmpFilename("assumptions.dimacs");
+        int clauseNum;
+        try (final BufferedReader input = new BufferedReader(new FileReader(original));
+             final PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(filename)))) {
+            final String[] tokens = input.readLine().split(" +");
+            assert tokens.length == 4;
+            clauseNum = Integer.parseInt(tokens[3]);
+            pw.println(fixedSizedDimacsHeader(info.varNumber(), clauseNum + dimacsAssumptions.length));
+            String line;
+            while ((line = input.readLine()) != null) {
+                pw.println(line);
+            }
+            for (int literal : dimacsAssumptions) {
+                pw.println(literal + " 0");
             }
         }
+        return filename;
     }
 
-    public static void appendConstraints(List<int[]> cnfConstraints, DimacsConversionInfo info,
+    public static void appendConstraints(ClauseBuffer cnfConstraints, DimacsConversionInfo info,
                                          DataOutputStream constraintWriter) throws IOException {
         final int initialVarNumber = info.varNumber;
         transformConstraints(cnfConstraints, info);
@@ -222,13 +341,52 @@ public abstract class BooleanFormula {
             constraintWriter.writeInt(1);
             constraintWriter.writeInt(newVars);
         }
-        for (int[] constraint : cnfConstraints) {
-            constraintWriter.writeInt(0);
-            for (int i : constraint) {
-                constraintWriter.writeInt(i);
+        writeClauses(cnfConstraints, constraintWriter);
+    }
+
+    // 4 MB
+    private static final int CLAUSE_BATCH_BYTES = 1 << 22;
+
+    /*
+     * Writes clauses in the binary format of the incremental solver (0, literals, 0 for each clause).
+     * Clauses are encoded in large batches, each batch is written at once.
+     */
+    public static void writeClauses(List<int[]> clauses, DataOutputStream writer) throws IOException {
+        long ints = 0;
+        for (int[] clause : clauses) {
+            ints += clause.length + 2;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(ints * Integer.BYTES, CLAUSE_BATCH_BYTES));
+        for (int[] clause : clauses) {
+            putInt(buffer, 0, writer);
+            for (int literal : clause) {
+                putInt(buffer, literal, writer);
             }
-            constraintWriter.writeInt(0);
+            putInt(buffer, 0, writer);
         }
+        writer.write(buffer.array(), 0, buffer.position());
+    }
+
+    public static void writeClauses(ClauseBuffer clauses, DataOutputStream writer) throws IOException {
+        final long ints = clauses.literalCount() + 2L * clauses.size();
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(ints * Integer.BYTES, CLAUSE_BATCH_BYTES));
+        final int[] literals = clauses.literals();
+        for (int i = 0; i < clauses.size(); i++) {
+            putInt(buffer, 0, writer);
+            for (int j = clauses.start(i); j < clauses.end(i); j++) {
+                putInt(buffer, literals[j], writer);
+            }
+            putInt(buffer, 0, writer);
+        }
+        writer.write(buffer.array(), 0, buffer.position());
+    }
+
+    private static void putInt(ByteBuffer buffer, int value, DataOutputStream writer) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            writer.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        buffer.putInt(value);
     }
     
     public static class DimacsConversionInfo implements AutoCloseable {
@@ -237,11 +395,47 @@ public abstract class BooleanFormula {
         private String title;
         private Integer varNumber;
         private PrintWriter pw;
+        // only available if the CNF was produced in-process
+        private List<int[]> clauses;
         
         public DimacsConversionInfo(String filename) throws FileNotFoundException {
              pw = new PrintWriter(new File(filename));
         }
         
+        /*
+         * If filename is null, the clauses are only kept in memory.
+         */
+        DimacsConversionInfo(TseitinEncoder encoder, String filename) throws FileNotFoundException {
+            for (Map.Entry<Integer, Integer> entry : encoder.limbooleNumberToDimacs().entrySet()) {
+                limbooleNumberToDimacs.put(entry.getKey(), entry.getValue());
+                dimacsNumberToLimboole.put(entry.getValue(), entry.getKey());
+            }
+            varNumber = encoder.varNumber();
+            clauses = encoder.clauses();
+            title = "p cnf " + varNumber + " " + clauses.size();
+            if (filename == null) {
+                return;
+            }
+            pw = new PrintWriter(new File(filename));
+            pw.println(fixedSizedDimacsHeader(varNumber, clauses.size()));
+            final StringBuilder sb = new StringBuilder();
+            for (int[] clause : clauses) {
+                sb.setLength(0);
+                for (int literal : clause) {
+                    sb.append(literal).append(' ');
+                }
+                pw.println(sb.append('0'));
+            }
+        }
+        
+        /*
+         * Clauses of the initial CNF as they were written to the DIMACS file.
+         * Empty if the CNF was produced by limboole.
+         */
+        public Optional<List<int[]>> clauses() {
+            return Optional.ofNullable(clauses);
+        }
+        
         void acceptLine(String line) {
             if (line.startsWith("c")) {
                 String[] tokens = line.split(" ");
@@ -283,7 +477,9 @@ public abstract class BooleanFormula {
 
         @Override
         public void close() {
-            pw.close();
+            if (pw != null) {
+                pw.close();
+            }
         }
     }
     
@@ -291,8 +487,28 @@ public abstract class BooleanFormula {
     
     public static DimacsConversionInfo toDimacs(String limbooleFormula, Logger logger, String dimacsFilename)
             throws IOException {
-        final String beforeLimbooleFilename = "_tmp.limboole";
-        final String afterLimbooleFilename = "_tmp.after.limboole.dimacs";
+        return toDimacsNatively(LimbooleParser.parse(limbooleFormula), logger, dimacsFilename);
+    }
+    
+    /*
+     * In-process CNF conversion by TseitinEncoder. If dimacsFilename is null, the clauses are only kept in memory.
+     */
+    public static DimacsConversionInfo toDimacsNatively(BooleanFormula formula, Logger logger,
+            String dimacsFilename) throws IOException {
+        final TseitinEncoder encoder = new TseitinEncoder();
+        encoder.assertFormula(formula);
+        logger.info("NATIVE CNF CONVERSION: " + encoder.varNumber() + " vars, "
+                + encoder.clauses().size() + " clauses");
+        final DimacsConversionInfo info = new DimacsConversionInfo(encoder, dimacsFilename);
+        info.close();
+        return info;
+    }
+    
+    public static DimacsConversionInfo toDimacsWithLimboole(String limbooleFormula, Logger logger,
+            String dimacsFilename) throws IOException {
+        final SynthesisContext context = SynthesisContext.current();
+        final String beforeLimbooleFilename = context.tmpFilename("limboole");
+        final String afterLimbooleFilename = context.tmpFilename("after.limboole.dimacs");
         
         try (PrintWriter pw = new PrintWriter(beforeLimbooleFilename)) {
             pw.print(limbooleFormula);
@@ -300,7 +516,7 @@ public abstract class BooleanFormula {
         
         final String limbooleStr = "limboole -d -s -o " + afterLimbooleFilename + " " + beforeLimbooleFilename;
         logger.info(limbooleStr);
-        final Process limboole = Runtime.getRuntime().exec(limbooleStr);
+        final Process limboole = context.exec(limbooleStr);
         try {
             limboole.waitFor();
         } catch (InterruptedException e) {
@@ -317,7 +533,7 @@ public abstract class BooleanFormula {
     }
     
     public DimacsConversionInfo toDimacs(Logger logger, String dimacsFilename) throws IOException {
-        return toDimacs(simplify().toLimbooleString(), logger, dimacsFilename);
+        return toDimacsNatively(this, logger, dimacsFilename);
     }
     
     public BooleanFormula not() {
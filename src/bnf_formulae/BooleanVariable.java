@@ -9,16 +9,16 @@ import java.util.*;
 public class BooleanVariable extends BooleanFormula implements Comparable<BooleanVariable> {
     public final String name;
     public final int number;
+    // only for variables created by a VariableFamily
+    final VariableFamily family;
+    final int familyIndex;
     
+    /*
+     * Variables are registered in the synthesis context of the current thread.
+     */
     public static void eraseVariables() {
-        ALL_VARS.clear();
-        VARS_BY_NAME.clear();
-        counter = 1;
+        SynthesisContext.current().eraseVariables();
     }
-    
-    private static int counter = 1;
-    private static final List<BooleanVariable> ALL_VARS = new ArrayList<>();
-    private static final Map<String, BooleanVariable> VARS_BY_NAME = new HashMap<>();
 
     private static String createName(String prefix, Object... indices) {
         assert indices.length == 0 || !prefix.contains("_");
@@ -29,23 +29,49 @@ public class BooleanVariable extends BooleanFormula implements Comparable<Boolea
     }
 
     public BooleanVariable(String prefix, Object... indices) {
-        name = createName(prefix, indices);
-        number = counter++;
-        ALL_VARS.add(this);
-        VARS_BY_NAME.put(name, this);
+        this(SynthesisContext.current(), prefix, indices);
+    }
+
+    public BooleanVariable(SynthesisContext context, String prefix, Object... indices) {
+        this(context, createName(prefix, indices), null, -1);
+    }
+
+    BooleanVariable(SynthesisContext context, VariableFamily family, int familyIndex) {
+        this(context, family.name(familyIndex), family, familyIndex);
+    }
+
+    private BooleanVariable(SynthesisContext context, String name, VariableFamily family, int familyIndex) {
+        this.name = name;
+        this.family = family;
+        this.familyIndex = familyIndex;
+        number = context.allVars.size() + 1;
+        context.allVars.add(this);
+        context.varsByName.put(name, this);
     }
 
     public static BooleanVariable getVarByNumber(int num) {
-        return ALL_VARS.get(num - 1);
+        return getVarByNumber(SynthesisContext.current(), num);
+    }
+
+    public static BooleanVariable getVarByNumber(SynthesisContext context, int num) {
+        return context.allVars.get(num - 1);
     }
     
     public static Optional<BooleanVariable> byName(String prefix, Object... indices) {
-        return Optional.ofNullable(VARS_BY_NAME.get(createName(prefix, indices)));
+        return byName(SynthesisContext.current(), prefix, indices);
+    }
+
+    public static Optional<BooleanVariable> byName(SynthesisContext context, String prefix, Object... indices) {
+        return Optional.ofNullable(context.varsByName.get(createName(prefix, indices)));
     }
     
     public static BooleanVariable getOrCreate(String prefix, Object... indices) {
-        final Optional<BooleanVariable> v = byName(prefix, indices);
-        return v.isPresent() ? v.get() : new BooleanVariable(prefix, indices);
+        return getOrCreate(SynthesisContext.current(), prefix, indices);
+    }
+
+    public static BooleanVariable getOrCreate(SynthesisContext context, String prefix, Object... indices) {
+        final Optional<BooleanVariable> v = byName(context, prefix, indices);
+        return v.isPresent() ? v.get() : new BooleanVariable(context, prefix, indices);
     }
     
     @Override
@@ -0,0 +1,109 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Parses strings produced by toLimbooleString() back into formulae.
+ * Variables are represented by their numbers, as BooleanVariable.toLimbooleString() does.
+ * Operator priorities follow limboole: '!' > '&' > '|' > '->' (right-associative) > '<->'.
+ */
+public class LimbooleParser {
+    private final String s;
+    private int pos = 0;
+
+    private LimbooleParser(String s) {
+        this.s = s;
+    }
+
+    public static BooleanFormula parse(String limbooleFormula) {
+        final LimbooleParser parser = new LimbooleParser(limbooleFormula);
+        final BooleanFormula result = parser.parseEquivalence();
+        parser.skipSpaces();
+        if (parser.pos != parser.s.length()) {
+            throw parser.error();
+        }
+        return result;
+    }
+
+    private AssertionError error() {
+        return new AssertionError("Invalid limboole formula at position " + pos);
+    }
+
+    private void skipSpaces() {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private boolean accept(String token) {
+        skipSpaces();
+        if (s.startsWith(token, pos)) {
+            pos += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private BooleanFormula parseEquivalence() {
+        BooleanFormula result = parseImplication();
+        while (accept("<->")) {
+            result = BinaryOperation.equivalent(result, parseImplication());
+        }
+        return result;
+    }
+
+    private BooleanFormula parseImplication() {
+        final BooleanFormula left = parseDisjunction();
+        return accept("->") ? BinaryOperation.implies(left, parseImplication()) : left;
+    }
+
+    private BooleanFormula parseDisjunction() {
+        final List<BooleanFormula> children = new ArrayList<>();
+        children.add(parseConjunction());
+        while (accept("|")) {
+            children.add(parseConjunction());
+        }
+        return children.size() == 1 ? children.get(0) : BinaryOperation.or(children);
+    }
+
+    private BooleanFormula parseConjunction() {
+        final List<BooleanFormula> children = new ArrayList<>();
+        children.add(parseNegation());
+        while (accept("&")) {
+            children.add(parseNegation());
+        }
+        return children.size() == 1 ? children.get(0) : BinaryOperation.and(children);
+    }
+
+    private BooleanFormula parseNegation() {
+        int negations = 0;
+        while (accept("!")) {
+            negations++;
+        }
+        final BooleanFormula inside = parseAtom();
+        return negations % 2 == 0 ? inside : inside.not();
+    }
+
+    private BooleanFormula parseAtom() {
+        if (accept("(")) {
+            final BooleanFormula inside = parseEquivalence();
+            if (!accept(")")) {
+                throw error();
+            }
+            return inside;
+        }
+        final int start = pos;
+        while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error();
+        }
+        return BooleanVariable.getVarByNumber(Integer.parseInt(s.substring(start, pos)));
+    }
+}
@@ -67,13 +67,14 @@ public class QuantifiedBooleanFormula {
     
     public QdimacsConversionInfo toQdimacs(Logger logger) throws IOException {
         final StringBuilder sb = new StringBuilder();
-        final DimacsConversionInfo info = formula().toDimacs(logger, BooleanFormula.DIMACS_FILENAME);
+        final String dimacsFilename = SynthesisContext.current().dimacsFilename();
+        final DimacsConversionInfo info = formula().toDimacs(logger, dimacsFilename);
         
         sb.append(info.title() + "\n");
         sb.append("e " + varsToNumbers(existVars, info) + " 0\n");
         sb.append("a " + varsToNumbers(forallVars, info) + " 0\n");
         sb.append("e " + otherVars(info) + " 0\n");
-        try (BufferedReader input = new BufferedReader(new FileReader(BooleanFormula.DIMACS_FILENAME))) {
+        try (BufferedReader input = new BufferedReader(new FileReader(dimacsFilename))) {
             // skip title
             input.lines().skip(1).forEach(line -> sb.append(line + "\n"));
         }
@@ -94,14 +95,11 @@ public class QuantifiedBooleanFormula {
         return nums.toString().replaceAll("[\\[\\],]", "");
     }
 
-    private static final String QDIMACS_FILENAME = "_tmp.qdimacs";
-    private static final String QDIMACS_PRETTY_FILENAME = "_tmp.pretty";
-    
-    private SolverResult depqbfSolve(Logger logger, int timeoutSeconds,
+    private SolverResult depqbfSolve(Logger logger, int timeoutSeconds, String qdimacsFilename,
             QdimacsConversionInfo qdimacs) throws IOException {
         long time = System.currentTimeMillis();
         final List<Assignment> list = new ArrayList<>();
-        final String depqbfStr = "depqbf --max-secs=" + timeoutSeconds + " --qdo " + QDIMACS_FILENAME;
+        final String depqbfStr = "depqbf --max-secs=" + timeoutSeconds + " --qdo " + qdimacsFilename;
         logger.info(depqbfStr);
         final Process depqbf = Runtime.getRuntime().exec(depqbfStr);
         try (BufferedReader input = new BufferedReader(new InputStreamReader(depqbf.getInputStream()))) {
@@ -145,10 +143,12 @@ public class QuantifiedBooleanFormula {
     }
 
     public SolverResult solve(Logger logger, QbfSolver solver, int timeoutSeconds) throws IOException {
-        final QdimacsConversionInfo qdimacs = printQdimacs(logger, QDIMACS_FILENAME, QDIMACS_PRETTY_FILENAME);
+        final SynthesisContext context = SynthesisContext.current();
+        final String qdimacsFilename = context.tmpFilename("qdimacs");
+        final QdimacsConversionInfo qdimacs = printQdimacs(logger, qdimacsFilename, context.tmpFilename("pretty"));
         switch (solver) {
         case DEPQBF:
-            return depqbfSolve(logger, timeoutSeconds, qdimacs);
+            return depqbfSolve(logger, timeoutSeconds, qdimacsFilename, qdimacs);
         default:
             throw new AssertionError();
         }
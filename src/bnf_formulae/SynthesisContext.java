@@ -0,0 +1,201 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * State of a single synthesis run: the registry of Boolean variables, the solver seed counter
+ * and the directory for temporary files (DIMACS, limboole, QDIMACS).
+ * A context is bound to the current thread with enter(), and BooleanVariable, BooleanFormula and
+ * the solver interfaces refer to the context of the thread they run in.
+ * Several contexts can thus be used concurrently by different threads.
+ * A single context must not be used by several threads at once, except for cancel().
+ *
+ * The default context keeps the old behavior: temporary files are named _tmp.* in the working directory.
+ */
+public class SynthesisContext implements AutoCloseable {
+    private static final SynthesisContext DEFAULT = new SynthesisContext(null, null);
+    private static final ThreadLocal<SynthesisContext> CURRENT = ThreadLocal.withInitial(() -> DEFAULT);
+
+    private static final String TMP_PREFIX = "_tmp.";
+
+    // null for the working directory
+    private final File tmpDirectory;
+    // the context which was current when this one was created, null for the default context
+    private final SynthesisContext parent;
+
+    final List<BooleanVariable> allVars = new ArrayList<>();
+    final Map<String, BooleanVariable> varsByName = new HashMap<>();
+    private final Map<String, VariableFamily> families = new HashMap<>();
+    private int solverSeed = 0;
+    // external processes started with exec() which may still be running
+    private final List<Process> processes = new ArrayList<>();
+    private boolean cancelled = false;
+
+    private SynthesisContext(File tmpDirectory, SynthesisContext parent) {
+        this.tmpDirectory = tmpDirectory;
+        this.parent = parent;
+    }
+
+    public static SynthesisContext current() {
+        return CURRENT.get();
+    }
+
+    /*
+     * Creates a context with a private temporary directory, which is removed on close().
+     */
+    public static SynthesisContext isolated() throws IOException {
+        return new SynthesisContext(Files.createTempDirectory("efsm-tools-").toFile(), current());
+    }
+
+    /*
+     * Binds this context to the current thread until the returned scope is closed.
+     */
+    public Scope enter() {
+        final Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(this);
+        return scope;
+    }
+
+    public interface Task<T> {
+        T run(SynthesisContext context) throws IOException, ParseException;
+    }
+
+    /*
+     * Runs the task in a new isolated context bound to the current thread, and closes the context afterwards.
+     */
+    public static <T> T runIsolated(Task<T> task) throws IOException, ParseException {
+        try (SynthesisContext context = isolated()) {
+            final Scope scope = context.enter();
+            try {
+                return task.run(context);
+            } finally {
+                scope.close();
+            }
+        }
+    }
+
+    public static class Scope implements AutoCloseable {
+        private final SynthesisContext previous;
+
+        private Scope(SynthesisContext previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            CURRENT.set(previous);
+        }
+    }
+
+    public String tmpFilename(String name) {
+        return tmpDirectory == null
+                ? TMP_PREFIX + name
+                : new File(tmpDirectory, name).getPath();
+    }
+
+    public String dimacsFilename() {
+        return tmpFilename("dimacs");
+    }
+
+    public int nextSolverSeed() {
+        return solverSeed++;
+    }
+
+    /*
+     * Starts an external process (a SAT solver or limboole) on behalf of this context.
+     * The process is destroyed if this context or the context which was current when this one was created
+     * (e.g. the context of a builder which created a verifier with its own context) is cancelled.
+     */
+    public Process exec(String command) throws IOException {
+        final Process process = Runtime.getRuntime().exec(command);
+        for (SynthesisContext c = this; c != null; c = c.parent) {
+            c.register(process);
+        }
+        return process;
+    }
+
+    private void register(Process process) {
+        synchronized (processes) {
+            processes.removeIf(p -> !p.isAlive());
+            processes.add(process);
+            if (cancelled) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /*
+     * May be called from any thread: destroys the external processes of this context, including those started
+     * later, so that the thread working in this context is not left blocked on their output.
+     * In-process solvers are not affected, they stop when their thread is interrupted.
+     */
+    public void cancel() {
+        synchronized (processes) {
+            cancelled = true;
+            processes.forEach(Process::destroyForcibly);
+            processes.clear();
+        }
+    }
+
+    public void eraseVariables() {
+        allVars.clear();
+        varsByName.clear();
+        families.clear();
+    }
+
+    /*
+     * Returns the variable family with the given prefix, creating it if needed.
+     * dimensions are the bounds of all indices but the first one.
+     */
+    public VariableFamily family(String prefix, int... dimensions) {
+        final int[] dims = new int[dimensions.length + 1];
+        System.arraycopy(dimensions, 0, dims, 1, dimensions.length);
+        VariableFamily family = families.get(prefix);
+        if (family == null) {
+            family = new VariableFamily(this, prefix, dims);
+            families.put(prefix, family);
+        } else if (!family.hasDimensions(dims)) {
+            throw new AssertionError("Variable family " + prefix + " already exists with other dimensions");
+        }
+        return family;
+    }
+
+    public int variableNumber() {
+        return allVars.size();
+    }
+
+    /*
+     * Deletes temporary files left by previous runs in this context.
+     */
+    public void deleteTrash() {
+        final File dir = tmpDirectory == null ? new File(".") : tmpDirectory;
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (tmpDirectory != null || f.getName().startsWith(TMP_PREFIX)) {
+                f.delete();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (tmpDirectory != null) {
+            deleteTrash();
+            tmpDirectory.delete();
+        }
+    }
+}
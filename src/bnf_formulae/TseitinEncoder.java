@@ -0,0 +1,155 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * In-process replacement for 'limboole -d -s': converts a formula into an equisatisfiable CNF
+ * using the Plaisted-Greenbaum (polarity-aware Tseitin) transformation.
+ * Primary variables receive DIMACS numbers in the order of their first occurrence,
+ * auxiliary variables are interleaved with them and are not mapped to limboole numbers.
+ */
+public class TseitinEncoder {
+    private final Map<Integer, Integer> limbooleNumberToDimacs = new LinkedHashMap<>();
+    private final List<int[]> clauses = new ArrayList<>();
+    private int varNumber = 0;
+
+    public void assertFormula(BooleanFormula formula) {
+        assertSimplified(formula.simplify());
+    }
+
+    private void assertSimplified(BooleanFormula f) {
+        if (f == TrueFormula.INSTANCE) {
+            return;
+        } else if (f == FalseFormula.INSTANCE) {
+            final int v = newVar();
+            clauses.add(new int[] { v });
+            clauses.add(new int[] { -v });
+        } else if (f instanceof BinaryOperation && ((BinaryOperation) f).type == BinaryOperations.AND) {
+            ((BinaryOperation) f).children().forEach(this::assertSimplified);
+        } else if (f instanceof BinaryOperation && ((BinaryOperation) f).type == BinaryOperations.OR) {
+            final List<BooleanFormula> children = ((BinaryOperation) f).children();
+            final int[] clause = new int[children.size()];
+            for (int i = 0; i < clause.length; i++) {
+                clause[i] = encode(children.get(i), true, false);
+            }
+            clauses.add(clause);
+        } else {
+            clauses.add(new int[] { encode(f, true, false) });
+        }
+    }
+
+    /*
+     * Returns a literal l such that:
+     *   if positive, l -> f is implied by the clauses,
+     *   if negative, f -> l is implied by the clauses.
+     */
+    private int encode(BooleanFormula f, boolean positive, boolean negative) {
+        if (f instanceof BooleanVariable) {
+            return primaryVar((BooleanVariable) f);
+        } else if (f instanceof NotOperation) {
+            return -encode(((NotOperation) f).inside, negative, positive);
+        } else if (!(f instanceof BinaryOperation)) {
+            throw new AssertionError("Constants should have been simplified: " + f);
+        }
+        final BinaryOperation op = (BinaryOperation) f;
+        final List<BooleanFormula> children = op.children();
+        if (children.size() == 1) {
+            return encode(children.get(0), positive, negative);
+        }
+        switch (op.type) {
+        case AND:
+            return encodeAnd(encodeAll(children, positive, negative), positive, negative);
+        case OR:
+            return -encodeAnd(negate(encodeAll(children, positive, negative)), negative, positive);
+        case IMPLIES:
+            return -encodeAnd(new int[] {
+                    encode(children.get(0), negative, positive),
+                    -encode(children.get(1), positive, negative)
+            }, negative, positive);
+        case EQ:
+            return encodeEquivalence(encode(children.get(0), true, true), encode(children.get(1), true, true),
+                    positive, negative);
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    private int[] encodeAll(List<BooleanFormula> children, boolean positive, boolean negative) {
+        final int[] result = new int[children.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = encode(children.get(i), positive, negative);
+        }
+        return result;
+    }
+
+    private static int[] negate(int[] literals) {
+        for (int i = 0; i < literals.length; i++) {
+            literals[i] = -literals[i];
+        }
+        return literals;
+    }
+
+    private int encodeAnd(int[] literals, boolean positive, boolean negative) {
+        final int t = newVar();
+        if (positive) {
+            for (int l : literals) {
+                clauses.add(new int[] { -t, l });
+            }
+        }
+        if (negative) {
+            final int[] clause = new int[literals.length + 1];
+            for (int i = 0; i < literals.length; i++) {
+                clause[i] = -literals[i];
+            }
+            clause[literals.length] = t;
+            clauses.add(clause);
+        }
+        return t;
+    }
+
+    private int encodeEquivalence(int a, int b, boolean positive, boolean negative) {
+        final int t = newVar();
+        if (positive) {
+            clauses.add(new int[] { -t, -a, b });
+            clauses.add(new int[] { -t, a, -b });
+        }
+        if (negative) {
+            clauses.add(new int[] { t, a, b });
+            clauses.add(new int[] { t, -a, -b });
+        }
+        return t;
+    }
+
+    private int primaryVar(BooleanVariable v) {
+        Integer dimacs = limbooleNumberToDimacs.get(v.number);
+        if (dimacs == null) {
+            dimacs = newVar();
+            limbooleNumberToDimacs.put(v.number, dimacs);
+        }
+        return dimacs;
+    }
+
+    private int newVar() {
+        return ++varNumber;
+    }
+
+    public int varNumber() {
+        return varNumber;
+    }
+
+    public List<int[]> clauses() {
+        return Collections.unmodifiableList(clauses);
+    }
+
+    public Map<Integer, Integer> limbooleNumberToDimacs() {
+        return Collections.unmodifiableMap(limbooleNumberToDimacs);
+    }
+}
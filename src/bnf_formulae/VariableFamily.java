@@ -0,0 +1,135 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.Arrays;
+
+/*
+ * Variables prefix_i1_..._ik laid out densely by their indices:
+ * (i1, ..., ik) is stored at ((i1 * d2 + i2) * d3 + ...) * dk + ik, where d2, ..., dk are the fixed dimensions.
+ * The first index is not bounded. Lookup and decoding of indices do not allocate and do not use names,
+ * which are only kept for debug output and for the name-based code elsewhere.
+ * Families are obtained from SynthesisContext.family().
+ */
+public class VariableFamily {
+    public final String prefix;
+    // dims[0] is unused
+    private final int[] dims;
+    // product of dims[1..]
+    private final int stride;
+    private final SynthesisContext context;
+    private BooleanVariable[] vars = new BooleanVariable[16];
+
+    VariableFamily(SynthesisContext context, String prefix, int[] dims) {
+        this.context = context;
+        this.prefix = prefix;
+        this.dims = dims;
+        int stride = 1;
+        for (int i = 1; i < dims.length; i++) {
+            stride *= dims[i];
+        }
+        this.stride = stride;
+    }
+
+    boolean hasDimensions(int[] dims) {
+        return Arrays.equals(this.dims, dims);
+    }
+
+    public int arity() {
+        return dims.length;
+    }
+
+    private int flatIndex(int i) {
+        assert dims.length == 1;
+        return i;
+    }
+
+    private int flatIndex(int i, int j) {
+        assert dims.length == 2 && j < dims[1];
+        return i * dims[1] + j;
+    }
+
+    private int flatIndex(int i, int j, int k) {
+        assert dims.length == 3 && j < dims[1] && k < dims[2];
+        return (i * dims[1] + j) * dims[2] + k;
+    }
+
+    private BooleanVariable byFlatIndex(int flatIndex) {
+        final BooleanVariable v = flatIndex < vars.length ? vars[flatIndex] : null;
+        if (v == null) {
+            throw new AssertionError("Variable " + prefix + " with index " + flatIndex + " does not exist");
+        }
+        return v;
+    }
+
+    public BooleanVariable get(int i) {
+        return byFlatIndex(flatIndex(i));
+    }
+
+    public BooleanVariable get(int i, int j) {
+        return byFlatIndex(flatIndex(i, j));
+    }
+
+    public BooleanVariable get(int i, int j, int k) {
+        return byFlatIndex(flatIndex(i, j, k));
+    }
+
+    private BooleanVariable getOrCreateByFlatIndex(int flatIndex) {
+        if (flatIndex >= vars.length) {
+            vars = Arrays.copyOf(vars, Math.max(vars.length * 2, flatIndex + 1));
+        }
+        BooleanVariable v = vars[flatIndex];
+        if (v == null) {
+            v = new BooleanVariable(context, this, flatIndex);
+            vars[flatIndex] = v;
+        }
+        return v;
+    }
+
+    public BooleanVariable getOrCreate(int i) {
+        return getOrCreateByFlatIndex(flatIndex(i));
+    }
+
+    public BooleanVariable getOrCreate(int i, int j) {
+        return getOrCreateByFlatIndex(flatIndex(i, j));
+    }
+
+    public BooleanVariable getOrCreate(int i, int j, int k) {
+        return getOrCreateByFlatIndex(flatIndex(i, j, k));
+    }
+
+    public boolean contains(BooleanVariable v) {
+        return v.family == this;
+    }
+
+    /*
+     * Returns the index of v in the given dimension (0-based).
+     */
+    public int index(BooleanVariable v, int dimension) {
+        assert contains(v);
+        if (dimension == 0) {
+            return v.familyIndex / stride;
+        }
+        int divisor = 1;
+        for (int i = dims.length - 1; i > dimension; i--) {
+            divisor *= dims[i];
+        }
+        return v.familyIndex / divisor % dims[dimension];
+    }
+
+    String name(int flatIndex) {
+        final StringBuilder sb = new StringBuilder(prefix);
+        final int[] indices = new int[dims.length];
+        for (int i = dims.length - 1; i > 0; i--) {
+            indices[i] = flatIndex % dims[i];
+            flatIndex /= dims[i];
+        }
+        indices[0] = flatIndex;
+        for (int index : indices) {
+            sb.append('_').append(index);
+        }
+        return sb.toString();
+    }
+}
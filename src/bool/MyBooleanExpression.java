@@ -15,7 +15,7 @@ public class MyBooleanExpression {
         }
     }
     
-    public static MyBooleanExpression get(String repr) throws ParseException {
+    public static synchronized MyBooleanExpression get(String repr) throws ParseException {
         if (expressions.containsKey(repr)) {
             return expressions.get(repr);
         }
@@ -36,7 +36,7 @@ public class MyBooleanExpression {
     private final Map<Map<String, Boolean>, Boolean> truthTable;
     private static LinkedHashMap<String, Integer> varToNumber = new LinkedHashMap<>();
 
-    public static int varToNumber(String varName) {
+    public static synchronized int varToNumber(String varName) {
         Integer value = varToNumber.get(varName);
         if (value == null) {
             value = varToNumber.size();
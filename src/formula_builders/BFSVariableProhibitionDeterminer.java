@@ -86,7 +86,7 @@ public class BFSVariableProhibitionDeterminer {
         for (BooleanVariable v : existVars) {
             if (v.name.startsWith("y")) {
                 constraints.add(v);
-                final List<Assignment> list = BooleanFormula.solveAsSat(constraints.assemble().toLimbooleString(),
+                final List<Assignment> list = BooleanFormula.solveAsSat(constraints.assemble(),
                         logger, 100000, SatSolver.CRYPTOMINISAT).list();
                 results.put(v.name, !list.isEmpty());
                 constraints.removeLast();
@@ -49,8 +49,8 @@ public class CounterexampleFormulaBuilder extends FormulaBuilder {
     public void addNegativeScenarioVars() {
         for (MealyNode node : negativeTree.nodes()) {
             for (int color = 0; color <= colorSize; color++) {
-                if (!BooleanVariable.byName("xx", node.number(), color).isPresent()) {
-                    existVars.add(new BooleanVariable("xx", node.number(), color));
+                if (!BooleanVariable.byName(context, "xx", node.number(), color).isPresent()) {
+                    existVars.add(new BooleanVariable(context, "xx", node.number(), color));
                 }
             }
         }
@@ -1,6 +1,9 @@
 package formula_builders;
 
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.SynthesisContext;
+import bnf_formulae.VariableFamily;
+import sat_solving.ClauseBuffer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -17,13 +20,31 @@ public abstract class FastFormulaBuilder {
     protected final List<String> actions;
     protected final Map<String, Integer> actionIndices = new TreeMap<>();
     protected final List<BooleanVariable> vars = new ArrayList<>();
+    // variables are registered in the context the builder was created in
+    protected final SynthesisContext context = SynthesisContext.current();
+    // variables are looked up by indices, see VariableFamily
+    protected final VariableFamily x;
+    protected final VariableFamily y;
+    protected final VariableFamily xx;
+    protected final VariableFamily xxg;
+    protected final VariableFamily p;
+    protected final VariableFamily t;
+    protected final VariableFamily m;
+    // d_c: color c is disabled, see sizeAssumptions()
+    protected final VariableFamily d;
 
     protected final boolean deterministic;
     protected final boolean complete;
     protected final boolean bfsConstraints;
+    protected final boolean variableSize;
 
+    /*
+     * If variableSize is set, colors can be disabled by assumptions, and the same formula can be solved
+     * for all sizes up to colorSize.
+     */
     protected FastFormulaBuilder(int colorSize, List<String> events, List<String> actions,
-                                 boolean deterministic, boolean complete, boolean bfsConstraints) {
+                                 boolean deterministic, boolean complete, boolean bfsConstraints,
+                                 boolean variableSize) {
         this.colorSize = colorSize;
         this.events = events;
         for (int i = 0; i < events.size(); i++) {
@@ -36,21 +57,30 @@ public abstract class FastFormulaBuilder {
         this.deterministic = deterministic;
         this.complete = complete;
         this.bfsConstraints = bfsConstraints;
+        this.variableSize = variableSize;
+        x = context.family("x", colorSize);
+        y = context.family("y", colorSize, events.size());
+        xx = context.family("xx", colorSize);
+        xxg = context.family("xxg", colorSize);
+        p = context.family("p", colorSize);
+        t = context.family("t", colorSize);
+        m = context.family("m", colorSize, colorSize);
+        d = context.family("d");
     }
 
-    public static BooleanVariable xVar(int node, int color) {
-        return BooleanVariable.byName("x", node, color).get();
+    public BooleanVariable xVar(int node, int color) {
+        return x.get(node, color);
     }
 
-    public static BooleanVariable yVar(int from, int to, int event) {
-        return BooleanVariable.byName("y", from, to, event).get();
+    public BooleanVariable yVar(int from, int to, int event) {
+        return y.get(from, to, event);
     }
 
-    public static BooleanVariable xxVar(int node, int color, boolean isGlobal) {
-        return BooleanVariable.byName(isGlobal ? "xxg" : "xx", node, color).get();
+    public BooleanVariable xxVar(int node, int color, boolean isGlobal) {
+        return (isGlobal ? xxg : xx).get(node, color);
     }
 
-    protected void eventCompletenessConstraints(List<int[]> constraints) {
+    protected void eventCompletenessConstraints(ClauseBuffer constraints) {
         for (int i1 = 0; i1 < colorSize; i1++) {
             if (complete) {
                 for (int ei = 0; ei < events.size(); ei++) {
@@ -73,33 +103,90 @@ public abstract class FastFormulaBuilder {
         }
     }
 
-    protected void notMoreThanOneEdgeConstraints(List<int[]> constraints) {
+    protected void notMoreThanOneEdgeConstraints(ClauseBuffer constraints) {
         for (int i1 = 0; i1 < colorSize; i1++) {
             for (int ei = 0; ei < events.size(); ei++) {
                 for (int i2 = 0; i2 < colorSize; i2++) {
                     for (int i3 = 0; i3 < i2; i3++) {
-                        constraints.add(new int[] {
-                                -yVar(i1, i2, ei).number,
-                                -yVar(i1, i3, ei).number
-                        });
+                        constraints.add(-yVar(i1, i2, ei).number, -yVar(i1, i3, ei).number);
                     }
                 }
             }
         }
     }
 
+    // variable size
+
+    protected void addSizeVars() {
+        if (variableSize) {
+            for (int c = 1; c < colorSize; c++) {
+                vars.add(d.getOrCreate(c));
+            }
+        }
+    }
+
+    /*
+     * Disabled colors are not used by scenario nodes and are not reachable by transitions.
+     * Color 0 is never disabled.
+     * Transitions from a disabled color are not restricted, but they are not part of the automaton.
+     */
+    protected void sizeConstraints(ClauseBuffer constraints, int nodeCount) {
+        if (!variableSize) {
+            return;
+        }
+        for (int c = 1; c < colorSize; c++) {
+            final int disabled = d.get(c).number;
+            for (int node = 0; node < nodeCount; node++) {
+                constraints.add(-xVar(node, c).number, -disabled);
+            }
+            for (int from = 0; from < colorSize; from++) {
+                for (int ei = 0; ei < events.size(); ei++) {
+                    constraints.add(-yVar(from, c, ei).number, -disabled);
+                }
+            }
+        }
+    }
+
+    /*
+     * The global negative root is colored in all enabled colors.
+     */
+    protected void globalNegativeRootColor(ClauseBuffer constraints, int rootNumber, int color) {
+        if (variableSize && color > 0) {
+            constraints.add(xxVar(rootNumber, color, true).number, d.get(color).number);
+        } else {
+            constraints.add(xxVar(rootNumber, color, true).number);
+        }
+    }
+
+    /*
+     * Assumptions that enable exactly the colors 0, ..., size - 1 of a variable-size formula.
+     */
+    public int[] sizeAssumptions(int size) {
+        if (!variableSize) {
+            if (size != colorSize) {
+                throw new AssertionError("The formula is only built for " + colorSize + " colors");
+            }
+            return new int[0];
+        }
+        final int[] assumptions = new int[colorSize - 1];
+        for (int c = 1; c < colorSize; c++) {
+            assumptions[c - 1] = (c < size ? -1 : 1) * d.get(c).number;
+        }
+        return assumptions;
+    }
+
     // BFS constraints
 
     protected BooleanVariable pVar(int j, int i) {
-        return BooleanVariable.byName("p", j, i).get();
+        return p.get(j, i);
     }
 
     protected BooleanVariable tVar(int i, int j) {
-        return BooleanVariable.byName("t", i, j).get();
+        return t.get(i, j);
     }
 
     protected BooleanVariable mVar(int event, int i, int j) {
-        return BooleanVariable.byName("m", event, i, j).get();
+        return m.get(event, i, j);
     }
 
     protected void addBFSVars() {
@@ -109,8 +196,8 @@ public abstract class FastFormulaBuilder {
         // p_ji, t_ij
         for (int i = 0; i < colorSize; i++) {
             for (int j = i + 1; j < colorSize; j++) {
-                vars.add(BooleanVariable.getOrCreate("p", j, i));
-                vars.add(BooleanVariable.getOrCreate("t", i, j));
+                vars.add(p.getOrCreate(j, i));
+                vars.add(t.getOrCreate(i, j));
             }
         }
         if (events.size() > 2) {
@@ -118,14 +205,14 @@ public abstract class FastFormulaBuilder {
             for (int ei = 0; ei < events.size(); ei++) {
                 for (int i = 0; i < colorSize; i++) {
                     for (int j = i + 1; j < colorSize; j++) {
-                        vars.add(BooleanVariable.getOrCreate("m", ei, i, j));
+                        vars.add(m.getOrCreate(ei, i, j));
                     }
                 }
             }
         }
     }
 
-    protected void addBFSConstraints(List<int[]> constraints) {
+    protected void addBFSConstraints(ClauseBuffer constraints) {
         if (bfsConstraints) {
             parentConstraints(constraints);
             pDefinitions(constraints);
@@ -134,31 +221,34 @@ public abstract class FastFormulaBuilder {
         }
     }
 
-    protected void parentConstraints(List<int[]> constraints) {
+    protected void parentConstraints(ClauseBuffer constraints) {
         for (int j = 1; j < colorSize; j++) {
-            final int[] options = new int[j];
             for (int i = 0; i < j; i++) {
-                options[i] = pVar(j, i).number;
+                constraints.addLiteral(pVar(j, i).number);
+            }
+            if (variableSize) {
+                // a disabled color has no parent
+                constraints.addLiteral(d.get(j).number);
             }
-            constraints.add(options);
+            constraints.finishClause();
         }
 
         for (int k = 0; k < colorSize; k++) {
             for (int i = k + 1; i < colorSize; i++) {
                 for (int j = i + 1; j < colorSize - 1; j++) {
-                    constraints.add(new int[] { -pVar(j, i).number, -pVar(j + 1, k).number });
+                    constraints.add(-pVar(j, i).number, -pVar(j + 1, k).number);
                 }
             }
         }
     }
 
-    protected void pDefinitions(List<int[]> constraints) {
+    protected void pDefinitions(ClauseBuffer constraints) {
         for (int i = 0; i < colorSize; i++) {
             for (int j = i + 1; j < colorSize; j++) {
-                constraints.add(new int[] { -pVar(j, i).number, tVar(i, j).number });
+                constraints.add(-pVar(j, i).number, tVar(i, j).number);
                 final int[] options = new int[i + 2];
                 for (int k = i - 1; k >= 0; k--) {
-                    constraints.add(new int[] { -pVar(j, i).number, -tVar(k, j).number });
+                    constraints.add(-pVar(j, i).number, -tVar(k, j).number);
                     options[k] = tVar(k, j).number;
                 }
                 options[i] = -tVar(i, j).number;
@@ -168,12 +258,12 @@ public abstract class FastFormulaBuilder {
         }
     }
 
-    protected void tDefinitions(List<int[]> constraints) {
+    protected void tDefinitions(ClauseBuffer constraints) {
         for (int i = 0; i < colorSize; i++) {
             for (int j = i + 1; j < colorSize; j++) {
                 final int[] options = new int[events.size() + 1];
                 for (int ei = 0; ei < events.size(); ei++) {
-                    constraints.add(new int[] { -yVar(i, j, ei).number, tVar(i, j).number });
+                    constraints.add(-yVar(i, j, ei).number, tVar(i, j).number);
                     options[ei] = yVar(i, j, ei).number;
                 }
                 options[events.size()] = -tVar(i, j).number;
@@ -182,16 +272,16 @@ public abstract class FastFormulaBuilder {
         }
     }
 
-    protected void childrenOrderConstraints(List<int[]> constraints) {
+    protected void childrenOrderConstraints(ClauseBuffer constraints) {
         if (events.size() > 2) {
             // m definitions
             for (int i = 0; i < colorSize; i++) {
                 for (int j = i + 1; j < colorSize; j++) {
                     for (int ei1 = 0; ei1 < events.size(); ei1++) {
-                        constraints.add(new int[] { -mVar(ei1, i, j).number, yVar(i, j, ei1).number });
+                        constraints.add(-mVar(ei1, i, j).number, yVar(i, j, ei1).number);
                         final int[] options = new int[ei1 + 2];
                         for (int ei2 = ei1 - 1; ei2 >= 0; ei2--) {
-                            constraints.add(new int[] { -mVar(ei1, i, j).number, -yVar(i, j, ei2).number });
+                            constraints.add(-mVar(ei1, i, j).number, -yVar(i, j, ei2).number);
                             options[ei2] = yVar(i, j, ei2).number;
                         }
                         options[ei1] = -yVar(i, j, ei1).number;
@@ -216,7 +306,7 @@ public abstract class FastFormulaBuilder {
         } else {
             for (int i = 0; i < colorSize; i++) {
                 for (int j = i + 1; j < colorSize - 1; j++) {
-                    constraints.add(new int[] { -pVar(j, i).number, -pVar(j + 1, i).number, yVar(i, j, 0).number });
+                    constraints.add(-pVar(j, i).number, -pVar(j + 1, i).number, yVar(i, j, 0).number);
                 }
             }
         }
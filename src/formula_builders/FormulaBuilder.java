@@ -20,6 +20,7 @@ import bnf_formulae.BinaryOperations;
 import bnf_formulae.BooleanFormula;
 import bnf_formulae.BooleanVariable;
 import bnf_formulae.FormulaList;
+import bnf_formulae.SynthesisContext;
 
 /**
  * (c) Igor Buzhinsky
@@ -32,6 +33,8 @@ public abstract class FormulaBuilder {
     protected final ScenarioTree tree;
     protected final CompletenessType completenessType;
     protected final List<BooleanVariable> existVars = new ArrayList<>();
+    // variables are registered in the context the builder was created in
+    protected final SynthesisContext context = SynthesisContext.current();
     
     public FormulaBuilder(int colorSize, ScenarioTree tree,
             CompletenessType completenessType, List<String> events, List<String> actions) {
@@ -70,7 +73,7 @@ public abstract class FormulaBuilder {
         // color variables x_#node_color
         for (MealyNode node : tree.nodes()) {
             for (int color = 0; color < colorSize; color++) {
-                existVars.add(new BooleanVariable("x", node.number(), color));
+                existVars.add(new BooleanVariable(context, "x", node.number(), color));
             }
         }
     }
@@ -80,12 +83,12 @@ public abstract class FormulaBuilder {
             for (String e : events) {
                 // transition variables y_color_childColor_event_formula
                 for (int childColor = 0; childColor < colorSize; childColor++) {
-                    existVars.add(new BooleanVariable("y", nodeColor, childColor, e));
+                    existVars.add(new BooleanVariable(context, "y", nodeColor, childColor, e));
                 }
                 if (addActionVars) {
                     // action variables z_color_action_event_formula
                     for (String action : actions) {
-                        existVars.add(new BooleanVariable("z", nodeColor, action, e));
+                        existVars.add(new BooleanVariable(context, "z", nodeColor, action, e));
                     }
                 }
             }
@@ -293,8 +296,8 @@ public abstract class FormulaBuilder {
         // p_ji, t_ij
         for (int i = 0; i < colorSize; i++) {
             for (int j = i + 1; j < colorSize; j++) {
-                existVars.add(new BooleanVariable("p", j, i));
-                existVars.add(new BooleanVariable("t", i, j));
+                existVars.add(new BooleanVariable(context, "p", j, i));
+                existVars.add(new BooleanVariable(context, "t", i, j));
             }
         }
         if (events.size() > 2) {
@@ -302,7 +305,7 @@ public abstract class FormulaBuilder {
             for (String e : events) {
                 for (int i = 0; i < colorSize; i++) {
                     for (int j = i + 1; j < colorSize; j++) {
-                        existVars.add(new BooleanVariable("m", e, i, j));
+                        existVars.add(new BooleanVariable(context, "m", e, i, j));
                     }
                 }
             }
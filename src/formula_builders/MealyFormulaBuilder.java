@@ -4,7 +4,6 @@ package formula_builders;
  * (c) Igor Buzhinsky
  */
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -20,63 +19,74 @@ import structures.mealy.ScenarioTree;
 import structures.mealy.MealyTransition;
 import algorithms.AdjacencyCalculator;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.VariableFamily;
+import sat_solving.ClauseBuffer;
 
 public class MealyFormulaBuilder extends FastFormulaBuilder {
     private final ScenarioTree positiveTree;
     private final NegativeScenarioTree negativeTree;
     private final NegativeScenarioTree globalNegativeTree;
+    private final VariableFamily z;
     
     public MealyFormulaBuilder(int colorSize, ScenarioTree positiveForest,
                                NegativeScenarioTree negativeTree, NegativeScenarioTree globalNegativeTree,
-                               List<String> events, List<String> actions, boolean complete, boolean bfsConstraints) {
-        super(colorSize, events, actions, true, complete, bfsConstraints);
+                               List<String> events, List<String> actions, boolean complete, boolean bfsConstraints,
+                               boolean variableSize) {
+        super(colorSize, events, actions, true, complete, bfsConstraints, variableSize);
         this.positiveTree = positiveForest;
         this.negativeTree = negativeTree;
         this.globalNegativeTree = globalNegativeTree;
+        z = context.family("z", actions.size(), events.size());
     }
 
-    public static BooleanVariable zVar(int from, int action, int event) {
-        return BooleanVariable.byName("z", from, action, event).get();
+    public BooleanVariable zVar(int from, int action, int event) {
+        return z.get(from, action, event);
     }
     
     private void addPositiveVars() {
         for (int color = 0; color < colorSize; color++) {
             // scenario vars
             for (MealyNode node : positiveTree.nodes()) {
-                vars.add(BooleanVariable.getOrCreate("x", node.number(), color));
+                vars.add(x.getOrCreate(node.number(), color));
             }
             
             for (int ei = 0; ei < events.size(); ei++) {
                 // transition variables y_color_childColor_event_formula
                 for (int childColor = 0; childColor < colorSize; childColor++) {
-                    vars.add(BooleanVariable.getOrCreate("y", color, childColor, ei));
+                    vars.add(y.getOrCreate(color, childColor, ei));
                 }
                 // action variables z_color_action_event_formula
                 for (int ai = 0; ai < actions.size(); ai++) {
-                    vars.add(BooleanVariable.getOrCreate("z", color, ai, ei));
+                    vars.add(z.getOrCreate(color, ai, ei));
                 }
             }
         }
         addBFSVars();
+        addSizeVars();
     }
     
+    /*
+     * Only for the nodes added since the previous call (nodes are numbered in the order of addition).
+     */
     private void addNegativeVars() {
-        for (MealyNode node : negativeTree.nodes()) {
+        for (int node = negativeVarNodes[0]; node < negativeTree.nodeCount(); node++) {
             for (int color = 0; color < colorSize; color++) {
-                vars.add(BooleanVariable.getOrCreate("xx", node.number(), color));
+                vars.add(xx.getOrCreate(node, color));
             }
         }
-        for (MealyNode node : globalNegativeTree.nodes()) {
+        negativeVarNodes[0] = negativeTree.nodeCount();
+        for (int node = negativeVarNodes[1]; node < globalNegativeTree.nodeCount(); node++) {
             for (int color = 0; color < colorSize; color++) {
-                vars.add(BooleanVariable.getOrCreate("xxg", node.number(), color));
+                vars.add(xxg.getOrCreate(node, color));
             }
         }
+        negativeVarNodes[1] = globalNegativeTree.nodeCount();
     }
     
     /*
      * Each scenario node has at least one color
      */
-    private void eachNodeHasColorConstraints(List<int[]> constraints) {
+    private void eachNodeHasColorConstraints(ClauseBuffer constraints) {
         for (MealyNode node : positiveTree.nodes()) {
             final int[] constraint = new int[colorSize];
             for (int color = 0; color < colorSize; color++) {
@@ -89,16 +99,13 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
     /*
      * Each scenario node has at most one color
      */
-    private void eachNodeHasOnlyColorConstraints(List<int[]> constraints) {
+    private void eachNodeHasOnlyColorConstraints(ClauseBuffer constraints) {
         for (MealyNode node : positiveTree.nodes()) {
             for (int color1 = 0; color1 < colorSize; color1++) {
                 final BooleanVariable v1 = xVar(node.number(), color1);
                 for (int color2 = 0; color2 < color1; color2++) {
                     final BooleanVariable v2 = xVar(node.number(), color2);                 
-                    constraints.add(new int[] {
-                            -v1.number,
-                            -v2.number
-                    });
+                    constraints.add(-v1.number, -v2.number);
                 }
             }
         }
@@ -107,7 +114,7 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
     /*
      * REQUIRED since we account for action order
      */
-    private void consistencyConstraints(List<int[]> constraints) {
+    private void consistencyConstraints(ClauseBuffer constraints) {
         final Map<MealyNode, Set<MealyNode>> adjacent = AdjacencyCalculator.getAdjacent(positiveTree);
         final int[][] varNums = new int[positiveTree.nodes().size()][colorSize];
         for (MealyNode node : positiveTree.nodes()) {
@@ -121,14 +128,14 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
             for (MealyNode other : adjacent.get(node)) {
                 if (other.number() < node.number()) {
                     for (int color = 0; color < colorSize; color++) {
-                        constraints.add(new int[] { -varNums[nodeNum][color], -varNums[other.number()][color] });
+                        constraints.add(-varNums[nodeNum][color], -varNums[other.number()][color]);
                     }
                 }
             }
         }
     }
     
-    private void transitionConstraints(List<int[]> constraints) {
+    private void transitionConstraints(ClauseBuffer constraints) {
         for (MealyNode node : positiveTree.nodes()) {
             for (MealyTransition t : node.transitions()) {
                 for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
@@ -137,26 +144,53 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
                         final BooleanVariable childVar = xVar(t.dst().number(), childColor);
                         final BooleanVariable relationVar = yVar(nodeColor, childColor,
                                 eventIndices.get(t.event()));
-                        constraints.add(new int[] { relationVar.number, -nodeVar.number, -childVar.number });
-                        constraints.add(new int[] { -relationVar.number, -nodeVar.number, childVar.number });
+                        constraints.add(relationVar.number, -nodeVar.number, -childVar.number);
+                        constraints.add(-relationVar.number, -nodeVar.number, childVar.number);
                     }
                 }
             }
         }
     }
 
-    private void scenarioActionConstraints(List<int[]> constraints) {
+    /*
+     * For a compact tree (see ScenarioTree.compact()), a node may be visited in several states, and x_node_color
+     * means that the node is visited in this state, so nodes are not restricted to a single color.
+     * Since the automaton is deterministic, it is enough to require that the transition of each scenario node
+     * exists in each color of this node and that its target is among the colors of the child node.
+     * Together with scenarioActionConstraints(), this is equivalent to the constraints for the ordinary tree.
+     */
+    private void dagTransitionConstraints(ClauseBuffer constraints) {
+        for (MealyNode node : positiveTree.nodes()) {
+            for (MealyTransition t : node.transitions()) {
+                final int ei = eventIndices.get(t.event());
+                for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
+                    final int nodeVar = xVar(node.number(), nodeColor).number;
+                    constraints.addLiteral(-nodeVar);
+                    for (int childColor = 0; childColor < colorSize; childColor++) {
+                        constraints.addLiteral(yVar(nodeColor, childColor, ei).number);
+                    }
+                    constraints.finishClause();
+                    for (int childColor = 0; childColor < colorSize; childColor++) {
+                        constraints.add(-nodeVar, -yVar(nodeColor, childColor, ei).number,
+                                xVar(t.dst().number(), childColor).number);
+                    }
+                }
+            }
+        }
+    }
+
+    private void scenarioActionConstraints(ClauseBuffer constraints) {
         for (MealyNode node : positiveTree.nodes()) {
             for (MealyTransition t : node.transitions()) {
                 final List<String> actionSequence = Arrays.asList(t.actions().getActions());
                 for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
                     for (int ai = 0; ai < actions.size(); ai++) {
                         final String action = actions.get(ai);
-                        constraints.add(new int[] {
+                        constraints.add(
                                 -xVar(node.number(), nodeColor).number,
                                 (actionSequence.contains(action) ? 1 : -1)
                                     * zVar(nodeColor, ai, eventIndices.get(t.event())).number
-                        });
+                        );
                     }
                 }
             }
@@ -164,120 +198,101 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
     }
 
     // negative constraints
+    // The negative trees only grow, and each call of negativeConstraints() encodes only the nodes,
+    // transitions and loops added since the previous call: [0] for the negative tree, [1] for the global one.
     
+    private final int[] negativeVarNodes = new int[2];
+    private final int[] encodedTransitions = new int[2];
+    private final int[] encodedLoops = new int[2];
     private boolean negativeBasisAdded = false;
     
-    private void negativeScenarioBasis(List<int[]> constraints) {
+    private void negativeScenarioBasis(ClauseBuffer constraints) {
         if (!negativeBasisAdded) {
             for (int i = 0; i < colorSize; i++) {
-                constraints.add(new int[] { (i == 0 ? 1 : -1) * xxVar(0, i, false).number });
+                constraints.add((i == 0 ? 1 : -1) * xxVar(0, i, false).number);
             }
         }
     }
     
-    private void globalNegativeScenarioBasis(List<int[]> constraints) {
+    private void globalNegativeScenarioBasis(ClauseBuffer constraints) {
         if (!negativeBasisAdded) {
             for (int i = 0; i < colorSize; i++) {
-                constraints.add(new int[] { xxVar(0, i, true).number });
+                globalNegativeRootColor(constraints, 0, i);
             }
         }
     }
     
-    private final Set<NegativeMealyNode> unprocessedChildren = new HashSet<>();
+    private final Set<NegativeMealyNode> processedChildren = new HashSet<>();
     
-    private void negativeScenarioPropagation(List<int[]> constraints, boolean isGlobal) {
+    private void negativeScenarioPropagation(ClauseBuffer constraints, boolean isGlobal) {
         final int[] xxParent = new int[colorSize];
         final int[][] actionEq = new int[colorSize][actions.size()];
         final int[] xxChild = new int[colorSize];
 
         final NegativeScenarioTree tree =
                 isGlobal ? globalNegativeTree : negativeTree;
+        final int treeIndex = isGlobal ? 1 : 0;
+        final List<MealyTransition> log = tree.transitionLog();
         
-        for (NegativeMealyNode node : tree.nodes()) {
-            boolean xxParentFilled = false;
-            for (MealyTransition edge : node.transitions()) {
-                final NegativeMealyNode childNode = (NegativeMealyNode) edge.dst();
-                if (unprocessedChildren.add(childNode)) {
-                    /*if (!isGlobal) {
-                        // not more than one color for a usual negative node
-                        for (int color1 = 0; color1 < colorSize; color1++) {
-                            final BooleanVariable v1 = xxVar(node.number(), color1, isGlobal);
-                            for (int color2 = 0; color2 < color1; color2++) {
-                                final BooleanVariable v2 = xxVar(node.number(), color2, isGlobal);                  
-                                constraints.add(new int[] {
-                                        -v1.number,
-                                        -v2.number
-                                });
-                            }
-                        }
-                    }*/
-                    
-                    if (!xxParentFilled) {
-                        for (int color = 0; color < colorSize; color++) {
-                            xxParent[color] = xxVar(node.number(), color, isGlobal).number;
-                        }
-                        xxParentFilled = true;
-                    }
-                    final String event = edge.event();
-                    final List<String> actionList = Arrays.asList(edge.actions().getActions());
-                    for (int color = 0; color < colorSize; color++) {
-                        for (int ai = 0; ai < actions.size(); ai++) {
-                            final String action = actions.get(ai);
-                            final int sign = actionList.contains(action) ? 1 : -1;
-                            // we actually need the negation, this -sign:
-                            actionEq[color][ai] = -sign * zVar(color, ai, eventIndices.get(event)).number;
-                        }
-                    }
-                    for (int color = 0; color < colorSize; color++) {
-                        xxChild[color] = xxVar(childNode.number(), color, isGlobal).number;
+        for (MealyTransition edge : log.subList(encodedTransitions[treeIndex], log.size())) {
+            final NegativeMealyNode childNode = (NegativeMealyNode) edge.dst();
+            // multiple edges towards the same child are only added together, the first one is encoded
+            if (processedChildren.add(childNode)) {
+                for (int color = 0; color < colorSize; color++) {
+                    xxParent[color] = xxVar(edge.src().number(), color, isGlobal).number;
+                }
+                final String event = edge.event();
+                final List<String> actionList = Arrays.asList(edge.actions().getActions());
+                for (int color = 0; color < colorSize; color++) {
+                    for (int ai = 0; ai < actions.size(); ai++) {
+                        final String action = actions.get(ai);
+                        final int sign = actionList.contains(action) ? 1 : -1;
+                        // we actually need the negation, this -sign:
+                        actionEq[color][ai] = -sign * zVar(color, ai, eventIndices.get(event)).number;
                     }
-                    for (int color1 = 0; color1 < colorSize; color1++) {
-                        for (int color2 = 0; color2 < colorSize; color2++) {
-                            final int[] constraint = new int[actions.size() + 3];
-                            System.arraycopy(actionEq[color1], 0, constraint, 0, actions.size());
-                            constraint[actions.size() + 0] = -xxParent[color1];
-                            constraint[actions.size() + 1] = -yVar(color1, color2,
-                                    eventIndices.get(event)).number;
-                            constraint[actions.size() + 2] = xxChild[color2];
-                            constraints.add(constraint);
-                        }
+                }
+                for (int color = 0; color < colorSize; color++) {
+                    xxChild[color] = xxVar(childNode.number(), color, isGlobal).number;
+                }
+                for (int color1 = 0; color1 < colorSize; color1++) {
+                    for (int color2 = 0; color2 < colorSize; color2++) {
+                        constraints.addLiterals(actionEq[color1]);
+                        constraints.addLiteral(-xxParent[color1]);
+                        constraints.addLiteral(-yVar(color1, color2, eventIndices.get(event)).number);
+                        constraints.addLiteral(xxChild[color2]);
+                        constraints.finishClause();
                     }
                 }
             }
         }
+        encodedTransitions[treeIndex] = log.size();
     }
     
-    private final Set<NegativeMealyNode> processedTerminalNodes = new HashSet<>();
-    private final Set<Pair<NegativeMealyNode, NegativeMealyNode>> processedLoops = new HashSet<>();
-    
-    private void negativeScenarioTermination(List<int[]> constraints, boolean isGlobal) {
+    private void negativeScenarioTermination(ClauseBuffer constraints, boolean isGlobal) {
         final NegativeScenarioTree tree =
                 isGlobal ? globalNegativeTree : negativeTree;
+        final int treeIndex = isGlobal ? 1 : 0;
+        final List<Pair<NegativeMealyNode, NegativeMealyNode>> log = tree.loopLog();
         
-        for (NegativeMealyNode node : tree.nodes()) {
-            final int nodeNumber = node.number();
-            if (node.strongInvalid()) {
-                if (processedTerminalNodes.add(node)) {
-                    for (int color = 0; color < colorSize; color++) {
-                        constraints.add(new int[] {
-                                -xxVar(nodeNumber, color, isGlobal).number
-                        });
-                    }
+        for (Pair<NegativeMealyNode, NegativeMealyNode> p : log.subList(encodedLoops[treeIndex], log.size())) {
+            final int nodeNumber = p.getLeft().number();
+            final int loopNumber = p.getRight().number();
+            if (nodeNumber == loopNumber) {
+                // the node is terminal
+                for (int color = 0; color < colorSize; color++) {
+                    constraints.add(-xxVar(nodeNumber, color, isGlobal).number);
                 }
-            } else {
-                for (NegativeMealyNode loop : node.loops()) {
-                    if (processedLoops.add(Pair.of(node, loop))) {
-                        final int loopNumber = loop.number();
-                        for (int color = 0; color < colorSize; color++) {
-                            constraints.add(new int[] {
-                                    -xxVar(nodeNumber, color, isGlobal).number,
-                                    -xxVar(loopNumber, color, isGlobal).number
-                            });
-                        }
-                    }
+            } else if (!p.getLeft().strongInvalid()) {
+                // otherwise, subsumed by the terminal node constraints
+                for (int color = 0; color < colorSize; color++) {
+                    constraints.add(
+                            -xxVar(nodeNumber, color, isGlobal).number,
+                            -xxVar(loopNumber, color, isGlobal).number
+                    );
                 }
             }
         }
+        encodedLoops[treeIndex] = log.size();
     }
     
     public void createVars() {
@@ -285,22 +300,34 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
         addNegativeVars();
     }
     
-    public List<int[]> positiveConstraints() {
-        final List<int[]> constraints = new ArrayList<>();
-        constraints.add(new int[] { xVar(0, 0).number });
-        transitionConstraints(constraints);
+    public ClauseBuffer positiveConstraints() {
+        final ClauseBuffer constraints = new ClauseBuffer();
+        constraints.add(xVar(0, 0).number);
+        if (positiveTree.isDag()) {
+            dagTransitionConstraints(constraints);
+        } else {
+            transitionConstraints(constraints);
+        }
         eventCompletenessConstraints(constraints);
         notMoreThanOneEdgeConstraints(constraints);
-        consistencyConstraints(constraints);
-        eachNodeHasColorConstraints(constraints);
-        eachNodeHasOnlyColorConstraints(constraints);
+        if (!positiveTree.isDag()) {
+            consistencyConstraints(constraints);
+            eachNodeHasColorConstraints(constraints);
+            eachNodeHasOnlyColorConstraints(constraints);
+        }
         scenarioActionConstraints(constraints);
         addBFSConstraints(constraints);
+        sizeConstraints(constraints, positiveTree.nodes().size());
         return constraints;
     }
     
-    public List<int[]> negativeConstraints() {
-        final List<int[]> constraints = new ArrayList<>();
+    /*
+     * The constraints for the parts of the negative trees added since the previous call,
+     * which must be added to the constraints already passed to the solver.
+     */
+    public ClauseBuffer negativeConstraints() {
+        addNegativeVars();
+        final ClauseBuffer constraints = new ClauseBuffer();
         negativeScenarioBasis(constraints);
         globalNegativeScenarioBasis(constraints);
         negativeBasisAdded = true;
@@ -4,7 +4,6 @@ package formula_builders;
  * (c) Igor Buzhinsky
  */
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -13,6 +12,8 @@ import structures.moore.MooreTransition;
 import structures.moore.NegativePlantScenarioForest;
 import structures.moore.PositivePlantScenarioForest;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.VariableFamily;
+import sat_solving.ClauseBuffer;
 
 public class PlantFormulaBuilder extends FastFormulaBuilder {
     private final PositivePlantScenarioForest positiveForest;
@@ -22,15 +23,17 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
      * Special forest (actually, tree) for G(...) specifications, which are processed separately
      */
     private final NegativePlantScenarioForest globalNegativeForest;
+    private final VariableFamily z;
 
     public PlantFormulaBuilder(int colorSize, PositivePlantScenarioForest positiveForest,
             NegativePlantScenarioForest negativeForest, NegativePlantScenarioForest globalNegativeForest,
             List<String> events, List<String> actions, boolean deterministic, boolean bfsConstraints,
-            boolean complete) {
-        super(colorSize, events, actions, deterministic, complete, bfsConstraints);
+            boolean complete, boolean variableSize) {
+        super(colorSize, events, actions, deterministic, complete, bfsConstraints, variableSize);
         this.positiveForest = positiveForest;
         this.negativeForest = negativeForest;
         this.globalNegativeForest = globalNegativeForest;
+        z = context.family("z", actions.size());
     }
 
     public BooleanVariable yVar(int from, int to, String event) {
@@ -41,39 +44,40 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
         return zVar(state, actionIndices.get(action));
     }
     
-    public static BooleanVariable zVar(int state, int action) {
-        return BooleanVariable.byName("z", state, action).get();
+    public BooleanVariable zVar(int state, int action) {
+        return z.get(state, action);
     }
     
     private void addPositiveVars() {
         for (int color = 0; color < colorSize; color++) {
             // scenario vars
             for (MooreNode node : positiveForest.nodes()) {
-                vars.add(BooleanVariable.getOrCreate("x", node.number(), color));
+                vars.add(x.getOrCreate(node.number(), color));
             }
             // transition vars
             for (int ei = 0; ei < events.size(); ei++) {
                 for (int childColor = 0; childColor < colorSize; childColor++) {
-                    vars.add(BooleanVariable.getOrCreate("y", color, childColor, ei));
+                    vars.add(y.getOrCreate(color, childColor, ei));
                 }
             }
             // action vars
             for (int ai = 0; ai < actions.size(); ai++) {
-                vars.add(BooleanVariable.getOrCreate("z", color, ai));
+                vars.add(z.getOrCreate(color, ai));
             }
         }
         addBFSVars();
+        addSizeVars();
     }
     
     private void addNegativeVars() {
         for (MooreNode node : negativeForest.nodes()) {
             for (int color = 0; color < colorSize; color++) {
-                vars.add(BooleanVariable.getOrCreate("xx", node.number(), color));
+                vars.add(xx.getOrCreate(node.number(), color));
             }
         }
         for (MooreNode node : globalNegativeForest.nodes()) {
             for (int color = 0; color < colorSize; color++) {
-                vars.add(BooleanVariable.getOrCreate("xxg", node.number(), color));
+                vars.add(xxg.getOrCreate(node.number(), color));
             }
         }
     }
@@ -81,7 +85,7 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
     /*
      * Each scenario node has at least one color
      */
-    private void eachNodeHasColorConstraints(List<int[]> constraints) {
+    private void eachNodeHasColorConstraints(ClauseBuffer constraints) {
         for (MooreNode node : positiveForest.nodes()) {
             final int[] constraint = new int[colorSize];
             for (int color = 0; color < colorSize; color++) {
@@ -94,22 +98,19 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
     /*
      * Each scenario node has at most one color
      */
-    private void eachNodeHasOnlyColorConstraints(List<int[]> constraints) {
+    private void eachNodeHasOnlyColorConstraints(ClauseBuffer constraints) {
         for (MooreNode node : positiveForest.nodes()) {
             for (int color1 = 0; color1 < colorSize; color1++) {
                 final BooleanVariable v1 = xVar(node.number(), color1);
                 for (int color2 = 0; color2 < color1; color2++) {
                     final BooleanVariable v2 = xVar(node.number(), color2);                 
-                    constraints.add(new int[] {
-                            -v1.number,
-                            -v2.number
-                    });
+                    constraints.add(-v1.number, -v2.number);
                 }
             }
         }
     }
     
-    private void transitionConstraints(List<int[]> constraints) {
+    private void transitionConstraints(ClauseBuffer constraints) {
         for (MooreNode node : positiveForest.nodes()) {
             for (MooreTransition t : node.transitions()) {
                 for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
@@ -117,9 +118,9 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
                     for (int childColor = 0; childColor < colorSize; childColor++) {
                         final BooleanVariable childVar = xVar(t.dst().number(), childColor);
                         final BooleanVariable relationVar = yVar(nodeColor, childColor, t.event());
-                        constraints.add(new int[] { relationVar.number, -nodeVar.number, -childVar.number });
+                        constraints.add(relationVar.number, -nodeVar.number, -childVar.number);
                         if (deterministic) {
-                            constraints.add(new int[] { -relationVar.number, -nodeVar.number, childVar.number });
+                            constraints.add(-relationVar.number, -nodeVar.number, childVar.number);
                         }
                     }
                 }
@@ -127,22 +128,22 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
         }
     }
     
-    private void scenarioActionConstraints(List<int[]> constraints) {
+    private void scenarioActionConstraints(ClauseBuffer constraints) {
         for (MooreNode node : positiveForest.nodes()) {
             final List<String> actionSequence = Arrays.asList(node.actions().getActions());
             for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
                 for (int ai = 0; ai < actions.size(); ai++) {
                     final String action = actions.get(ai);
-                    constraints.add(new int[] {
+                    constraints.add(
                             -xVar(node.number(), nodeColor).number,
                             (actionSequence.contains(action) ? 1 : -1) * zVar(nodeColor, ai).number
-                    });
+                    );
                 }
             }
         }
     }
     
-    private void negativeScenarioBasis(List<int[]> constraints) {
+    private void negativeScenarioBasis(ClauseBuffer constraints) {
         for (MooreNode negRoot : negativeForest.roots()) {
             if (!negativeForest.processRoot(negRoot)) {
                 continue;
@@ -150,17 +151,17 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
             for (MooreNode root : positiveForest.roots()) {
                 if (root.actions().setEquals(negRoot.actions())) {
                     for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
-                        constraints.add(new int[] {
+                        constraints.add(
                                 -xVar(root.number(), nodeColor).number,
                                 xxVar(negRoot.number(), nodeColor, false).number
-                        });
+                        );
                     }
                 }
             }
         }
     }
     
-    private void globalNegativeScenarioBasis(List<int[]> constraints) {
+    private void globalNegativeScenarioBasis(ClauseBuffer constraints) {
         if (globalNegativeForest.roots().size() > 1) {
             throw new AssertionError();
         }
@@ -170,12 +171,12 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
             }
             // the global negative root is colored in all colors
             for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
-                constraints.add(new int[] { xxVar(root.number(), nodeColor, true).number });
+                globalNegativeRootColor(constraints, root.number(), nodeColor);
             }
         }
     }
     
-    private void negativeScenarioPropagation(List<int[]> constraints, boolean isGlobal) {
+    private void negativeScenarioPropagation(ClauseBuffer constraints, boolean isGlobal) {
         final NegativePlantScenarioForest forest =
                 isGlobal ? globalNegativeForest : negativeForest;
         final int[] xxParent = new int[colorSize];
@@ -210,28 +211,25 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
                 }
                 for (int color1 = 0; color1 < colorSize; color1++) {
                     for (int color2 = 0; color2 < colorSize; color2++) {
-                        final int[] constraint = new int[actions.size() + 3];
-                        System.arraycopy(actionEq[color2], 0, constraint, 0, actions.size());
-                        constraint[actions.size() + 0] = -xxParent[color1];
-                        constraint[actions.size() + 1] = -yVar(color1, color2, event).number;
-                        constraint[actions.size() + 2] = xxChild[color2];
-                        constraints.add(constraint);
+                        constraints.addLiterals(actionEq[color2]);
+                        constraints.addLiteral(-xxParent[color1]);
+                        constraints.addLiteral(-yVar(color1, color2, event).number);
+                        constraints.addLiteral(xxChild[color2]);
+                        constraints.finishClause();
                     }
                 }
             }
         }
     }
     
-    private void negativeScenarioTermination(List<int[]> constraints, boolean isGlobal) {
+    private void negativeScenarioTermination(ClauseBuffer constraints, boolean isGlobal) {
         final NegativePlantScenarioForest forest = isGlobal ? globalNegativeForest : negativeForest;
         for (MooreNode node : forest.terminalNodes()) {
             if (!forest.processTerminalNode(node)) {
                 continue;
             }
             for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
-                constraints.add(new int[] {
-                        -xxVar(node.number(), nodeColor, isGlobal).number
-                });
+                constraints.add(-xxVar(node.number(), nodeColor, isGlobal).number);
             }
         }
     }
@@ -241,16 +239,16 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
         addNegativeVars();
     }
     
-    public List<int[]> positiveConstraints() {
-        final List<int[]> constraints = new ArrayList<>();
+    public ClauseBuffer positiveConstraints() {
+        final ClauseBuffer constraints = new ClauseBuffer();
         if (deterministic) {
             // only one initial state
             for (MooreNode root : positiveForest.roots()) {
-                constraints.add(new int[] { xVar(root.number(), 0).number });
+                constraints.add(xVar(root.number(), 0).number);
             }
         } else {
             // first node is always an initial state (but probably there are more)
-            constraints.add(new int[] { xVar(0, 0).number });
+            constraints.add(xVar(0, 0).number);
         }
         transitionConstraints(constraints);
         eventCompletenessConstraints(constraints);
@@ -261,11 +259,12 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
             notMoreThanOneEdgeConstraints(constraints);
             addBFSConstraints(constraints);
         }
+        sizeConstraints(constraints, positiveForest.nodes().size());
         return constraints;
     }
     
-    public List<int[]> negativeConstraints() {
-        final List<int[]> constraints = new ArrayList<>();
+    public ClauseBuffer negativeConstraints() {
+        final ClauseBuffer constraints = new ClauseBuffer();
         negativeScenarioBasis(constraints);
         globalNegativeScenarioBasis(constraints);
         for (boolean isGlobal : Arrays.asList(false, true)) {
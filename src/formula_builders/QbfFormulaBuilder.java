@@ -27,7 +27,7 @@ public class QbfFormulaBuilder extends FormulaBuilder {
             int colorSize, int depth, CompletenessType completenessType,
             List<String> events, List<String> actions) {
         super(colorSize, tree, completenessType, events, actions);
-        BooleanVariable.eraseVariables();
+        context.eraseVariables();
         this.logger = logger;
         this.formulae = formulae;
         this.k = depth;
@@ -48,7 +48,7 @@ public class QbfFormulaBuilder extends FormulaBuilder {
     private void addSigmaVars() {
         for (int i = 0; i < colorSize; i++) {
             for (int j = 0; j <= k; j++) {
-                forallVars.add(new BooleanVariable("sigma", i, j));
+                forallVars.add(new BooleanVariable(context, "sigma", i, j));
             }
         }
     }
@@ -56,7 +56,7 @@ public class QbfFormulaBuilder extends FormulaBuilder {
     private void addEpsVars() {
         for (String e : events) {
             for (int j = 0; j <= k; j++) {
-                forallVars.add(new BooleanVariable("eps", e, j));
+                forallVars.add(new BooleanVariable(context, "eps", e, j));
             }
         }
     }
@@ -64,7 +64,7 @@ public class QbfFormulaBuilder extends FormulaBuilder {
     private void addZetaVars() {
         for (String action : actions) {
             for (int j = 0; j <= k; j++) {
-                forallVars.add(new BooleanVariable("zeta", action, j));
+                forallVars.add(new BooleanVariable(context, "zeta", action, j));
             }
         }
     }
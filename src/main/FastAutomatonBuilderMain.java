@@ -5,19 +5,27 @@ package main;
  */
 
 import automaton_builders.FastAutomatonBuilder;
+import automaton_builders.ParallelSizeSearch;
+import bnf_formulae.SynthesisContext;
 import meta.Author;
 import meta.MainBase;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
+import org.apache.commons.lang3.tuple.Pair;
 import org.kohsuke.args4j.spi.BooleanOptionHandler;
+import sat_solving.PortfolioInterface;
 import sat_solving.SatSolver;
+import sat_solving.SolverOptions;
 import scenario.StringScenario;
 import structures.mealy.MealyAutomaton;
 import structures.mealy.MealyNode;
 import structures.mealy.NegativeScenarioTree;
 import structures.mealy.ScenarioTree;
 import verification.ltl.LtlParser;
+import verification.verifier.BuchiCache;
+import verification.verifier.SimpleVerifier;
 import verification.verifier.Verifier;
+import verification.verifier.VerifierOptions;
 
 import java.io.IOException;
 import java.text.ParseException;
@@ -30,8 +38,22 @@ public class FastAutomatonBuilderMain extends MainBase {
     private List<String> arguments = new ArrayList<>();
 
     @Option(name = "--size", aliases = { "-s" },
-            usage = "automaton size", metaVar = "<size>", required = true)
+            usage = "automaton size", metaVar = "<size>")
     private int size;
+
+    @Option(name = "--sizeRange", aliases = { "-sr" },
+            usage = "search for the minimum automaton size in this range (instead of --size)",
+            metaVar = "<from..to>")
+    private String sizeRange;
+
+    @Option(name = "--parallel", aliases = { "-p" },
+            usage = "with --sizeRange: number of sizes to try concurrently (default: number of processors)",
+            metaVar = "<threads>")
+    private int parallel = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "--incrementalSize", aliases = { "-is" }, handler = BooleanOptionHandler.class,
+            usage = "with --sizeRange: try the sizes one by one in a single solver session instead of in parallel")
+    private boolean incrementalSize;
     
     @Option(name = "--eventNumber", aliases = { "-en" },
             usage = "number of events (default 1)", metaVar = "<eventNumber>")
@@ -99,10 +121,60 @@ public class FastAutomatonBuilderMain extends MainBase {
     private boolean globalTree;
 
     @Option(name = "--solver",
-            usage = "SAT solver: INCREMENTAL_CRYPTOMINISAT (default), LINGELING, CRYPTOMINISAT",
+            usage = "SAT solver: INCREMENTAL_CRYPTOMINISAT (default), LINGELING, CRYPTOMINISAT, EMBEDDED, PORTFOLIO",
             metaVar = "<solver>")
     private String strSolver = SatSolver.INCREMENTAL_CRYPTOMINISAT.name();
 
+    @Option(name = "--portfolio",
+            usage = "with --solver PORTFOLIO: comma-separated solver configurations SOLVER:seed to run in parallel, "
+                    + "SOLVER is one of CRYPTOMINISAT, LINGELING, EMBEDDED (default: "
+                    + PortfolioInterface.DEFAULT_CONFIGURATIONS + ")",
+            metaVar = "<configurations>")
+    private String portfolio;
+
+    @Option(name = "--useLimboole", handler = BooleanOptionHandler.class,
+            usage = "convert formulae to CNF with the external limboole instead of in-process "
+                    + "(ignored by the EMBEDDED solver)")
+    private boolean useLimboole;
+
+    @Option(name = "--emptinessCheck",
+            usage = "emptiness check of the LTL model checker: NESTED_BFS (default), SCC (linear, "
+                    + "but counterexamples may be longer)",
+            metaVar = "<check>")
+    private String emptinessCheck = SimpleVerifier.EmptinessCheck.NESTED_BFS.name();
+
+    @Option(name = "--parallelVerification", handler = BooleanOptionHandler.class,
+            usage = "verify LTL formulae concurrently (not recommended with --sizeRange)")
+    private boolean parallelVerification;
+
+    @Option(name = "--verifierBackend",
+            usage = "LTL model checker: EXPLICIT (default, product construction), BOUNDED (bounded model checking "
+                    + "with the SAT solver of --solver)",
+            metaVar = "<backend>")
+    private String verifierBackend = Verifier.Backend.EXPLICIT.name();
+
+    @Option(name = "--bmcBound",
+            usage = "with --verifierBackend BOUNDED: maximum counterexample length "
+                    + "(default 0: the bound which makes the check complete)",
+            metaVar = "<bound>")
+    private int bmcBound = 0;
+
+    @Option(name = "--buchiCache",
+            usage = "directory to cache LTL to Buchi automaton translations between runs",
+            metaVar = "<directory>")
+    private String buchiCache;
+
+    @Option(name = "--counterexampleBatch", aliases = { "-cb" },
+            usage = "maximum number of counterexamples added for each violated LTL formula in each iteration "
+                    + "(default 1)",
+            metaVar = "<number>")
+    private int counterexampleBatch = 1;
+
+    @Option(name = "--compactTree", aliases = { "-ct" }, handler = BooleanOptionHandler.class,
+            usage = "build the scenario tree over a trie and merge nodes with equal subtrees, "
+                    + "which reduces the number of node variables for large scenario sets")
+    private boolean compactTree;
+
     public static void main(String[] args) {
         new FastAutomatonBuilderMain().run(args, Author.IB, "FSM builder from scenarios and LTL formulae");
     }
@@ -114,19 +186,72 @@ public class FastAutomatonBuilderMain extends MainBase {
         actionNumber = actionNames == null ? actionNumber : actionNames.split(",").length;
         varNumber = varNames == null ? varNumber : varNames.split(",").length;
         registerVariableNames(varNames, varNumber);
-        final ScenarioTree tree = loadScenarioTree(arguments, true);
+        final ScenarioTree tree = loadScenarioTree(arguments, true, compactTree);
         saveScenarioTree(tree, treeFilePath);
         final List<String> eventnames = eventNames(eventNames, eventNumber);
         final List<String> events = events(eventnames, eventNumber, varNumber);
         final List<String> actions = actions(actionNames, actionNumber);
 
-        SatSolver solver;
+        final SolverOptions solver;
         try {
-            solver = SatSolver.valueOf(strSolver);
+            solver = new SolverOptions(SatSolver.valueOf(strSolver)).setUseLimboole(useLimboole);
         } catch (IllegalArgumentException e) {
             logger().warning(strSolver + " is not a valid SAT solver.");
             return;
         }
+        final VerifierOptions verifierOptions = new VerifierOptions().setParallel(parallelVerification);
+        try {
+            verifierOptions.setEmptinessCheck(SimpleVerifier.EmptinessCheck.valueOf(emptinessCheck));
+        } catch (IllegalArgumentException e) {
+            logger().warning(emptinessCheck + " is not a valid emptiness check.");
+            return;
+        }
+        try {
+            verifierOptions.setBackend(Verifier.Backend.valueOf(verifierBackend));
+        } catch (IllegalArgumentException e) {
+            logger().warning(verifierBackend + " is not a valid verifier backend.");
+            return;
+        }
+        try {
+            verifierOptions.setMaxBound(bmcBound);
+        } catch (IllegalArgumentException e) {
+            logger().warning(e.getMessage());
+            return;
+        }
+        verifierOptions.setBoundedSolver(solver);
+        if (buchiCache != null) {
+            try {
+                verifierOptions.setBuchiCache(new BuchiCache(buchiCache));
+            } catch (IllegalArgumentException e) {
+                logger().warning(e.getMessage());
+                return;
+            }
+        }
+        if (counterexampleBatch < 1) {
+            logger().warning("The counterexample batch must be positive");
+            return;
+        }
+        if (portfolio != null) {
+            try {
+                solver.setPortfolio(portfolio);
+            } catch (IllegalArgumentException e) {
+                logger().warning(e.getMessage());
+                return;
+            }
+        }
+
+        Pair<Integer, Integer> range = null;
+        if (sizeRange != null) {
+            try {
+                range = ParallelSizeSearch.parseRange(sizeRange);
+            } catch (IllegalArgumentException e) {
+                logger().warning(e.getMessage());
+                return;
+            }
+        } else if (size <= 0) {
+            logger().warning("Either --size or --sizeRange must be specified.");
+            return;
+        }
 
         try {
             final List<String> strFormulae = LtlParser.load(ltlFilePath, varNumber, eventnames);
@@ -146,15 +271,47 @@ public class FastAutomatonBuilderMain extends MainBase {
 
             logger().info("Start building automaton");
 
-            final Verifier verifier = new Verifier(logger(), strFormulae, events, actions);
+            final Verifier verifier = new Verifier(logger(), strFormulae, events, actions, verifierOptions);
             final long finishTime = System.currentTimeMillis() + (long) timeout * 1000;
-            final Optional<MealyAutomaton> resultAutomaton = FastAutomatonBuilder.build(logger(),
-                    tree, negativeForest, size, strFormulae,
-                    events, actions, verifier, finishTime, complete, bfsConstraints,
-                    globalTree, solver);
+            final Optional<MealyAutomaton> resultAutomaton;
+            if (range != null && incrementalSize) {
+                final Pair<Integer, Integer> sizes = range;
+                final Optional<Pair<Integer, MealyAutomaton>> found = SynthesisContext.runIsolated(context ->
+                        FastAutomatonBuilder.build(logger(), tree, negativeForest, sizes.getLeft(),
+                                sizes.getRight(), strFormulae, events, actions, verifier, finishTime, complete,
+                                bfsConstraints, globalTree, solver, counterexampleBatch));
+                found.ifPresent(p -> {
+                    size = p.getLeft();
+                    logger().info("MINIMUM SIZE: " + size);
+                });
+                resultAutomaton = found.map(Pair::getRight);
+            } else if (range == null) {
+                resultAutomaton = SynthesisContext.runIsolated(context -> FastAutomatonBuilder.build(logger(),
+                        tree, negativeForest, size, strFormulae, events, actions, verifier, finishTime, complete,
+                        bfsConstraints, globalTree, solver, counterexampleBatch));
+            } else {
+                // each size needs its own negative tree and verifier, since the builder modifies them
+                final Optional<Pair<Integer, MealyAutomaton>> found = ParallelSizeSearch.search(logger(),
+                        range.getLeft(), range.getRight(), parallel, (s, context) -> {
+                            final NegativeScenarioTree sizeNegativeForest = new NegativeScenarioTree();
+                            if (negscFilePath != null) {
+                                sizeNegativeForest.load(negscFilePath, true);
+                            }
+                            final Verifier sizeVerifier = new Verifier(logger(), strFormulae, events, actions,
+                                    verifierOptions);
+                            return FastAutomatonBuilder.build(logger(), tree, sizeNegativeForest, s,
+                                    strFormulae, events, actions, sizeVerifier, finishTime, complete,
+                                    bfsConstraints, globalTree, solver, counterexampleBatch);
+                        });
+                found.ifPresent(p -> {
+                    size = p.getLeft();
+                    logger().info("MINIMUM SIZE: " + size);
+                });
+                resultAutomaton = found.map(Pair::getRight);
+            }
 
             if (!resultAutomaton.isPresent()) {
-                logger().info("Automaton with " + size + " states NOT FOUND!");
+                logger().info("Automaton with " + (range == null ? size : sizeRange) + " states NOT FOUND!");
                 logger().info("Automaton builder execution time: " + executionTime());
             } else {
                 final MealyAutomaton a = resultAutomaton.get();
@@ -95,7 +95,7 @@ public class QbfBuilderMain extends MainBase {
     private String qbfSolver = QbfSolver.DEPQBF.name();
     
     @Option(name = "--satSolver", aliases = { "-qss" },
-            usage = "SAT solver: LINGELING (default), CRYPTOMINISAT",
+            usage = "SAT solver: LINGELING (default), CRYPTOMINISAT, EMBEDDED",
             metaVar = "<satSolver>")
     private String satSolver = SatSolver.LINGELING.name();
     
@@ -126,6 +126,15 @@ public class QbfBuilderMain extends MainBase {
             metaVar = "<errorNumber>")
     private int backtrackingErrorNumber = -1;
 
+    @Option(name = "--backtrackingThreads", aliases = { "-bt" },
+            usage = "if strategy = BACKTRACKING, the number of threads for the parallel search (default: 1)",
+            metaVar = "<threads>")
+    private int backtrackingThreads = 1;
+
+    @Option(name = "--noNogoodLearning", aliases = { "-nnl" }, handler = BooleanOptionHandler.class,
+            usage = "if strategy = BACKTRACKING, do not record and reuse conflicts with scenarios and LTL formulae")
+    private boolean noNogoodLearning;
+
     @Option(name = "--generateQsatForK",
             usage = "if strategy = QSAT, then instead of solving only a QDIMACS file is generated for the given k",
             metaVar = "<errorNumber>")
@@ -204,6 +213,7 @@ public class QbfBuilderMain extends MainBase {
             
             Optional<MealyAutomaton> resultAutomaton = null;
             final Verifier verifier = new Verifier(logger(), strFormulae, events, actions);
+            final List<String> finalStrFormulae = strFormulae;
             final long finishTime = startTime() + (long) timeout * 1000;
             switch (ss) {
             case QSAT: case EXP_SAT:
@@ -224,7 +234,8 @@ public class QbfBuilderMain extends MainBase {
             case BACKTRACKING:
                 resultAutomaton = BacktrackingAutomatonBuilder.build(logger(), tree, size, formulae, events, actions,
                         verifier, finishTime, completenesstype, varNumber, ensureCoverageAndWeakCompleteness,
-                        eventnames, backtrackingErrorNumber, scenarios);
+                        eventnames, backtrackingErrorNumber, scenarios, backtrackingThreads,
+                        () -> new Verifier(logger(), finalStrFormulae, events, actions), !noNogoodLearning);
                 break;
             }
 
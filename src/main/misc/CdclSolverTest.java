@@ -0,0 +1,98 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import sat_solving.CdclSolver;
+import sat_solving.SolverResult.SolverResults;
+
+/*
+ * Checks the embedded solver against brute force on random formulae, incrementally and under assumptions
+ * (including repeated and complementary ones).
+ */
+public class CdclSolverTest {
+    private static final int VAR_NUMBER = 8;
+
+    private static boolean satisfies(List<int[]> clauses, int[] assumptions, boolean[] values) {
+        return clauses.stream().allMatch(c -> Arrays.stream(c).anyMatch(l -> values[Math.abs(l)] == l > 0))
+                && Arrays.stream(assumptions).allMatch(l -> values[Math.abs(l)] == l > 0);
+    }
+
+    private static boolean satisfiable(List<int[]> clauses, int[] assumptions) {
+        final boolean[] values = new boolean[VAR_NUMBER + 1];
+        for (int mask = 0; mask < 1 << VAR_NUMBER; mask++) {
+            for (int v = 1; v <= VAR_NUMBER; v++) {
+                values[v] = ((mask >> (v - 1)) & 1) == 1;
+            }
+            if (satisfies(clauses, assumptions, values)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int randomLiteral(Random rnd) {
+        return (1 + rnd.nextInt(VAR_NUMBER)) * (rnd.nextBoolean() ? 1 : -1);
+    }
+
+    private static void check(CdclSolver solver, List<int[]> clauses, int[] assumptions) {
+        final SolverResults result = solver.solve(assumptions, Long.MAX_VALUE);
+        final boolean expected = satisfiable(clauses, assumptions);
+        if ((result == SolverResults.SAT) != expected) {
+            throw new AssertionError("Wrong verdict " + result + " under assumptions "
+                    + Arrays.toString(assumptions));
+        }
+        if (expected) {
+            final boolean[] values = new boolean[VAR_NUMBER + 1];
+            for (int v = 1; v <= VAR_NUMBER; v++) {
+                values[v] = solver.value(v);
+            }
+            if (!satisfies(clauses, assumptions, values)) {
+                throw new AssertionError("Invalid model under assumptions " + Arrays.toString(assumptions));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        // more repeated assumptions than variables
+        final CdclSolver small = new CdclSolver();
+        small.addClause(new int[] { 1, 2 });
+        small.addClause(new int[] { -1, 3 });
+        if (small.solve(new int[] { 1, 1, 1, 1, 1, 1 }, Long.MAX_VALUE) != SolverResults.SAT || !small.value(3)) {
+            throw new AssertionError("Repeated assumptions");
+        }
+
+        final Random rnd = new Random(0);
+        final int tests = 300;
+        for (int i = 0; i < tests; i++) {
+            final CdclSolver solver = new CdclSolver(i);
+            solver.ensureVars(VAR_NUMBER);
+            final List<int[]> clauses = new ArrayList<>();
+            // clauses are added in several steps, each followed by solving under assumptions
+            for (int step = 0; step < 4; step++) {
+                for (int j = 0; j < 6; j++) {
+                    final int[] clause = new int[1 + rnd.nextInt(3)];
+                    for (int k = 0; k < clause.length; k++) {
+                        clause[k] = randomLiteral(rnd);
+                    }
+                    clauses.add(clause);
+                    solver.addClause(clause);
+                }
+                for (int j = 0; j < 3; j++) {
+                    final int[] assumptions = new int[rnd.nextInt(2 * VAR_NUMBER)];
+                    for (int k = 0; k < assumptions.length; k++) {
+                        assumptions[k] = randomLiteral(rnd);
+                    }
+                    check(solver, clauses, assumptions);
+                }
+            }
+        }
+        System.out.println("OK: " + tests + " formulae");
+    }
+}
@@ -0,0 +1,214 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.FileNotFoundException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import verification.ltl.GrammarConverter;
+import verification.ltl.LtlParseException;
+import verification.ltl.LtlParser;
+import verification.ltl.buchi.BuchiAutomaton;
+import verification.ltl.buchi.BuchiNode;
+import verification.ltl.buchi.TransitionCondition;
+import verification.ltl.buchi.translator.JLtl2baTranslator;
+import verification.ltl.grammar.BooleanNode;
+import verification.ltl.grammar.IExpression;
+import verification.ltl.grammar.LtlNode;
+import verification.ltl.grammar.LtlUtils;
+import verification.ltl.grammar.PredicateFactory;
+import verification.verifier.FiniteCounterexampleNodeSearcher;
+
+/*
+ * Compares the enumeration-based search of finite counterexample Buchi nodes (old) with the bitmask-based one (new)
+ * on the Buchi automata of negated LTL formulae, as in VerifierFactory.
+ * Both searches are checked to return equal sets. Translation time is not counted.
+ * Example, for all LTL files of the repository (run from the directory with c-lib):
+ *   FiniteCounterexampleBenchmark $(find .. -name '*.ltl')
+ */
+public class FiniteCounterexampleBenchmark {
+    private static final int REPEATS = 5;
+
+    public static void main(String[] args) throws FileNotFoundException {
+        if (args.length == 0) {
+            System.err.println("Usage: FiniteCounterexampleBenchmark <ltl file>...");
+            return;
+        }
+        final JLtl2baTranslator translator = new JLtl2baTranslator();
+        final List<BuchiAutomaton> automata = new ArrayList<>();
+        for (String filename : args) {
+            final PredicateFactory predicates = new PredicateFactory();
+            final List<String> formulas = LtlParser.load(filename, 0, Collections.emptyList());
+            final List<LtlNode> nodes;
+            try {
+                nodes = LtlParser.parse(formulas, new GrammarConverter(predicates));
+            } catch (LtlParseException e) {
+                System.err.println("Skipping " + filename + ": " + e.getMessage());
+                continue;
+            }
+            for (LtlNode node : nodes) {
+                automata.add(translator.translate(LtlUtils.getInstance().neg(node)));
+            }
+        }
+        final int nodeCount = automata.stream().mapToInt(a -> a.nodes().size()).sum();
+
+        long oldTime = Long.MAX_VALUE;
+        long newTime = Long.MAX_VALUE;
+        int finiteNodes = 0;
+        for (int repeat = 0; repeat < REPEATS; repeat++) {
+            final List<Set<BuchiNode>> oldResults = new ArrayList<>();
+            final List<Set<BuchiNode>> newResults = new ArrayList<>();
+            long time = System.nanoTime();
+            for (BuchiAutomaton a : automata) {
+                oldResults.add(findCounterexampleBuchiStatesByEnumeration(a));
+            }
+            oldTime = Math.min(oldTime, System.nanoTime() - time);
+            time = System.nanoTime();
+            for (BuchiAutomaton a : automata) {
+                newResults.add(FiniteCounterexampleNodeSearcher.findCounterexampleBuchiStates(a));
+            }
+            newTime = Math.min(newTime, System.nanoTime() - time);
+            if (!oldResults.equals(newResults)) {
+                throw new AssertionError("Different finite counterexample nodes");
+            }
+            finiteNodes = newResults.stream().mapToInt(Set::size).sum();
+        }
+        System.out.println(String.format("%d automata, %d nodes, %d finite counterexample nodes: "
+                + "enumeration %.1f ms, bitmasks %.1f ms", automata.size(), nodeCount, finiteNodes,
+                oldTime / 1e6, newTime / 1e6));
+    }
+
+    /*
+     * The old implementation: enumerates all assignments of the atoms of each node
+     * and runs a BFS from each node.
+     */
+    private static Set<BuchiNode> findCounterexampleBuchiStatesByEnumeration(BuchiAutomaton a) {
+        final Set<BuchiNode> nodesWithDevilTransitions = nodesWithDevilTransitions(a);
+        
+        final Set<BuchiNode> nodesWithRejectingLoops = new LinkedHashSet<>();
+        for (BuchiNode node : a.nodes()) {
+            if (hasRejectingLoop(node, a, nodesWithDevilTransitions)) {
+                nodesWithRejectingLoops.add(node);
+            }
+        }
+        
+        final Set<BuchiNode> result = new HashSet<>(a.nodes());
+        for (BuchiNode node : a.nodes()) {
+            final Set<BuchiNode> reachabilitySet = reachabilitySet(node);
+            for (BuchiNode loopStart : reachabilitySet) {
+                if (nodesWithRejectingLoops.contains(loopStart)) {
+                    result.remove(node);
+                    break;
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    private static Set<BuchiNode> reachabilitySet(BuchiNode node) {
+        final Set<BuchiNode> visited = new HashSet<>();
+        visited.add(node);
+        final Deque<BuchiNode> queue = new ArrayDeque<>();
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            final BuchiNode n = queue.removeFirst();
+            for (BuchiNode child : n.getTransitions().values()) {
+                if (!visited.contains(child)) {
+                    visited.add(child);
+                    queue.add(child);
+                }
+            }
+        }
+        return visited;
+    }
+    
+    private static Set<BuchiNode> nodesWithDevilTransitions(BuchiAutomaton a) {
+        final Set<BuchiNode> result = new HashSet<>();
+        for (BuchiNode node : a.nodes()) {
+            // if transition conditions are not complete, there is a rejecting loop!
+            final Set<IExpression<Boolean>> allExpressions = new HashSet<>();
+            final Set<TransitionCondition> conditions = node.getTransitions().keySet();
+            for (TransitionCondition condition : conditions) {
+                allExpressions.addAll(condition.expressions());
+                allExpressions.addAll(condition.negativeExpressions());
+            }
+            allExpressions.removeIf(x -> x instanceof BooleanNode);
+            final List<IExpression<Boolean>> allExpressionsList = new ArrayList<>(allExpressions);
+            
+            int maxI = 1 << allExpressions.size();
+            for (int i = 0; i < maxI; i++) {
+                final Set<IExpression<Boolean>> positive = new HashSet<>();
+                for (int j = 0; j < allExpressions.size(); j++) {
+                    if (((i >> j) & 1) == 1) {
+                        positive.add(allExpressionsList.get(j));
+                    }
+                }
+                boolean transitionPassed = false; // either condition passes
+                for (TransitionCondition condition : conditions) {
+                    boolean transitionConditionPassed = true; // all expressions pass
+                    for (IExpression<Boolean> expression : allExpressions) {
+                        final boolean failed = positive.contains(expression)
+                            && condition.negativeExpressions().contains(expression)
+                            || !positive.contains(expression)
+                            && condition.expressions().contains(expression);
+                        if (failed) {
+                            transitionConditionPassed = false;
+                            break;
+                        }
+                    }
+                    if (condition.expressions().stream()
+                            .anyMatch(x -> x instanceof BooleanNode && x.toString().equals("false"))) {
+                        transitionConditionPassed = false;
+                    }
+                    if (condition.negativeExpressions().stream()
+                            .anyMatch(x -> x instanceof BooleanNode && x.toString().equals("true"))) {
+                        transitionConditionPassed = false;
+                    }
+                    if (transitionConditionPassed) {
+                        transitionPassed = true;
+                        break;
+                    }
+                }
+                if (!transitionPassed) {
+                    result.add(node);
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static boolean hasRejectingLoop(BuchiNode node, BuchiAutomaton a,
+            Set<BuchiNode> nodesWithDevilTransitions) {
+        final Set<BuchiNode> visited = new HashSet<>();
+        visited.add(node);
+        final Deque<BuchiNode> queue = new ArrayDeque<>();
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            final BuchiNode n = queue.removeFirst();
+            if (nodesWithDevilTransitions.contains(n)) {
+                return true;
+            }
+            for (BuchiNode child : n.getTransitions().values()) {
+                if (a.acceptSet().contains(child)) {
+                    continue;
+                } else if (visited.contains(child)) {
+                    return true;
+                } else {
+                    visited.add(child);
+                    queue.add(child);
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,94 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import automaton_builders.PlantAutomatonBuilder;
+import bnf_formulae.BooleanFormula;
+import bnf_formulae.BooleanFormula.DimacsConversionInfo;
+import bnf_formulae.SynthesisContext;
+import bnf_formulae.VariableFamily;
+import sat_solving.IncrementalInterface;
+
+/*
+ * Compares two ways of sending the initial CNF (action specification) to the incremental solver:
+ * writing a DIMACS file and parsing it back (old), and streaming the in-memory clauses (new).
+ * The solver is replaced with an in-memory stream, and both streams are checked to be equal.
+ * Example, for the instances from evaluation/plant-synthesis:
+ *   IncrementalStartupBenchmark lic100.actionspec
+ *       abovehh,aboveh,aboveth,abovesp,belowsp,belowth,belowl,belowll,sensorwet,sensordry 8 16 40 80
+ */
+public class IncrementalStartupBenchmark {
+    private static final int REPEATS = 5;
+
+    public static void main(String[] args) throws IOException, ParseException {
+        if (args.length < 3) {
+            System.err.println("Usage: IncrementalStartupBenchmark <actionspec> <actions> <size>...");
+            return;
+        }
+        final Logger logger = Logger.getLogger("Logger");
+        logger.setLevel(Level.WARNING);
+        final List<String> actions = Arrays.asList(args[1].split(","));
+        for (int i = 2; i < args.length; i++) {
+            final int size = Integer.parseInt(args[i]);
+            SynthesisContext.runIsolated(context -> {
+                final VariableFamily z = context.family("z", actions.size());
+                for (int state = 0; state < size; state++) {
+                    for (int action = 0; action < actions.size(); action++) {
+                        z.getOrCreate(state, action);
+                    }
+                }
+                final String actionSpec = PlantAutomatonBuilder.actionSpecification(args[0], size, actions);
+                byte[] viaFile = null;
+                byte[] viaMemory = null;
+                long fileTime = Long.MAX_VALUE;
+                long memoryTime = Long.MAX_VALUE;
+                for (int repeat = 0; repeat < REPEATS; repeat++) {
+                    long time = System.nanoTime();
+                    viaFile = sendViaFile(logger, context, actionSpec);
+                    fileTime = Math.min(fileTime, System.nanoTime() - time);
+                    time = System.nanoTime();
+                    viaMemory = sendFromMemory(logger, actionSpec);
+                    memoryTime = Math.min(memoryTime, System.nanoTime() - time);
+                }
+                if (!Arrays.equals(viaFile, viaMemory)) {
+                    throw new AssertionError("Different solver input for size " + size);
+                }
+                System.out.println(String.format("size %d: %d bytes, DIMACS file %.1f ms, in-memory %.1f ms",
+                        size, viaMemory.length, fileTime / 1e6, memoryTime / 1e6));
+                return null;
+            });
+        }
+    }
+
+    private static byte[] sendViaFile(Logger logger, SynthesisContext context, String actionSpec)
+            throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream writer = new DataOutputStream(result)) {
+            final DimacsConversionInfo info = BooleanFormula.actionSpecToDimacs(logger,
+                    context.dimacsFilename(), actionSpec, false);
+            info.close();
+            IncrementalInterface.sendDimacsFile(context.dimacsFilename(), writer);
+        }
+        return result.toByteArray();
+    }
+
+    private static byte[] sendFromMemory(Logger logger, String actionSpec) throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream writer = new DataOutputStream(result)) {
+            final DimacsConversionInfo info = BooleanFormula.actionSpecToCnf(logger, actionSpec);
+            BooleanFormula.writeClauses(info.clauses().get(), writer);
+        }
+        return result.toByteArray();
+    }
+}
@@ -0,0 +1,98 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.FileNotFoundException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import verification.ltl.GrammarConverter;
+import verification.ltl.LtlParseException;
+import verification.ltl.LtlParser;
+import verification.ltl.LtlSimplifier;
+import verification.ltl.buchi.BuchiAutomaton;
+import verification.ltl.buchi.translator.JLtl2baTranslator;
+import verification.ltl.grammar.LtlNode;
+import verification.ltl.grammar.LtlUtils;
+import verification.ltl.grammar.PredicateFactory;
+
+/*
+ * Compares the Buchi automata of negated LTL formulae, as in VerifierFactory, without and with preprocessing
+ * by LtlSimplifier: the number of automata, nodes and transitions and the translation time.
+ * Without preprocessing, each formula is translated; with preprocessing, each distinct conjunct of each file.
+ * Example, for all LTL files of the repository (run from the directory with c-lib):
+ *   LtlPreprocessingBenchmark $(find .. -name '*.ltl')
+ */
+public class LtlPreprocessingBenchmark {
+    private static class Statistics {
+        int automata;
+        int nodes;
+        int transitions;
+        long time;
+
+        void add(LtlNode node, JLtl2baTranslator translator) {
+            final long start = System.nanoTime();
+            final BuchiAutomaton a = translator.translate(LtlUtils.getInstance().neg(node));
+            time += System.nanoTime() - start;
+            automata++;
+            nodes += a.nodes().size();
+            transitions += a.nodes().stream().mapToInt(n -> n.getTransitions().size()).sum();
+        }
+
+        void add(Statistics other) {
+            automata += other.automata;
+            nodes += other.nodes;
+            transitions += other.transitions;
+            time += other.time;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d automata, %d nodes, %d transitions, %.1f ms", automata, nodes, transitions,
+                    time / 1e6);
+        }
+    }
+
+    public static void main(String[] args) throws FileNotFoundException {
+        if (args.length == 0) {
+            System.err.println("Usage: LtlPreprocessingBenchmark <ltl file>...");
+            return;
+        }
+        final JLtl2baTranslator translator = new JLtl2baTranslator();
+        final Statistics before = new Statistics();
+        final Statistics after = new Statistics();
+        int formulaCount = 0;
+        for (String filename : args) {
+            final PredicateFactory predicates = new PredicateFactory();
+            final List<String> formulas = LtlParser.load(filename, 0, Collections.emptyList());
+            final List<LtlNode> nodes;
+            try {
+                nodes = LtlParser.parse(formulas, new GrammarConverter(predicates));
+            } catch (LtlParseException e) {
+                System.err.println("Skipping " + filename + ": " + e.getMessage());
+                continue;
+            }
+            formulaCount += nodes.size();
+            final Statistics fileBefore = new Statistics();
+            final Statistics fileAfter = new Statistics();
+            for (LtlNode node : nodes) {
+                fileBefore.add(node, translator);
+            }
+            final Map<String, LtlNode> conjuncts = new LinkedHashMap<>();
+            for (List<LtlNode> parts : LtlSimplifier.preprocess(nodes)) {
+                parts.forEach(part -> conjuncts.putIfAbsent(part.toString(), part));
+            }
+            for (LtlNode node : conjuncts.values()) {
+                fileAfter.add(node, translator);
+            }
+            before.add(fileBefore);
+            after.add(fileAfter);
+            System.out.println(filename + ": " + nodes.size() + " formulae: " + fileBefore + " -> " + fileAfter);
+        }
+        System.out.println("TOTAL: " + formulaCount + " formulae: " + before + " -> " + after);
+    }
+}
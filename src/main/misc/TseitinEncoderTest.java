@@ -0,0 +1,181 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import bnf_formulae.BinaryOperation;
+import bnf_formulae.BooleanFormula;
+import bnf_formulae.BooleanFormula.DimacsConversionInfo;
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.LimbooleParser;
+import bnf_formulae.NotOperation;
+
+/*
+ * Checks that the in-process CNF conversion is equisatisfiable with the original formula
+ * under each assignment of primary variables, also after parsing its limboole string,
+ * and that it agrees with limboole (if limboole is available).
+ */
+public class TseitinEncoderTest {
+    private static final String DIMACS_FILENAME = "_tmp.test.dimacs";
+    private static final int VAR_NUMBER = 5;
+
+    private static BooleanFormula randomFormula(Random rnd, List<BooleanVariable> vars, int depth) {
+        if (depth == 0 || rnd.nextInt(4) == 0) {
+            final BooleanFormula v = vars.get(rnd.nextInt(vars.size()));
+            return rnd.nextBoolean() ? v : v.not();
+        }
+        switch (rnd.nextInt(5)) {
+        case 0:
+            return randomFormula(rnd, vars, depth - 1).not();
+        case 1:
+            return randomFormula(rnd, vars, depth - 1).implies(randomFormula(rnd, vars, depth - 1));
+        case 2:
+            return randomFormula(rnd, vars, depth - 1).equivalent(randomFormula(rnd, vars, depth - 1));
+        default:
+            final List<BooleanFormula> children = new ArrayList<>();
+            for (int i = 0; i < 2 + rnd.nextInt(2); i++) {
+                children.add(randomFormula(rnd, vars, depth - 1));
+            }
+            return rnd.nextBoolean() ? BinaryOperation.and(children) : BinaryOperation.or(children);
+        }
+    }
+
+    private static boolean evaluate(BooleanFormula f, boolean[] values) {
+        if (f instanceof BooleanVariable) {
+            return values[((BooleanVariable) f).number - 1];
+        } else if (f instanceof NotOperation) {
+            return !evaluate(((NotOperation) f).inside, values);
+        }
+        final BinaryOperation op = (BinaryOperation) f;
+        final List<BooleanFormula> children = op.children();
+        switch (op.type) {
+        case AND:
+            return children.stream().allMatch(c -> evaluate(c, values));
+        case OR:
+            return children.stream().anyMatch(c -> evaluate(c, values));
+        case IMPLIES:
+            return !evaluate(children.get(0), values) || evaluate(children.get(1), values);
+        case EQ:
+            return evaluate(children.get(0), values) == evaluate(children.get(1), values);
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    private static List<int[]> readClauses(String filename) throws IOException {
+        final List<int[]> clauses = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new FileReader(filename))) {
+            input.readLine();
+            String line;
+            while ((line = input.readLine()) != null) {
+                clauses.add(Arrays.stream(line.trim().split(" +")).mapToInt(Integer::parseInt)
+                        .filter(x -> x != 0).toArray());
+            }
+        }
+        return clauses;
+    }
+
+    /*
+     * Brute-force satisfiability check with primary variables fixed.
+     */
+    private static boolean satisfiable(List<int[]> clauses, DimacsConversionInfo info, boolean[] primary) {
+        final int n = info.varNumber();
+        final List<Integer> auxVars = new ArrayList<>();
+        final boolean[] values = new boolean[n + 1];
+        for (int i = 1; i <= n; i++) {
+            final int dimacs = i;
+            final boolean isPrimary = info.toLimbooleNumber(i).map(num -> {
+                values[dimacs] = primary[num - 1];
+                return true;
+            }).orElse(false);
+            if (!isPrimary) {
+                auxVars.add(i);
+            }
+        }
+        for (long mask = 0; mask < 1L << auxVars.size(); mask++) {
+            for (int j = 0; j < auxVars.size(); j++) {
+                values[auxVars.get(j)] = ((mask >> j) & 1) == 1;
+            }
+            if (clauses.stream().allMatch(c -> Arrays.stream(c).anyMatch(l -> values[Math.abs(l)] == l > 0))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void check(BooleanFormula f, Logger logger, boolean compareWithLimboole) throws IOException {
+        final String limbooleString = f.toLimbooleString();
+        final DimacsConversionInfo nativeInfo = BooleanFormula.toDimacsNatively(f, logger, DIMACS_FILENAME);
+        final List<int[]> nativeClauses = nativeInfo.clauses().get();
+        if (!Arrays.deepEquals(nativeClauses.toArray(), readClauses(DIMACS_FILENAME).toArray())) {
+            throw new AssertionError("DIMACS file does not match in-memory clauses for " + f);
+        }
+        // specifications are given as limboole strings and are parsed before the encoding
+        final DimacsConversionInfo parsedInfo = BooleanFormula.toDimacsNatively(LimbooleParser.parse(limbooleString),
+                logger, null);
+        final List<int[]> parsedClauses = parsedInfo.clauses().get();
+        DimacsConversionInfo limbooleInfo = null;
+        List<int[]> limbooleClauses = null;
+        if (compareWithLimboole) {
+            limbooleInfo = BooleanFormula.toDimacsWithLimboole(limbooleString, logger, DIMACS_FILENAME);
+            limbooleClauses = readClauses(DIMACS_FILENAME);
+        }
+        for (int mask = 0; mask < 1 << VAR_NUMBER; mask++) {
+            final boolean[] values = new boolean[VAR_NUMBER];
+            for (int i = 0; i < VAR_NUMBER; i++) {
+                values[i] = ((mask >> i) & 1) == 1;
+            }
+            final boolean expected = evaluate(f, values);
+            if (satisfiable(nativeClauses, nativeInfo, values) != expected) {
+                throw new AssertionError("Native CNF mismatch for " + f + " on " + Arrays.toString(values));
+            }
+            if (satisfiable(parsedClauses, parsedInfo, values) != expected) {
+                throw new AssertionError("Parsed CNF mismatch for " + f + " on " + Arrays.toString(values));
+            }
+            if (compareWithLimboole && satisfiable(limbooleClauses, limbooleInfo, values) != expected) {
+                throw new AssertionError("limboole CNF mismatch for " + f + " on " + Arrays.toString(values));
+            }
+        }
+    }
+
+    private static boolean limbooleAvailable() {
+        try {
+            Runtime.getRuntime().exec("limboole -h").waitFor();
+            return true;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Logger logger = Logger.getLogger("Logger");
+        logger.setUseParentHandlers(false);
+        BooleanVariable.eraseVariables();
+        final List<BooleanVariable> vars = new ArrayList<>();
+        for (int i = 0; i < VAR_NUMBER; i++) {
+            vars.add(new BooleanVariable("v", i));
+        }
+        final boolean compareWithLimboole = limbooleAvailable();
+        if (!compareWithLimboole) {
+            System.out.println("limboole not found, checking against truth tables only");
+        }
+        final Random rnd = new Random(0);
+        final int tests = 500;
+        for (int i = 0; i < tests; i++) {
+            check(randomFormula(rnd, vars, 3), logger, compareWithLimboole);
+        }
+        new File(DIMACS_FILENAME).delete();
+        System.out.println("OK: " + tests + " formulae");
+    }
+}
@@ -0,0 +1,165 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import scenario.StringActions;
+import structures.moore.MooreNode;
+import structures.moore.MooreTransition;
+import structures.moore.NondetMooreAutomaton;
+import verification.ltl.LtlParser;
+import verification.verifier.Counterexample;
+import verification.verifier.NondetMooreVerifierPair;
+import verification.verifier.Verifier;
+import verification.verifier.VerifierOptions;
+
+/*
+ * Compares the explicit (SimpleVerifier) and the bounded (BoundedVerifier) LTL model checkers
+ * on the synthesized water level plants of evaluation/plant-synthesis (water-level-N.dot and water-level-N.ltl).
+ * Each plant, which satisfies all formulae, is verified together with MUTANTS mutants, each with one transition
+ * redirected to a random state, which usually violate some formulae.
+ * The verdicts for each formula are compared: with the complete bound (0), they must be equal, otherwise
+ * the bounded checker can only miss violations. Incremental verification is disabled for both checkers.
+ * Example (run from the directory with c-lib):
+ *   VerifierBackendBenchmark ../evaluation/plant-synthesis 0 1 2 3
+ */
+public class VerifierBackendBenchmark {
+    private static final int MUTANTS = 10;
+    private static final List<String> EVENTS = Arrays.asList("open", "closed");
+    private static final List<String> ACTIONS = Arrays.asList("abovehh", "aboveh", "aboveth", "abovesp", "belowsp",
+            "belowth", "belowl", "belowll", "sensorwet", "sensordry");
+
+    public static void main(String[] args) throws FileNotFoundException {
+        if (args.length < 3) {
+            System.err.println("Usage: VerifierBackendBenchmark <plant-synthesis directory> <bound, 0 for complete> "
+                    + "<plant index>...");
+            return;
+        }
+        final int bound = Integer.parseInt(args[1]);
+        // products are not reused, as in the bounded verifier
+        final VerifierOptions explicitOptions = new VerifierOptions().setIncremental(false);
+        final VerifierOptions boundedOptions = new VerifierOptions().setBackend(Verifier.Backend.BOUNDED)
+                .setMaxBound(bound);
+        final Logger logger = Logger.getLogger(VerifierBackendBenchmark.class.getName());
+        logger.setLevel(Level.WARNING);
+
+        for (int argIndex = 2; argIndex < args.length; argIndex++) {
+            final String name = "water-level-" + args[argIndex];
+            final NondetMooreAutomaton plant = readPlant(new File(args[0], name + ".dot").getPath());
+            final List<String> formulae = LtlParser.load(new File(args[0], name + ".ltl").getPath(), 0, EVENTS);
+            final List<NondetMooreAutomaton> automata = new ArrayList<>();
+            automata.add(plant);
+            final Random random = new Random(argIndex);
+            for (int i = 0; i < MUTANTS; i++) {
+                automata.add(mutate(plant, random));
+            }
+
+            final NondetMooreVerifierPair explicit = new NondetMooreVerifierPair(logger, formulae, EVENTS, ACTIONS,
+                    explicitOptions);
+            final NondetMooreVerifierPair bounded = new NondetMooreVerifierPair(logger, formulae, EVENTS, ACTIONS,
+                    boundedOptions);
+
+            final List<List<Boolean>> explicitVerdicts = new ArrayList<>();
+            final List<List<Boolean>> boundedVerdicts = new ArrayList<>();
+            long time = System.nanoTime();
+            automata.forEach(a -> explicitVerdicts.add(verdicts(explicit, a)));
+            final long explicitTime = System.nanoTime() - time;
+            time = System.nanoTime();
+            automata.forEach(a -> boundedVerdicts.add(verdicts(bounded, a)));
+            final long boundedTime = System.nanoTime() - time;
+
+            int explicitViolations = 0;
+            int boundedViolations = 0;
+            for (int i = 0; i < automata.size(); i++) {
+                for (int j = 0; j < explicitVerdicts.get(i).size(); j++) {
+                    final boolean explicitHolds = explicitVerdicts.get(i).get(j);
+                    final boolean boundedHolds = boundedVerdicts.get(i).get(j);
+                    explicitViolations += explicitHolds ? 0 : 1;
+                    boundedViolations += boundedHolds ? 0 : 1;
+                    if (!boundedHolds && explicitHolds || bound == 0 && boundedHolds != explicitHolds) {
+                        throw new AssertionError("Different verdicts for automaton " + i + ", formula " + j);
+                    }
+                }
+            }
+            System.out.println(String.format("%s: %d states, %d transitions, %d formulae, %d automata: "
+                    + "explicit %.1f ms (%d violations), bounded %.1f ms (%d violations)",
+                    name, plant.stateCount(), plant.transitionNumber(), formulae.size(), automata.size(),
+                    explicitTime / 1e6, explicitViolations, boundedTime / 1e6, boundedViolations));
+        }
+    }
+
+    /*
+     * For each verified formula (ordinary ones, then global ones), whether it holds.
+     */
+    private static List<Boolean> verdicts(NondetMooreVerifierPair verifier, NondetMooreAutomaton automaton) {
+        final Pair<List<Counterexample>, List<Counterexample>> result = verifier.verifyNondetMoore(automaton);
+        final List<Boolean> verdicts = new ArrayList<>();
+        result.getLeft().forEach(ce -> verdicts.add(ce.isEmpty()));
+        result.getRight().forEach(ce -> verdicts.add(ce.isEmpty()));
+        return verdicts;
+    }
+
+    private static NondetMooreAutomaton mutate(NondetMooreAutomaton plant, Random random) {
+        final NondetMooreAutomaton mutant = plant.copy();
+        final List<MooreTransition> transitions = new ArrayList<>();
+        mutant.states().forEach(s -> transitions.addAll(s.transitions()));
+        final MooreTransition t = transitions.get(random.nextInt(transitions.size()));
+        final MooreNode dst = mutant.state(random.nextInt(mutant.stateCount()));
+        mutant.removeTransition(t.src(), t);
+        if (!t.src().allDst(t.event()).contains(dst)) {
+            mutant.addTransition(t.src(), new MooreTransition(t.src(), dst, t.event()));
+        }
+        return mutant;
+    }
+
+    /*
+     * Reads the format of the synthesized plants:
+     *   i [label = "i : action, action"] ...;
+     *   init -> i;
+     *   i -> j [label = "event"];
+     */
+    private static NondetMooreAutomaton readPlant(String filename) throws FileNotFoundException {
+        final Pattern statePattern = Pattern.compile("^ *(\\d+) \\[label = \"\\d+ : ([^\"]*)\"\\].*$");
+        final Pattern initialPattern = Pattern.compile("^ *init -> (\\d+);$");
+        final Pattern transitionPattern = Pattern.compile("^ *(\\d+) -> (\\d+) \\[label = \"(\\w+)\"\\];$");
+        final List<StringActions> actions = new ArrayList<>();
+        final List<Boolean> initial = new ArrayList<>();
+        final List<int[]> transitions = new ArrayList<>();
+        final List<String> events = new ArrayList<>();
+        try (Scanner sc = new Scanner(new File(filename))) {
+            while (sc.hasNextLine()) {
+                final String line = sc.nextLine();
+                Matcher m;
+                if ((m = statePattern.matcher(line)).matches()) {
+                    actions.add(new StringActions(m.group(2)));
+                    initial.add(false);
+                } else if ((m = initialPattern.matcher(line)).matches()) {
+                    initial.set(Integer.parseInt(m.group(1)), true);
+                } else if ((m = transitionPattern.matcher(line)).matches()) {
+                    transitions.add(new int[] { Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) });
+                    events.add(m.group(3));
+                }
+            }
+        }
+        final NondetMooreAutomaton a = new NondetMooreAutomaton(actions.size(), actions, initial);
+        for (int i = 0; i < transitions.size(); i++) {
+            a.state(transitions.get(i)[0]).addTransition(events.get(i), a.state(transitions.get(i)[1]));
+        }
+        return a;
+    }
+}
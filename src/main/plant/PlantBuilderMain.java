@@ -4,24 +4,32 @@ package main.plant;
  * (c) Igor Buzhinsky
  */
 
+import automaton_builders.ParallelSizeSearch;
 import automaton_builders.PlantAutomatonBuilder;
 import automaton_builders.RapidPlantAutomatonBuilder;
 import automaton_builders.StateMergingNondetAutomatonBuilder;
+import bnf_formulae.SynthesisContext;
 import meta.Author;
 import meta.MainBase;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
+import org.apache.commons.lang3.tuple.Pair;
 import org.kohsuke.args4j.spi.BooleanOptionHandler;
+import sat_solving.PortfolioInterface;
 import sat_solving.SatSolver;
+import sat_solving.SolverOptions;
 import scenario.StringScenario;
 import structures.moore.MooreNode;
 import structures.moore.NegativePlantScenarioForest;
 import structures.moore.NondetMooreAutomaton;
 import structures.moore.PositivePlantScenarioForest;
 import verification.ltl.LtlParser;
+import verification.verifier.BuchiCache;
 import verification.verifier.Counterexample;
 import verification.verifier.NondetMooreVerifierPair;
+import verification.verifier.SimpleVerifier;
 import verification.verifier.Verifier;
+import verification.verifier.VerifierOptions;
 
 import java.io.IOException;
 import java.text.ParseException;
@@ -32,9 +40,23 @@ public class PlantBuilderMain extends MainBase {
     private List<String> arguments = new ArrayList<>();
 
     @Option(name = "--size", aliases = {"-s"},
-            usage = "automaton size", metaVar = "<size>", required = true)
+            usage = "automaton size", metaVar = "<size>")
     private int size;
 
+    @Option(name = "--sizeRange", aliases = {"-sr"},
+            usage = "search for the minimum automaton size in this range (instead of --size)",
+            metaVar = "<from..to>")
+    private String sizeRange;
+
+    @Option(name = "--parallel", aliases = {"-p"},
+            usage = "with --sizeRange: number of sizes to try concurrently (default: number of processors)",
+            metaVar = "<threads>")
+    private int parallel = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "--incrementalSize", aliases = {"-is"}, handler = BooleanOptionHandler.class,
+            usage = "with --sizeRange: try the sizes one by one in a single solver session instead of in parallel")
+    private boolean incrementalSize;
+
     @Option(name = "--eventNumber", aliases = { "-en" },
             usage = "number of events (default 1)", metaVar = "<eventNumber>")
     private int eventNumber = 1;
@@ -102,10 +124,49 @@ public class PlantBuilderMain extends MainBase {
     private boolean fast = false;
 
     @Option(name = "--solver",
-            usage = "SAT solver: INCREMENTAL_CRYPTOMINISAT (default), LINGELING, CRYPTOMINISAT",
+            usage = "SAT solver: INCREMENTAL_CRYPTOMINISAT (default), LINGELING, CRYPTOMINISAT, EMBEDDED, PORTFOLIO",
             metaVar = "<solver>")
     private String strSolver = SatSolver.INCREMENTAL_CRYPTOMINISAT.name();
 
+    @Option(name = "--portfolio",
+            usage = "with --solver PORTFOLIO: comma-separated solver configurations SOLVER:seed to run in parallel, "
+                    + "SOLVER is one of CRYPTOMINISAT, LINGELING, EMBEDDED (default: "
+                    + PortfolioInterface.DEFAULT_CONFIGURATIONS + ")",
+            metaVar = "<configurations>")
+    private String portfolio;
+
+    @Option(name = "--useLimboole", handler = BooleanOptionHandler.class,
+            usage = "convert formulae to CNF with the external limboole instead of in-process "
+                    + "(ignored by the EMBEDDED solver)")
+    private boolean useLimboole;
+
+    @Option(name = "--emptinessCheck",
+            usage = "emptiness check of the LTL model checker: NESTED_BFS (default), SCC (linear, "
+                    + "but counterexamples may be longer)",
+            metaVar = "<check>")
+    private String emptinessCheck = SimpleVerifier.EmptinessCheck.NESTED_BFS.name();
+
+    @Option(name = "--parallelVerification", handler = BooleanOptionHandler.class,
+            usage = "verify LTL formulae concurrently (not recommended with --sizeRange)")
+    private boolean parallelVerification;
+
+    @Option(name = "--verifierBackend",
+            usage = "LTL model checker: EXPLICIT (default, product construction), BOUNDED (bounded model checking "
+                    + "with the SAT solver of --solver)",
+            metaVar = "<backend>")
+    private String verifierBackend = Verifier.Backend.EXPLICIT.name();
+
+    @Option(name = "--bmcBound",
+            usage = "with --verifierBackend BOUNDED: maximum counterexample length "
+                    + "(default 0: the bound which makes the check complete)",
+            metaVar = "<bound>")
+    private int bmcBound = 0;
+
+    @Option(name = "--buchiCache",
+            usage = "directory to cache LTL to Buchi automaton translations between runs",
+            metaVar = "<directory>")
+    private String buchiCache;
+
     @Option(name = "--bfsConstraints", handler = BooleanOptionHandler.class,
             usage = "BFS symmetry breaking (only with --deterministic)")
     private boolean bfsConstraints;
@@ -126,6 +187,11 @@ public class PlantBuilderMain extends MainBase {
             usage = "with --fast: limit loop execution times based on traces")
     private boolean timedConstraints;
 
+    @Option(name = "--compactForest", handler = BooleanOptionHandler.class,
+            usage = "build the scenario forest over a trie and do not add separate paths for scenarios which are "
+                    + "prefixes of other ones (no effect with --deterministic or --fast)")
+    private boolean compactForest;
+
     private Optional<NondetMooreAutomaton> resultAutomaton = null;
     private final Map<String, String> colorRuleMap = new LinkedHashMap<>();
 
@@ -155,15 +221,69 @@ public class PlantBuilderMain extends MainBase {
             nusmvFilePath = null;
         }
 
-        SatSolver solver;
+        final SolverOptions solver;
         try {
-            solver = SatSolver.valueOf(strSolver);
+            solver = new SolverOptions(SatSolver.valueOf(strSolver)).setUseLimboole(useLimboole);
         } catch (IllegalArgumentException e) {
             logger().warning(strSolver + " is not a valid SAT solver.");
             return;
         }
+        final VerifierOptions verifierOptions = new VerifierOptions().setParallel(parallelVerification);
+        try {
+            verifierOptions.setEmptinessCheck(SimpleVerifier.EmptinessCheck.valueOf(emptinessCheck));
+        } catch (IllegalArgumentException e) {
+            logger().warning(emptinessCheck + " is not a valid emptiness check.");
+            return;
+        }
+        try {
+            verifierOptions.setBackend(Verifier.Backend.valueOf(verifierBackend));
+        } catch (IllegalArgumentException e) {
+            logger().warning(verifierBackend + " is not a valid verifier backend.");
+            return;
+        }
+        try {
+            verifierOptions.setMaxBound(bmcBound);
+        } catch (IllegalArgumentException e) {
+            logger().warning(e.getMessage());
+            return;
+        }
+        verifierOptions.setBoundedSolver(solver);
+        if (buchiCache != null) {
+            try {
+                verifierOptions.setBuchiCache(new BuchiCache(buchiCache));
+            } catch (IllegalArgumentException e) {
+                logger().warning(e.getMessage());
+                return;
+            }
+        }
+        if (portfolio != null) {
+            try {
+                solver.setPortfolio(portfolio);
+            } catch (IllegalArgumentException e) {
+                logger().warning(e.getMessage());
+                return;
+            }
+        }
+
+        Pair<Integer, Integer> range = null;
+        if (sizeRange != null) {
+            if (stateMerging || fast) {
+                logger().warning("--sizeRange cannot be used with --sm or --fast.");
+                return;
+            }
+            try {
+                range = ParallelSizeSearch.parseRange(sizeRange);
+            } catch (IllegalArgumentException e) {
+                logger().warning(e.getMessage());
+                return;
+            }
+        } else if (size <= 0 && !stateMerging && !fast) {
+            logger().warning("Either --size or --sizeRange must be specified.");
+            return;
+        }
 
-        final PositivePlantScenarioForest positiveForest = new PositivePlantScenarioForest(!deterministic && !fast);
+        final PositivePlantScenarioForest positiveForest = new PositivePlantScenarioForest(!deterministic && !fast,
+                compactForest);
         final List<StringScenario> scenarios = new ArrayList<>();
         for (String scenarioPath : arguments) {
             scenarios.addAll(loadScenarios(scenarioPath, true));
@@ -171,6 +291,9 @@ public class PlantBuilderMain extends MainBase {
         }
         scenarios.forEach(positiveForest::addScenario);
         logger().info("Scenario forest size: " + positiveForest.nodeCount());
+        if (compactForest) {
+            logger().info("Scenarios without own paths: " + positiveForest.omittedScenarios());
+        }
         saveScenarioTree(positiveForest, treeFilePath);
         final List<String> eventnames = eventNames(eventNames, eventNumber);
         final List<String> events = events(eventnames, eventNumber, varNumber);
@@ -188,19 +311,53 @@ public class PlantBuilderMain extends MainBase {
         logger().info("Initializing the verifier...");
 
         final NondetMooreVerifierPair verifier = new NondetMooreVerifierPair(logger(), strFormulae,
-                events, actions);
+                events, actions, verifierOptions);
         final long finishTime = System.currentTimeMillis() + (long) timeout * 1000;
 
         logger().info("Started building automaton.");
 
-        resultAutomaton = stateMerging
-                ? StateMergingNondetAutomatonBuilder.build(logger(), events, actions, arguments, strFormulae)
-                : fast ? RapidPlantAutomatonBuilder.build(positiveForest, events, timedConstraints)
-                : PlantAutomatonBuilder.build(logger(), positiveForest, negativeForest, size, actionspecFilePath,
-                events, actions, verifier, finishTime, solver, deterministic, bfsConstraints, !incomplete);
+        if (range != null && incrementalSize) {
+            final Pair<Integer, Integer> sizes = range;
+            final Optional<Pair<Integer, NondetMooreAutomaton>> found = SynthesisContext.runIsolated(context ->
+                    PlantAutomatonBuilder.build(logger(), positiveForest, negativeForest, sizes.getLeft(),
+                            sizes.getRight(), actionspecFilePath, events, actions, verifier, finishTime, solver,
+                            deterministic, bfsConstraints, !incomplete));
+            found.ifPresent(p -> {
+                size = p.getLeft();
+                logger().info("MINIMUM SIZE: " + size);
+            });
+            resultAutomaton = found.map(Pair::getRight);
+        } else if (range == null) {
+            resultAutomaton = SynthesisContext.runIsolated(context -> stateMerging
+                    ? StateMergingNondetAutomatonBuilder.build(logger(), events, actions, arguments, strFormulae,
+                            verifierOptions)
+                    : fast ? RapidPlantAutomatonBuilder.build(positiveForest, events, timedConstraints)
+                    : PlantAutomatonBuilder.build(logger(), positiveForest, negativeForest, size,
+                    actionspecFilePath, events, actions, verifier, finishTime, solver, deterministic,
+                    bfsConstraints, !incomplete));
+        } else {
+            // each size needs its own negative forest and verifier, since the builder modifies them
+            final Optional<Pair<Integer, NondetMooreAutomaton>> found = ParallelSizeSearch.search(logger(),
+                    range.getLeft(), range.getRight(), parallel, (s, context) -> {
+                        final NegativePlantScenarioForest sizeNegativeForest = new NegativePlantScenarioForest();
+                        if (negscFilePath != null) {
+                            sizeNegativeForest.load(negscFilePath, true);
+                        }
+                        final NondetMooreVerifierPair sizeVerifier = new NondetMooreVerifierPair(logger(),
+                                strFormulae, events, actions, verifierOptions);
+                        return PlantAutomatonBuilder.build(logger(), positiveForest, sizeNegativeForest, s,
+                                actionspecFilePath, events, actions, sizeVerifier, finishTime, solver,
+                                deterministic, bfsConstraints, !incomplete);
+                    });
+            found.ifPresent(p -> {
+                size = p.getLeft();
+                logger().info("MINIMUM SIZE: " + size);
+            });
+            resultAutomaton = found.map(Pair::getRight);
+        }
 
         if (!resultAutomaton.isPresent()) {
-            logger().info("Automaton with " + size + " states NOT FOUND!");
+            logger().info("Automaton with " + (range == null ? size : sizeRange) + " states NOT FOUND!");
             logger().info("Automaton builder execution time: " + executionTime());
         } else {
             final NondetMooreAutomaton a = resultAutomaton.get();
@@ -227,7 +384,7 @@ public class PlantBuilderMain extends MainBase {
                 saveToFile(a.toNuSMVString(events, actions, Optional.empty()), nusmvFilePath);
             }
 
-            final Verifier usualVerifier = new Verifier(logger(), strFormulae, events, actions);
+            final Verifier usualVerifier = new Verifier(logger(), strFormulae, events, actions, verifierOptions);
             final List<Counterexample> counterexamples = usualVerifier.verifyNondetMoore(a);
             if (counterexamples.stream().allMatch(Counterexample::isEmpty)) {
                 logger().info("VERIFIED");
@@ -111,6 +111,25 @@ public abstract class MainBase {
         return tree;
     }
 
+    /*
+     * With compact, all scenarios are loaded first, and the tree is built by ScenarioTree.compact().
+     */
+    protected ScenarioTree loadScenarioTree(List<String> filePaths, boolean removeVars, boolean compact)
+            throws IOException, ParseException {
+        if (!compact) {
+            return loadScenarioTree(filePaths, removeVars);
+        }
+        final List<StringScenario> scenarios = new ArrayList<>();
+        for (String filePath : filePaths) {
+            scenarios.addAll(loadScenarios(filePath, removeVars));
+            logger().info("Loaded scenarios from " + filePath);
+        }
+        final ScenarioTree tree = ScenarioTree.compact(scenarios);
+        logger().info("  Compact scenarios tree size: " + tree.nodeCount() + " (" + tree.treeNodeCount()
+                + " before merging)");
+        return tree;
+    }
+
     protected List<StringScenario> loadScenarios(String filename, boolean removeVars)
             throws FileNotFoundException, ParseException {
         try {
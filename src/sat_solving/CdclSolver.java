@@ -0,0 +1,671 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import sat_solving.SolverResult.SolverResults;
+
+/*
+ * Pure-Java incremental CDCL SAT solver (in the spirit of MiniSat):
+ * two watched literals, VSIDS, first-UIP learning with local minimization, phase saving,
+ * Luby restarts and activity-based learnt clause deletion.
+ * Clauses may be added between solve() calls, learnt clauses are retained,
+ * and solving under assumptions is supported.
+ * Literals are given in the DIMACS format (nonzero integers).
+ */
+public class CdclSolver {
+    private static final byte UNDEF = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = -1;
+
+    private static final int RESTART_BASE = 100;
+    private static final double VAR_DECAY = 0.95;
+    private static final double CLAUSE_DECAY = 0.999;
+    private static final double RANDOM_DECISION_FREQUENCY = 0.01;
+
+    private static class Clause {
+        final int[] lits;
+        final boolean learnt;
+        double activity;
+        boolean deleted;
+
+        Clause(int[] lits, boolean learnt) {
+            this.lits = lits;
+            this.learnt = learnt;
+        }
+    }
+
+    /*
+     * Each watcher stores a blocker literal of the clause: if it is true, the clause need not be visited.
+     */
+    private static class WatchList {
+        Clause[] data = new Clause[4];
+        int[] blockers = new int[4];
+        int size;
+
+        void add(Clause c, int blocker) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+                blockers = Arrays.copyOf(blockers, size * 2);
+            }
+            blockers[size] = blocker;
+            data[size++] = c;
+        }
+    }
+
+    /*
+     * Internal literal representation: 2 * var + (negative ? 1 : 0), variables start from 1.
+     */
+    private static int toLit(int dimacs) {
+        return dimacs > 0 ? 2 * dimacs : -2 * dimacs + 1;
+    }
+
+    private int varNumber = 0;
+    private byte[] litValue = new byte[2];
+    private int[] level = new int[1];
+    private Clause[] reason = new Clause[1];
+    private double[] activity = new double[1];
+    private boolean[] savedNegative = new boolean[1];
+    private boolean[] seen = new boolean[1];
+    private WatchList[] watches = new WatchList[0];
+    private int[] trail = new int[1];
+    private int trailSize = 0;
+    private int qhead = 0;
+    private int[] trailLim = new int[1];
+    private int decisionLevel = 0;
+
+    // binary max-heap of variables ordered by activity
+    private int[] heap = new int[1];
+    private int heapSize = 0;
+    private int[] heapIndex = new int[1];
+
+    private final List<Clause> clauses = new ArrayList<>();
+    private final List<Clause> learnts = new ArrayList<>();
+    private double varInc = 1;
+    private double clauseInc = 1;
+    private double maxLearnts;
+    private boolean ok = true;
+    private boolean[] model;
+
+    private long conflicts = 0;
+    private long decisions = 0;
+    private long propagations = 0;
+
+    // null for the deterministic default behavior
+    private final Random random;
+
+    // set from another thread to stop the current or the next solve() call
+    private volatile boolean stopRequested = false;
+
+    public CdclSolver() {
+        this(0);
+    }
+
+    /*
+     * A nonzero seed randomizes initial variable order and phases and enables rare random decisions,
+     * so that differently seeded solvers explore the search space differently.
+     */
+    public CdclSolver(long seed) {
+        random = seed == 0 ? null : new Random(seed);
+    }
+
+    public int varNumber() {
+        return varNumber;
+    }
+
+    public long conflicts() {
+        return conflicts;
+    }
+
+    public long decisions() {
+        return decisions;
+    }
+
+    public long propagations() {
+        return propagations;
+    }
+
+    public int learntNumber() {
+        return learnts.size();
+    }
+
+    public void ensureVars(int n) {
+        if (n <= varNumber) {
+            return;
+        }
+        if (n >= level.length) {
+            final int capacity = Math.max(n + 1, level.length * 2);
+            litValue = Arrays.copyOf(litValue, 2 * capacity);
+            level = Arrays.copyOf(level, capacity);
+            reason = Arrays.copyOf(reason, capacity);
+            activity = Arrays.copyOf(activity, capacity);
+            savedNegative = Arrays.copyOf(savedNegative, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+            final int oldWatches = watches.length;
+            watches = Arrays.copyOf(watches, 2 * capacity);
+            for (int i = oldWatches; i < watches.length; i++) {
+                watches[i] = new WatchList();
+            }
+            trail = Arrays.copyOf(trail, capacity);
+            trailLim = Arrays.copyOf(trailLim, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+            heapIndex = Arrays.copyOf(heapIndex, capacity);
+        }
+        for (int v = varNumber + 1; v <= n; v++) {
+            savedNegative[v] = random == null || random.nextBoolean();
+            if (random != null) {
+                activity[v] = random.nextDouble() * 1e-5;
+            }
+            heapIndex[v] = -1;
+            heapInsert(v);
+        }
+        varNumber = n;
+    }
+
+    /*
+     * Returns false if the formula became trivially unsatisfiable.
+     */
+    public boolean addClause(int[] dimacsClause) {
+        return addClause(dimacsClause, 0, dimacsClause.length);
+    }
+
+    /*
+     * Adds the clause formed by dimacsLiterals[from..to).
+     */
+    public boolean addClause(int[] dimacsLiterals, int from, int to) {
+        if (!ok) {
+            return false;
+        }
+        cancelUntil(0);
+        int maxVar = 0;
+        for (int i = from; i < to; i++) {
+            maxVar = Math.max(maxVar, Math.abs(dimacsLiterals[i]));
+        }
+        ensureVars(maxVar);
+        final int[] lits = new int[to - from];
+        for (int i = 0; i < lits.length; i++) {
+            lits[i] = toLit(dimacsLiterals[from + i]);
+        }
+        Arrays.sort(lits);
+        int size = 0;
+        int prev = -1;
+        for (int l : lits) {
+            if (litValue[l] == TRUE || l == (prev ^ 1)) {
+                // satisfied at level 0 or tautological
+                return true;
+            } else if (litValue[l] != FALSE && l != prev) {
+                lits[size++] = l;
+            }
+            prev = l;
+        }
+        if (size == 0) {
+            ok = false;
+        } else if (size == 1) {
+            uncheckedEnqueue(lits[0], null);
+            ok = propagate() == null;
+        } else {
+            final Clause c = new Clause(Arrays.copyOf(lits, size), false);
+            clauses.add(c);
+            attach(c);
+        }
+        return ok;
+    }
+
+    /*
+     * Returns SAT, UNSAT (possibly only under the given assumptions) or UNKNOWN
+     * (deadline reached, the calling thread interrupted or requestStop() called).
+     */
+    public SolverResults solve(int[] dimacsAssumptions, long deadline) {
+        model = null;
+        if (!ok) {
+            return SolverResults.UNSAT;
+        }
+        for (int literal : dimacsAssumptions) {
+            ensureVars(Math.abs(literal));
+        }
+        // each assumption opens a decision level, so repeated ones are dropped to keep within the variable number
+        final boolean[] assumed = new boolean[2 * varNumber + 2];
+        int[] assumptions = new int[dimacsAssumptions.length];
+        int assumptionCount = 0;
+        for (int literal : dimacsAssumptions) {
+            final int p = toLit(literal);
+            if (!assumed[p]) {
+                assumed[p] = true;
+                assumptions[assumptionCount++] = p;
+            }
+        }
+        assumptions = Arrays.copyOf(assumptions, assumptionCount);
+        cancelUntil(0);
+        maxLearnts = Math.max(maxLearnts, Math.max(clauses.size() / 3.0, 2000));
+        SolverResults result = null;
+        for (int restarts = 0; result == null; restarts++) {
+            if (outOfTime(deadline)) {
+                result = SolverResults.UNKNOWN;
+                break;
+            }
+            result = search(luby(restarts) * RESTART_BASE, assumptions, deadline);
+            maxLearnts *= 1.02;
+        }
+        cancelUntil(0);
+        return result;
+    }
+
+    /*
+     * Should be called after solve() returned SAT.
+     */
+    public boolean value(int var) {
+        return model[var];
+    }
+
+    private static int luby(int i) {
+        // Luby sequence 1, 1, 2, 1, 1, 2, 4, ...
+        int size = 1;
+        int seq = 0;
+        while (size < i + 1) {
+            seq++;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != i) {
+            size = (size - 1) >> 1;
+            seq--;
+            i = i % size;
+        }
+        return 1 << seq;
+    }
+
+    private boolean outOfTime(long deadline) {
+        return stopRequested || System.currentTimeMillis() >= deadline || Thread.currentThread().isInterrupted();
+    }
+
+    public void addClauses(ClauseBuffer clauses) {
+        final int[] literals = clauses.literals();
+        for (int i = 0; i < clauses.size(); i++) {
+            addClause(literals, clauses.start(i), clauses.end(i));
+        }
+    }
+
+    /*
+     * May be called from another thread. The flag remains set until clearStopRequest() is called.
+     */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
+    public void clearStopRequest() {
+        stopRequested = false;
+    }
+
+    private SolverResults search(int nofConflicts, int[] assumptions, long deadline) {
+        int conflictCount = 0;
+        final int[] learnt = new int[varNumber + 1];
+        while (true) {
+            final Clause confl = propagate();
+            if (confl != null) {
+                conflicts++;
+                conflictCount++;
+                if (decisionLevel == 0) {
+                    ok = false;
+                    return SolverResults.UNSAT;
+                }
+                final int learntSize = analyze(confl, learnt);
+                int btLevel = 0;
+                if (learntSize > 1) {
+                    // the literal with the highest level goes to position 1
+                    int maxIndex = 1;
+                    for (int i = 2; i < learntSize; i++) {
+                        if (level[learnt[i] >> 1] > level[learnt[maxIndex] >> 1]) {
+                            maxIndex = i;
+                        }
+                    }
+                    final int tmp = learnt[1];
+                    learnt[1] = learnt[maxIndex];
+                    learnt[maxIndex] = tmp;
+                    btLevel = level[learnt[1] >> 1];
+                }
+                cancelUntil(btLevel);
+                if (learntSize == 1) {
+                    uncheckedEnqueue(learnt[0], null);
+                } else {
+                    final Clause c = new Clause(Arrays.copyOf(learnt, learntSize), true);
+                    learnts.add(c);
+                    attach(c);
+                    bumpClause(c);
+                    uncheckedEnqueue(learnt[0], c);
+                }
+                varInc /= VAR_DECAY;
+                clauseInc /= CLAUSE_DECAY;
+                if ((conflicts & 255) == 0 && outOfTime(deadline)) {
+                    cancelUntil(0);
+                    return SolverResults.UNKNOWN;
+                }
+            } else {
+                if (conflictCount >= nofConflicts) {
+                    cancelUntil(0);
+                    return null;
+                }
+                if (learnts.size() - trailSize >= maxLearnts) {
+                    reduceLearnts();
+                }
+                int next = -1;
+                while (decisionLevel < assumptions.length) {
+                    final int p = assumptions[decisionLevel];
+                    if (litValue[p] == TRUE) {
+                        // dummy decision level
+                        trailLim[decisionLevel++] = trailSize;
+                    } else if (litValue[p] == FALSE) {
+                        return SolverResults.UNSAT;
+                    } else {
+                        next = p;
+                        break;
+                    }
+                }
+                if (next == -1) {
+                    decisions++;
+                    next = pickBranchLit();
+                    if (next == -1) {
+                        model = new boolean[varNumber + 1];
+                        for (int v = 1; v <= varNumber; v++) {
+                            model[v] = litValue[2 * v] == TRUE;
+                        }
+                        return SolverResults.SAT;
+                    }
+                }
+                trailLim[decisionLevel++] = trailSize;
+                uncheckedEnqueue(next, null);
+            }
+        }
+    }
+
+    /*
+     * First-UIP conflict analysis. Writes the learnt clause into 'out' (asserting literal first)
+     * and returns its size.
+     */
+    private int analyze(Clause confl, int[] out) {
+        int pathCount = 0;
+        int p = -1;
+        int size = 1;
+        int index = trailSize - 1;
+        do {
+            if (confl.learnt) {
+                bumpClause(confl);
+            }
+            final int[] lits = confl.lits;
+            for (int k = p == -1 ? 0 : 1; k < lits.length; k++) {
+                final int q = lits[k];
+                final int v = q >> 1;
+                if (!seen[v] && level[v] > 0) {
+                    bumpVar(v);
+                    seen[v] = true;
+                    if (level[v] >= decisionLevel) {
+                        pathCount++;
+                    } else {
+                        out[size++] = q;
+                    }
+                }
+            }
+            while (!seen[trail[index--] >> 1]);
+            p = trail[index + 1];
+            confl = reason[p >> 1];
+            seen[p >> 1] = false;
+            pathCount--;
+        } while (pathCount > 0);
+        out[0] = p ^ 1;
+
+        // local minimization: drop literals implied by other literals of the clause
+        for (int i = 1; i < size; i++) {
+            final Clause r = reason[out[i] >> 1];
+            if (r == null) {
+                continue;
+            }
+            boolean redundant = true;
+            for (int k = 1; k < r.lits.length; k++) {
+                final int v = r.lits[k] >> 1;
+                if (!seen[v] && level[v] > 0) {
+                    redundant = false;
+                    break;
+                }
+            }
+            if (redundant) {
+                // mark for removal, seen flags are still needed
+                out[i] = -1 - out[i];
+            }
+        }
+        int j = 1;
+        for (int i = 1; i < size; i++) {
+            final boolean removed = out[i] < 0;
+            final int lit = removed ? -1 - out[i] : out[i];
+            seen[lit >> 1] = false;
+            if (!removed) {
+                out[j++] = lit;
+            }
+        }
+        return j;
+    }
+
+    private void uncheckedEnqueue(int lit, Clause from) {
+        final int v = lit >> 1;
+        litValue[lit] = TRUE;
+        litValue[lit ^ 1] = FALSE;
+        level[v] = decisionLevel;
+        reason[v] = from;
+        trail[trailSize++] = lit;
+    }
+
+    private Clause propagate() {
+        Clause confl = null;
+        while (qhead < trailSize) {
+            final int falseLit = trail[qhead++] ^ 1;
+            propagations++;
+            final WatchList ws = watches[falseLit];
+            final Clause[] cs = ws.data;
+            final int[] bs = ws.blockers;
+            final int n = ws.size;
+            int i = 0;
+            int j = 0;
+            while (i < n) {
+                final int blocker = bs[i];
+                if (litValue[blocker] == TRUE) {
+                    bs[j] = blocker;
+                    cs[j++] = cs[i++];
+                    continue;
+                }
+                final Clause c = cs[i++];
+                if (c.deleted) {
+                    continue;
+                }
+                final int[] lits = c.lits;
+                if (lits[0] == falseLit) {
+                    lits[0] = lits[1];
+                    lits[1] = falseLit;
+                }
+                final int first = lits[0];
+                if (first != blocker && litValue[first] == TRUE) {
+                    bs[j] = first;
+                    cs[j++] = c;
+                    continue;
+                }
+                boolean found = false;
+                for (int k = 2; k < lits.length; k++) {
+                    if (litValue[lits[k]] != FALSE) {
+                        lits[1] = lits[k];
+                        lits[k] = falseLit;
+                        watches[lits[1]].add(c, first);
+                        found = true;
+                        break;
+                    }
+                }
+                if (found) {
+                    continue;
+                }
+                bs[j] = first;
+                cs[j++] = c;
+                if (litValue[first] == FALSE) {
+                    confl = c;
+                    qhead = trailSize;
+                    while (i < n) {
+                        bs[j] = bs[i];
+                        cs[j++] = cs[i++];
+                    }
+                } else {
+                    uncheckedEnqueue(first, c);
+                }
+            }
+            ws.size = j;
+        }
+        return confl;
+    }
+
+    private void attach(Clause c) {
+        watches[c.lits[0]].add(c, c.lits[1]);
+        watches[c.lits[1]].add(c, c.lits[0]);
+    }
+
+    private void cancelUntil(int targetLevel) {
+        if (decisionLevel > targetLevel) {
+            for (int i = trailSize - 1; i >= trailLim[targetLevel]; i--) {
+                final int lit = trail[i];
+                final int v = lit >> 1;
+                litValue[lit] = UNDEF;
+                litValue[lit ^ 1] = UNDEF;
+                reason[v] = null;
+                savedNegative[v] = (lit & 1) == 1;
+                if (heapIndex[v] == -1) {
+                    heapInsert(v);
+                }
+            }
+            trailSize = trailLim[targetLevel];
+            qhead = trailSize;
+            decisionLevel = targetLevel;
+        }
+    }
+
+    private int pickBranchLit() {
+        if (random != null && heapSize > 0 && random.nextDouble() < RANDOM_DECISION_FREQUENCY) {
+            final int v = heap[random.nextInt(heapSize)];
+            if (litValue[2 * v] == UNDEF) {
+                return 2 * v + (savedNegative[v] ? 1 : 0);
+            }
+        }
+        while (heapSize > 0) {
+            final int v = heapRemoveMax();
+            if (litValue[2 * v] == UNDEF) {
+                return 2 * v + (savedNegative[v] ? 1 : 0);
+            }
+        }
+        return -1;
+    }
+
+    private void reduceLearnts() {
+        learnts.sort((c1, c2) -> Double.compare(c1.activity, c2.activity));
+        final double extraLimit = clauseInc / learnts.size();
+        final List<Clause> kept = new ArrayList<>();
+        for (int i = 0; i < learnts.size(); i++) {
+            final Clause c = learnts.get(i);
+            final boolean locked = reason[c.lits[0] >> 1] == c && litValue[c.lits[0]] == TRUE;
+            if (c.lits.length > 2 && !locked && (i < learnts.size() / 2 || c.activity < extraLimit)) {
+                c.deleted = true;
+            } else {
+                kept.add(c);
+            }
+        }
+        learnts.clear();
+        learnts.addAll(kept);
+        for (WatchList ws : watches) {
+            if (ws == null) {
+                continue;
+            }
+            int j = 0;
+            for (int i = 0; i < ws.size; i++) {
+                if (!ws.data[i].deleted) {
+                    ws.blockers[j] = ws.blockers[i];
+                    ws.data[j++] = ws.data[i];
+                }
+            }
+            Arrays.fill(ws.data, j, ws.size, null);
+            ws.size = j;
+        }
+    }
+
+    private void bumpVar(int v) {
+        if ((activity[v] += varInc) > 1e100) {
+            for (int i = 1; i <= varNumber; i++) {
+                activity[i] *= 1e-100;
+            }
+            varInc *= 1e-100;
+        }
+        if (heapIndex[v] != -1) {
+            heapUp(heapIndex[v]);
+        }
+    }
+
+    private void bumpClause(Clause c) {
+        if ((c.activity += clauseInc) > 1e20) {
+            for (Clause l : learnts) {
+                l.activity *= 1e-20;
+            }
+            clauseInc *= 1e-20;
+        }
+    }
+
+    // heap operations
+
+    private void heapInsert(int v) {
+        heapIndex[v] = heapSize;
+        heap[heapSize++] = v;
+        heapUp(heapSize - 1);
+    }
+
+    private int heapRemoveMax() {
+        final int top = heap[0];
+        heapIndex[top] = -1;
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            heapDown(0);
+        }
+        return top;
+    }
+
+    private void heapUp(int i) {
+        final int v = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) >> 1;
+            if (activity[heap[parent]] >= activity[v]) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+
+    private void heapDown(int i) {
+        final int v = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]]) {
+                child++;
+            }
+            if (activity[heap[child]] <= activity[v]) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+}
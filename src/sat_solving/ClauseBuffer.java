@@ -0,0 +1,160 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/*
+ * Growable store of CNF clauses: all literals are kept in a single int array,
+ * clause i occupies positions [start(i), end(i)).
+ * Replaces List<int[]> in formula builders to avoid an object per clause.
+ * A clause is either added at once with add(...), or literal by literal with
+ * addLiteral(...) followed by finishClause().
+ */
+public class ClauseBuffer {
+    private int[] literals;
+    private int literalCount = 0;
+    // ends[i] = end of clause i
+    private int[] ends;
+    private int clauseCount = 0;
+
+    public ClauseBuffer() {
+        this(1024);
+    }
+
+    public ClauseBuffer(int literalCapacity) {
+        literals = new int[Math.max(4, literalCapacity)];
+        ends = new int[Math.max(4, literalCapacity / 2)];
+    }
+
+    private void ensureLiteralCapacity(int additional) {
+        if (literalCount + additional > literals.length) {
+            literals = Arrays.copyOf(literals, Math.max(literals.length * 2, literalCount + additional));
+        }
+    }
+
+    public void addLiteral(int literal) {
+        ensureLiteralCapacity(1);
+        literals[literalCount++] = literal;
+    }
+
+    public void addLiterals(int[] clausePart) {
+        ensureLiteralCapacity(clausePart.length);
+        System.arraycopy(clausePart, 0, literals, literalCount, clausePart.length);
+        literalCount += clausePart.length;
+    }
+
+    /*
+     * Finishes the clause formed by literals added after the previous clause.
+     */
+    public void finishClause() {
+        if (clauseCount == ends.length) {
+            ends = Arrays.copyOf(ends, ends.length * 2);
+        }
+        ends[clauseCount++] = literalCount;
+    }
+
+    public void add(int l1) {
+        addLiteral(l1);
+        finishClause();
+    }
+
+    public void add(int l1, int l2) {
+        ensureLiteralCapacity(2);
+        literals[literalCount++] = l1;
+        literals[literalCount++] = l2;
+        finishClause();
+    }
+
+    public void add(int l1, int l2, int l3) {
+        ensureLiteralCapacity(3);
+        literals[literalCount++] = l1;
+        literals[literalCount++] = l2;
+        literals[literalCount++] = l3;
+        finishClause();
+    }
+
+    public void add(int[] clause) {
+        addLiterals(clause);
+        finishClause();
+    }
+
+    public int size() {
+        return clauseCount;
+    }
+
+    public boolean isEmpty() {
+        return clauseCount == 0;
+    }
+
+    public int literalCount() {
+        return literalCount;
+    }
+
+    public int start(int clause) {
+        return clause == 0 ? 0 : ends[clause - 1];
+    }
+
+    public int end(int clause) {
+        return ends[clause];
+    }
+
+    /*
+     * Backing array of literals, valid until the next addition.
+     */
+    public int[] literals() {
+        return literals;
+    }
+
+    public int[] clause(int clause) {
+        return Arrays.copyOfRange(literals, start(clause), end(clause));
+    }
+
+    /*
+     * Replaces each literal l with operator(l).
+     */
+    public void replaceLiterals(IntUnaryOperator operator) {
+        for (int i = 0; i < literalCount; i++) {
+            literals[i] = operator.applyAsInt(literals[i]);
+        }
+    }
+
+    /*
+     * Returns the clauses with the negation of activationLiteral added to each of them,
+     * so that they are only enforced if activationLiteral is assumed.
+     */
+    public ClauseBuffer guard(int activationLiteral) {
+        final ClauseBuffer result = new ClauseBuffer(literalCount + clauseCount);
+        for (int i = 0; i < clauseCount; i++) {
+            for (int j = start(i); j < end(i); j++) {
+                result.addLiteral(literals[j]);
+            }
+            result.addLiteral(-activationLiteral);
+            result.finishClause();
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < clauseCount; i++) {
+            appendDimacsClause(sb, i);
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Appends the clause in the DIMACS format ("1 -2 0").
+     */
+    public void appendDimacsClause(StringBuilder sb, int clause) {
+        for (int i = start(clause); i < end(clause); i++) {
+            sb.append(literals[i]).append(' ');
+        }
+        sb.append('0');
+    }
+}
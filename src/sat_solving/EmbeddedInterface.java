@@ -0,0 +1,66 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import sat_solving.SolverResult.SolverResults;
+import bnf_formulae.BooleanFormula;
+import bnf_formulae.BooleanFormula.DimacsConversionInfo;
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.SynthesisContext;
+
+/*
+ * Incremental solving with CdclSolver inside the JVM: no external processes and no files.
+ */
+public class EmbeddedInterface implements SolverInterface {
+    private final DimacsConversionInfo info;
+    private final CdclSolver solver = new CdclSolver();
+    private final Logger logger;
+    private final SynthesisContext context = SynthesisContext.current();
+
+    public EmbeddedInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger)
+            throws IOException {
+        this.logger = logger;
+        info = BooleanFormula.actionSpecToCnf(logger, actionspec);
+        info.clauses().get().forEach(solver::addClause);
+        appendConstraints(positiveConstraints);
+    }
+
+    private void appendConstraints(ClauseBuffer constraints) {
+        BooleanFormula.transformConstraints(constraints, info);
+        solver.addClauses(constraints);
+        solver.ensureVars(info.varNumber());
+    }
+
+    @Override
+    public void halt() {
+    }
+
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, int[] assumptions, int timeLeftForSolver)
+            throws IOException {
+        appendConstraints(newConstraints);
+        final int[] dimacsAssumptions = BooleanFormula.transformAssumptions(assumptions, info);
+        solver.ensureVars(info.varNumber());
+        final long deadline = System.currentTimeMillis() + timeLeftForSolver * 1000L;
+        final SolverResults result = solver.solve(dimacsAssumptions, deadline);
+        logger.info("EMBEDDED SOLVER: " + solver.varNumber() + " vars, " + solver.conflicts() + " conflicts, "
+                + solver.learntNumber() + " learnt clauses");
+        if (result != SolverResults.SAT) {
+            return new SolverResult(result);
+        }
+        final List<Assignment> list = new ArrayList<>();
+        for (int i = 1; i <= info.varNumber(); i++) {
+            final boolean value = solver.value(i);
+            info.toLimbooleNumber(i).ifPresent(limbooleNum ->
+                list.add(new Assignment(BooleanVariable.getVarByNumber(context, limbooleNum), value)));
+        }
+        return new SolverResult(list);
+    }
+}
@@ -6,38 +6,135 @@ package sat_solving;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import sat_solving.SolverResult.SolverResults;
 import bnf_formulae.BooleanFormula;
 import bnf_formulae.BooleanFormula.DimacsConversionInfo;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.SynthesisContext;
 
+/*
+ * Incremental solving with an external process which receives clauses in a binary protocol
+ * (see incremental-cryptominisat-binary.cpp).
+ * Binaries built before the assumption command (4) was added do not support assumptions. For them, clauses
+ * are also recorded, and each solve under assumptions is done by a new process which gets the recorded clauses
+ * and the assumptions as unit clauses. The main process gets no assumptions and remains incremental.
+ */
 public class IncrementalInterface implements SolverInterface {
+    // command -> the binary supports assumptions, found out from its usage message
+    private static final Map<String, Boolean> ASSUMPTION_SUPPORT = new ConcurrentHashMap<>();
+
     private final DimacsConversionInfo info;
+    private final String command;
+    private final int initialVarNumber;
     private final Process solverProcess;
     private final DataOutputStream writer;
     private final DataInputStream reader;
+    // null if the binary supports assumptions
+    private final RecordingOutputStream recorder;
+    private final SynthesisContext context = SynthesisContext.current();
+    private boolean halted = false;
+
+    /*
+     * Copies the written data to the log while recording is on.
+     */
+    private static class RecordingOutputStream extends FilterOutputStream {
+        private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        private boolean recording = true;
+
+        RecordingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (recording) {
+                log.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (recording) {
+                log.write(b, off, len);
+            }
+        }
+    }
     
-    public IncrementalInterface(List<int[]> positiveConstraints, String actionspec, Logger logger, SatSolver solver)
-            throws IOException {
+    public IncrementalInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger,
+            SolverOptions options) throws IOException {
+        final SatSolver solver = options.solver();
         if (!solver.isIncremental) {
             throw new AssertionError("An incremental solver was expected!");
         }
-        info = BooleanFormula.actionSpecToDimacs(logger, BooleanFormula.DIMACS_FILENAME, actionspec);
+        // the text DIMACS file is only needed if limboole is used
+        final String dimacsFilename = context.dimacsFilename();
+        info = options.useLimboole()
+                ? BooleanFormula.actionSpecToDimacs(logger, dimacsFilename, actionspec, true)
+                : BooleanFormula.actionSpecToCnf(logger, actionspec);
         info.close();
 
-        solverProcess = Runtime.getRuntime().exec(solver.command + info.varNumber());
-        writer = new DataOutputStream(new BufferedOutputStream(solverProcess.getOutputStream()));
+        command = solver.command;
+        initialVarNumber = info.varNumber();
+        final boolean assumptionsSupported = supportsAssumptions(command);
+        if (!assumptionsSupported) {
+            logger.warning(command.trim() + " does not support assumptions and should be rebuilt, "
+                    + "solving under assumptions restarts the solver");
+        }
+        solverProcess = context.exec(command + initialVarNumber);
+        final OutputStream output = new BufferedOutputStream(solverProcess.getOutputStream());
+        recorder = assumptionsSupported ? null : new RecordingOutputStream(output);
+        writer = new DataOutputStream(assumptionsSupported ? output : recorder);
         reader = new DataInputStream(solverProcess.getInputStream());
         
-        try (BufferedReader input = new BufferedReader(new FileReader(BooleanFormula.DIMACS_FILENAME))) {
+        if (info.clauses().isPresent()) {
+            BooleanFormula.writeClauses(info.clauses().get(), writer);
+        } else {
+            sendDimacsFile(dimacsFilename, writer);
+        }
+        
+        BooleanFormula.appendConstraints(positiveConstraints, info, writer);
+    }
+    
+    /*
+     * The usage message of binaries with the assumption command mentions assumptions.
+     */
+    private static boolean supportsAssumptions(String command) throws IOException {
+        final Boolean known = ASSUMPTION_SUPPORT.get(command);
+        if (known != null) {
+            return known;
+        }
+        final Process process = Runtime.getRuntime().exec(command.trim());
+        final boolean supported;
+        try (BufferedReader usage = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            supported = usage.lines().anyMatch(line -> line.contains("assumptions"));
+        } finally {
+            process.destroy();
+        }
+        ASSUMPTION_SUPPORT.put(command, supported);
+        return supported;
+    }
+
+    /*
+     * Sends the clauses of a DIMACS file (except the header) in the binary format.
+     */
+    public static void sendDimacsFile(String dimacsFilename, DataOutputStream writer) throws IOException {
+        try (BufferedReader input = new BufferedReader(new FileReader(dimacsFilename))) {
             input.readLine();
             String line;
             while ((line = input.readLine()) != null) {
@@ -48,12 +145,18 @@ public class IncrementalInterface implements SolverInterface {
                 }
             }
         }
-        
-        BooleanFormula.appendConstraints(positiveConstraints, info, writer);
     }
 
     @Override
     public void halt() throws IOException {
+        // the solver may have been halted after UNSAT or UNKNOWN
+        if (halted) {
+            return;
+        }
+        halted = true;
+        if (recorder != null) {
+            recorder.recording = false;
+        }
         writer.writeInt(3);
         writer.flush();
         writer.close();
@@ -61,11 +164,69 @@ public class IncrementalInterface implements SolverInterface {
     }
 
     @Override
-    public SolverResult solve(List<int[]> newConstraints, int timeLeftForSolver) throws IOException {
+    public SolverResult solve(ClauseBuffer newConstraints, int[] assumptions, int timeLeftForSolver)
+            throws IOException {
         BooleanFormula.appendConstraints(newConstraints, info, writer);
-        writer.writeInt(2); // solve
-        writer.writeInt(timeLeftForSolver); // with a time limit
+        final int initialVarNumber = info.varNumber();
+        final int[] dimacsAssumptions = BooleanFormula.transformAssumptions(assumptions, info);
+        if (info.varNumber() > initialVarNumber) {
+            writer.writeInt(1);
+            writer.writeInt(info.varNumber() - initialVarNumber);
+        }
+        if (assumptions.length > 0 && recorder != null) {
+            writer.flush();
+            return solveInNewProcess(dimacsAssumptions, timeLeftForSolver);
+        }
+        if (recorder != null) {
+            recorder.recording = false;
+        }
+        if (assumptions.length == 0) {
+            writer.writeInt(2); // solve
+            writer.writeInt(timeLeftForSolver); // with a time limit
+        } else {
+            writer.writeInt(4); // solve under assumptions
+            writer.writeInt(timeLeftForSolver);
+            for (int literal : dimacsAssumptions) {
+                writer.writeInt(literal);
+            }
+            writer.writeInt(0);
+        }
         writer.flush();
+        if (recorder != null) {
+            recorder.recording = true;
+        }
+        final SolverResult result = readResult(reader);
+        if (result.type() == SolverResults.UNKNOWN
+                || result.type() == SolverResults.UNSAT && assumptions.length == 0) {
+            halt();
+        }
+        return result;
+    }
+
+    /*
+     * Solves the recorded clauses with the assumptions as unit clauses in a separate process.
+     */
+    private SolverResult solveInNewProcess(int[] dimacsAssumptions, int timeLeftForSolver) throws IOException {
+        final Process process = context.exec(command + initialVarNumber);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+             DataInputStream input = new DataInputStream(process.getInputStream())) {
+            recorder.log.writeTo(output);
+            for (int literal : dimacsAssumptions) {
+                output.writeInt(0);
+                output.writeInt(literal);
+                output.writeInt(0);
+            }
+            output.writeInt(2);
+            output.writeInt(timeLeftForSolver);
+            output.flush();
+            final SolverResult result = readResult(input);
+            output.writeInt(3);
+            output.flush();
+            return result;
+        }
+    }
+
+    private SolverResult readResult(DataInputStream reader) throws IOException {
         final int verdict = reader.readInt();
         switch (verdict) {
         case 0:
@@ -76,16 +237,14 @@ public class IncrementalInterface implements SolverInterface {
                     break;
                 }
                 info.toLimbooleNumber(Math.abs(value)).ifPresent(limbooleNum -> {
-                    final BooleanVariable var = BooleanVariable.getVarByNumber(limbooleNum);
+                    final BooleanVariable var = BooleanVariable.getVarByNumber(context, limbooleNum);
                     list.add(new Assignment(var, value > 0));
                 });
             }
             return new SolverResult(list);
         case 1:
-            halt();
             return new SolverResult(SolverResults.UNSAT);
         case 2:
-            halt();
             return new SolverResult(SolverResults.UNKNOWN);
         default:
             throw new AssertionError();
@@ -0,0 +1,302 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import sat_solving.SolverResult.SolverResults;
+import bnf_formulae.BooleanFormula;
+import bnf_formulae.BooleanFormula.DimacsConversionInfo;
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.SynthesisContext;
+
+/*
+ * Runs several solver configurations (solvers and seeds) in parallel on the same CNF
+ * and takes the first definitive (SAT or UNSAT) answer; the other configurations are stopped.
+ * External solvers (CRYPTOMINISAT, LINGELING) are restarted on the DIMACS file for each call,
+ * EMBEDDED configurations keep their solvers between calls.
+ * Configurations whose solver cannot be started are dropped.
+ */
+public class PortfolioInterface implements SolverInterface {
+    public static final String DEFAULT_CONFIGURATIONS = "CRYPTOMINISAT:0,LINGELING:0,EMBEDDED:0,EMBEDDED:1";
+
+    private static class Configuration {
+        final SatSolver solver;
+        final int seed;
+        // only for EMBEDDED
+        final CdclSolver embedded;
+        // set if the solver process could not be started
+        volatile boolean failed = false;
+
+        Configuration(SatSolver solver, int seed) {
+            this.solver = solver;
+            this.seed = seed;
+            embedded = solver == SatSolver.EMBEDDED ? new CdclSolver(seed) : null;
+        }
+
+        @Override
+        public String toString() {
+            return solver + ":" + seed;
+        }
+    }
+
+    /*
+     * Comma-separated list of SOLVER:seed, where SOLVER is CRYPTOMINISAT, LINGELING or EMBEDDED.
+     */
+    static List<Configuration> parseConfigurations(String configurations) {
+        final List<Configuration> result = new ArrayList<>();
+        for (String token : configurations.split(",")) {
+            final String[] parts = token.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid portfolio configuration " + token
+                        + ", expected SOLVER:seed");
+            }
+            final SatSolver solver = SatSolver.valueOf(parts[0]);
+            if (solver != SatSolver.CRYPTOMINISAT && solver != SatSolver.LINGELING
+                    && solver != SatSolver.EMBEDDED) {
+                throw new IllegalArgumentException("Solver " + solver + " cannot be used in a portfolio");
+            }
+            result.add(new Configuration(solver, Integer.parseInt(parts[1])));
+        }
+        return result;
+    }
+
+    private static class Outcome {
+        final Configuration configuration;
+        final SolverResults type;
+        // indexed by DIMACS variable numbers, only for SAT
+        final boolean[] values;
+
+        Outcome(Configuration configuration, SolverResults type, boolean[] values) {
+            this.configuration = configuration;
+            this.type = type;
+            this.values = values;
+        }
+    }
+
+    private final DimacsConversionInfo info;
+    private final Logger logger;
+    private final SynthesisContext context = SynthesisContext.current();
+    private final String dimacsFilename = context.dimacsFilename();
+    private final List<Configuration> configurations;
+    private final ExecutorService executor;
+
+    public PortfolioInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger,
+            SolverOptions options) throws IOException {
+        this.logger = logger;
+        configurations = parseConfigurations(options.portfolio());
+        // daemon threads, since builders do not always call halt()
+        executor = Executors.newFixedThreadPool(configurations.size(), r -> {
+            final Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        info = BooleanFormula.actionSpecToDimacs(logger, dimacsFilename, actionspec, options.useLimboole());
+        info.close();
+        if (configurations.stream().anyMatch(c -> c.embedded != null)) {
+            final List<int[]> clauses = info.clauses().isPresent() ? info.clauses().get() : readDimacsClauses();
+            for (Configuration c : configurations) {
+                if (c.embedded != null) {
+                    clauses.forEach(c.embedded::addClause);
+                }
+            }
+        }
+        appendConstraints(positiveConstraints);
+    }
+
+    private List<int[]> readDimacsClauses() throws IOException {
+        try (BufferedReader input = new BufferedReader(new FileReader(dimacsFilename))) {
+            return input.lines().filter(line -> !line.startsWith("p") && !line.startsWith("c"))
+                    .map(line -> Arrays.stream(line.trim().split(" +")).mapToInt(Integer::parseInt)
+                            .filter(x -> x != 0).toArray())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void appendConstraints(ClauseBuffer constraints) throws IOException {
+        BooleanFormula.transformConstraints(constraints, info);
+        BooleanFormula.appendConstraintsToDimacs(logger, constraints, info);
+        for (Configuration c : configurations) {
+            if (c.embedded != null) {
+                c.embedded.addClauses(constraints);
+                c.embedded.ensureVars(info.varNumber());
+            }
+        }
+    }
+
+    @Override
+    public void halt() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, int[] assumptions, int timeLeftForSolver)
+            throws IOException {
+        appendConstraints(newConstraints);
+        final int[] dimacsAssumptions = BooleanFormula.transformAssumptions(assumptions, info);
+        // external solvers do not support assumptions and get them as unit clauses in a copy of the file
+        final String externalFilename = assumptions.length == 0 ? dimacsFilename
+                : BooleanFormula.dimacsWithAssumptions(dimacsAssumptions, info);
+        final int timeoutSeconds = Math.max(1, timeLeftForSolver);
+        final long deadline = System.currentTimeMillis() + timeoutSeconds * 1000L;
+        final CompletionService<Outcome> service = new ExecutorCompletionService<>(executor);
+        final Round round = new Round();
+        int remaining = 0;
+        for (Configuration c : configurations) {
+            if (c.failed) {
+                continue;
+            }
+            if (c.embedded != null) {
+                c.embedded.clearStopRequest();
+                c.embedded.ensureVars(info.varNumber());
+                service.submit(() -> solveEmbedded(c, dimacsAssumptions, deadline));
+            } else {
+                service.submit(() -> solveExternal(c, externalFilename, timeoutSeconds, round));
+            }
+            remaining++;
+        }
+
+        final long time = System.currentTimeMillis();
+        Outcome winner = null;
+        boolean interrupted = false;
+        try {
+            while (remaining > 0 && winner == null) {
+                final Outcome outcome = takeOutcome(service);
+                remaining--;
+                if (outcome != null && outcome.type != SolverResults.UNKNOWN) {
+                    winner = outcome;
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            // stop the others and wait for them, since embedded solvers are reused in the next call
+            round.stop();
+            configurations.stream().filter(c -> c.embedded != null).forEach(c -> c.embedded.requestStop());
+            while (remaining > 0) {
+                try {
+                    takeOutcome(service);
+                    remaining--;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (winner == null) {
+            logger.info("PORTFOLIO: NO DEFINITIVE ANSWER");
+            return new SolverResult(SolverResults.UNKNOWN);
+        }
+        logger.info("PORTFOLIO: " + winner.configuration + " WON WITH " + winner.type + " IN "
+                + (System.currentTimeMillis() - time) + " MS");
+        if (winner.type == SolverResults.UNSAT) {
+            return new SolverResult(SolverResults.UNSAT);
+        }
+        final List<Assignment> list = new ArrayList<>();
+        for (int i = 1; i <= info.varNumber(); i++) {
+            final boolean value = winner.values[i];
+            info.toLimbooleNumber(i).ifPresent(limbooleNum ->
+                list.add(new Assignment(BooleanVariable.getVarByNumber(context, limbooleNum), value)));
+        }
+        return new SolverResult(list);
+    }
+
+    private Outcome solveEmbedded(Configuration c, int[] dimacsAssumptions, long deadline) {
+        final SolverResults result = c.embedded.solve(dimacsAssumptions, deadline);
+        if (result != SolverResults.SAT) {
+            return new Outcome(c, result, null);
+        }
+        final boolean[] values = new boolean[info.varNumber() + 1];
+        for (int i = 1; i <= info.varNumber(); i++) {
+            values[i] = c.embedded.value(i);
+        }
+        return new Outcome(c, result, values);
+    }
+
+    /*
+     * Returns null if the configuration failed.
+     */
+    private Outcome takeOutcome(CompletionService<Outcome> service) throws InterruptedException {
+        try {
+            return service.take().get();
+        } catch (ExecutionException e) {
+            logger.warning("PORTFOLIO: configuration failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    /*
+     * External processes started during a single solve() call.
+     */
+    private static class Round {
+        private final ConcurrentLinkedQueue<Process> processes = new ConcurrentLinkedQueue<>();
+        private volatile boolean stopped = false;
+
+        void register(Process p) {
+            processes.add(p);
+            if (stopped) {
+                p.destroyForcibly();
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            processes.forEach(Process::destroyForcibly);
+        }
+    }
+
+    private Outcome solveExternal(Configuration c, String filename, int timeoutSeconds, Round round)
+            throws IOException {
+        final String seedParam = c.solver == SatSolver.LINGELING ? " --seed=" : " --random=";
+        final String solverStr = c.solver.command + timeoutSeconds + seedParam + c.seed + " " + filename;
+        final Process p;
+        try {
+            p = context.exec(solverStr);
+        } catch (IOException e) {
+            logger.warning("PORTFOLIO: cannot start " + c + ", dropping it: " + e.getMessage());
+            c.failed = true;
+            return new Outcome(c, SolverResults.UNKNOWN, null);
+        }
+        round.register(p);
+        SolverResults result = SolverResults.UNKNOWN;
+        final boolean[] values = new boolean[info.varNumber() + 1];
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (line.startsWith("s ")) {
+                    result = line.equals("s SATISFIABLE") ? SolverResults.SAT
+                            : line.equals("s UNSATISFIABLE") ? SolverResults.UNSAT : SolverResults.UNKNOWN;
+                } else if (line.startsWith("v ")) {
+                    for (String token : line.substring(2).trim().split(" +")) {
+                        final int literal = Integer.parseInt(token);
+                        if (literal != 0 && Math.abs(literal) < values.length) {
+                            values[Math.abs(literal)] = literal > 0;
+                        }
+                    }
+                }
+            }
+        } finally {
+            p.destroy();
+        }
+        return new Outcome(c, result, values);
+    }
+}
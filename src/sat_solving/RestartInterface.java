@@ -7,38 +7,33 @@ package sat_solving;
 import bnf_formulae.BooleanFormula;
 import bnf_formulae.BooleanFormula.DimacsConversionInfo;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.SynthesisContext;
 import sat_solving.SolverResult.SolverResults;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class RestartInterface implements SolverInterface {
     private final DimacsConversionInfo info;
     private final Logger logger;
     private final SatSolver solver;
 
-    public RestartInterface(List<int[]> positiveConstraints, String actionspec, Logger logger, SatSolver solver)
-            throws IOException {
+    public RestartInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger,
+            SolverOptions options) throws IOException {
+        solver = options.solver();
         if (solver.isIncremental) {
             throw new AssertionError("A non-incremental solver was expected!");
         }
         this.logger = logger;
-        this.solver = solver;
-        info = BooleanFormula.actionSpecToDimacs(logger, BooleanFormula.DIMACS_FILENAME, actionspec);
+        info = BooleanFormula.actionSpecToDimacs(logger, SynthesisContext.current().dimacsFilename(),
+                actionspec, options.useLimboole());
         info.close();
         appendConstraints(positiveConstraints);
     }
 
-    private void appendConstraints(List<int[]> constraints) throws IOException {
+    private void appendConstraints(ClauseBuffer constraints) throws IOException {
         BooleanFormula.transformConstraints(constraints, info);
-        final List<String> strClauses = constraints.stream()
-                .map(arr -> Arrays.toString(arr).replace(",", "").replace("[", "").replace("]", "") + " 0")
-                .collect(Collectors.toList());
-        BooleanFormula.appendConstraintsToDimacs(logger, strClauses, info);
+        BooleanFormula.appendConstraintsToDimacs(logger, constraints, info);
     }
 
     @Override
@@ -46,8 +41,13 @@ public class RestartInterface implements SolverInterface {
     }
 
     @Override
-    public SolverResult solve(List<int[]> newConstraints, int timeLeftForSolver) throws IOException {
+    public SolverResult solve(ClauseBuffer newConstraints, int[] assumptions, int timeLeftForSolver)
+            throws IOException {
         appendConstraints(newConstraints);
-        return BooleanFormula.solveDimacs(logger, timeLeftForSolver, solver, info).toSolverResult(timeLeftForSolver);
+        final String dimacsFilename = assumptions.length == 0
+                ? SynthesisContext.current().dimacsFilename()
+                : BooleanFormula.dimacsWithAssumptions(BooleanFormula.transformAssumptions(assumptions, info), info);
+        return BooleanFormula.solveDimacs(logger, timeLeftForSolver, solver, info, dimacsFilename)
+                .toSolverResult(timeLeftForSolver);
     }
 }
@@ -1,7 +1,6 @@
 package sat_solving;
 
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Created by buzhinsky on 7/2/16.
@@ -9,5 +8,17 @@ import java.util.List;
 
 public interface SolverInterface {
     void halt() throws IOException;
-    SolverResult solve(List<int[]> newConstraints, int timeLeftForSolver) throws IOException;
+
+    /*
+     * Adds the constraints and solves the formula under the given assumptions
+     * (literals over BooleanVariable numbers, as in the constraints).
+     * A constraint group can be switched on and off with an activation variable:
+     * add the group guarded by it (see ClauseBuffer.guard()) and assume the variable to enable the group.
+     * UNSAT under non-empty assumptions only refers to these assumptions, and the interface remains usable.
+     */
+    SolverResult solve(ClauseBuffer newConstraints, int[] assumptions, int timeLeftForSolver) throws IOException;
+
+    default SolverResult solve(ClauseBuffer newConstraints, int timeLeftForSolver) throws IOException {
+        return solve(newConstraints, new int[0], timeLeftForSolver);
+    }
 }
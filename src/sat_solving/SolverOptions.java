@@ -0,0 +1,68 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/*
+ * Configuration of the SAT solver used by a builder. Setters return this object.
+ */
+public class SolverOptions {
+    private final SatSolver solver;
+    private boolean useLimboole = false;
+    private String portfolio = PortfolioInterface.DEFAULT_CONFIGURATIONS;
+
+    public SolverOptions(SatSolver solver) {
+        this.solver = solver;
+    }
+
+    public SatSolver solver() {
+        return solver;
+    }
+
+    /*
+     * By default, CNF conversion is done in-process by TseitinEncoder.
+     * If set, the external limboole is used instead (only for solvers which read DIMACS files).
+     */
+    public SolverOptions setUseLimboole(boolean useLimboole) {
+        this.useLimboole = useLimboole;
+        return this;
+    }
+
+    boolean useLimboole() {
+        return useLimboole;
+    }
+
+    /*
+     * Configurations of the PORTFOLIO solver, see PortfolioInterface.parseConfigurations.
+     * Throws IllegalArgumentException if they are invalid.
+     */
+    public SolverOptions setPortfolio(String portfolio) {
+        PortfolioInterface.parseConfigurations(portfolio);
+        this.portfolio = portfolio;
+        return this;
+    }
+
+    String portfolio() {
+        return portfolio;
+    }
+
+    public SolverInterface createInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger)
+            throws IOException {
+        switch (solver) {
+            case INCREMENTAL_CRYPTOMINISAT:
+                return new IncrementalInterface(positiveConstraints, actionspec, logger, this);
+            case EMBEDDED:
+                return new EmbeddedInterface(positiveConstraints, actionspec, logger);
+            case PORTFOLIO:
+                return new PortfolioInterface(positiveConstraints, actionspec, logger, this);
+            case LINGELING: case CRYPTOMINISAT:
+                return new RestartInterface(positiveConstraints, actionspec, logger, this);
+            default:
+                throw new AssertionError();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package structures;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A trie over scenarios stored in flat int arrays, without an object per node or per transition.
+ * Nodes and edges are numbered in the order of addition, and the root is node 0.
+ * Nodes have int labels, edges have int keys (unique among the edges of a node) and int labels:
+ * the user maps its events, guards and actions to these ints.
+ * Used to build compact scenario trees and forests, see ScenarioTree.compact() and PositivePlantScenarioForest.
+ */
+public class ScenarioTrie {
+    public static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int nodeCount = 0;
+    private int[] nodeLabels = new int[INITIAL_CAPACITY];
+    private int[] firstEdges = new int[INITIAL_CAPACITY];
+    private int[] lastEdges = new int[INITIAL_CAPACITY];
+
+    private int edgeCount = 0;
+    private int[] edgeKeys = new int[INITIAL_CAPACITY];
+    private int[] edgeLabels = new int[INITIAL_CAPACITY];
+    private int[] edgeTargets = new int[INITIAL_CAPACITY];
+    private int[] nextEdges = new int[INITIAL_CAPACITY];
+    // (source << 32 | key) -> edge
+    private final Map<Long, Integer> edgeIndex = new HashMap<>();
+
+    public ScenarioTrie(int rootLabel) {
+        addNode(rootLabel);
+    }
+
+    public int root() {
+        return 0;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public int addNode(int label) {
+        if (nodeCount == nodeLabels.length) {
+            final int capacity = nodeLabels.length * 2;
+            nodeLabels = Arrays.copyOf(nodeLabels, capacity);
+            firstEdges = Arrays.copyOf(firstEdges, capacity);
+            lastEdges = Arrays.copyOf(lastEdges, capacity);
+        }
+        nodeLabels[nodeCount] = label;
+        firstEdges[nodeCount] = NONE;
+        lastEdges[nodeCount] = NONE;
+        return nodeCount++;
+    }
+
+    /*
+     * The edges of a node are kept in the order of addition.
+     */
+    public int addEdge(int src, int key, int label, int dst) {
+        if (edgeIndex.putIfAbsent(edgeIndexKey(src, key), edgeCount) != null) {
+            throw new AssertionError("Duplicate edge key " + key + " in node " + src);
+        }
+        if (edgeCount == edgeKeys.length) {
+            final int capacity = edgeKeys.length * 2;
+            edgeKeys = Arrays.copyOf(edgeKeys, capacity);
+            edgeLabels = Arrays.copyOf(edgeLabels, capacity);
+            edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+            nextEdges = Arrays.copyOf(nextEdges, capacity);
+        }
+        edgeKeys[edgeCount] = key;
+        edgeLabels[edgeCount] = label;
+        edgeTargets[edgeCount] = dst;
+        nextEdges[edgeCount] = NONE;
+        if (lastEdges[src] == NONE) {
+            firstEdges[src] = edgeCount;
+        } else {
+            nextEdges[lastEdges[src]] = edgeCount;
+        }
+        lastEdges[src] = edgeCount;
+        return edgeCount++;
+    }
+
+    /*
+     * The edge with the given key from the node, or NONE.
+     */
+    public int edge(int src, int key) {
+        final Integer edge = edgeIndex.get(edgeIndexKey(src, key));
+        return edge == null ? NONE : edge;
+    }
+
+    private static long edgeIndexKey(int src, int key) {
+        return ((long) src << 32) | (key & 0xFFFFFFFFL);
+    }
+
+    public int nodeLabel(int node) {
+        return nodeLabels[node];
+    }
+
+    /*
+     * Iteration over the edges of a node: for (int e = firstEdge(node); e != NONE; e = nextEdge(e)).
+     */
+    public int firstEdge(int node) {
+        return firstEdges[node];
+    }
+
+    public int nextEdge(int edge) {
+        return nextEdges[edge];
+    }
+
+    public int edgeKey(int edge) {
+        return edgeKeys[edge];
+    }
+
+    public int edgeLabel(int edge) {
+        return edgeLabels[edge];
+    }
+
+    public int edgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    /*
+     * Merges the nodes with equal subtrees, which yields the minimum DAG with the same paths.
+     * Two nodes are equivalent if they have the same labels and the same edges (keys and labels)
+     * towards equivalent nodes. Returns the class of each node. Classes are numbered in the order of
+     * their first nodes, so the class of the root is 0.
+     * Requires each edge to lead to a node added after its source, as in a trie.
+     */
+    public int[] equivalenceClasses() {
+        final int[] classes = new int[nodeCount];
+        final Map<List<Integer>, Integer> signatures = new HashMap<>();
+        // children first
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            final List<int[]> edges = new ArrayList<>();
+            for (int e = firstEdges[node]; e != NONE; e = nextEdges[e]) {
+                if (edgeTargets[e] <= node) {
+                    throw new AssertionError("Not a trie: edge " + node + " -> " + edgeTargets[e]);
+                }
+                edges.add(new int[] { edgeKeys[e], edgeLabels[e], classes[edgeTargets[e]] });
+            }
+            edges.sort((e1, e2) -> Integer.compare(e1[0], e2[0]));
+            final List<Integer> signature = new ArrayList<>(1 + 3 * edges.size());
+            signature.add(nodeLabels[node]);
+            for (int[] edge : edges) {
+                signature.add(edge[0]);
+                signature.add(edge[1]);
+                signature.add(edge[2]);
+            }
+            final Integer existing = signatures.putIfAbsent(signature, signatures.size());
+            classes[node] = existing == null ? signatures.size() - 1 : existing;
+        }
+        // renumbering
+        final int[] newNumbers = new int[signatures.size()];
+        Arrays.fill(newNumbers, NONE);
+        int classCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (newNumbers[classes[node]] == NONE) {
+                newNumbers[classes[node]] = classCount++;
+            }
+            classes[node] = newNumbers[classes[node]];
+        }
+        return classes;
+    }
+}
@@ -52,8 +52,11 @@ public class NegativeMealyNode extends MealyNode {
         throw new AssertionError();
     }
     
-    public void addTransition(String event, MyBooleanExpression expr, StringActions actions, NegativeMealyNode dst) {
-        transitionList.add(new MealyTransition(this, dst, event, expr, actions));
+    public MealyTransition addTransition(String event, MyBooleanExpression expr, StringActions actions,
+                                         NegativeMealyNode dst) {
+        final MealyTransition t = new MealyTransition(this, dst, event, expr, actions);
+        transitionList.add(t);
+        return t;
     }
     
     @Override
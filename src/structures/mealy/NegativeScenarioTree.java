@@ -10,14 +10,21 @@ import scenario.StringScenario;
 
 import java.io.FileNotFoundException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.commons.lang3.tuple.Pair;
+
 public class NegativeScenarioTree {
     private final NegativeMealyNode root;
     private final Set<NegativeMealyNode> nodes;
+    // transitions and (node, loop) pairs in the order of addition, see MealyFormulaBuilder.negativeConstraints()
+    private final List<MealyTransition> transitionLog = new ArrayList<>();
+    private final List<Pair<NegativeMealyNode, NegativeMealyNode>> loopLog = new ArrayList<>();
 
     public NegativeScenarioTree() {
         root = new NegativeMealyNode(0);
@@ -55,6 +62,7 @@ public class NegativeScenarioTree {
             throw new AssertionError("Duplicate counterexample!");
         }
         node.addLoop(loopNode);
+        loopLog.add(Pair.of(node, loopNode));
     }
 
     /*
@@ -70,7 +78,7 @@ public class NegativeScenarioTree {
                     dst = new NegativeMealyNode(nodes.size());
                     nodes.add(dst);
                 }
-                src.addTransition(e, expr, actions, dst);
+                transitionLog.add(src.addTransition(e, expr, actions, dst));
             }
         }
     }
@@ -83,6 +91,21 @@ public class NegativeScenarioTree {
         return nodes.size();
     }
 
+    /*
+     * All transitions in the order of addition: the transitions added after the first k ones are
+     * transitionLog().subList(k, transitionLog().size()).
+     */
+    public List<MealyTransition> transitionLog() {
+        return Collections.unmodifiableList(transitionLog);
+    }
+
+    /*
+     * All (node, loop) pairs in the order of addition.
+     */
+    public List<Pair<NegativeMealyNode, NegativeMealyNode>> loopLog() {
+        return Collections.unmodifiableList(loopLog);
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("# generated file, don't try to modify\n");
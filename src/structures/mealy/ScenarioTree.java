@@ -3,6 +3,7 @@ package structures.mealy;
 import bool.MyBooleanExpression;
 import scenario.StringActions;
 import scenario.StringScenario;
+import structures.ScenarioTrie;
 
 import java.io.FileNotFoundException;
 import java.text.ParseException;
@@ -12,11 +13,115 @@ import java.util.stream.Collectors;
 public class ScenarioTree {
     private final MealyNode root;
     private final List<MealyNode> nodes;
+    // the number of nodes before merging, see compact()
+    private final int treeNodeCount;
+    private final boolean dag;
 
     public ScenarioTree() {
         this.root = new MealyNode(0);
         this.nodes = new ArrayList<>();
         this.nodes.add(root);
+        this.treeNodeCount = 0;
+        this.dag = false;
+    }
+
+    private ScenarioTree(List<MealyNode> nodes, int treeNodeCount) {
+        this.root = nodes.get(0);
+        this.nodes = nodes;
+        this.treeNodeCount = treeNodeCount;
+        this.dag = true;
+    }
+
+    /*
+     * The scenario tree for large scenario sets: the tree is built over a ScenarioTrie, and then the nodes with
+     * equal subtrees (i.e. with the same transitions towards equal subtrees) are merged. The result is a DAG
+     * with the same paths, in which a node may have several parents and thus may be visited in different
+     * automaton states. Only MealyFormulaBuilder and FastAutomatonBuilder support such trees, see isDag().
+     */
+    public static ScenarioTree compact(List<StringScenario> scenarios) throws ParseException {
+        // key: event and guard, label: actions
+        final Map<String, Integer> keys = new HashMap<>();
+        final List<String> keyEvents = new ArrayList<>();
+        final List<MyBooleanExpression> keyExprs = new ArrayList<>();
+        final Map<StringActions, Integer> labels = new HashMap<>();
+        final List<StringActions> labelActions = new ArrayList<>();
+        final ScenarioTrie trie = new ScenarioTrie(0);
+        for (StringScenario scenario : scenarios) {
+            int node = trie.root();
+            for (int i = 0; i < scenario.size(); i++) {
+                final List<String> events = scenario.getEvents(i);
+                final MyBooleanExpression expr = scenario.getExpr(i);
+                final StringActions actions = scenario.getActions(i);
+                if (events.isEmpty()) {
+                    throw new AssertionError();
+                }
+                final int label = labels.computeIfAbsent(actions, a -> {
+                    labelActions.add(a);
+                    return labelActions.size() - 1;
+                });
+                int dst = ScenarioTrie.NONE;
+                int next = ScenarioTrie.NONE;
+                for (String e : events) {
+                    final int key = keys.computeIfAbsent(e + "[" + expr.toString() + "]", k -> {
+                        keyEvents.add(e);
+                        keyExprs.add(expr);
+                        return keyEvents.size() - 1;
+                    });
+                    final int edge = trie.edge(node, key);
+                    if (edge != ScenarioTrie.NONE) {
+                        if (trie.edgeLabel(edge) != label) {
+                            throw new ParseException("Transition clash for event " + e + " in node "
+                                    + node + ": " + labelActions.get(trie.edgeLabel(edge)) + " != " + actions
+                                    + ". This may be caused by inconsistent scenarios.", 0);
+                        }
+                    } else {
+                        if (dst == ScenarioTrie.NONE) {
+                            dst = trie.addNode(0);
+                        }
+                        trie.addEdge(node, key, label, dst);
+                    }
+                    if (next == ScenarioTrie.NONE) {
+                        next = trie.edgeTarget(trie.edge(node, key));
+                    }
+                }
+                node = next;
+            }
+        }
+
+        final int[] classes = trie.equivalenceClasses();
+        final List<MealyNode> nodes = new ArrayList<>();
+        for (int node = 0; node < trie.nodeCount(); node++) {
+            if (classes[node] == nodes.size()) {
+                nodes.add(new MealyNode(nodes.size()));
+            }
+        }
+        final boolean[] added = new boolean[nodes.size()];
+        for (int node = 0; node < trie.nodeCount(); node++) {
+            // the transitions of the first node of each class
+            if (!added[classes[node]]) {
+                added[classes[node]] = true;
+                for (int e = trie.firstEdge(node); e != ScenarioTrie.NONE; e = trie.nextEdge(e)) {
+                    nodes.get(classes[node]).addTransition(keyEvents.get(trie.edgeKey(e)),
+                            keyExprs.get(trie.edgeKey(e)), labelActions.get(trie.edgeLabel(e)),
+                            nodes.get(classes[trie.edgeTarget(e)]));
+                }
+            }
+        }
+        return new ScenarioTree(nodes, trie.nodeCount());
+    }
+
+    /*
+     * Whether this tree was built by compact(), so that nodes may have several parents.
+     */
+    public boolean isDag() {
+        return dag;
+    }
+
+    /*
+     * The number of nodes of the ordinary scenario tree with the same paths.
+     */
+    public int treeNodeCount() {
+        return dag ? treeNodeCount : nodes.size();
     }
 
     public MealyNode root() {
@@ -37,6 +142,9 @@ public class ScenarioTree {
     }
 
     public void addScenario(StringScenario scenario) throws ParseException {
+        if (dag) {
+            throw new AssertionError("Scenarios cannot be added to a compact tree");
+        }
         MealyNode node = root;
         for (int i = 0; i < scenario.size(); i++) {
             addTransitions(node, scenario.getEvents(i), scenario.getExpr(i), scenario.getActions(i));
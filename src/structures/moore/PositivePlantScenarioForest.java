@@ -4,19 +4,56 @@ package structures.moore;
  * (c) Igor Buzhinsky
  */
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import scenario.StringActions;
 import scenario.StringScenario;
+import structures.ScenarioTrie;
 
 public class PositivePlantScenarioForest extends PlantScenarioForest {
     private final boolean separatePaths;
 
+    /*
+     * For compact separate paths: all scenarios added so far, keyed by (event, actions) of each element.
+     * Each leaf of the trie is the end of exactly one path of the forest.
+     */
+    private final ScenarioTrie trie;
+    private final Map<String, Integer> trieKeys = new HashMap<>();
+    private final Map<Integer, MooreNode> pathEnds = new HashMap<>();
+    private int omittedScenarios = 0;
+
     public PositivePlantScenarioForest(boolean separatePaths) {
+        this(separatePaths, false);
+    }
+
+    /*
+     * With separatePaths and compact, a scenario is not added if it is a prefix of an already added one,
+     * and extends the path of an added scenario which is its prefix. Since paths are colored independently,
+     * this does not change the set of plants which are consistent with the forest.
+     * Without separatePaths, the forest is a prefix tree anyway, and compact has no effect.
+     */
+    public PositivePlantScenarioForest(boolean separatePaths, boolean compact) {
         this.separatePaths = separatePaths;
+        trie = separatePaths && compact ? new ScenarioTrie(0) : null;
+    }
+
+    /*
+     * The number of added scenarios which are prefixes of other ones and thus have no own paths.
+     */
+    public int omittedScenarios() {
+        return omittedScenarios;
     }
 
     @Override
     public void addScenario(StringScenario scenario) {
         checkScenario(scenario);
+        if (trie != null) {
+            addCompactScenario(scenario);
+            return;
+        }
         final StringActions firstActions = scenario.getActions(0);
         MooreNode properRoot = separatePaths ? null : properRoot(firstActions);
         if (properRoot == null) {
@@ -27,6 +64,45 @@ public class PositivePlantScenarioForest extends PlantScenarioForest {
         addScenarioFrom(properRoot, scenario);
     }
 
+    private void addCompactScenario(StringScenario scenario) {
+        final List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < scenario.size(); i++) {
+            keys.add(trieKeys.computeIfAbsent(scenario.getEvents(i).get(0) + "/" + scenario.getActions(i),
+                    k -> trieKeys.size()));
+        }
+        int node = trie.root();
+        int length = 0;
+        while (length < keys.size() && trie.edge(node, keys.get(length)) != ScenarioTrie.NONE) {
+            node = trie.edgeTarget(trie.edge(node, keys.get(length++)));
+        }
+        if (length == keys.size()) {
+            // the same scenario or a prefix of an added one
+            omittedScenarios++;
+            return;
+        }
+        MooreNode pathEnd = pathEnds.remove(node);
+        if (pathEnd != null) {
+            // an added scenario is a prefix of this one
+            omittedScenarios++;
+        } else {
+            pathEnd = new MooreNode(nodes.size(), scenario.getActions(0));
+            nodes.add(pathEnd);
+            roots.add(pathEnd);
+            for (int i = 1; i < length; i++) {
+                pathEnd = addTransition(pathEnd, scenario.getEvents(i).get(0), scenario.getActions(i));
+            }
+        }
+        for (int i = length; i < keys.size(); i++) {
+            final int next = trie.addNode(0);
+            trie.addEdge(node, keys.get(i), 0, next);
+            node = next;
+            if (i > 0) {
+                pathEnd = addTransition(pathEnd, scenario.getEvents(i).get(0), scenario.getActions(i));
+            }
+        }
+        pathEnds.put(node, pathEnd);
+    }
+
     @Override
     protected MooreNode addTransition(MooreNode src, String event, StringActions actions) {
         MooreNode dst = separatePaths ? null : src.scenarioDst(event, actions);
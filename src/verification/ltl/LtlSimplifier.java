@@ -0,0 +1,326 @@
+package verification.ltl;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import static verification.ltl.LtlNormalizer.binary;
+import static verification.ltl.LtlNormalizer.future;
+import static verification.ltl.LtlNormalizer.global;
+import static verification.ltl.LtlNormalizer.next;
+import static verification.ltl.LtlNormalizer.not;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import verification.ltl.grammar.BinaryOperator;
+import verification.ltl.grammar.BinaryOperatorType;
+import verification.ltl.grammar.BooleanNode;
+import verification.ltl.grammar.LtlNode;
+import verification.ltl.grammar.Predicate;
+import verification.ltl.grammar.UnaryOperator;
+import verification.ltl.grammar.UnaryOperatorType;
+
+/*
+ * Rewriting of LTL formulae before their translation to Buchi automata:
+ * - constant folding, double negation, idempotence and complementation (a && a, a && !a),
+ *   nested temporal operators (FF a = F a, GFG a = FG a), U and R with constant operands;
+ * - G(a) && G(b) = G(a && b), F(a) || F(b) = F(a || b), X(a) op X(b) = X(a op b);
+ * - Boolean combinations of event(...) predicates are merged into single predicates over event lists:
+ *   event(A) || event(B) = event(A, B), event(A, B) && !event(B) = event(A), event(A) && event(B) = false.
+ *   Unlike ltl2ba, the simplifier knows that each transition has exactly one event.
+ * Formulae are compared by their string representations, which are fully parenthesized.
+ * These rules preserve the semantics of formulae on transitions with events, i.e. on the ones the verifier
+ * considers (stutter loops are excluded from the product).
+ */
+public class LtlSimplifier {
+    private static final String EVENT = "event";
+
+    public static LtlNode simplify(LtlNode node) {
+        if (node instanceof BooleanNode) {
+            return node;
+        } else if (node instanceof Predicate) {
+            final Predicate p = (Predicate) node;
+            return isEvent(p) ? event(p, events(p)) : p;
+        } else if (node instanceof UnaryOperator) {
+            final UnaryOperator op = (UnaryOperator) node;
+            return simplify(op.getType(), simplify(op.getOperand()));
+        } else if (node instanceof BinaryOperator) {
+            final BinaryOperator op = (BinaryOperator) node;
+            return simplify(op.getType(), simplify(op.getLeftOperand()), simplify(op.getRightOperand()));
+        }
+        throw new AssertionError();
+    }
+
+    private static LtlNode simplify(UnaryOperatorType type, LtlNode a) {
+        if (a instanceof BooleanNode) {
+            return type == UnaryOperatorType.NEG ? constant(!((BooleanNode) a).getValue()) : a;
+        }
+        switch (type) {
+        case NEG:
+            return is(a, UnaryOperatorType.NEG) ? operand(a) : not(a);
+        case NEXT:
+            return next(a);
+        case FUTURE:
+            // F F a = F a, F G F a = G F a
+            return is(a, UnaryOperatorType.FUTURE) || is(a, UnaryOperatorType.GLOBAL)
+                    && is(operand(a), UnaryOperatorType.FUTURE) ? a : future(a);
+        case GLOBAL:
+            // G G a = G a, G F G a = F G a
+            return is(a, UnaryOperatorType.GLOBAL) || is(a, UnaryOperatorType.FUTURE)
+                    && is(operand(a), UnaryOperatorType.GLOBAL) ? a : global(a);
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    private static LtlNode simplify(BinaryOperatorType type, LtlNode a, LtlNode b) {
+        switch (type) {
+        case AND:
+        case OR:
+            final boolean and = type == BinaryOperatorType.AND;
+            if (a instanceof BooleanNode) {
+                return ((BooleanNode) a).getValue() == and ? b : a;
+            } else if (b instanceof BooleanNode) {
+                return ((BooleanNode) b).getValue() == and ? a : b;
+            } else if (equal(a, b)) {
+                return a;
+            } else if (complementary(a, b)) {
+                return constant(!and);
+            }
+            final LtlNode merged = mergeEvents(a, b, and);
+            if (merged != null) {
+                return merged;
+            } else if (is(a, UnaryOperatorType.NEXT) && is(b, UnaryOperatorType.NEXT)) {
+                return next(simplify(type, operand(a), operand(b)));
+            } else if (and && is(a, UnaryOperatorType.GLOBAL) && is(b, UnaryOperatorType.GLOBAL)) {
+                return simplify(UnaryOperatorType.GLOBAL, simplify(type, operand(a), operand(b)));
+            } else if (!and && is(a, UnaryOperatorType.FUTURE) && is(b, UnaryOperatorType.FUTURE)) {
+                return simplify(UnaryOperatorType.FUTURE, simplify(type, operand(a), operand(b)));
+            }
+            return binary(a, b, type);
+        case UNTIL:
+            if (b instanceof BooleanNode || a == BooleanNode.FALSE || equal(a, b)) {
+                return b;
+            } else if (a == BooleanNode.TRUE) {
+                return simplify(UnaryOperatorType.FUTURE, b);
+            }
+            return binary(a, b, type);
+        case RELEASE:
+            if (b instanceof BooleanNode || a == BooleanNode.TRUE || equal(a, b)) {
+                return b;
+            } else if (a == BooleanNode.FALSE) {
+                return simplify(UnaryOperatorType.GLOBAL, b);
+            }
+            return binary(a, b, type);
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    /*
+     * Merges (possibly negated) event predicates, returns null if a and b are not such predicates.
+     */
+    private static LtlNode mergeEvents(LtlNode a, LtlNode b, boolean and) {
+        final Predicate pa = eventOf(a);
+        final Predicate pb = eventOf(b);
+        if (pa == null || pb == null) {
+            return null;
+        }
+        final boolean negA = a != pa;
+        final boolean negB = b != pb;
+        final Set<String> ea = events(pa);
+        final Set<String> eb = events(pb);
+        if (negA && negB) {
+            // !A && !B = !(A || B), !A || !B = !(A && B)
+            return simplify(UnaryOperatorType.NEG, mergeEvents(pa, pb, !and));
+        } else if (!negA && !negB) {
+            final Set<String> result = new LinkedHashSet<>(ea);
+            if (and) {
+                result.retainAll(eb);
+            } else {
+                result.addAll(eb);
+            }
+            return event(pa, result);
+        }
+        // exactly one is negated: A && !B = A \ B, A || !B = !(B \ A)
+        final Set<String> positive = negA ? eb : ea;
+        final Set<String> negative = negA ? ea : eb;
+        final Predicate p = negA ? pb : pa;
+        final Set<String> result = new LinkedHashSet<>(and ? positive : negative);
+        result.removeAll(and ? negative : positive);
+        return and ? event(p, result) : simplify(UnaryOperatorType.NEG, event(p, result));
+    }
+
+    private static boolean isEvent(Predicate p) {
+        return p.getName().equals(EVENT);
+    }
+
+    private static Predicate eventOf(LtlNode node) {
+        if (is(node, UnaryOperatorType.NEG)) {
+            node = operand(node);
+        }
+        return node instanceof Predicate && isEvent((Predicate) node) ? (Predicate) node : null;
+    }
+
+    private static Set<String> events(Predicate p) {
+        // the same tokenization as in PredicateFactory.event()
+        return new LinkedHashSet<>(Arrays.asList(p.arg().split(",")));
+    }
+
+    private static LtlNode event(Predicate p, Set<String> events) {
+        return events.isEmpty() ? BooleanNode.FALSE : p.withArg(String.join(",", events));
+    }
+
+    private static LtlNode constant(boolean value) {
+        return value ? BooleanNode.TRUE : BooleanNode.FALSE;
+    }
+
+    private static boolean is(LtlNode node, UnaryOperatorType type) {
+        return node instanceof UnaryOperator && ((UnaryOperator) node).getType() == type;
+    }
+
+    private static boolean is(LtlNode node, BinaryOperatorType type) {
+        return node instanceof BinaryOperator && ((BinaryOperator) node).getType() == type;
+    }
+
+    private static LtlNode operand(LtlNode node) {
+        return ((UnaryOperator) node).getOperand();
+    }
+
+    private static boolean equal(LtlNode a, LtlNode b) {
+        return a.toString().equals(b.toString());
+    }
+
+    private static boolean complementary(LtlNode a, LtlNode b) {
+        return is(a, UnaryOperatorType.NEG) && equal(operand(a), b)
+                || is(b, UnaryOperatorType.NEG) && equal(operand(b), a);
+    }
+
+    /*
+     * Returns the conjuncts of the formula: conjunctions and G over conjunctions are split
+     * (G(a && b) = G(a) && G(b)). Constant conjuncts, duplicates and conjuncts implied by other ones are removed.
+     */
+    public static List<LtlNode> conjuncts(LtlNode node) {
+        final List<LtlNode> split = new ArrayList<>();
+        split(node, false, split);
+        final Map<String, LtlNode> unique = new HashMap<>();
+        final List<LtlNode> result = new ArrayList<>();
+        for (LtlNode c : split) {
+            if (c == BooleanNode.FALSE) {
+                return new ArrayList<>(Arrays.asList(c));
+            } else if (c != BooleanNode.TRUE && unique.putIfAbsent(c.toString(), c) == null) {
+                result.add(c);
+            }
+        }
+        // subsumption, one of equivalent conjuncts is kept
+        for (int i = 0; i < result.size(); i++) {
+            for (int j = 0; j < result.size(); j++) {
+                if (i != j && implies(result.get(j), result.get(i))) {
+                    result.remove(i--);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Simplifies the formulae and splits them into conjuncts. Conjuncts which occur in several formulae are kept
+     * separately, so that they can be translated and verified once, while the other conjuncts of each formula
+     * are merged back into a single formula (see conjunction()).
+     * Returns, for each formula, the formulae whose conjunction is equivalent to it (none if it is always true).
+     */
+    public static List<List<LtlNode>> preprocess(List<LtlNode> formulae) {
+        final List<List<LtlNode>> conjuncts = new ArrayList<>();
+        final Map<String, Integer> occurrences = new HashMap<>();
+        for (LtlNode f : formulae) {
+            final List<LtlNode> c = conjuncts(simplify(f));
+            conjuncts.add(c);
+            c.forEach(x -> occurrences.merge(x.toString(), 1, Integer::sum));
+        }
+        final List<List<LtlNode>> result = new ArrayList<>();
+        for (List<LtlNode> c : conjuncts) {
+            final List<LtlNode> own = new ArrayList<>();
+            final List<LtlNode> shared = new ArrayList<>();
+            for (LtlNode x : c) {
+                (occurrences.get(x.toString()) > 1 ? shared : own).add(x);
+            }
+            final List<LtlNode> parts = new ArrayList<>();
+            final LtlNode merged = conjunction(own);
+            if (merged != BooleanNode.TRUE) {
+                parts.add(merged);
+            }
+            parts.addAll(shared);
+            result.add(parts);
+        }
+        return result;
+    }
+
+    private static void split(LtlNode node, boolean global, List<LtlNode> result) {
+        if (is(node, BinaryOperatorType.AND)) {
+            split(((BinaryOperator) node).getLeftOperand(), global, result);
+            split(((BinaryOperator) node).getRightOperand(), global, result);
+        } else if (is(node, UnaryOperatorType.GLOBAL) && is(operand(node), BinaryOperatorType.AND)) {
+            split(operand(node), true, result);
+        } else {
+            result.add(global ? simplify(UnaryOperatorType.GLOBAL, node) : node);
+        }
+    }
+
+    /*
+     * Conjunction of the formulae, with G(a) && G(b) merged into G(a && b).
+     */
+    public static LtlNode conjunction(List<LtlNode> formulae) {
+        LtlNode global = BooleanNode.TRUE;
+        LtlNode other = BooleanNode.TRUE;
+        for (LtlNode f : formulae) {
+            if (is(f, UnaryOperatorType.GLOBAL)) {
+                global = simplify(BinaryOperatorType.AND, global, f);
+            } else {
+                other = simplify(BinaryOperatorType.AND, other, f);
+            }
+        }
+        return simplify(BinaryOperatorType.AND, global, other);
+    }
+
+    /*
+     * A sound but incomplete syntactic check of whether d implies c.
+     */
+    static boolean implies(LtlNode d, LtlNode c) {
+        if (equal(d, c) || c == BooleanNode.TRUE || d == BooleanNode.FALSE) {
+            return true;
+        } else if (is(c, BinaryOperatorType.AND)) {
+            final BinaryOperator op = (BinaryOperator) c;
+            return implies(d, op.getLeftOperand()) && implies(d, op.getRightOperand());
+        } else if (is(d, BinaryOperatorType.OR)) {
+            final BinaryOperator op = (BinaryOperator) d;
+            return implies(op.getLeftOperand(), c) && implies(op.getRightOperand(), c);
+        } else if (is(c, BinaryOperatorType.OR)) {
+            final BinaryOperator op = (BinaryOperator) c;
+            if (implies(d, op.getLeftOperand()) || implies(d, op.getRightOperand())) {
+                return true;
+            }
+        } else if (is(d, BinaryOperatorType.AND)) {
+            final BinaryOperator op = (BinaryOperator) d;
+            if (implies(op.getLeftOperand(), c) || implies(op.getRightOperand(), c)) {
+                return true;
+            }
+        }
+        if (is(c, UnaryOperatorType.FUTURE) && implies(d, operand(c))) {
+            return true;
+        } else if (is(d, UnaryOperatorType.GLOBAL)) {
+            // G a implies a, and also G b, X b and F b if a implies b
+            final LtlNode a = operand(d);
+            return implies(a, c) || (is(c, UnaryOperatorType.GLOBAL) || is(c, UnaryOperatorType.NEXT)
+                    || is(c, UnaryOperatorType.FUTURE)) && implies(a, operand(c))
+                    || is(c, UnaryOperatorType.NEXT) && implies(d, operand(c));
+        }
+        return false;
+    }
+}
@@ -47,7 +47,11 @@ public class JLtl2baTranslator {
     public BuchiAutomaton translate(LtlNode root) {
         try {
             IFormula formula = getFormula(root);
-            Collection<ITransition> transitions = LTL2BA4J.formulaToBA(formula);
+            final Collection<ITransition> transitions;
+            // the native ltl2ba is not reentrant
+            synchronized (LTL2BA4J.class) {
+                transitions = LTL2BA4J.formulaToBA(formula);
+            }
             return buchiConverter.convert(transitions);
         } catch (Exception e) {
             throw new TranslationException(e);
@@ -46,6 +46,13 @@ public class Predicate extends LtlNode implements IExpression<Boolean> {
         this.target = target;
     }
 
+    /*
+     * The same predicate with another argument.
+     */
+    public Predicate withArg(String arg) {
+        return new Predicate(target, method, arg);
+    }
+
     public Boolean getValue() {
         try {
             return (Boolean) method.invoke(target, arg);
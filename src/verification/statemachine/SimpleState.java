@@ -15,6 +15,9 @@ public class SimpleState {
     public final String name;
     public final boolean isInitial;
     private final List<StateTransition> outTransitions = new ArrayList<>();
+    private String signature;
+    // index in the state machine
+    private int index = -1;
 
     public SimpleState(String name, boolean isInitial) {
         this.name = name;
@@ -30,10 +33,34 @@ public class SimpleState {
         return name + '@' + Integer.toHexString(super.hashCode());
     }
 
+    public int index() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
     public void addOutgoingTransition(StateTransition t) {
         outTransitions.add(t);
     }
 
+    /*
+     * The string representation of the outgoing transitions (events, actions, target names),
+     * which identifies the state among the states with the same name in other state machines.
+     * Must be called after all outgoing transitions are added.
+     */
+    public String signature() {
+        if (signature == null) {
+            final StringBuilder sb = new StringBuilder(isInitial ? "*" : "");
+            for (StateTransition t : outTransitions) {
+                sb.append(t.event).append(t.getActions()).append("->").append(t.getTarget().name).append(";");
+            }
+            signature = sb.toString();
+        }
+        return signature;
+    }
+
     @Override
     public String toString() {
         return name;
@@ -3,6 +3,8 @@
  */
 package verification.statemachine;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -22,8 +24,20 @@ public class StateMachine {
         return initialState;
     }
 
+    public Collection<SimpleState> states() {
+        return Collections.unmodifiableCollection(states.values());
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    /*
+     * States are indexed in the order of addition.
+     */
     public void addState(SimpleState s) {
         checkInitial(s);
+        s.setIndex(states.size());
         states.put(s.name, s);
     }
 
@@ -16,6 +16,8 @@ public class StateTransition {
     public final String event;
     private final List<String> actions = new ArrayList<>();
     private final SimpleState target;
+    // bitset over the atoms of verification.verifier.AtomIndex, null if predicates are undefined
+    private long[] label;
 
     public StateTransition(String event, SimpleState target) {
         this.event = event;
@@ -33,4 +35,12 @@ public class StateTransition {
     public void addAction(String a) {
         actions.add(a);
     }
+
+    public long[] getLabel() {
+        return label;
+    }
+
+    public void setLabel(long[] label) {
+        this.label = label;
+    }
 }
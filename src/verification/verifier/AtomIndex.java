@@ -0,0 +1,82 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import verification.ltl.grammar.Predicate;
+import verification.statemachine.SimpleState;
+import verification.statemachine.StateTransition;
+
+/*
+ * Interns the predicates of LTL formulae (event(...) and action(...)) to consecutive integer ids.
+ * A state machine transition is labeled with the bitset of the predicates that hold on it,
+ * so that Buchi transition conditions can be checked without evaluating the predicates
+ * (see CompiledBuchiAutomaton).
+ * Evaluation follows PredicateFactory.
+ */
+public class AtomIndex {
+    private final Map<Predicate, Integer> ids = new HashMap<>();
+    // for event(...): the set of events, for action(...): null
+    private final List<Set<String>> events = new ArrayList<>();
+    // for action(...): the action, for event(...): null
+    private final List<String> actions = new ArrayList<>();
+
+    public int id(Predicate p) {
+        Integer id = ids.get(p);
+        if (id == null) {
+            id = ids.size();
+            ids.put(p, id);
+            if (p.getName().equals("event")) {
+                // "event" supports comma-separated lists of events
+                events.add(new HashSet<>(Arrays.asList(p.arg().split(","))));
+                actions.add(null);
+            } else if (p.getName().equals("action")) {
+                events.add(null);
+                actions.add(p.arg());
+            } else {
+                throw new AssertionError("Unsupported predicate " + p);
+            }
+        }
+        return id;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /*
+     * Number of longs in a bitset over all atoms.
+     */
+    public int words() {
+        return (ids.size() + 63) >>> 6;
+    }
+
+    /*
+     * Returns the bitset of atoms that hold on the transition from the given state,
+     * or null if predicates are undefined on it (the artificial loop of a state which has other transitions).
+     */
+    public long[] label(SimpleState source, StateTransition t) {
+        if (t.event == null && t.getTarget() == source && source.outgoingTransitions().size() > 1) {
+            return null;
+        }
+        final long[] label = new long[words()];
+        for (int i = 0; i < ids.size(); i++) {
+            final boolean value = events.get(i) != null
+                    ? events.get(i).contains(t.event)
+                    : t.getActions().contains(actions.get(i));
+            if (value) {
+                label[i >>> 6] |= 1L << i;
+            }
+        }
+        return label;
+    }
+}
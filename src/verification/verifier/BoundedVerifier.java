@@ -0,0 +1,502 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import bnf_formulae.SynthesisContext;
+import bnf_formulae.VariableFamily;
+import sat_solving.Assignment;
+import sat_solving.ClauseBuffer;
+import sat_solving.SolverInterface;
+import sat_solving.SolverOptions;
+import sat_solving.SolverResult;
+import sat_solving.SolverResult.SolverResults;
+import verification.ltl.buchi.BuchiNode;
+import verification.statemachine.SimpleState;
+import verification.statemachine.StateMachine;
+import verification.statemachine.StateTransition;
+
+/*
+ * Bounded model checking of a state machine against the Buchi automaton of a negated LTL formula,
+ * an alternative to the explicit product construction of SimpleVerifier.
+ * For k = 1, 2, ..., the existence of a counterexample of length k is encoded in CNF:
+ * either a finite one, which ends in a finite counterexample node (see FiniteCounterexampleNodeSearcher),
+ * or a lasso whose loop visits an accepting node. Loops are encoded linearly in the bound: the state and
+ * the Buchi node at the start of the loop are propagated along the path
+ * (Biere et al., "Linear encodings of bounded LTL model checking").
+ *
+ * All bounds of all formulae are checked in a single incremental solver session, which is created on the first
+ * check and kept until close(). The path of the machine is encoded once and extended on demand, and each formula
+ * adds its own Buchi automaton variables. The constraints of a formula are only enforced if its activation
+ * variable is assumed, and steps of the path are only required up to the bound being checked, so other formulae
+ * and longer bounds checked before do not restrict the check. Learnt clauses on the path are thus reused
+ * between formulae. Since the formulae share the solver, concurrent checks are serialized.
+ *
+ * The counterexample found has the minimum length, the loop weight is not considered.
+ * The default bound, 2 * (number of states) * (number of Buchi nodes), makes the check complete;
+ * with a smaller bound, violations with only longer counterexamples are missed.
+ */
+public class BoundedVerifier implements AutoCloseable {
+    // solver timeout for a single bound (sec)
+    private static final int TIMEOUT = 24 * 3600;
+    // solver statistics of each bound are not logged
+    private static final Logger LOGGER = Logger.getLogger(BoundedVerifier.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.WARNING);
+    }
+
+    private final int initialState;
+    private final int stateCount;
+    // transitions with events, stutter loops are excluded as in the product of SimpleVerifier
+    private final StateTransition[] transitions;
+    private final int[] sources;
+    private final int atomCount;
+    private final SolverOptions solverOptions;
+    // 0 for the complete bound
+    private final int maxBound;
+
+    private final SynthesisContext context;
+    // created on the first check
+    private SolverInterface solver;
+    // constraints not given to the solver yet
+    private ClauseBuffer clauses = new ClauseBuffer();
+    private final Map<CompiledBuchiAutomaton, Encoding> encodings = new HashMap<>();
+
+    // the state, the state transition and the atoms of each step
+    private final VariableFamily state;
+    private final VariableFamily transition;
+    private final VariableFamily atom;
+    // the path has a transition at the step, required up to the bound being checked
+    private final VariableFamily alive;
+    // the loop starts at the position / has started at this or an earlier position
+    private final VariableFamily loopStart;
+    private final VariableFamily loopStarted;
+    // the state at the start of the loop, if it has started
+    private final VariableFamily loopState;
+    // auxiliary variables of at-most-one constraints
+    private final VariableFamily stateOrder;
+    // the constraints of the formula are enforced
+    private final VariableFamily active;
+    // positions and steps of the path encoded so far
+    private int positions = 0;
+    private int steps = 0;
+
+    /*
+     * Transitions of the machine must be labeled over atomCount atoms (see AtomIndex).
+     * The solver and the bound are taken from the options.
+     */
+    public BoundedVerifier(StateMachine machine, int atomCount, VerifierOptions options) {
+        this.atomCount = atomCount;
+        solverOptions = options.boundedSolver();
+        maxBound = options.maxBound();
+        initialState = machine.initialState().index();
+        stateCount = machine.size();
+        final List<StateTransition> transitions = new ArrayList<>();
+        final List<Integer> sources = new ArrayList<>();
+        for (SimpleState state : machine.states()) {
+            for (StateTransition t : state.outgoingTransitions()) {
+                if (t.event != null) {
+                    transitions.add(t);
+                    sources.add(state.index());
+                }
+            }
+        }
+        this.transitions = transitions.toArray(new StateTransition[transitions.size()]);
+        this.sources = sources.stream().mapToInt(Integer::intValue).toArray();
+
+        try {
+            context = SynthesisContext.isolated();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        state = context.family("s", stateCount);
+        transition = context.family("e", Math.max(1, this.transitions.length));
+        atom = context.family("p", Math.max(1, atomCount));
+        alive = context.family("live");
+        loopStart = context.family("ls");
+        loopStarted = context.family("lsd");
+        loopState = context.family("lss", stateCount);
+        stateOrder = context.family("so", stateCount);
+        active = context.family("act");
+    }
+
+    /*
+     * Returns a shortest counterexample and its loop length (0 if it is finite), or an empty path
+     * if there is no counterexample within the bound.
+     * The path is empty if the empty counterexample exists, too: the formula is then considered to hold,
+     * as in SimpleVerifier.
+     */
+    public synchronized Pair<List<StateTransition>, Integer> verify(CompiledBuchiAutomaton buchi,
+                                                                    Set<BuchiNode> finiteNodes) {
+        final Pair<List<StateTransition>, Integer> holds = Pair.of(Collections.emptyList(), 0);
+        if (finiteNodes.contains(buchi.buchi.startNode()) || transitions.length == 0) {
+            return holds;
+        }
+        final int bound = maxBound > 0 ? maxBound : 2 * stateCount * buchi.size();
+        final SynthesisContext.Scope scope = context.enter();
+        try {
+            if (solver == null) {
+                clauses.add(s(0, initialState));
+                addPosition(0);
+                positions = 1;
+                solver = solverOptions.createInterface(clauses, null, LOGGER);
+                clauses = new ClauseBuffer();
+            }
+            Encoding encoding = encodings.get(buchi);
+            if (encoding == null) {
+                encoding = new Encoding(encodings.size(), buchi, finiteNodes);
+                encodings.put(buchi, encoding);
+            }
+            final Pair<List<StateTransition>, Integer> result = encoding.check(bound);
+            return result == null ? holds : result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            scope.close();
+        }
+    }
+
+    /*
+     * Stops the solver and removes its temporary files.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (solver != null) {
+                solver.halt();
+                solver = null;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            context.close();
+        }
+    }
+
+    private int s(int i, int q) {
+        return state.getOrCreate(i, q).number;
+    }
+
+    private static int var(VariableFamily family, int i) {
+        return family.getOrCreate(i).number;
+    }
+
+    private static int var(VariableFamily family, int i, int j) {
+        return family.getOrCreate(i, j).number;
+    }
+
+    /*
+     * Encodes the path up to position k.
+     */
+    private void extendPath(int k) {
+        for (; steps < k; steps++) {
+            addStep(steps);
+        }
+        for (; positions <= k; positions++) {
+            addPosition(positions);
+        }
+    }
+
+    /*
+     * Constraints on the state at position i and on the loop start.
+     */
+    private void addPosition(int i) {
+        atMostOne(clauses, state, stateOrder, i, stateCount);
+
+        // started(i) <-> started(i - 1) | start(i), at most one start
+        final int start = var(loopStart, i);
+        final int started = var(loopStarted, i);
+        clauses.add(-start, started);
+        clauses.add(-started, start, i == 0 ? start : var(loopStarted, i - 1));
+        if (i > 0) {
+            final int previousStarted = var(loopStarted, i - 1);
+            clauses.add(-previousStarted, started);
+            clauses.add(-previousStarted, -start);
+        }
+
+        // loopState(i, q) <-> start(i) & s(i, q) | loopState(i - 1, q)
+        for (int q = 0; q < stateCount; q++) {
+            propagateLoopStart(clauses, loopState, i, q, s(i, q), start);
+        }
+    }
+
+    /*
+     * Constraints on the transition from position i to position i + 1.
+     * The transition is only required if alive(i), which holds up to the bound being checked.
+     */
+    private void addStep(int i) {
+        final int live = var(alive, i);
+        if (i > 0) {
+            clauses.add(-live, var(alive, i - 1));
+        }
+        clauses.addLiteral(-live);
+        for (int t = 0; t < transitions.length; t++) {
+            clauses.addLiteral(var(transition, i, t));
+        }
+        clauses.finishClause();
+        for (int t = 0; t < transitions.length; t++) {
+            final int e = var(transition, i, t);
+            clauses.add(-e, s(i, sources[t]));
+            clauses.add(-e, s(i + 1, transitions[t].getTarget().index()));
+            final long[] label = transitions[t].getLabel();
+            for (int a = 0; a < atomCount; a++) {
+                clauses.add(-e, (label[a >>> 6] & (1L << a)) != 0 ? var(atom, i, a) : -var(atom, i, a));
+            }
+        }
+    }
+
+    private static void propagateLoopStart(ClauseBuffer clauses, VariableFamily family, int i, int j,
+                                           int current, int start) {
+        final int v = var(family, i, j);
+        clauses.add(-start, -current, v);
+        if (i == 0) {
+            clauses.add(-v, start);
+            clauses.add(-v, current);
+        } else {
+            final int previous = var(family, i - 1, j);
+            clauses.add(-previous, v);
+            clauses.add(-v, previous, start);
+            clauses.add(-v, previous, current);
+        }
+    }
+
+    /*
+     * Sequential at-most-one encoding (Sinz) over family(i, 0..size-1) with auxiliary order(i, 0..size-2).
+     */
+    private static void atMostOne(ClauseBuffer clauses, VariableFamily family, VariableFamily order, int i,
+                                  int size) {
+        for (int j = 0; j < size - 1; j++) {
+            final int x = var(family, i, j);
+            final int r = var(order, i, j);
+            clauses.add(-x, r);
+            if (j > 0) {
+                final int previous = var(order, i, j - 1);
+                clauses.add(-previous, r);
+                clauses.add(-x, -previous);
+            }
+        }
+        if (size > 1) {
+            clauses.add(-var(family, i, size - 1), -var(order, i, size - 2));
+        }
+    }
+
+    /*
+     * The Buchi automaton of a single formula on the shared path.
+     */
+    private class Encoding {
+        private final CompiledBuchiAutomaton buchi;
+        private final int nodeCount;
+        private final int[] acceptingNodes;
+        private final int[] finiteNodes;
+        // Buchi transitions of all nodes
+        private final List<CompiledBuchiAutomaton.Transition> buchiTransitions = new ArrayList<>();
+        private final List<Integer> buchiSources = new ArrayList<>();
+        private final int activation;
+
+        // the Buchi node and the Buchi transition of each step
+        private final VariableFamily node;
+        private final VariableFamily buchiTransition;
+        // the Buchi node at the start of the loop, if it has started
+        private final VariableFamily loopNode;
+        // the Buchi node is accepting / an accepting node has been visited since the start of the loop
+        private final VariableFamily accepting;
+        private final VariableFamily acceptingInLoop;
+        // the path of length k ends in a finite counterexample node / is closed into a loop
+        private final VariableFamily finiteGoal;
+        private final VariableFamily loopGoal;
+        private final VariableFamily goal;
+        private final VariableFamily nodeOrder;
+
+        // positions and steps of the automaton encoded so far, bounds without counterexamples
+        private int nodePositions = 0;
+        private int nodeSteps = 0;
+        private int checkedBound = 0;
+
+        Encoding(int index, CompiledBuchiAutomaton buchi, Set<BuchiNode> finiteNodes) {
+            this.buchi = buchi;
+            nodeCount = buchi.size();
+            acceptingNodes = buchi.buchi.acceptSet().stream().mapToInt(buchi::index).sorted().toArray();
+            this.finiteNodes = finiteNodes.stream().mapToInt(buchi::index).sorted().toArray();
+            for (int m = 0; m < nodeCount; m++) {
+                for (CompiledBuchiAutomaton.Transition t : buchi.transitions(m)) {
+                    buchiTransitions.add(t);
+                    buchiSources.add(m);
+                }
+            }
+            activation = var(active, index);
+            final String prefix = "b" + index + "_";
+            node = context.family(prefix + "n", nodeCount);
+            buchiTransition = context.family(prefix + "c", Math.max(1, buchiTransitions.size()));
+            loopNode = context.family(prefix + "lsn", nodeCount);
+            accepting = context.family(prefix + "a");
+            acceptingInLoop = context.family(prefix + "al");
+            finiteGoal = context.family(prefix + "fg");
+            loopGoal = context.family(prefix + "lg");
+            goal = context.family(prefix + "g");
+            nodeOrder = context.family(prefix + "no", nodeCount);
+            clauses.add(n(0, buchi.index(buchi.buchi.startNode())));
+        }
+
+        /*
+         * Returns the counterexample of the minimum length up to the bound, or null if there is none.
+         */
+        Pair<List<StateTransition>, Integer> check(int bound) throws IOException {
+            for (int k = checkedBound + 1; k <= bound; k++) {
+                extendPath(k);
+                for (; nodeSteps < k; nodeSteps++) {
+                    addNodeStep(nodeSteps);
+                }
+                for (; nodePositions <= k; nodePositions++) {
+                    addNodePosition(nodePositions);
+                }
+                addGoal(k);
+                final SolverResult result = solver.solve(clauses,
+                        new int[] { activation, var(goal, k) }, TIMEOUT);
+                clauses = new ClauseBuffer();
+                if (result.type() == SolverResults.SAT) {
+                    return decode(result.list(), k);
+                } else if (result.type() == SolverResults.UNKNOWN) {
+                    throw new RuntimeException("Bounded model checking failed for bound " + k);
+                }
+                checkedBound = k;
+            }
+            return null;
+        }
+
+        private int n(int i, int m) {
+            return node.getOrCreate(i, m).number;
+        }
+
+        /*
+         * Constraints on the Buchi node at position i.
+         */
+        private void addNodePosition(int i) {
+            atMostOne(clauses, node, nodeOrder, i, nodeCount);
+
+            final int acc = var(accepting, i);
+            clauses.addLiteral(-acc);
+            for (int m : acceptingNodes) {
+                clauses.addLiteral(n(i, m));
+            }
+            clauses.finishClause();
+
+            // loopNode(i, m) <-> start(i) & n(i, m) | loopNode(i - 1, m)
+            final int start = var(loopStart, i);
+            for (int m = 0; m < nodeCount; m++) {
+                propagateLoopStart(clauses, loopNode, i, m, n(i, m), start);
+            }
+
+            // acceptingInLoop(i) -> acceptingInLoop(i - 1) | started(i) & accepting(i)
+            final int started = var(loopStarted, i);
+            final int accInLoop = var(acceptingInLoop, i);
+            if (i == 0) {
+                clauses.add(-accInLoop, started);
+                clauses.add(-accInLoop, acc);
+            } else {
+                final int previous = var(acceptingInLoop, i - 1);
+                clauses.add(-accInLoop, previous, started);
+                clauses.add(-accInLoop, previous, acc);
+            }
+        }
+
+        /*
+         * Constraints on the Buchi transition from position i to position i + 1.
+         * A transition is only required if the formula is active and the path has a transition at this step,
+         * otherwise the automaton would restrict the path in the checks of other formulae or shorter bounds.
+         */
+        private void addNodeStep(int i) {
+            clauses.addLiteral(-activation);
+            clauses.addLiteral(-var(alive, i));
+            for (int b = 0; b < buchiTransitions.size(); b++) {
+                clauses.addLiteral(var(buchiTransition, i, b));
+            }
+            clauses.finishClause();
+            for (int b = 0; b < buchiTransitions.size(); b++) {
+                final CompiledBuchiAutomaton.Transition t = buchiTransitions.get(b);
+                final int c = var(buchiTransition, i, b);
+                if (t.unsatisfiable()) {
+                    clauses.add(-c);
+                    continue;
+                }
+                clauses.add(-c, n(i, buchiSources.get(b)));
+                clauses.add(-c, n(i + 1, t.targetIndex));
+                // masks of automata compiled before other formulae may be shorter
+                for (int a = 0; a < Math.min(atomCount, t.positive().length * 64); a++) {
+                    if ((t.positive()[a >>> 6] & (1L << a)) != 0) {
+                        clauses.add(-c, var(atom, i, a));
+                    }
+                    if ((t.negative()[a >>> 6] & (1L << a)) != 0) {
+                        clauses.add(-c, -var(atom, i, a));
+                    }
+                }
+            }
+        }
+
+        /*
+         * goal(k) -> the path of length k is a counterexample.
+         */
+        private void addGoal(int k) {
+            final int fin = var(finiteGoal, k);
+            clauses.addLiteral(-fin);
+            for (int m : finiteNodes) {
+                clauses.addLiteral(n(k, m));
+            }
+            clauses.finishClause();
+
+            // the loop from the loop start to position k, which is the same as the loop start
+            final int loop = var(loopGoal, k);
+            clauses.add(-loop, var(loopStarted, k - 1));
+            clauses.add(-loop, var(acceptingInLoop, k - 1));
+            for (int q = 0; q < stateCount; q++) {
+                clauses.add(-loop, -s(k, q), var(loopState, k - 1, q));
+            }
+            for (int m = 0; m < nodeCount; m++) {
+                clauses.add(-loop, -n(k, m), var(loopNode, k - 1, m));
+            }
+
+            final int g = var(goal, k);
+            clauses.add(-g, fin, loop);
+            // the path has k steps
+            clauses.add(-g, var(alive, k - 1));
+        }
+
+        private Pair<List<StateTransition>, Integer> decode(List<Assignment> assignments, int k) {
+            final boolean[] values = new boolean[context.variableNumber() + 1];
+            for (Assignment a : assignments) {
+                values[a.var.number] = a.value;
+            }
+            final List<StateTransition> path = new ArrayList<>();
+            for (int i = 0; i < k; i++) {
+                for (int t = 0; t < transitions.length; t++) {
+                    if (values[var(transition, i, t)]) {
+                        path.add(transitions[t]);
+                        break;
+                    }
+                }
+            }
+            if (values[var(finiteGoal, k)]) {
+                return Pair.of(path, 0);
+            }
+            for (int j = 0; j < k; j++) {
+                if (values[var(loopStart, j)]) {
+                    return Pair.of(path, k - j);
+                }
+            }
+            throw new AssertionError("Invalid bounded model checking result");
+        }
+    }
+}
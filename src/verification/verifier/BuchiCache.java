@@ -0,0 +1,295 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import verification.ltl.buchi.BuchiAutomaton;
+import verification.ltl.buchi.BuchiNode;
+import verification.ltl.buchi.TransitionCondition;
+import verification.ltl.buchi.translator.JLtl2baTranslator;
+import verification.ltl.grammar.BinaryOperator;
+import verification.ltl.grammar.BooleanNode;
+import verification.ltl.grammar.IExpression;
+import verification.ltl.grammar.LtlNode;
+import verification.ltl.grammar.Predicate;
+import verification.ltl.grammar.UnaryOperator;
+
+/*
+ * Cache of LTL to Buchi automaton translations together with the finite counterexample nodes
+ * (see FiniteCounterexampleNodeSearcher).
+ * Translations are kept in memory (LRU) and, if a directory is given, on disk, where each translation is stored
+ * in a file named by the hash of the formula (64-bit FNV-1a: unlike MessageDigest, it needs no initialization
+ * comparable to the translation itself; files also contain the formula, so collisions are detected).
+ * The key is the string representation of the parsed formula, which is fully parenthesized.
+ * Automata are stored in a text form. Transition conditions refer to the predicates of the formula by their
+ * string representations, and restored automata use the Predicate objects of the formula being translated.
+ * Entries which cannot be restored (e.g. corrupt files) are removed, and the formula is translated again.
+ */
+public class BuchiCache {
+    private static final int MEMORY_CAPACITY = 256;
+    private static final String VERSION = "buchi-cache 2";
+    private static final String END = "end";
+
+    // null for the memory cache only
+    private final File directory;
+
+    private final Map<String, String> memory = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MEMORY_CAPACITY;
+        }
+    };
+
+    /*
+     * A cache in memory only.
+     */
+    public BuchiCache() {
+        directory = null;
+    }
+
+    /*
+     * A cache in memory and in the given directory, which is created if needed.
+     */
+    public BuchiCache(String directory) {
+        final File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create the Buchi cache directory " + directory);
+        }
+        this.directory = dir;
+    }
+
+    /*
+     * Returns the Buchi automaton for the formula and its finite counterexample nodes.
+     */
+    public Pair<BuchiAutomaton, Set<BuchiNode>> translate(LtlNode formula, JLtl2baTranslator translator) {
+        final String key = formula.toString();
+        String text = memoryGet(key);
+        if (text == null && directory != null) {
+            text = diskGet(key);
+        }
+        if (text != null) {
+            final Map<String, IExpression<Boolean>> expressions = new HashMap<>();
+            collectPredicates(formula, expressions);
+            try {
+                final Pair<BuchiAutomaton, Set<BuchiNode>> result = deserialize(text, expressions);
+                memoryPut(key, text);
+                return result;
+            } catch (IllegalArgumentException e) {
+                remove(key);
+            }
+        }
+        final BuchiAutomaton buchi = translator.translate(formula);
+        final Set<BuchiNode> finiteNodes = FiniteCounterexampleNodeSearcher.findCounterexampleBuchiStates(buchi);
+        text = serialize(key, buchi, finiteNodes);
+        memoryPut(key, text);
+        if (directory != null) {
+            diskPut(key, text);
+        }
+        return Pair.of(buchi, finiteNodes);
+    }
+
+    private synchronized String memoryGet(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void memoryPut(String key, String text) {
+        memory.put(key, text);
+    }
+
+    private synchronized void remove(String key) {
+        memory.remove(key);
+        if (directory != null) {
+            file(key).delete();
+        }
+    }
+
+    private File file(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return new File(directory, Long.toHexString(hash) + ".buchi");
+    }
+
+    private String diskGet(String key) {
+        final File f = file(key);
+        if (!f.exists()) {
+            return null;
+        }
+        try {
+            final String text = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+            // protection against hash collisions and files of other versions
+            return text.startsWith(VERSION + "\n" + key + "\n") ? text : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void diskPut(String key, String text) {
+        final File f = file(key);
+        try {
+            // written to a temporary file first, since several runs can share the directory
+            final File tmp = File.createTempFile("buchi", ".tmp", directory);
+            Files.write(tmp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the cache is an optimization only
+        }
+    }
+
+    private static void collectPredicates(LtlNode node, Map<String, IExpression<Boolean>> result) {
+        if (node instanceof Predicate) {
+            result.put(node.toString(), (Predicate) node);
+        } else if (node instanceof UnaryOperator) {
+            collectPredicates(((UnaryOperator) node).getOperand(), result);
+        } else if (node instanceof BinaryOperator) {
+            collectPredicates(((BinaryOperator) node).getLeftOperand(), result);
+            collectPredicates(((BinaryOperator) node).getRightOperand(), result);
+        }
+    }
+
+    /*
+     * Format:
+     *   version
+     *   formula
+     *   start node id
+     *   accepting node ids
+     *   finite counterexample node ids
+     *   for each node: node id, number of transitions, and the transitions as
+     *     target node id, then tab-separated literals +expr or -expr
+     *   end
+     */
+    private static String serialize(String key, BuchiAutomaton buchi, Set<BuchiNode> finiteNodes) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(VERSION).append("\n").append(key).append("\n");
+        sb.append(buchi.startNode().getID()).append("\n");
+        appendIds(sb, buchi.acceptSet());
+        appendIds(sb, finiteNodes);
+        for (BuchiNode node : buchi.nodes()) {
+            sb.append(node.getID()).append(" ").append(node.getTransitions().size()).append("\n");
+            for (Map.Entry<TransitionCondition, BuchiNode> t : node.getTransitions().entrySet()) {
+                sb.append(t.getValue().getID());
+                for (IExpression<Boolean> e : t.getKey().expressions()) {
+                    sb.append("\t+").append(e);
+                }
+                for (IExpression<Boolean> e : t.getKey().negativeExpressions()) {
+                    sb.append("\t-").append(e);
+                }
+                sb.append("\n");
+            }
+        }
+        sb.append(END).append("\n");
+        return sb.toString();
+    }
+
+    private static void appendIds(StringBuilder sb, Set<BuchiNode> nodes) {
+        final List<String> ids = new ArrayList<>();
+        nodes.forEach(n -> ids.add(String.valueOf(n.getID())));
+        sb.append(String.join(" ", ids)).append("\n");
+    }
+
+    /*
+     * predicates are the predicates of the formula by their string representations.
+     * Throws IllegalArgumentException if the text is not a complete and valid entry.
+     */
+    private static Pair<BuchiAutomaton, Set<BuchiNode>> deserialize(String text,
+            Map<String, IExpression<Boolean>> predicates) {
+        final String[] lines = text.split("\n", -1);
+        final Map<Integer, BuchiNode> nodes = new HashMap<>();
+        final BuchiAutomaton buchi = new BuchiAutomaton();
+        // node lines start at index 5, create the nodes in the original order first
+        int end = 5;
+        while (!line(lines, end).equals(END)) {
+            final String[] tokens = line(lines, end).split(" ");
+            final BuchiNode node = new BuchiNode(Integer.parseInt(tokens[0]));
+            if (tokens.length != 2 || Integer.parseInt(tokens[1]) < 0 || nodes.put(node.getID(), node) != null) {
+                throw new IllegalArgumentException("Invalid node line " + end);
+            }
+            buchi.addNode(node);
+            end += 1 + Integer.parseInt(tokens[1]);
+        }
+        buchi.setStartNode(node(nodes, line(lines, 2)));
+        buchi.setAcceptSet(parseIds(line(lines, 3), nodes));
+        final Set<BuchiNode> finiteNodes = parseIds(line(lines, 4), nodes);
+        for (int i = 5; i < end; ) {
+            final String[] tokens = lines[i].split(" ");
+            final BuchiNode node = nodes.get(Integer.parseInt(tokens[0]));
+            final int transitions = Integer.parseInt(tokens[1]);
+            for (int j = 1; j <= transitions; j++) {
+                final String[] literals = lines[i + j].split("\t");
+                final TransitionCondition condition = new TransitionCondition();
+                for (int k = 1; k < literals.length; k++) {
+                    if (literals[k].isEmpty()) {
+                        throw new IllegalArgumentException("Empty literal");
+                    }
+                    final IExpression<Boolean> e = expression(literals[k].substring(1), predicates);
+                    if (literals[k].charAt(0) == '+') {
+                        condition.addExpression(e);
+                    } else if (literals[k].charAt(0) == '-') {
+                        condition.addNegExpression(e);
+                    } else {
+                        throw new IllegalArgumentException("Invalid literal " + literals[k]);
+                    }
+                }
+                node.addTransition(condition, node(nodes, literals[0]));
+            }
+            i += 1 + transitions;
+        }
+        return Pair.of(buchi, finiteNodes);
+    }
+
+    private static String line(String[] lines, int index) {
+        if (index >= lines.length) {
+            throw new IllegalArgumentException("Truncated entry");
+        }
+        return lines[index];
+    }
+
+    private static BuchiNode node(Map<Integer, BuchiNode> nodes, String id) {
+        final BuchiNode node = nodes.get(Integer.parseInt(id));
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown node " + id);
+        }
+        return node;
+    }
+
+    private static Set<BuchiNode> parseIds(String line, Map<Integer, BuchiNode> nodes) {
+        final Set<BuchiNode> result = new HashSet<>();
+        if (!line.isEmpty()) {
+            for (String token : line.split(" ")) {
+                result.add(node(nodes, token));
+            }
+        }
+        return result;
+    }
+
+    /*
+     * A BooleanNode or a predicate of the formula.
+     */
+    private static IExpression<Boolean> expression(String str, Map<String, IExpression<Boolean>> predicates) {
+        final BooleanNode constant = BooleanNode.getByName(str);
+        final IExpression<Boolean> e = constant != null ? constant : predicates.get(str);
+        if (e == null) {
+            throw new IllegalArgumentException("Unknown predicate " + str);
+        }
+        return e;
+    }
+}
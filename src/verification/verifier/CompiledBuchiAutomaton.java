@@ -0,0 +1,162 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import verification.ltl.buchi.BuchiAutomaton;
+import verification.ltl.buchi.BuchiNode;
+import verification.ltl.buchi.TransitionCondition;
+import verification.ltl.grammar.BooleanNode;
+import verification.ltl.grammar.IExpression;
+import verification.ltl.grammar.Predicate;
+
+/*
+ * Buchi automaton whose transition conditions are represented by bitsets over the atoms of an AtomIndex:
+ * a transition is enabled on a state machine transition with label L iff (positive & ~L) == 0
+ * and (negative & L) == 0.
+ */
+public class CompiledBuchiAutomaton {
+    public final BuchiAutomaton buchi;
+    // nodes are indexed in the order of BuchiAutomaton.nodes()
+    private final Map<BuchiNode, Integer> indices = new HashMap<>();
+    private final BuchiNode[] nodes;
+    private final Transition[][] transitions;
+
+    public static class Transition {
+        public final BuchiNode target;
+        public final int targetIndex;
+        private final long[] positive;
+        private final long[] negative;
+        // the condition is not just 'true'
+        private final boolean hasAtoms;
+        // the condition contains 'false' or '!true'
+        private final boolean unsatisfiable;
+
+        private Transition(BuchiNode target, int targetIndex, long[] positive, long[] negative, boolean hasAtoms,
+                boolean unsatisfiable) {
+            this.target = target;
+            this.targetIndex = targetIndex;
+            this.positive = positive;
+            this.negative = negative;
+            this.hasAtoms = hasAtoms;
+            this.unsatisfiable = unsatisfiable;
+        }
+
+        /*
+         * label is null if predicates are undefined (see AtomIndex.label()).
+         */
+        public boolean enabled(long[] label) {
+            if (unsatisfiable) {
+                return false;
+            } else if (label == null) {
+                return !hasAtoms;
+            }
+            for (int i = 0; i < positive.length; i++) {
+                if ((positive[i] & ~label[i]) != 0 || (negative[i] & label[i]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /*
+         * Atoms which must hold for the transition to be enabled (see BoundedVerifier).
+         */
+        long[] positive() {
+            return positive;
+        }
+
+        /*
+         * Atoms which must not hold for the transition to be enabled.
+         */
+        long[] negative() {
+            return negative;
+        }
+
+        boolean unsatisfiable() {
+            return unsatisfiable;
+        }
+    }
+
+    /*
+     * All predicates of the automaton are interned in atoms.
+     * Labels must be computed after all automata using the same AtomIndex are compiled.
+     */
+    public CompiledBuchiAutomaton(BuchiAutomaton buchi, AtomIndex atoms) {
+        this.buchi = buchi;
+        nodes = buchi.nodes().toArray(new BuchiNode[buchi.nodes().size()]);
+        for (int i = 0; i < nodes.length; i++) {
+            indices.put(nodes[i], i);
+        }
+        transitions = new Transition[nodes.length][];
+        for (BuchiNode node : buchi.nodes()) {
+            for (TransitionCondition condition : node.getTransitions().keySet()) {
+                condition.expressions().forEach(e -> intern(e, atoms));
+                condition.negativeExpressions().forEach(e -> intern(e, atoms));
+            }
+        }
+        final int words = atoms.words();
+        for (BuchiNode node : buchi.nodes()) {
+            final Transition[] array = new Transition[node.getTransitions().size()];
+            int i = 0;
+            for (Map.Entry<TransitionCondition, BuchiNode> entry : node.getTransitions().entrySet()) {
+                final TransitionCondition condition = entry.getKey();
+                final long[] positive = new long[words];
+                final long[] negative = new long[words];
+                boolean hasAtoms = false;
+                boolean unsatisfiable = false;
+                for (IExpression<Boolean> e : condition.expressions()) {
+                    if (e instanceof BooleanNode) {
+                        unsatisfiable |= !e.getValue();
+                    } else {
+                        final int id = atoms.id((Predicate) e);
+                        positive[id >>> 6] |= 1L << id;
+                        hasAtoms = true;
+                    }
+                }
+                for (IExpression<Boolean> e : condition.negativeExpressions()) {
+                    if (e instanceof BooleanNode) {
+                        unsatisfiable |= e.getValue();
+                    } else {
+                        final int id = atoms.id((Predicate) e);
+                        negative[id >>> 6] |= 1L << id;
+                        hasAtoms = true;
+                    }
+                }
+                array[i++] = new Transition(entry.getValue(), index(entry.getValue()), positive, negative,
+                        hasAtoms, unsatisfiable);
+            }
+            transitions[index(node)] = array;
+        }
+    }
+
+    private static void intern(IExpression<Boolean> e, AtomIndex atoms) {
+        if (!(e instanceof BooleanNode)) {
+            atoms.id((Predicate) e);
+        }
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public int index(BuchiNode node) {
+        return indices.get(node);
+    }
+
+    public BuchiNode node(int index) {
+        return nodes[index];
+    }
+
+    public Transition[] transitions(int index) {
+        return transitions[index];
+    }
+
+    public Transition[] transitions(BuchiNode node) {
+        return transitions[index(node)];
+    }
+}
@@ -3,9 +3,10 @@ package verification.verifier;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import verification.ltl.buchi.BuchiAutomaton;
@@ -15,124 +16,201 @@ import verification.ltl.grammar.BooleanNode;
 import verification.ltl.grammar.IExpression;
 
 public class FiniteCounterexampleNodeSearcher {
+    /*
+     * Returns the Buchi nodes from which no rejecting loop is reachable:
+     * a path of the product which reaches such a node cannot be extended to an accepted word
+     * and thus is a finite counterexample.
+     * A node has a rejecting loop if, when accepting nodes are not entered, it reaches either a node
+     * whose transition conditions do not cover all assignments ("devil transitions"),
+     * or a cycle, or some node by two different paths.
+     */
     public static Set<BuchiNode> findCounterexampleBuchiStates(BuchiAutomaton a) {
-        final Set<BuchiNode> nodesWithDevilTransitions = nodesWithDevilTransitions(a);
-        
-        final Set<BuchiNode> nodesWithRejectingLoops = new LinkedHashSet<>();
-        for (BuchiNode node : a.nodes()) {
-            if (hasRejectingLoop(node, a, nodesWithDevilTransitions)) {
-                nodesWithRejectingLoops.add(node);
+        final List<BuchiNode> nodes = new ArrayList<>(a.nodes());
+        final int n = nodes.size();
+        final Map<BuchiNode, Integer> indices = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            indices.put(nodes.get(i), i);
+        }
+        // all transitions, and transitions which do not enter accepting nodes (with multiplicities)
+        final int[][] successors = new int[n][];
+        final int[][] rejectingSuccessors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            final List<Integer> all = new ArrayList<>();
+            final List<Integer> rejecting = new ArrayList<>();
+            for (BuchiNode child : nodes.get(i).getTransitions().values()) {
+                all.add(indices.get(child));
+                if (!a.acceptSet().contains(child)) {
+                    rejecting.add(indices.get(child));
+                }
             }
+            successors[i] = all.stream().mapToInt(Integer::intValue).toArray();
+            rejectingSuccessors[i] = rejecting.stream().mapToInt(Integer::intValue).toArray();
         }
-        
-        final Set<BuchiNode> result = new HashSet<>(a.nodes());
-        for (BuchiNode node : a.nodes()) {
-            final Set<BuchiNode> reachabilitySet = reachabilitySet(node);
-            for (BuchiNode loopStart : reachabilitySet) {
-                if (nodesWithRejectingLoops.contains(loopStart)) {
-                    result.remove(node);
+
+        // nodes with rejecting loops, processed in the reverse topological order of SCCs
+        final boolean[] hasRejectingLoop = new boolean[n];
+        final int words = (n + 63) >>> 6;
+        final long[][] reachable = new long[n][];
+        final StronglyConnectedComponents components = new StronglyConnectedComponents(rejectingSuccessors);
+        for (int k = 0; k < components.count(); k++) {
+            final int[] component = components.members(k);
+            final int v = component[0];
+            if (components.isNontrivial(k)) {
+                for (int w : component) {
+                    hasRejectingLoop[w] = true;
+                }
+                continue;
+            }
+            // the subgraph reachable from v is acyclic here, it must be a tree without devil transitions
+            boolean loop = hasDevilTransitions(nodes.get(v));
+            final long[] reach = new long[words];
+            for (int c : rejectingSuccessors[v]) {
+                if (loop || hasRejectingLoop[c]) {
+                    loop = true;
                     break;
                 }
+                for (int i = 0; i < words; i++) {
+                    if ((reach[i] & reachable[c][i]) != 0) {
+                        // c is reached twice
+                        loop = true;
+                        break;
+                    }
+                    reach[i] |= reachable[c][i];
+                }
+            }
+            reach[v >>> 6] |= 1L << v;
+            hasRejectingLoop[v] = loop;
+            reachable[v] = loop ? null : reach;
+        }
+
+        // the result: nodes from which no node with a rejecting loop is reachable
+        final int[][] predecessors = reverse(successors);
+        final boolean[] reachesLoop = new boolean[n];
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            if (hasRejectingLoop[i]) {
+                reachesLoop[i] = true;
+                queue.add(i);
             }
         }
-        
-        return result;
-    }
-    
-    private static Set<BuchiNode> reachabilitySet(BuchiNode node) {
-        final Set<BuchiNode> visited = new HashSet<>();
-        visited.add(node);
-        final Deque<BuchiNode> queue = new ArrayDeque<>();
-        queue.add(node);
         while (!queue.isEmpty()) {
-            final BuchiNode n = queue.removeFirst();
-            for (BuchiNode child : n.getTransitions().values()) {
-                if (!visited.contains(child)) {
-                    visited.add(child);
-                    queue.add(child);
+            for (int p : predecessors[queue.removeFirst()]) {
+                if (!reachesLoop[p]) {
+                    reachesLoop[p] = true;
+                    queue.add(p);
                 }
             }
         }
-        return visited;
-    }
-    
-    private static Set<BuchiNode> nodesWithDevilTransitions(BuchiAutomaton a) {
         final Set<BuchiNode> result = new HashSet<>();
-        for (BuchiNode node : a.nodes()) {
-            // if transition conditions are not complete, there is a rejecting loop!
-            final Set<IExpression<Boolean>> allExpressions = new HashSet<>();
-            final Set<TransitionCondition> conditions = node.getTransitions().keySet();
-            for (TransitionCondition condition : conditions) {
-                allExpressions.addAll(condition.expressions());
-                allExpressions.addAll(condition.negativeExpressions());
+        for (int i = 0; i < n; i++) {
+            if (!reachesLoop[i]) {
+                result.add(nodes.get(i));
             }
-            allExpressions.removeIf(x -> x instanceof BooleanNode);
-            final List<IExpression<Boolean>> allExpressionsList = new ArrayList<>(allExpressions);
-            
-            int maxI = 1 << allExpressions.size();
-            for (int i = 0; i < maxI; i++) {
-                final Set<IExpression<Boolean>> positive = new HashSet<>();
-                for (int j = 0; j < allExpressions.size(); j++) {
-                    if (((i >> j) & 1) == 1) {
-                        positive.add(allExpressionsList.get(j));
-                    }
-                }
-                boolean transitionPassed = false; // either condition passes
-                for (TransitionCondition condition : conditions) {
-                    boolean transitionConditionPassed = true; // all expressions pass
-                    for (IExpression<Boolean> expression : allExpressions) {
-                        final boolean failed = positive.contains(expression)
-                            && condition.negativeExpressions().contains(expression)
-                            || !positive.contains(expression)
-                            && condition.expressions().contains(expression);
-                        if (failed) {
-                            transitionConditionPassed = false;
-                            break;
-                        }
-                    }
-                    if (condition.expressions().stream()
-                            .anyMatch(x -> x instanceof BooleanNode && x.toString().equals("false"))) {
-                        transitionConditionPassed = false;
-                    }
-                    if (condition.negativeExpressions().stream()
-                            .anyMatch(x -> x instanceof BooleanNode && x.toString().equals("true"))) {
-                        transitionConditionPassed = false;
-                    }
-                    if (transitionConditionPassed) {
-                        transitionPassed = true;
-                        break;
-                    }
-                }
-                if (!transitionPassed) {
-                    result.add(node);
-                }
+        }
+        return result;
+    }
+
+    private static int[][] reverse(int[][] successors) {
+        final List<List<Integer>> lists = new ArrayList<>();
+        for (int i = 0; i < successors.length; i++) {
+            lists.add(new ArrayList<>());
+        }
+        for (int i = 0; i < successors.length; i++) {
+            for (int j : successors[i]) {
+                lists.get(j).add(i);
             }
         }
+        final int[][] result = new int[successors.length][];
+        for (int i = 0; i < successors.length; i++) {
+            result[i] = lists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
         return result;
     }
-    
-    private static boolean hasRejectingLoop(BuchiNode node, BuchiAutomaton a,
-            Set<BuchiNode> nodesWithDevilTransitions) {
-        final Set<BuchiNode> visited = new HashSet<>();
-        visited.add(node);
-        final Deque<BuchiNode> queue = new ArrayDeque<>();
-        queue.add(node);
-        while (!queue.isEmpty()) {
-            final BuchiNode n = queue.removeFirst();
-            if (nodesWithDevilTransitions.contains(n)) {
-                return true;
+
+    /*
+     * Checks whether the transition conditions of the node do not cover all assignments of its atoms.
+     * Each condition is a cube represented by bitmasks of positive and negative atoms,
+     * and the cover is checked to be a tautology by Shannon expansion.
+     */
+    private static boolean hasDevilTransitions(BuchiNode node) {
+        final Map<IExpression<Boolean>, Integer> atoms = new HashMap<>();
+        final Set<TransitionCondition> conditions = node.getTransitions().keySet();
+        final long[] positive = new long[conditions.size()];
+        final long[] negative = new long[conditions.size()];
+        int cubes = 0;
+        for (TransitionCondition condition : conditions) {
+            long pos = 0;
+            long neg = 0;
+            boolean unsatisfiable = false;
+            for (IExpression<Boolean> e : condition.expressions()) {
+                if (e instanceof BooleanNode) {
+                    unsatisfiable |= e.toString().equals("false");
+                } else {
+                    pos |= 1L << atom(atoms, e);
+                }
             }
-            for (BuchiNode child : n.getTransitions().values()) {
-                if (a.acceptSet().contains(child)) {
-                    continue;
-                } else if (visited.contains(child)) {
-                    return true;
+            for (IExpression<Boolean> e : condition.negativeExpressions()) {
+                if (e instanceof BooleanNode) {
+                    unsatisfiable |= e.toString().equals("true");
                 } else {
-                    visited.add(child);
-                    queue.add(child);
+                    neg |= 1L << atom(atoms, e);
                 }
             }
+            if (!unsatisfiable && (pos & neg) == 0) {
+                positive[cubes] = pos;
+                negative[cubes] = neg;
+                cubes++;
+            }
+        }
+        return !isTautology(positive, negative, cubes);
+    }
+
+    private static int atom(Map<IExpression<Boolean>, Integer> atoms, IExpression<Boolean> e) {
+        final int id = atoms.computeIfAbsent(e, x -> atoms.size());
+        if (id >= Long.SIZE) {
+            throw new AssertionError("Too many atoms in a Buchi node");
+        }
+        return id;
+    }
+
+    private static boolean isTautology(long[] positive, long[] negative, int cubes) {
+        if (cubes == 0) {
+            return false;
+        }
+        for (int i = 0; i < cubes; i++) {
+            if (positive[i] == 0 && negative[i] == 0) {
+                return true;
+            }
         }
-        return false;
+        final long atom = Long.lowestOneBit(positive[0] | negative[0]);
+        return isTautology(cofactor(positive, negative, cubes, atom, true))
+                && isTautology(cofactor(positive, negative, cubes, atom, false));
+    }
+
+    private static boolean isTautology(long[][] cover) {
+        return isTautology(cover[0], cover[1], cover[0].length);
+    }
+
+    /*
+     * Cubes compatible with the given value of the atom, with the atom removed.
+     */
+    private static long[][] cofactor(long[] positive, long[] negative, int cubes, long atom, boolean value) {
+        final long[] conflicting = value ? negative : positive;
+        int size = 0;
+        for (int i = 0; i < cubes; i++) {
+            if ((conflicting[i] & atom) == 0) {
+                size++;
+            }
+        }
+        final long[][] result = new long[2][size];
+        int j = 0;
+        for (int i = 0; i < cubes; i++) {
+            if ((conflicting[i] & atom) == 0) {
+                result[0][j] = positive[i] & ~atom;
+                result[1][j] = negative[i] & ~atom;
+                j++;
+            }
+        }
+        return result;
     }
-}
\ No newline at end of file
+}
@@ -3,12 +3,11 @@
  */
 package verification.verifier;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import verification.ltl.buchi.BuchiAutomaton;
-import verification.ltl.buchi.BuchiNode;
-import verification.ltl.grammar.PredicateFactory;
 import verification.statemachine.SimpleState;
 
 /**
@@ -17,35 +16,91 @@ import verification.statemachine.SimpleState;
  * @author Kirill Egorov
  */
 public class IntersectionAutomata {
-    private final PredicateFactory predicates;
-    private final BuchiAutomaton buchiAutomata;
-    private final Map<String, IntersectionNode> nodeMap = new HashMap<>();
+    private final CompiledBuchiAutomaton compiledBuchi;
+    private final int buchiSize;
+    // node id by stateIndex * buchiSize + buchiIndex, -1 for nodes not created yet
+    private final int[] ids;
+    // nodes by ids, which are assigned in the order of creation
+    private final List<IntersectionNode> nodes = new ArrayList<>();
+    // null if successors are not kept between verifications
+    private final ProductCache cache;
+    // reused by IntersectionNode.enabledTransitions()
+    int[] stateScratch = new int[16];
+    int[] buchiScratch = new int[16];
 
-    public IntersectionAutomata(PredicateFactory predicates, BuchiAutomaton buchi) {
-        this.predicates = predicates;
-        buchiAutomata = buchi;
+    /*
+     * Transitions of the state machine must be labeled over the atoms the automaton was compiled with.
+     * States must be indexed from 0 to stateCount - 1 (see StateMachine.addState()).
+     */
+    public IntersectionAutomata(CompiledBuchiAutomaton buchi, int stateCount) {
+        this(buchi, stateCount, null);
+    }
+
+    public IntersectionAutomata(CompiledBuchiAutomaton buchi, int stateCount, ProductCache cache) {
+        compiledBuchi = buchi;
+        buchiSize = buchi.size();
+        ids = new int[stateCount * buchiSize];
+        Arrays.fill(ids, -1);
+        this.cache = cache;
+    }
+
+    ProductCache getCache() {
+        return cache;
+    }
+
+    void ensureScratchCapacity(int capacity) {
+        if (stateScratch.length < capacity) {
+            final int newCapacity = Math.max(capacity, stateScratch.length * 2);
+            stateScratch = new int[newCapacity];
+            buchiScratch = new int[newCapacity];
+        }
     }
 
     public BuchiAutomaton getBuchiAutomata() {
-        return buchiAutomata;
+        return compiledBuchi.buchi;
     }
 
-    public IntersectionNode getNode(SimpleState state, BuchiNode node) {
-        String key = getUniqueKey(state, node);
+    public CompiledBuchiAutomaton getCompiledBuchiAutomata() {
+        return compiledBuchi;
+    }
 
-        IntersectionNode res = nodeMap.get(key);
-        if (res == null) {
-            res = new IntersectionNode(this, state, node);
-            nodeMap.put(key, res);
+    /*
+     * Returns the id of the node, creating it if needed.
+     */
+    public int getNode(SimpleState state, int buchiIndex) {
+        final int key = state.index() * buchiSize + buchiIndex;
+        int id = ids[key];
+        if (id == -1) {
+            id = nodes.size();
+            ids[key] = id;
+            nodes.add(new IntersectionNode(this, id, state, buchiIndex));
         }
-        return res;
+        return id;
+    }
+
+    public IntersectionNode node(int id) {
+        return nodes.get(id);
+    }
+
+    /*
+     * Number of created nodes.
+     */
+    public int size() {
+        return nodes.size();
     }
 
-    public PredicateFactory getPredicates() {
-        return predicates;
+    /*
+     * Ids of the successors of the node, the stutter loops of the state machine are excluded.
+     */
+    public int[] successors(int id) {
+        return nodes.get(id).successors();
     }
 
-    protected String getUniqueKey(SimpleState state, BuchiNode node) {
-        return state.getUniqueName() + "_" + node.getID();
+    /*
+     * The transition to the i-th successor of the node.
+     */
+    public IntersectionTransition transition(int id, int i) {
+        final IntersectionNode node = nodes.get(id);
+        return new IntersectionTransition(node.stateTransition(i), nodes.get(node.successors()[i]));
     }
 }
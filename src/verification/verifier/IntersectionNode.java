@@ -3,14 +3,10 @@
  */
 package verification.verifier;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.function.Consumer;
+import java.util.Arrays;
+import java.util.List;
 
-import verification.ltl.buchi.BuchiAutomaton;
 import verification.ltl.buchi.BuchiNode;
-import verification.ltl.buchi.TransitionCondition;
 import verification.statemachine.SimpleState;
 import verification.statemachine.StateTransition;
 
@@ -21,27 +17,91 @@ import verification.statemachine.StateTransition;
  */
 public class IntersectionNode {
     private final IntersectionAutomata automata;
+    public final int id;
     public final SimpleState state;
     public final BuchiNode node;
+    public final int buchiIndex;
     public final boolean terminal;
-    private final TransitionIterator iterator;
+    private final CompiledBuchiAutomaton.Transition[] buchiTransitions;
+    // computed on the first expansion: ids of successors and indices of the corresponding state transitions
+    private int[] successors;
+    private int[] stateTransitions;
 
-    public IntersectionNode(IntersectionAutomata automata, SimpleState state, BuchiNode node) {
+    public IntersectionNode(IntersectionAutomata automata, int id, SimpleState state, int buchiIndex) {
         this.automata = automata;
+        this.id = id;
         this.state = state;
-        this.node = node;
+        this.buchiIndex = buchiIndex;
 
-        final BuchiAutomaton buchi = automata.getBuchiAutomata();
-        terminal = buchi.acceptSet().contains(node);
-        iterator = new TransitionIterator();
+        final CompiledBuchiAutomaton buchi = automata.getCompiledBuchiAutomata();
+        node = buchi.node(buchiIndex);
+        terminal = buchi.buchi.acceptSet().contains(node);
+        buchiTransitions = buchi.transitions(buchiIndex);
     }
 
-    public IntersectionTransition next() {
-        return iterator.hasNext() ? iterator.next() : null;
+    /*
+     * Successors are ordered by state machine transitions, then by Buchi transitions.
+     */
+    int[] successors() {
+        if (successors == null) {
+            computeSuccessors();
+        }
+        return successors;
     }
 
-    public void resetIterator() {
-        iterator.reset();
+    StateTransition stateTransition(int i) {
+        return state.outgoingTransitions().get(stateTransitions[i]);
+    }
+
+    private void computeSuccessors() {
+        final ProductCache cache = automata.getCache();
+        final int[] buchiIndices;
+        if (cache != null && cache.hasSuccessors(this)) {
+            stateTransitions = cache.stateTransitions(this);
+            buchiIndices = cache.buchiTransitions(this);
+        } else {
+            final long time = System.nanoTime();
+            final int count = enabledTransitions();
+            stateTransitions = Arrays.copyOf(automata.stateScratch, count);
+            buchiIndices = Arrays.copyOf(automata.buchiScratch, count);
+            if (cache != null) {
+                cache.putSuccessors(this, stateTransitions, buchiIndices, System.nanoTime() - time);
+            }
+        }
+        final List<StateTransition> outgoing = state.outgoingTransitions();
+        final int[] result = new int[stateTransitions.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = automata.getNode(outgoing.get(stateTransitions[i]).getTarget(),
+                    buchiTransitions[buchiIndices[i]].targetIndex);
+        }
+        successors = result;
+    }
+
+    /*
+     * Writes the state transition indices and the Buchi transition indices of enabled pairs of transitions
+     * to the scratch buffers of the automata, returns the number of pairs.
+     * Stutter loops (transitions without events) are excluded.
+     */
+    private int enabledTransitions() {
+        final List<StateTransition> outgoing = state.outgoingTransitions();
+        automata.ensureScratchCapacity(outgoing.size() * buchiTransitions.length);
+        final int[] stateIndices = automata.stateScratch;
+        final int[] buchiIndices = automata.buchiScratch;
+        int count = 0;
+        for (int i = 0; i < outgoing.size(); i++) {
+            if (outgoing.get(i).event == null) {
+                continue;
+            }
+            final long[] label = outgoing.get(i).getLabel();
+            for (int j = 0; j < buchiTransitions.length; j++) {
+                if (buchiTransitions[j].enabled(label)) {
+                    stateIndices[count] = i;
+                    buchiIndices[count] = j;
+                    count++;
+                }
+            }
+        }
+        return count;
     }
 
     @Override
@@ -70,72 +130,4 @@ public class IntersectionNode {
     public String toString() {
         return String.format("[\"%s\", %d]", state.name, node.getID());
     }
-
-    private class TransitionIterator implements Iterator<IntersectionTransition> {
-        private Iterator<StateTransition> stateIter;
-        private Iterator<Map.Entry<TransitionCondition, BuchiNode>> nodeIter;
-
-        private StateTransition nextStateTransition;
-        private IntersectionTransition next;
-
-        private TransitionIterator() {
-            reset();
-        }
-
-        public void reset() {
-            stateIter = state.outgoingTransitions().iterator();
-            nodeIter = node.getTransitions().entrySet().iterator();
-            if (stateIter.hasNext()) {
-                nextStateTransition = stateIter.next();
-            }
-        }
-
-        @Override
-        public boolean hasNext() {
-            if (next != null) {
-                return true;
-            }
-            Map.Entry<TransitionCondition, BuchiNode> nextBuchiTransition;
-
-            automata.getPredicates().setAutomataState(state, nextStateTransition);
-            while (true) {
-                if (nodeIter.hasNext()) {
-                    nextBuchiTransition = nodeIter.next();
-                    if (nextBuchiTransition.getKey().getValue()) {
-                        IntersectionNode node = automata.getNode(nextStateTransition.getTarget(),
-                                nextBuchiTransition.getValue());
-                        next = new IntersectionTransition(nextStateTransition, node);
-                        return true;
-                    }
-                } else if (stateIter.hasNext()) {
-                    nextStateTransition = stateIter.next();
-                    nodeIter = node.getTransitions().entrySet().iterator();
-                    automata.getPredicates().setAutomataState(state, nextStateTransition);
-                } else {
-                    next = null;
-                    return false;
-                }
-            }
-        }
-
-        @Override
-        public IntersectionTransition next() {
-            if (!hasNext()) {
-                throw new NoSuchElementException();
-            }
-            final IntersectionTransition res = next;
-            next = null;
-            return res;
-        }
-
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public void forEachRemaining(Consumer<? super IntersectionTransition> action) {
-            throw new UnsupportedOperationException();
-        }
-    }
 }
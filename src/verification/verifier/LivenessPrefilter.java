@@ -0,0 +1,273 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import structures.mealy.MealyAutomaton;
+import structures.mealy.MealyNode;
+import structures.mealy.MealyTransition;
+
+/*
+ * A liveness pre-filter in front of Verifier for a partial Mealy automaton which changes by single transitions,
+ * as in backtracking. It decides when an LTL check is needed, the check itself is not incremental.
+ * The pre-filter is told about each added and removed transition after the change.
+ * As in Verifier.verify(), dead ends are removed before verification: the verified machine consists of
+ * the transitions to live states, i.e. the states from which an infinite path exists. Liveness is maintained
+ * incrementally: a removal propagates backwards from the source while states lose all live successors,
+ * an addition propagates backwards from the source if the target is live or the transition closes a cycle.
+ * Each change of the live part gets a new version, and verdicts are kept for the versions on the stack
+ * of additions. Thus, a transition to a dead end (most transitions in the top levels of the search) and
+ * the removal of the last added transition cost no LTL check. Otherwise, the live part is copied and verified
+ * from scratch by Verifier, which only reuses the products of unchanged states (see ProductCache).
+ */
+public class LivenessPrefilter {
+    private final Verifier verifier;
+    private final MealyAutomaton automaton;
+    private final boolean[] live;
+    // the number of transitions to live states
+    private final int[] liveSuccessors;
+    private final List<List<MealyTransition>> incoming = new ArrayList<>();
+
+    private int version = 0;
+    private int lastVersion = 0;
+    // (added transition, version before the addition)
+    private final Deque<Addition> additions = new ArrayDeque<>();
+    // version -> the counterexample for the first violated formula, empty if all formulae hold
+    private final Map<Integer, Counterexample> verdicts = new HashMap<>();
+    private static final Counterexample NO_COUNTEREXAMPLE = new Counterexample(Collections.emptyList(),
+            Collections.emptyList(), 0);
+
+    private int checks = 0;
+    private int reusedVerdicts = 0;
+
+    private static class Addition {
+        final MealyTransition transition;
+        final int previousVersion;
+
+        Addition(MealyTransition transition, int previousVersion) {
+            this.transition = transition;
+            this.previousVersion = previousVersion;
+        }
+    }
+
+    public LivenessPrefilter(Verifier verifier, MealyAutomaton automaton) {
+        this.verifier = verifier;
+        this.automaton = automaton;
+        final int n = automaton.stateCount();
+        live = new boolean[n];
+        liveSuccessors = new int[n];
+        for (int i = 0; i < n; i++) {
+            incoming.add(new ArrayList<>());
+        }
+        for (MealyNode state : automaton.states()) {
+            live[state.number()] = true;
+            liveSuccessors[state.number()] = state.transitionCount();
+            for (MealyTransition t : state.transitions()) {
+                incoming.get(t.dst().number()).add(t);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (live[i] && liveSuccessors[i] == 0) {
+                kill(i);
+            }
+        }
+    }
+
+    public void transitionAdded(MealyTransition t) {
+        final int src = t.src().number();
+        final int dst = t.dst().number();
+        incoming.get(dst).add(t);
+        final boolean changed;
+        if (live[dst]) {
+            liveSuccessors[src]++;
+            if (!live[src]) {
+                revive(src);
+            }
+            changed = true;
+        } else if (reachesThroughDeadStates(dst, src)) {
+            // a cycle is closed
+            revive(src);
+            changed = true;
+        } else {
+            changed = false;
+        }
+        additions.push(new Addition(t, version));
+        if (changed) {
+            version = ++lastVersion;
+        }
+    }
+
+    public void transitionRemoved(MealyTransition t) {
+        final int src = t.src().number();
+        final int dst = t.dst().number();
+        incoming.get(dst).removeIf(other -> sameTransition(other, t));
+        final boolean changed = live[dst];
+        if (changed) {
+            liveSuccessors[src]--;
+            if (liveSuccessors[src] == 0) {
+                kill(src);
+            }
+        }
+        if (!additions.isEmpty() && sameTransition(additions.peek().transition, t)) {
+            final int previousVersion = additions.pop().previousVersion;
+            if (previousVersion != version) {
+                // this version will never be seen again
+                verdicts.remove(version);
+                version = previousVersion;
+            }
+        } else {
+            // not the last addition: previous verdicts cannot be attributed to versions any more
+            additions.clear();
+            verdicts.clear();
+            version = ++lastVersion;
+        }
+    }
+
+    public boolean verify() {
+        final Counterexample verdict = verdicts.get(version);
+        if (verdict != null) {
+            reusedVerdicts++;
+            return verdict.isEmpty();
+        }
+        checks++;
+        final MealyAutomaton liveAutomaton = new MealyAutomaton(automaton.stateCount());
+        for (MealyNode state : automaton.states()) {
+            for (MealyTransition t : state.transitions()) {
+                if (live[t.dst().number()]) {
+                    liveAutomaton.state(state.number()).addTransition(t.event(), t.expr(), t.actions(),
+                            liveAutomaton.state(t.dst().number()));
+                }
+            }
+        }
+        final Counterexample result = verifier.firstCounterexampleWithNoDeadEndRemoval(liveAutomaton)
+                .orElse(NO_COUNTEREXAMPLE);
+        verdicts.put(version, result);
+        return result.isEmpty();
+    }
+
+    /*
+     * After verify() returned false: the distinct transitions of the automaton along the counterexample,
+     * or Optional.empty() if they cannot be determined unambiguously.
+     * Each automaton with these transitions and without dead ends violates the same formula.
+     */
+    public Optional<List<MealyTransition>> counterexampleTransitions() {
+        final Counterexample ce = verdicts.get(version);
+        if (ce == null || ce.isEmpty() || verifier.verifiesFromAllStates()) {
+            return Optional.empty();
+        }
+        final Set<MealyTransition> transitions = new LinkedHashSet<>();
+        final MealyNode[] visited = new MealyNode[ce.events().size() + 1];
+        MealyNode state = automaton.startState();
+        for (int i = 0; i < ce.events().size(); i++) {
+            visited[i] = state;
+            MealyTransition next = null;
+            for (MealyTransition t : state.transitions()) {
+                if (live[t.dst().number()] && t.event().equals(ce.events().get(i))
+                        && Arrays.asList(t.actions().getActions()).equals(ce.actions().get(i))) {
+                    if (next != null) {
+                        // several guarded transitions
+                        return Optional.empty();
+                    }
+                    next = t;
+                }
+            }
+            if (next == null) {
+                return Optional.empty();
+            }
+            transitions.add(next);
+            state = next.dst();
+        }
+        if (ce.loopLength > 0 && visited[ce.events().size() - ce.loopLength] != state) {
+            return Optional.empty();
+        }
+        return Optional.of(new ArrayList<>(transitions));
+    }
+
+    /*
+     * The number of calls of verify() which required a full LTL check of the live part.
+     */
+    public int checks() {
+        return checks;
+    }
+
+    /*
+     * The number of calls of verify() for which the live part was unchanged since a previous check,
+     * so that no LTL check was needed.
+     */
+    public int reusedVerdicts() {
+        return reusedVerdicts;
+    }
+
+    /*
+     * MealyAutomaton stores copies of added transitions, so transitions are compared by their source,
+     * target, event and guard.
+     */
+    private static boolean sameTransition(MealyTransition t1, MealyTransition t2) {
+        return t1.src().number() == t2.src().number() && t1.dst().number() == t2.dst().number()
+                && t1.event().equals(t2.event()) && t1.expr().toString().equals(t2.expr().toString());
+    }
+
+    private boolean reachesThroughDeadStates(int from, int to) {
+        final boolean[] visited = new boolean[live.length];
+        final Deque<Integer> stack = new ArrayDeque<>();
+        visited[from] = true;
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            for (MealyTransition t : automaton.state(stack.pop()).transitions()) {
+                final int next = t.dst().number();
+                if (next == to) {
+                    return true;
+                } else if (!visited[next] && !live[next]) {
+                    visited[next] = true;
+                    stack.push(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void revive(int state) {
+        final Deque<Integer> stack = new ArrayDeque<>();
+        live[state] = true;
+        stack.push(state);
+        while (!stack.isEmpty()) {
+            for (MealyTransition t : incoming.get(stack.pop())) {
+                final int src = t.src().number();
+                liveSuccessors[src]++;
+                if (!live[src]) {
+                    live[src] = true;
+                    stack.push(src);
+                }
+            }
+        }
+    }
+
+    private void kill(int state) {
+        final Deque<Integer> stack = new ArrayDeque<>();
+        live[state] = false;
+        stack.push(state);
+        while (!stack.isEmpty()) {
+            for (MealyTransition t : incoming.get(stack.pop())) {
+                final int src = t.src().number();
+                liveSuccessors[src]--;
+                if (live[src] && liveSuccessors[src] == 0) {
+                    live[src] = false;
+                    stack.push(src);
+                }
+            }
+        }
+    }
+}
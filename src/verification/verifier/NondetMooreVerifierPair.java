@@ -14,6 +14,11 @@ public class NondetMooreVerifierPair {
     private final Verifier globalVerifier;
     
     public NondetMooreVerifierPair(Logger logger, List<String> strFormulae, List<String> events, List<String> actions) {
+        this(logger, strFormulae, events, actions, new VerifierOptions());
+    }
+
+    public NondetMooreVerifierPair(Logger logger, List<String> strFormulae, List<String> events, List<String> actions,
+            VerifierOptions options) {
         final List<String> ordinaryLTL = new ArrayList<>();
         final List<String> globalLTL = new ArrayList<>();
         for (String formula : strFormulae) {
@@ -25,8 +30,18 @@ public class NondetMooreVerifierPair {
                 ordinaryLTL.add(formula);
             }
         }
-        ordinaryVerifier = new Verifier(logger, ordinaryLTL, events, actions, false);
-        globalVerifier = new Verifier(logger, globalLTL, events, actions, true);
+        ordinaryVerifier = new Verifier(logger, ordinaryLTL, events, actions, false, options);
+        globalVerifier = new Verifier(logger, globalLTL, events, actions, true, options);
+    }
+    
+    public void setLoopWeight(int weight) {
+        ordinaryVerifier.setLoopWeight(weight);
+        globalVerifier.setLoopWeight(weight);
+    }
+    
+    public String incrementalStatistics() {
+        return "ORDINARY: " + ordinaryVerifier.incrementalStatistics()
+                + "; GLOBAL: " + globalVerifier.incrementalStatistics();
     }
     
     public Pair<List<Counterexample>, List<Counterexample>> verifyNondetMoore(NondetMooreAutomaton automaton) {
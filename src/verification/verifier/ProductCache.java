@@ -0,0 +1,193 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import verification.statemachine.SimpleState;
+
+/*
+ * Product exploration of a single formula kept between the verification of successive automata,
+ * which in counterexample-guided synthesis often differ in a few transitions only.
+ * States of the machines are identified by their indices. Each state index has a version, which changes
+ * whenever the signature of the state (SimpleState.signature()) changes (see VerifierFactory):
+ * - if all states of the previously explored product have the same versions, the product is the same,
+ *   and the previous result is returned without exploration;
+ * - otherwise, the successors of product nodes with unchanged states are restored from indices
+ *   of state machine and Buchi transitions, and only the nodes of changed states are expanded
+ *   by checking transition conditions.
+ * Product nodes are looked up by stateIndex * buchiSize + buchiIndex, as in IntersectionAutomata.
+ * A cache must be used by one thread at a time.
+ */
+public class ProductCache {
+    private final int buchiSize;
+    // versions of the states of the current machine, by state index
+    private int[] stateVersions = new int[0];
+
+    // by product node key: the version of the state when the successors were computed, 0 if they are unknown,
+    // and the successors as state machine and Buchi transition indices
+    private int[] versions = new int[0];
+    private int[][] stateTransitions = new int[0][];
+    private int[][] buchiTransitions = new int[0][];
+
+    // the previous exploration: the explored states and their versions, the initial state, the loop weight,
+    // the maximum number of counterexamples, the result
+    private int[] exploredStates = null;
+    private int[] exploredVersions;
+    private int initialState;
+    private int loopWeight;
+    private int limit;
+    private List<Pair<List<IntersectionTransition>, Integer>> result;
+    private long resultTime;
+
+    // statistics of the last verification
+    private boolean resultReused;
+    private int reusedNodes;
+    private int expandedNodes;
+    private long expansionTime;
+    private long savedTime;
+    // the average time of expanding a product node, in nanoseconds
+    private long averageExpansionTime = 0;
+
+    public ProductCache(int buchiSize) {
+        this.buchiSize = buchiSize;
+    }
+
+    /*
+     * Starts the verification of a new machine. stateVersions are positive, the same for all caches
+     * of a VerifierFactory and must not be modified until the next call.
+     */
+    void startVerification(int[] stateVersions) {
+        this.stateVersions = stateVersions;
+        resetStatistics();
+    }
+
+    private boolean unchanged(int stateIndex, int version) {
+        return stateIndex < stateVersions.length && stateVersions[stateIndex] == version;
+    }
+
+    /*
+     * Returns the previous result if the product is known to be unchanged, null otherwise.
+     */
+    List<Pair<List<IntersectionTransition>, Integer>> previousResult(SimpleState initState, int loopWeight,
+            int limit) {
+        if (exploredStates == null || initState.index() != initialState || loopWeight != this.loopWeight
+                || limit != this.limit) {
+            return null;
+        }
+        for (int i = 0; i < exploredStates.length; i++) {
+            if (!unchanged(exploredStates[i], exploredVersions[i])) {
+                return null;
+            }
+        }
+        resultReused = true;
+        savedTime = resultTime;
+        return result;
+    }
+
+    void setResult(IntersectionAutomata automata, SimpleState initState, int loopWeight, int limit,
+            List<Pair<List<IntersectionTransition>, Integer>> result, long time) {
+        final boolean[] explored = new boolean[stateVersions.length];
+        int count = 0;
+        for (int i = 0; i < automata.size(); i++) {
+            final int state = automata.node(i).state.index();
+            if (!explored[state]) {
+                explored[state] = true;
+                count++;
+            }
+        }
+        exploredStates = new int[count];
+        exploredVersions = new int[count];
+        count = 0;
+        for (int state = 0; state < explored.length; state++) {
+            if (explored[state]) {
+                exploredStates[count] = state;
+                exploredVersions[count] = stateVersions[state];
+                count++;
+            }
+        }
+        initialState = initState.index();
+        this.loopWeight = loopWeight;
+        this.limit = limit;
+        this.result = result;
+        resultTime = time;
+        if (expandedNodes > 0) {
+            averageExpansionTime = expansionTime / expandedNodes;
+        }
+        savedTime = reusedNodes * averageExpansionTime;
+    }
+
+    private int key(IntersectionNode node) {
+        return node.state.index() * buchiSize + node.buchiIndex;
+    }
+
+    /*
+     * Whether the successors of the node are known. If so, they are returned by stateTransitions()
+     * and buchiTransitions().
+     */
+    boolean hasSuccessors(IntersectionNode node) {
+        final int key = key(node);
+        if (key >= versions.length || !unchanged(node.state.index(), versions[key])) {
+            return false;
+        }
+        reusedNodes++;
+        return true;
+    }
+
+    int[] stateTransitions(IntersectionNode node) {
+        return stateTransitions[key(node)];
+    }
+
+    int[] buchiTransitions(IntersectionNode node) {
+        return buchiTransitions[key(node)];
+    }
+
+    void putSuccessors(IntersectionNode node, int[] stateTransitions, int[] buchiTransitions, long time) {
+        final int key = key(node);
+        if (key >= versions.length) {
+            final int capacity = Math.max(key + 1, versions.length * 2);
+            versions = Arrays.copyOf(versions, capacity);
+            this.stateTransitions = Arrays.copyOf(this.stateTransitions, capacity);
+            this.buchiTransitions = Arrays.copyOf(this.buchiTransitions, capacity);
+        }
+        versions[key] = stateVersions[node.state.index()];
+        this.stateTransitions[key] = stateTransitions;
+        this.buchiTransitions[key] = buchiTransitions;
+        expandedNodes++;
+        expansionTime += time;
+    }
+
+    private void resetStatistics() {
+        resultReused = false;
+        reusedNodes = 0;
+        expandedNodes = 0;
+        expansionTime = 0;
+        savedTime = 0;
+    }
+
+    public boolean resultReused() {
+        return resultReused;
+    }
+
+    public int reusedNodes() {
+        return reusedNodes;
+    }
+
+    public int expandedNodes() {
+        return expandedNodes;
+    }
+
+    /*
+     * Estimation of the time saved in the last verification, in nanoseconds:
+     * the time of the previous exploration if the result was reused,
+     * otherwise the average expansion time multiplied by the number of reused nodes.
+     */
+    public long savedTime() {
+        return savedTime;
+    }
+}
@@ -5,172 +5,325 @@ package verification.verifier;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
 
-import verification.ltl.buchi.BuchiAutomaton;
 import verification.ltl.buchi.BuchiNode;
-import verification.ltl.grammar.PredicateFactory;
 import verification.statemachine.SimpleState;
+import verification.statemachine.StateMachine;
+import verification.statemachine.StateTransition;
 
 /**
- * Simple IVerifier implementation. Use one thread and can't be used concurrently.
+ * Explicit-state LTL model checker of a state machine. verify() does not modify the verifier, the machine
+ * and the Buchi automaton, so it can be called concurrently for different formulae (with different ProductCaches).
  *
  * @author Kirill Egorov
  */
 public class SimpleVerifier {
+    public enum EmptinessCheck {
+        /*
+         * A separate BFS for the shortest loop from each accepting node: quadratic in the product size.
+         * Among all accepting nodes, the lasso of the minimum effective length is chosen.
+         */
+        NESTED_BFS,
+        /*
+         * Strongly connected components of the product (Tarjan), linear in the product size:
+         * for each nontrivial component with accepting nodes, a single BFS restricted to the component
+         * finds the shortest loop through its first accepting node (in the BFS order).
+         * Counterexamples may thus be longer than the ones of NESTED_BFS, and further counterexamples
+         * of a batch are taken from different components only.
+         */
+        SCC
+    }
+
     private final SimpleState initState;
+    private final int stateCount;
+    private final EmptinessCheck emptinessCheck;
+    
+    /*
+     * Relative cost of a looping counterexample transition compared to a non-looping one.
+     */
+    private final int loopWeight;
+    
+    public SimpleVerifier(StateMachine machine) {
+        this(machine, 1);
+    }
     
-    public SimpleVerifier(SimpleState initState) {
-        this.initState = initState;
+    public SimpleVerifier(StateMachine machine, int loopWeight) {
+        this(machine, loopWeight, EmptinessCheck.NESTED_BFS);
+    }
+
+    public SimpleVerifier(StateMachine machine, int loopWeight, EmptinessCheck emptinessCheck) {
+        this.initState = machine.initialState();
+        this.stateCount = machine.size();
+        this.loopWeight = loopWeight;
+        this.emptinessCheck = emptinessCheck;
+    }
+
+    public Pair<List<IntersectionTransition>, Integer> verify(CompiledBuchiAutomaton buchi,
+            Set<BuchiNode> finiteCounterexampleNodes) {
+        return verify(buchi, finiteCounterexampleNodes, null);
     }
 
-    public Pair<List<IntersectionTransition>, Integer> verify(BuchiAutomaton buchi,
-            PredicateFactory predicates, Set<BuchiNode> finiteCounterexampleNodes) {
-        final IntersectionAutomata automata = new IntersectionAutomata(predicates, buchi);
-        return bfs(automata.getNode(initState, buchi.startNode()), finiteCounterexampleNodes);
+    /*
+     * cache, if not null, keeps the product of the formula between verifications (see ProductCache).
+     */
+    public Pair<List<IntersectionTransition>, Integer> verify(CompiledBuchiAutomaton buchi,
+            Set<BuchiNode> finiteCounterexampleNodes, ProductCache cache) {
+        final List<Pair<List<IntersectionTransition>, Integer>> counterexamples =
+                verify(buchi, finiteCounterexampleNodes, cache, 1);
+        return counterexamples.isEmpty() ? Pair.of(new ArrayList<>(), 0) : counterexamples.get(0);
     }
 
-    private class QueueElement {
-        private final IntersectionTransition trans;
-        private final IntersectionNode dest;
-        private final QueueElement predecessor;
-        
-        public QueueElement(IntersectionTransition trans, QueueElement predecessor) {
-            this.trans = trans;
-            this.dest = trans.target;
-            this.predecessor = predecessor;
+    /*
+     * Returns at most limit distinct counterexamples in the order of their effective length,
+     * the first one is the counterexample returned by verify().
+     * Candidates are the lassos through different accepting nodes (NESTED_BFS) or components (SCC),
+     * and the paths to different nodes from which only finite counterexamples exist.
+     */
+    public List<Pair<List<IntersectionTransition>, Integer>> verify(CompiledBuchiAutomaton buchi,
+            Set<BuchiNode> finiteCounterexampleNodes, ProductCache cache, int limit) {
+        if (cache != null) {
+            final List<Pair<List<IntersectionTransition>, Integer>> previous =
+                    cache.previousResult(initState, loopWeight, limit);
+            if (previous != null) {
+                return previous;
+            }
         }
-        
-        @Override
-        public String toString() {
-            return "[" + trans + " -> " + dest + "]";
+        final long time = System.nanoTime();
+        final IntersectionAutomata automata = new IntersectionAutomata(buchi, stateCount, cache);
+        automata.getNode(initState, buchi.index(buchi.buchi.startNode()));
+        final Product product = new Product(automata);
+        final boolean[] finite = new boolean[buchi.size()];
+        for (BuchiNode node : finiteCounterexampleNodes) {
+            finite[buchi.index(node)] = true;
         }
+        final List<Pair<List<IntersectionTransition>, Integer>> result = select(
+                emptinessCheck == EmptinessCheck.SCC
+                        ? sccSearch(product, finite, limit)
+                        : nestedBfs(product, finite, limit), limit);
+        if (cache != null) {
+            cache.setResult(automata, initState, loopWeight, limit, result, System.nanoTime() - time);
+        }
+        return result;
     }
-    
-    private static int LOOP_WEIGHT = 1;
-    
-    public static void setLoopWeight(int weight) {
-        LOOP_WEIGHT = weight;
-    }
-    
-    // FIXME currently does not work if true
-    // But this must change the nested-bfs complexity from O(n^2) to O(n)
-    private static final boolean REUSE_VISITED = false;
-    
-    private Pair<List<IntersectionTransition>, Integer> bfs(IntersectionNode initialNode,
-            Set<BuchiNode> finiteCounterexampleNodes) {
-        final Deque<QueueElement> queue = new LinkedList<>();
-        final Set<IntersectionNode> visited = new HashSet<>();
-        queue.addLast(new QueueElement(new IntersectionTransition(null, initialNode), null));
-        final List<Pair<List<IntersectionTransition>, Integer>> counterexamples = new ArrayList<>();
-        
-        Pair<List<IntersectionTransition>, Integer> finiteCounterexample = null;
-        
-        while (!queue.isEmpty()) {
-            final QueueElement element = queue.pollFirst();
-            if (!visited.contains(element.dest)) {
-    
-                if (finiteCounterexample == null && finiteCounterexampleNodes.contains(element.dest.node)) {
-                    // finite counterexample exists
-                    final List<IntersectionTransition> path = new ArrayList<>();
-                    QueueElement elem = element;
-                    do {
-                        path.add(elem.trans);
-                        elem = elem.predecessor;
-                    } while (elem != null);
-                    path.remove(path.size() - 1);
-                    Collections.reverse(path);
-                    finiteCounterexample = Pair.of(path, 0);
+
+    /*
+     * The part of the product reachable from the initial node (node 0), explored by BFS,
+     * with work arrays for loop searches.
+     * Node ids are assigned on creation, i.e. in the BFS order.
+     */
+    private static class Product {
+        final IntersectionAutomata automata;
+        final int size;
+        final int[][] successors;
+        // the BFS tree: the predecessor and the index of the edge from it, -1 for the initial node
+        final int[] predecessors;
+        final int[] predecessorEdges;
+
+        // the last loop search which visited the node
+        private final int[] visited;
+        private int search = 0;
+        private final int[] queue;
+        private final int[] loopPredecessors;
+        private final int[] loopEdges;
+        private final int[] loopDistances;
+
+        Product(IntersectionAutomata automata) {
+            this.automata = automata;
+            for (int v = 0; v < automata.size(); v++) {
+                automata.successors(v);
+            }
+            size = automata.size();
+            successors = new int[size][];
+            predecessors = new int[size];
+            predecessorEdges = new int[size];
+            predecessors[0] = -1;
+            // each node is created by the first edge to it
+            int created = 1;
+            for (int v = 0; v < size; v++) {
+                successors[v] = automata.successors(v);
+                for (int i = 0; i < successors[v].length; i++) {
+                    if (successors[v][i] == created) {
+                        predecessors[created] = v;
+                        predecessorEdges[created] = i;
+                        created++;
+                    }
                 }
-                if (element.dest.terminal) {
-                    secondBfs(element.dest, element, counterexamples,
-                            REUSE_VISITED ? visited : new HashSet<>());
+            }
+            visited = new int[size];
+            queue = new int[size];
+            loopPredecessors = new int[size];
+            loopEdges = new int[size];
+            loopDistances = new int[size];
+        }
+
+        List<IntersectionTransition> prefix(int v) {
+            final List<IntersectionTransition> path = new ArrayList<>();
+            for (int x = v; predecessors[x] != -1; x = predecessors[x]) {
+                path.add(automata.transition(predecessors[x], predecessorEdges[x]));
+            }
+            Collections.reverse(path);
+            return path;
+        }
+
+        /*
+         * BFS for the shortest loop through v, inside the component of v if component is not null.
+         * Returns null if there is no such loop of at most maxLength transitions.
+         */
+        List<IntersectionTransition> shortestLoop(int v, int[] component, int maxLength) {
+            search++;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = v;
+            visited[v] = search;
+            loopDistances[v] = 0;
+            while (head < tail) {
+                final int u = queue[head++];
+                if (loopDistances[u] >= maxLength) {
+                    return null;
                 }
-                visited.add(element.dest);
-                
-                element.dest.resetIterator();
-                IntersectionTransition trans;
-                while ((trans = element.dest.next()) != null) {
-                    if (trans.transition.event != null) {
-                        queue.addLast(new QueueElement(trans, element));
+                final int[] uSuccessors = successors[u];
+                for (int i = 0; i < uSuccessors.length; i++) {
+                    final int w = uSuccessors[i];
+                    if (w == v) {
+                        final List<IntersectionTransition> loop = new ArrayList<>();
+                        loop.add(automata.transition(u, i));
+                        for (int x = u; x != v; x = loopPredecessors[x]) {
+                            loop.add(automata.transition(loopPredecessors[x], loopEdges[x]));
+                        }
+                        Collections.reverse(loop);
+                        return loop;
+                    } else if (visited[w] != search && (component == null || component[w] == component[v])) {
+                        visited[w] = search;
+                        loopPredecessors[w] = u;
+                        loopEdges[w] = i;
+                        loopDistances[w] = loopDistances[u] + 1;
+                        queue[tail++] = w;
                     }
                 }
             }
+            return null;
         }
-        if (finiteCounterexample != null) {
-            counterexamples.add(finiteCounterexample);
+
+        Pair<List<IntersectionTransition>, Integer> lasso(int v, List<IntersectionTransition> loop) {
+            final List<IntersectionTransition> path = prefix(v);
+            path.addAll(loop);
+            return Pair.of(path, loop.size());
         }
-        if (counterexamples.isEmpty()) {
-            return Pair.of(new ArrayList<>(), 0);
-        } else {
-            int minIndex = 0;
-            // the counterexample of the minimum effective length
-            // (looping parts can be more expensive)
-            // if the lengths are equal, then with the minimum loop size
-            for (int i = 1; i < counterexamples.size(); i++) {
-                final int currentSize = counterexamples.get(i).getLeft().size();
-                final int bestSize = counterexamples.get(minIndex).getLeft().size();
-                final int currentLoopSize = counterexamples.get(i).getRight();
-                final int bestLoopSize = counterexamples.get(minIndex).getRight();
-                
-                final int currentEffSize = currentSize + currentLoopSize * (LOOP_WEIGHT - 1);
-                final int bestEffSize = bestSize + bestLoopSize * (LOOP_WEIGHT - 1);
-
-                if (currentEffSize < bestEffSize
-                        || currentEffSize == bestEffSize && currentLoopSize < bestLoopSize) {
-                    minIndex = i;
+    }
+
+    /*
+     * Nodes are processed in the BFS order, a separate BFS for the shortest loop is run from each accepting node.
+     */
+    private List<Pair<List<IntersectionTransition>, Integer>> nestedBfs(Product product, boolean[] finite,
+            int limit) {
+        final List<Pair<List<IntersectionTransition>, Integer>> counterexamples = new ArrayList<>();
+        final FiniteCounterexamples finiteCounterexamples = new FiniteCounterexamples(limit);
+        for (int v = 0; v < product.size; v++) {
+            final IntersectionNode node = product.automata.node(v);
+            if (finite[node.buchiIndex]) {
+                finiteCounterexamples.add(product, v);
+            }
+            if (node.terminal) {
+                final List<IntersectionTransition> loop = product.shortestLoop(v, null, Integer.MAX_VALUE);
+                if (loop != null) {
+                    counterexamples.add(product.lasso(v, loop));
                 }
             }
-            return counterexamples.get(minIndex);
         }
+        counterexamples.addAll(finiteCounterexamples.list);
+        return counterexamples;
     }
-    
-    private void secondBfs(IntersectionNode initialNode, QueueElement parentQueueElement,
-            List<Pair<List<IntersectionTransition>, Integer>> counterexamples,
-            Set<IntersectionNode> visited) {
-        final Deque<QueueElement> queue = new LinkedList<>();
-        queue.addLast(new QueueElement(new IntersectionTransition(null, initialNode), null));
-        
-        while (!queue.isEmpty()) {
-            final QueueElement element = queue.pollFirst();
-            if (visited.contains(element.dest)) {
-                if (element.dest == initialNode && element.predecessor != null) {
-                    // found a loop
-                    final List<IntersectionTransition> path = new ArrayList<>();
-                    QueueElement elem = element;
-                    do {
-                        path.add(elem.trans);
-                        elem = elem.predecessor;
-                    } while (elem != null);
-                    path.remove(path.size() - 1);
-                    int loopLength = path.size();
-                    elem = parentQueueElement;
-                    do {
-                        path.add(elem.trans);
-                        elem = elem.predecessor;
-                    } while (elem != null);
-                    path.remove(path.size() - 1);
-                    Collections.reverse(path);
-                    counterexamples.add(Pair.of(path, loopLength));
-                    return;
-                }
-            } else {
-                visited.add(element.dest);
-                IntersectionTransition trans;
-                element.dest.resetIterator();
-                
-                while ((trans = element.dest.next()) != null) {
-                    if (trans.transition.event != null) {
-                        queue.addLast(new QueueElement(trans, element));
-                    }
+
+    /*
+     * Paths to the first nodes (in the BFS order) with finite counterexamples, at most limit distinct ones.
+     */
+    private static class FiniteCounterexamples {
+        final int limit;
+        final List<Pair<List<IntersectionTransition>, Integer>> list = new ArrayList<>();
+        final Set<List<StateTransition>> paths = new HashSet<>();
+
+        FiniteCounterexamples(int limit) {
+            this.limit = limit;
+        }
+
+        void add(Product product, int v) {
+            if (list.size() < limit) {
+                final List<IntersectionTransition> path = product.prefix(v);
+                if (paths.add(stateTransitions(path))) {
+                    list.add(Pair.of(path, 0));
                 }
             }
         }
     }
+
+    private static List<StateTransition> stateTransitions(List<IntersectionTransition> path) {
+        return path.stream().map(t -> t.transition).collect(Collectors.toList());
+    }
+
+    private int effectiveLength(Pair<List<IntersectionTransition>, Integer> counterexample) {
+        return counterexample.getLeft().size() + counterexample.getRight() * (loopWeight - 1);
+    }
+
+    /*
+     * Returns at most limit distinct counterexamples, the shortest first.
+     * Counterexamples are ordered by the effective length (looping parts can be more expensive),
+     * then by the loop length, then by the order of candidates.
+     */
+    private List<Pair<List<IntersectionTransition>, Integer>> select(
+            List<Pair<List<IntersectionTransition>, Integer>> candidates, int limit) {
+        final List<Pair<List<IntersectionTransition>, Integer>> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingInt(this::effectiveLength).thenComparingInt(Pair::getRight));
+        final List<Pair<List<IntersectionTransition>, Integer>> result = new ArrayList<>();
+        final Set<Pair<List<StateTransition>, Integer>> selected = new HashSet<>();
+        for (Pair<List<IntersectionTransition>, Integer> counterexample : sorted) {
+            if (result.size() == limit) {
+                break;
+            }
+            if (selected.add(Pair.of(stateTransitions(counterexample.getLeft()), counterexample.getRight()))) {
+                result.add(counterexample);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * For each nontrivial component, the lasso through its first accepting node, whose loop is found by a single
+     * BFS restricted to the component. Each node is thus visited by at most one loop search.
+     */
+    private List<Pair<List<IntersectionTransition>, Integer>> sccSearch(Product product, boolean[] finite,
+            int limit) {
+        final StronglyConnectedComponents components = new StronglyConnectedComponents(product.successors);
+        final boolean[] searched = new boolean[components.count()];
+        // candidates in the order of their accepting nodes, as in nestedBfs()
+        final List<Pair<List<IntersectionTransition>, Integer>> counterexamples = new ArrayList<>();
+        for (int v = 0; v < product.size; v++) {
+            final int c = components.component(v);
+            if (searched[c] || !components.isNontrivial(c) || !product.automata.node(v).terminal) {
+                continue;
+            }
+            searched[c] = true;
+            final List<IntersectionTransition> loop = product.shortestLoop(v, components.components(),
+                    Integer.MAX_VALUE);
+            if (loop == null) {
+                throw new AssertionError("No loop in a nontrivial component");
+            }
+            counterexamples.add(product.lasso(v, loop));
+        }
+
+        final FiniteCounterexamples finiteCounterexamples = new FiniteCounterexamples(limit);
+        for (int v = 0; v < product.size && finiteCounterexamples.list.size() < limit; v++) {
+            if (finite[product.automata.node(v).buchiIndex]) {
+                finiteCounterexamples.add(product, v);
+            }
+        }
+        counterexamples.addAll(finiteCounterexamples.list);
+        return counterexamples;
+    }
 }
@@ -0,0 +1,118 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.Arrays;
+
+/*
+ * Strongly connected components of a graph given by successor arrays (iterative Tarjan's algorithm).
+ * Components are numbered in the reverse topological order: all components reachable from a component
+ * have smaller numbers.
+ * Used by SimpleVerifier (products) and FiniteCounterexampleNodeSearcher (Buchi automata).
+ */
+class StronglyConnectedComponents {
+    private final int[] component;
+    private final int[][] members;
+    // the component has a cycle: it has several nodes or a self-loop
+    private final boolean[] nontrivial;
+
+    StronglyConnectedComponents(int[][] successors) {
+        final int n = successors.length;
+        component = new int[n];
+        final int[] sizes = new int[n];
+        final int[] order = new int[n];
+        final int[] lowlink = new int[n];
+        final int[] edgeIndex = new int[n];
+        final boolean[] onStack = new boolean[n];
+        final int[] stack = new int[n];
+        final int[] callStack = new int[n];
+        Arrays.fill(order, -1);
+        int stackSize = 0;
+        int counter = 0;
+        int count = 0;
+        for (int root = 0; root < n; root++) {
+            if (order[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            callStack[0] = root;
+            order[root] = lowlink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                final int v = callStack[depth];
+                if (edgeIndex[v] < successors[v].length) {
+                    final int w = successors[v][edgeIndex[v]++];
+                    if (order[w] == -1) {
+                        order[w] = lowlink[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[++depth] = w;
+                    } else if (onStack[w]) {
+                        lowlink[v] = Math.min(lowlink[v], order[w]);
+                    }
+                } else {
+                    if (lowlink[v] == order[v]) {
+                        int w;
+                        do {
+                            w = stack[--stackSize];
+                            onStack[w] = false;
+                            component[w] = count;
+                            sizes[count]++;
+                        } while (w != v);
+                        count++;
+                    }
+                    if (--depth >= 0) {
+                        final int u = callStack[depth];
+                        lowlink[u] = Math.min(lowlink[u], lowlink[v]);
+                    }
+                }
+            }
+        }
+
+        members = new int[count][];
+        nontrivial = new boolean[count];
+        for (int c = 0; c < count; c++) {
+            members[c] = new int[sizes[c]];
+            nontrivial[c] = sizes[c] > 1;
+            sizes[c] = 0;
+        }
+        for (int v = 0; v < n; v++) {
+            final int c = component[v];
+            members[c][sizes[c]++] = v;
+            for (int w : successors[v]) {
+                if (w == v) {
+                    nontrivial[c] = true;
+                }
+            }
+        }
+    }
+
+    int count() {
+        return members.length;
+    }
+
+    int component(int v) {
+        return component[v];
+    }
+
+    /*
+     * The component of each node.
+     */
+    int[] components() {
+        return component;
+    }
+
+    /*
+     * Nodes of the component in the increasing order.
+     */
+    int[] members(int c) {
+        return members[c];
+    }
+
+    boolean isNontrivial(int c) {
+        return nontrivial[c];
+    }
+}
@@ -5,6 +5,7 @@ package verification.verifier;
  */
 
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Logger;
@@ -19,6 +20,17 @@ import verification.ltl.LtlParseException;
 import verification.ltl.buchi.translator.TranslationException;
 
 public class Verifier {
+    public enum Backend {
+        /*
+         * Explicit construction of the product with the Buchi automaton (SimpleVerifier).
+         */
+        EXPLICIT,
+        /*
+         * Bounded model checking with a SAT solver (BoundedVerifier).
+         */
+        BOUNDED
+    }
+
     private final List<String> ltlFormulae;
     private final Set<String> allEvents;
     private final Set<String> allActions;
@@ -27,11 +39,16 @@ public class Verifier {
     public Verifier(Logger logger, List<String> ltlFormulae, List<String> events, List<String> actions) {
         this(logger, ltlFormulae, events, actions, false);
     }
+
+    public Verifier(Logger logger, List<String> ltlFormulae, List<String> events, List<String> actions,
+                    VerifierOptions options) {
+        this(logger, ltlFormulae, events, actions, false, options);
+    }
     
     public static final String G_REGEX = "^ *G *\\(.*$";
     
     public Verifier globalVerifier() {
-        final VerifierFactory globalFactory = new VerifierFactory(true);
+        final VerifierFactory globalFactory = new VerifierFactory(true, verifier.options());
         
         final List<String> projection = ltlFormulae.stream()
                 .filter(f -> f.matches(G_REGEX))
@@ -54,16 +71,22 @@ public class Verifier {
         
     public Verifier(Logger logger, List<String> ltlFormulae, List<String> events, List<String> actions,
                     boolean verifyFromAllStates) {
+        this(logger, ltlFormulae, events, actions, verifyFromAllStates, new VerifierOptions());
+    }
+
+    public Verifier(Logger logger, List<String> ltlFormulae, List<String> events, List<String> actions,
+                    boolean verifyFromAllStates, VerifierOptions options) {
         this.ltlFormulae = ltlFormulae;
         logger.info(ltlFormulae.toString());
 
         allEvents = new TreeSet<>(events);
         allActions = new TreeSet<>(actions);
         ensureContextSufficiency();
-        verifier = new VerifierFactory(verifyFromAllStates);
+        verifier = new VerifierFactory(verifyFromAllStates, options);
 
         try {
             verifier.prepareFormulas(ltlFormulae);
+            logger.info("LTL PREPROCESSING: " + verifier.automataStatistics());
         } catch (TranslationException e) {
             logger.warning("Caught TranslationException: " + e.getMessage());
             e.printStackTrace();
@@ -122,8 +145,39 @@ public class Verifier {
         }
     }
     
+    /*
+     * Makes looping counterexamples this many times more expensive than non-looping ones
+     * when the shortest counterexample is chosen.
+     */
+    public void setLoopWeight(int weight) {
+        verifier.setLoopWeight(weight);
+    }
+    
+    /*
+     * Summary of the reuse of the previous verification in the last one (see ProductCache).
+     */
+    public String incrementalStatistics() {
+        return verifier.incrementalStatistics();
+    }
+    
     public boolean verify(MealyAutomaton a) {
-        return verifyWithCounterexamples(a).stream().allMatch(Counterexample::isEmpty);
+        verifier.configureDetMealyMachine(removeDeadEnds(a));
+        return !verifier.firstCounterexample().isPresent();
+    }
+    
+    /*
+     * The counterexample for the first violated formula, if any.
+     */
+    public Optional<Counterexample> firstCounterexampleWithNoDeadEndRemoval(MealyAutomaton a) {
+        verifier.configureDetMealyMachine(a);
+        return verifier.firstCounterexample();
+    }
+
+    /*
+     * Whether counterexamples may start in any state rather than in the initial one.
+     */
+    public boolean verifiesFromAllStates() {
+        return verifier.verifiesFromAllStates();
     }
     
     public List<Counterexample> verifyWithCounterexamples(MealyAutomaton a) {
@@ -135,6 +189,15 @@ public class Verifier {
         return verifier.verify();
     }
     
+    /*
+     * At most batchSize counterexamples for each formula (see VerifierFactory.verifyBatch()).
+     */
+    public List<List<Counterexample>> verifyWithCounterexampleBatchesWithNoDeadEndRemoval(MealyAutomaton a,
+            int batchSize) {
+        verifier.configureDetMealyMachine(a);
+        return verifier.verifyBatch(batchSize);
+    }
+    
     public List<Counterexample> verifyNondetMoore(NondetMooreAutomaton a) {
         verifier.configureNondetMooreMachine(a);
         return verifier.verify();
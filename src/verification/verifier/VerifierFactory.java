@@ -14,6 +14,7 @@ import structures.moore.NondetMooreAutomaton;
 import verification.ltl.GrammarConverter;
 import verification.ltl.LtlParseException;
 import verification.ltl.LtlParser;
+import verification.ltl.LtlSimplifier;
 import verification.ltl.buchi.BuchiAutomaton;
 import verification.ltl.buchi.BuchiNode;
 import verification.ltl.buchi.translator.JLtl2baTranslator;
@@ -25,7 +26,9 @@ import verification.statemachine.StateMachine;
 import verification.statemachine.StateTransition;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author kegorov
@@ -36,26 +39,89 @@ public class VerifierFactory {
     private final PredicateFactory predicates = new PredicateFactory();
     
     private final List<BuchiAutomaton> preparedFormulae = new ArrayList<>();
+    // predicates of all formulae, transitions of the machine are labeled over them
+    private final AtomIndex atoms = new AtomIndex();
+    private final List<CompiledBuchiAutomaton> compiledFormulae = new ArrayList<>();
     private final List<Set<BuchiNode>> finiteCounterexampleBuchiStates = new ArrayList<>();
+    private final List<ProductCache> productCaches = new ArrayList<>();
+    // signatures of the states of the last verified machine and their versions by state index (see ProductCache)
+    private String[] stateSignatures = new String[0];
+    private int[] stateVersions = new int[0];
+    private int lastStateVersion = 0;
     private final List<LtlNode> preparedLtlNodes = new ArrayList<>();
+    // for each formula, the indices of the automata of its conjuncts
+    private final List<int[]> formulaAutomata = new ArrayList<>();
+    private final Map<String, Integer> automatonIndices = new HashMap<>();
+    // for each automaton, the first formula which has it as a conjunct
+    private final List<Integer> automatonFormulae = new ArrayList<>();
     
     private final boolean verifyFromAllStates;
+    private final VerifierOptions options;
+    private int loopWeight = 1;
+    // verifiers of the current machine, created by prepareVerification() and released by finishVerification()
+    private SimpleVerifier simpleVerifier;
+    private BoundedVerifier boundedVerifier;
     
+    boolean verifiesFromAllStates() {
+        return verifyFromAllStates;
+    }
+
     public VerifierFactory(boolean verifyFromAllStates) {
+        this(verifyFromAllStates, new VerifierOptions());
+    }
+
+    public VerifierFactory(boolean verifyFromAllStates, VerifierOptions options) {
         this.verifyFromAllStates = verifyFromAllStates;
+        this.options = options;
+    }
+
+    VerifierOptions options() {
+        return options;
+    }
+    
+    public void setLoopWeight(int loopWeight) {
+        this.loopWeight = loopWeight;
     }
 
     public void prepareFormulas(List<String> formulas) throws LtlParseException {
          final JLtl2baTranslator translator = new JLtl2baTranslator();
 
-         for (LtlNode node : LtlParser.parse(formulas, new GrammarConverter(predicates))) {
-             preparedLtlNodes.add(node);
-             preparedFormulae.add(translator.translate(LtlUtils.getInstance().neg(node)));
+         final List<LtlNode> nodes = LtlParser.parse(formulas, new GrammarConverter(predicates));
+         preparedLtlNodes.addAll(nodes);
+         final List<List<LtlNode>> conjuncts = options.preprocessing() ? LtlSimplifier.preprocess(nodes)
+                 : nodes.stream().map(Collections::singletonList).collect(Collectors.toList());
+         for (List<LtlNode> formulaConjuncts : conjuncts) {
+             final int[] indices = new int[formulaConjuncts.size()];
+             for (int i = 0; i < indices.length; i++) {
+                 final LtlNode node = formulaConjuncts.get(i);
+                 Integer index = automatonIndices.get(node.toString());
+                 if (index == null) {
+                     index = preparedFormulae.size();
+                     automatonIndices.put(node.toString(), index);
+                     automatonFormulae.add(formulaAutomata.size());
+                     final Pair<BuchiAutomaton, Set<BuchiNode>> translation =
+                             options.buchiCache().translate(LtlUtils.getInstance().neg(node), translator);
+                     preparedFormulae.add(translation.getLeft());
+                     finiteCounterexampleBuchiStates.add(translation.getRight());
+                 }
+                 indices[i] = index;
+             }
+             formulaAutomata.add(indices);
          }
          
-         finiteCounterexampleBuchiStates.addAll(preparedFormulae.stream()
-                 .map(FiniteCounterexampleNodeSearcher::findCounterexampleBuchiStates)
-                 .collect(Collectors.toList()));
+         preparedFormulae.forEach(buchi -> compiledFormulae.add(new CompiledBuchiAutomaton(buchi, atoms)));
+         preparedFormulae.forEach(buchi -> productCaches.add(new ProductCache(buchi.nodes().size())));
+    }
+
+    /*
+     * Sizes of the Buchi automata of the prepared formulae.
+     */
+    public String automataStatistics() {
+        final int nodes = preparedFormulae.stream().mapToInt(buchi -> buchi.nodes().size()).sum();
+        final int transitions = preparedFormulae.stream()
+                .mapToInt(buchi -> buchi.nodes().stream().mapToInt(n -> n.getTransitions().size()).sum()).sum();
+        return String.format("%d FORMULAE, %d BUCHI AUTOMATA, %d NODES, %d TRANSITIONS",
+                formulaAutomata.size(), preparedFormulae.size(), nodes, transitions);
     }
         
     public void configureDetMealyMachine(MealyAutomaton automaton) {
@@ -122,25 +188,192 @@ public class VerifierFactory {
         this.machine = machine;
     }
     
+    private void prepareVerification() {
+        for (SimpleState state : machine.states()) {
+            for (StateTransition t : state.outgoingTransitions()) {
+                t.setLabel(atoms.label(state, t));
+            }
+        }
+        updateStateVersions();
+        productCaches.forEach(cache -> cache.startVerification(stateVersions));
+        if (options.backend() == Verifier.Backend.BOUNDED) {
+            boundedVerifier = new BoundedVerifier(machine, atoms.size(), options);
+        } else {
+            simpleVerifier = new SimpleVerifier(machine, loopWeight, options.emptinessCheck());
+        }
+    }
+
+    /*
+     * The solver session of the bounded verifier is only needed while the machine is verified.
+     */
+    private void finishVerification() {
+        if (boundedVerifier != null) {
+            boundedVerifier.close();
+            boundedVerifier = null;
+        }
+    }
+
+    /*
+     * A state index gets a new version if the signature of its state differs from the one in the previous machine.
+     * A new array is created, since the caches may keep the previous one.
+     */
+    private void updateStateVersions() {
+        final int size = Math.max(machine.size(), stateVersions.length);
+        final String[] current = new String[size];
+        for (SimpleState state : machine.states()) {
+            current[state.index()] = state.signature();
+        }
+        final String[] signatures = Arrays.copyOf(stateSignatures, size);
+        final int[] versions = Arrays.copyOf(stateVersions, size);
+        for (int i = 0; i < size; i++) {
+            if (current[i] == null || !current[i].equals(signatures[i])) {
+                signatures[i] = current[i];
+                versions[i] = ++lastStateVersion;
+            }
+        }
+        stateSignatures = signatures;
+        stateVersions = versions;
+    }
+
+    /*
+     * Summary of the reuse of products in the last verification.
+     */
+    public String incrementalStatistics() {
+        final long reusedResults = productCaches.stream().filter(ProductCache::resultReused).count();
+        final int reusedNodes = productCaches.stream().mapToInt(ProductCache::reusedNodes).sum();
+        final int expandedNodes = productCaches.stream().mapToInt(ProductCache::expandedNodes).sum();
+        final long savedTime = productCaches.stream().mapToLong(ProductCache::savedTime).sum();
+        return String.format("%d/%d RESULTS REUSED, %d/%d PRODUCT NODES REUSED, ~%.1f MS SAVED",
+                reusedResults, productCaches.size(), reusedNodes, reusedNodes + expandedNodes, savedTime / 1e6);
+    }
+
+    /*
+     * Each automaton is verified once, since automata are shared by formulae.
+     * Different automata have different product caches and can thus be verified concurrently.
+     */
+    private IntStream automatonIndices() {
+        final IntStream indices = IntStream.range(0, preparedFormulae.size());
+        return options.parallel() && preparedFormulae.size() > 1 ? indices.parallel() : indices;
+    }
+
+    /*
+     * Counterexamples of all automata, in the order of the automata.
+     */
+    private List<List<Counterexample>> verifyAutomata(int limit) {
+        final List<List<Counterexample>> results = new ArrayList<>(Collections.nCopies(preparedFormulae.size(), null));
+        automatonIndices().forEach(i -> results.set(i, verifyAutomaton(i, limit)));
+        return results;
+    }
+
+    /*
+     * Returns counterexamples for all formulae, in the order of the formulae.
+     */
     public List<Counterexample> verify() {
+        prepareVerification();
+        final List<List<Counterexample>> results;
+        try {
+            results = verifyAutomata(1);
+        } finally {
+            finishVerification();
+        }
+        return IntStream.range(0, formulaAutomata.size()).mapToObj(i -> verify(i, results))
+                .collect(Collectors.toList());
+    }
+
+    /*
+     * Returns the counterexample for the first violated formula, or Optional.empty() if all formulae hold.
+     * Automata which only occur in formulae after an already found violation are skipped.
+     */
+    public Optional<Counterexample> firstCounterexample() {
+        prepareVerification();
+        final List<List<Counterexample>> results = new ArrayList<>(Collections.nCopies(preparedFormulae.size(), null));
+        final AtomicInteger firstViolated = new AtomicInteger(Integer.MAX_VALUE);
+        try {
+            automatonIndices().filter(i -> automatonFormulae.get(i) <= firstViolated.get()).forEach(i -> {
+                final List<Counterexample> counterexamples = verifyAutomaton(i, 1);
+                results.set(i, counterexamples);
+                if (!counterexamples.isEmpty()) {
+                    // all formulae with this conjunct are violated
+                    firstViolated.accumulateAndGet(automatonFormulae.get(i), Math::min);
+                }
+            });
+        } finally {
+            finishVerification();
+        }
+        // all automata of the first violated formula have been verified
+        final int first = firstViolated.get();
+        return first == Integer.MAX_VALUE ? Optional.empty() : Optional.of(verify(first, results));
+    }
+
+    /*
+     * Returns at most limit distinct counterexamples for each formula, in the order of the formulae.
+     * The first counterexample of a formula is the one returned by verify(), the others are the next shortest ones.
+     * The list of a formula is empty if it holds.
+     * With the BOUNDED backend, at most one counterexample is returned for each formula.
+     */
+    public List<List<Counterexample>> verifyBatch(int limit) {
+        prepareVerification();
+        final List<List<Counterexample>> results;
+        try {
+            results = verifyAutomata(limit);
+        } finally {
+            finishVerification();
+        }
+        return IntStream.range(0, formulaAutomata.size()).mapToObj(i -> verify(i, limit, results))
+                .collect(Collectors.toList());
+    }
+
+    private Counterexample verify(int formulaIndex, List<List<Counterexample>> results) {
+        final List<Counterexample> counterexamples = verify(formulaIndex, 1, results);
+        return counterexamples.isEmpty()
+                ? new Counterexample(Collections.emptyList(), Collections.emptyList(), 0)
+                : counterexamples.get(0);
+    }
+
+    /*
+     * Counterexamples of a formula are the ones of its conjuncts, the shortest first (as in SimpleVerifier).
+     * results are the counterexamples of the automata verified in the current call.
+     */
+    private List<Counterexample> verify(int formulaIndex, int limit, List<List<Counterexample>> results) {
+        final int[] automata = formulaAutomata.get(formulaIndex);
+        if (automata.length == 1) {
+            return results.get(automata[0]);
+        }
         final List<Counterexample> counterexamples = new ArrayList<>();
-        final SimpleVerifier verifier = new SimpleVerifier(machine.initialState());
-        for (int i = 0; i < preparedFormulae.size(); i++) {
-            final BuchiAutomaton buchi = preparedFormulae.get(i);
-            final Pair<List<IntersectionTransition>, Integer> list = verifier.verify(buchi, predicates,
-                    finiteCounterexampleBuchiStates.get(i));
-            
-            if (!list.getLeft().isEmpty()) {
-                final List<String> eventList = list.getLeft().stream().map(t -> t.transition.event)
-                        .collect(Collectors.toList());
-                final List<List<String>> actionList = list.getLeft().stream().map(t -> t.transition.getActions())
-                        .collect(Collectors.toList());
-                counterexamples.add(new Counterexample(eventList, actionList, list.getRight()));
-            } else {
-                counterexamples.add(new Counterexample(Collections.emptyList(), Collections.emptyList(), 0));
-            }
+        for (int automaton : automata) {
+            counterexamples.addAll(results.get(automaton));
+        }
+        return counterexamples.stream()
+                .sorted(Comparator.comparingInt((Counterexample ce) -> ce.events().size()
+                        + ce.loopLength * (loopWeight - 1)).thenComparingInt(ce -> ce.loopLength))
+                .distinct().limit(limit).collect(Collectors.toList());
+    }
+
+    private List<Counterexample> verifyAutomaton(int formulaIndex, int limit) {
+        final List<Pair<List<StateTransition>, Integer>> lists;
+        if (options.backend() == Verifier.Backend.BOUNDED) {
+            lists = Collections.singletonList(boundedVerifier.verify(compiledFormulae.get(formulaIndex),
+                    finiteCounterexampleBuchiStates.get(formulaIndex)));
+        } else {
+            lists = simpleVerifier.verify(compiledFormulae.get(formulaIndex),
+                    finiteCounterexampleBuchiStates.get(formulaIndex),
+                    options.incremental() ? productCaches.get(formulaIndex) : null, limit).stream()
+                    .map(list -> Pair.of(list.getLeft().stream().map(t -> t.transition)
+                            .collect(Collectors.toList()), list.getRight()))
+                    .collect(Collectors.toList());
+        }
+        if (lists.isEmpty() || lists.get(0).getLeft().isEmpty()) {
+            // the shortest counterexample is empty: the formula is considered to hold
+            return Collections.emptyList();
         }
-        return counterexamples;
+        return lists.stream()
+                .map(list -> {
+                    final List<String> eventList = list.getLeft().stream().map(t -> t.event)
+                            .collect(Collectors.toList());
+                    final List<List<String>> actionList = list.getLeft().stream().map(StateTransition::getActions)
+                            .collect(Collectors.toList());
+                    return new Counterexample(eventList, actionList, list.getRight());
+                }).collect(Collectors.toList());
     }
 
     private String extractEvent(String input) {
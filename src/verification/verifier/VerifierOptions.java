@@ -0,0 +1,124 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import sat_solving.SatSolver;
+import sat_solving.SolverOptions;
+
+/*
+ * Configuration of the LTL model checker, given to Verifier on construction.
+ * Setters return this object. Options must not be changed after they have been given to a verifier,
+ * since verifiers share them.
+ */
+public class VerifierOptions {
+    private SimpleVerifier.EmptinessCheck emptinessCheck = SimpleVerifier.EmptinessCheck.NESTED_BFS;
+    private boolean parallel = false;
+    private boolean incremental = true;
+    private boolean preprocessing = true;
+    private BuchiCache buchiCache = new BuchiCache();
+    private Verifier.Backend backend = Verifier.Backend.EXPLICIT;
+    private SolverOptions boundedSolver = new SolverOptions(SatSolver.EMBEDDED);
+    private int maxBound = 0;
+
+    public VerifierOptions setEmptinessCheck(SimpleVerifier.EmptinessCheck emptinessCheck) {
+        this.emptinessCheck = emptinessCheck;
+        return this;
+    }
+
+    SimpleVerifier.EmptinessCheck emptinessCheck() {
+        return emptinessCheck;
+    }
+
+    /*
+     * If set, the Buchi automata of the formulae are verified concurrently in the common fork-join pool.
+     * This is safe since verification only reads the state machine and the prepared Buchi automata:
+     * predicate values are precomputed in transition labels.
+     * Off by default: synthesis with several sizes (ParallelSizeSearch) or parallel backtracking
+     * already uses the available processors, and nested pools would only compete for them.
+     */
+    public VerifierOptions setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    boolean parallel() {
+        return parallel;
+    }
+
+    /*
+     * If set, the product of each formula is kept between the verification of successive automata,
+     * and only the parts of the product with changed states are explored again (see ProductCache).
+     */
+    public VerifierOptions setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    boolean incremental() {
+        return incremental;
+    }
+
+    /*
+     * Translations of formulae are shared by all verifiers with these options.
+     * By default, they are only kept in memory.
+     */
+    public VerifierOptions setBuchiCache(BuchiCache buchiCache) {
+        this.buchiCache = buchiCache;
+        return this;
+    }
+
+    BuchiCache buchiCache() {
+        return buchiCache;
+    }
+
+    /*
+     * If set, formulae are simplified and split into conjuncts before their translation (see LtlSimplifier).
+     * Formulae and conjuncts with equal string representations share a Buchi automaton in any case.
+     */
+    public VerifierOptions setPreprocessing(boolean preprocessing) {
+        this.preprocessing = preprocessing;
+        return this;
+    }
+
+    boolean preprocessing() {
+        return preprocessing;
+    }
+
+    public VerifierOptions setBackend(Verifier.Backend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    Verifier.Backend backend() {
+        return backend;
+    }
+
+    /*
+     * The SAT solver of the BOUNDED backend.
+     */
+    public VerifierOptions setBoundedSolver(SolverOptions boundedSolver) {
+        this.boundedSolver = boundedSolver;
+        return this;
+    }
+
+    SolverOptions boundedSolver() {
+        return boundedSolver;
+    }
+
+    /*
+     * The maximum counterexample length of the BOUNDED backend, 0 for the complete bound.
+     */
+    public VerifierOptions setMaxBound(int maxBound) {
+        if (maxBound < 0) {
+            throw new IllegalArgumentException("The bound must be non-negative.");
+        }
+        this.maxBound = maxBound;
+        return this;
+    }
+
+    int maxBound() {
+        return maxBound;
+    }
+}